@@ -0,0 +1,58 @@
+package sweng.penelope.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import sweng.penelope.entities.ChangeRecord;
+
+/**
+ * Prefix lookups and builds of a {@link NameTrie} over generated bird names.
+ * Run with <code>./gradlew jmh</code>.
+ */
+@State(Scope.Benchmark)
+public class NameTrieBenchmark {
+    private static final String[] WORDS = { "grey", "heron", "mute", "swan", "mallard", "duck", "greylag", "goose",
+            "tufted", "coot", "moorhen", "little", "grebe", "great", "crested", "common", "tern", "black", "headed",
+            "gull", "herring", "kingfisher", "reed", "warbler", "sedge", "bunting", "pied", "wagtail", "robin",
+            "wren" };
+    private static final String[] PREFIXES = { "g", "gr", "gre", "grey", "grey h", "he", "herr", "m", "mal", "k",
+            "kingf", "w", "wa", "zz" };
+
+    @Param({ "1000", "100000" })
+    private int names;
+
+    private List<NameEntry> entries;
+    private NameTrie nameTrie;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        entries = new ArrayList<>();
+        for (long id = 0; id < names; id++) {
+            String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " "
+                    + id;
+            entries.add(new NameEntry(ChangeRecord.BIRD, id, id % 50, name));
+        }
+
+        nameTrie = NameTrie.build(entries, 10);
+    }
+
+    @Benchmark
+    public List<NameEntry> complete() {
+        next = (next + 1) % PREFIXES.length;
+        return nameTrie.complete(PREFIXES[next], 10);
+    }
+
+    @Benchmark
+    public NameTrie build() {
+        return NameTrie.build(entries, 10);
+    }
+}
@@ -0,0 +1,31 @@
+package db.migration;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+/**
+ * Creates the sequence bird ids are taken from, replacing the identity
+ * column so that bird inserts can be batched. Hibernate reserves blocks of
+ * 50 ids and uses the sequence value as the top of the block, hence the
+ * sequence starts 50 past the highest id in use.
+ */
+public class V3__Bird_sequence extends BaseJavaMigration {
+    private static final int ALLOCATION_SIZE = 50;
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        try (Statement statement = context.getConnection().createStatement()) {
+            long maxId;
+            try (ResultSet resultSet = statement.executeQuery("SELECT COALESCE(MAX(id), 0) FROM bird")) {
+                resultSet.next();
+                maxId = resultSet.getLong(1);
+            }
+
+            statement.execute(String.format("CREATE SEQUENCE bird_seq START WITH %d INCREMENT BY %d",
+                    maxId + ALLOCATION_SIZE, ALLOCATION_SIZE));
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package sweng.penelope;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import sweng.penelope.controllers.CacheUtils;
+
+/**
+ * Spring cache configuration. Caches are kept in memory maps, as with
+ * <code>spring.cache.type=simple</code>, except for the paged xml caches:
+ * their keys come from the request, so they hold at most
+ * <code>penelope.pagination.cached-pages</code> pages each, least recently
+ * used evicted first.
+ */
+@Configuration
+public class CacheConfig {
+    private static final Set<String> PAGE_CACHES = Set.of(CacheUtils.CAMPUS_PAGES, CacheUtils.CAMPUSES_LIST_PAGES);
+
+    @Value("${penelope.pagination.cached-pages}")
+    private long cachedPages;
+
+    @Bean
+    public CacheManager cacheManager() {
+        return new ConcurrentMapCacheManager() {
+            @Override
+            protected Cache createConcurrentMapCache(String name) {
+                if (!PAGE_CACHES.contains(name))
+                    return super.createConcurrentMapCache(name);
+
+                // Evicts on the calling thread, so the bound holds as soon as a page is put
+                ConcurrentMap<Object, Object> pages = Caffeine.newBuilder()
+                        .maximumSize(cachedPages)
+                        .executor(Runnable::run)
+                        .build()
+                        .asMap();
+                return new ConcurrentMapCache(name, pages, isAllowNullValues());
+            }
+        };
+    }
+}
@@ -0,0 +1,71 @@
+package sweng.penelope;
+
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+
+/**
+ * Hibernate second-level cache configuration. Campuses, birds and users are
+ * cached in Caffeine backed JCache regions, each with its own time to live
+ * (<code>penelope.cache.region.&lt;region&gt;.ttl</code>) and size
+ * (<code>max-size</code>), falling back to the defaults.
+ */
+@Configuration
+public class HibernateCacheConfig {
+    private static final String[] REGIONS = { "campuses", "campus-birds", "birds", "users", "user-campuses",
+            "queries", "default-query-results-region" };
+    // Must outlive the query results relying on it
+    private static final String TIMESTAMPS_REGION = "default-update-timestamps-region";
+
+    @Autowired
+    private Environment environment;
+
+    @Value("${penelope.cache.default-ttl}")
+    private long defaultTtl;
+
+    @Value("${penelope.cache.default-max-size}")
+    private long defaultMaxSize;
+
+    private CaffeineConfiguration<Object, Object> regionConfiguration(String region) {
+        long ttl = environment.getProperty(String.format("penelope.cache.region.%s.ttl", region), Long.class,
+                defaultTtl);
+        long maxSize = environment.getProperty(String.format("penelope.cache.region.%s.max-size", region),
+                Long.class, defaultMaxSize);
+
+        CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+        configuration.setExpireAfterWrite(OptionalLong.of(TimeUnit.MILLISECONDS.toNanos(ttl)));
+        configuration.setMaximumSize(OptionalLong.of(maxSize));
+        configuration.setStatisticsEnabled(true);
+
+        return configuration;
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer hibernateCacheCustomizer() {
+        CacheManager cacheManager = Caching.getCachingProvider(CaffeineCachingProvider.class.getName())
+                .getCacheManager();
+
+        // Regions may already exist, the caching provider is shared by the JVM
+        for (String region : REGIONS) {
+            if (cacheManager.getCache(region) == null)
+                cacheManager.createCache(region, regionConfiguration(region));
+        }
+        if (cacheManager.getCache(TIMESTAMPS_REGION) == null)
+            cacheManager.createCache(TIMESTAMPS_REGION, new CaffeineConfiguration<>());
+
+        return properties -> properties.put(ConfigSettings.CACHE_MANAGER, cacheManager);
+    }
+}
@@ -12,6 +12,7 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.PropertySource;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder.BCryptVersion;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -19,10 +20,12 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import sweng.penelope.auth.RSAUtils;
 import sweng.penelope.entities.DataManager;
 import sweng.penelope.repositories.DataManagerRepository;
+import sweng.penelope.services.FileSystemStorageService;
 import sweng.penelope.services.StorageService;
 
 @SpringBootApplication
 @EnableCaching
+@EnableScheduling
 @PropertySource("classpath:application-marking.properties")
 public class PenelopeApplication {
 	@Value("${penelope.adminUsername:}")
@@ -41,6 +44,13 @@ public class PenelopeApplication {
 		return args -> storageService.init();
 	}
 
+	@Bean
+	@ConditionalOnProperty(name = "penelope.storage.migrate-layout", havingValue = "true")
+	CommandLineRunner migrateStorageLayout(FileSystemStorageService fileSystemStorageService) {
+		// Move assets stored with a previous shard depth
+		return args -> fileSystemStorageService.migrateLayout();
+	}
+
 	@Bean
 	KeyPair serverKeyPair() throws NoSuchAlgorithmException {
 		return RSAUtils.generateKeys();
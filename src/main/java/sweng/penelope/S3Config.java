@@ -0,0 +1,63 @@
+package sweng.penelope;
+
+import java.net.URI;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+
+/**
+ * S3 client configuration for the object storage backend.
+ */
+@Configuration
+@ConditionalOnProperty(name = "penelope.storage.backend", havingValue = "s3")
+public class S3Config {
+    @Value("${penelope.storage.s3.endpoint:}")
+    private String endpoint;
+
+    @Value("${penelope.storage.s3.region}")
+    private String region;
+
+    @Value("${penelope.storage.s3.access-key:}")
+    private String accessKey;
+
+    @Value("${penelope.storage.s3.secret-key:}")
+    private String secretKey;
+
+    @Value("${penelope.storage.s3.path-style}")
+    private boolean pathStyle;
+
+    @Value("${penelope.storage.s3.max-connections}")
+    private int maxConnections;
+
+    @Bean(destroyMethod = "close")
+    public S3Client s3Client() {
+        S3ClientBuilder builder = S3Client.builder()
+                .region(Region.of(region))
+                // Pooled connections, shared by downloads and parallel part uploads
+                .httpClientBuilder(ApacheHttpClient.builder().maxConnections(maxConnections))
+                // S3-compatible servers (e.g. MinIO) usually expect path style urls
+                .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(pathStyle).build());
+
+        if (StringUtils.hasText(endpoint))
+            builder.endpointOverride(URI.create(endpoint));
+
+        if (StringUtils.hasText(accessKey))
+            builder.credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey)));
+        else
+            builder.credentialsProvider(DefaultCredentialsProvider.create());
+
+        return builder.build();
+    }
+}
@@ -14,6 +14,8 @@ import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 import org.springframework.web.filter.CorsFilter;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
 @Configuration
 @EnableWebSecurity
 public class SecurityConfig {
@@ -40,9 +42,11 @@ public class SecurityConfig {
 
     @Bean
     public SecurityFilterChain securityFilterChain(HttpSecurity httpSecurity,
-            UserAuthenticationManager userAuthenticationManager, KeyPair serverKeyPair) throws Exception {
+            UserAuthenticationManager userAuthenticationManager, KeyPair serverKeyPair, MeterRegistry meterRegistry)
+            throws Exception {
         // Instantiate filters
-        UserFilter userFilter = new UserFilter(userAuthenticationManager, serverKeyPair, credentialsHeader);
+        UserFilter userFilter = new UserFilter(userAuthenticationManager, serverKeyPair, credentialsHeader,
+                meterRegistry);
         ExceptionFilter exceptionFilter = new ExceptionFilter();
 
         httpSecurity.csrf().disable().requiresChannel(channel -> decideSSL(channel))
@@ -12,6 +12,8 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import sweng.penelope.repositories.CampusRepository;
 import sweng.penelope.repositories.DataManagerRepository;
 
@@ -19,14 +21,21 @@ import sweng.penelope.repositories.DataManagerRepository;
 public class UserAuthenticationManager implements AuthenticationManager {
     public static final int STALE_TIMEOUT_SECONDS = 60;
 
-    @Autowired
-    private DataManagerRepository dataManagerRepository;
-
-    @Autowired
-    private CampusRepository campusRepository;
+    private final DataManagerRepository dataManagerRepository;
+    private final CampusRepository campusRepository;
+    private final PasswordEncoder passwordEncoder;
+    private final Timer passwordTimer;
 
     @Autowired
-    private PasswordEncoder passwordEncoder;
+    public UserAuthenticationManager(DataManagerRepository dataManagerRepository, CampusRepository campusRepository,
+            PasswordEncoder passwordEncoder, MeterRegistry meterRegistry) {
+        this.dataManagerRepository = dataManagerRepository;
+        this.campusRepository = campusRepository;
+        this.passwordEncoder = passwordEncoder;
+        passwordTimer = Timer.builder("penelope.auth.password")
+                .description("Time taken to check a password against its BCrypt hash")
+                .register(meterRegistry);
+    }
 
     @Override
     public Authentication authenticate(Authentication authentication) {
@@ -45,17 +54,18 @@ public class UserAuthenticationManager implements AuthenticationManager {
             throw new ResponseStatusException(HttpStatus.UNAUTHORIZED);
         // Verify username, password and claim
         dataManagerRepository.findById(username).ifPresentOrElse(dataManager -> {
-            if (!passwordEncoder.matches(password, dataManager.getPassword()))
+            boolean matches = passwordTimer.record(() -> passwordEncoder.matches(password, dataManager.getPassword()));
+            if (!matches)
                 throw new ResponseStatusException(HttpStatus.UNAUTHORIZED);
             if (!claim.equals("admin")) {
                 if (!dataManager.isSysadmin()) {
-                    campusRepository.findById(Long.parseLong(claim)).ifPresentOrElse(campus -> {
-                        if (!dataManager.getCampuses().contains(campus)) {
-                            throw new ResponseStatusException(HttpStatus.FORBIDDEN);
-                        }
-                    }, () -> {
+                    Long campusId = Long.parseLong(claim);
+
+                    if (!campusRepository.existsById(campusId))
                         throw new ResponseStatusException(HttpStatus.NOT_FOUND);
-                    });
+                    // Checked against the rights table, the user's campuses are not loaded
+                    if (!dataManagerRepository.existsByUsernameAndCampusesId(username, campusId))
+                        throw new ResponseStatusException(HttpStatus.FORBIDDEN);
                 }
             } else if (!dataManager.isSysadmin())
                 throw new ResponseStatusException(HttpStatus.FORBIDDEN);
@@ -7,28 +7,43 @@ import javax.servlet.http.HttpServletRequest;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.web.authentication.preauth.AbstractPreAuthenticatedProcessingFilter;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
 public class UserFilter extends AbstractPreAuthenticatedProcessingFilter {
     private final String header;
     private final KeyPair serverKeyPair;
+    private final Timer decryptTimer;
 
-    public UserFilter(AuthenticationManager authenticationManager, KeyPair serverKeyPair, String header) {
+    public UserFilter(AuthenticationManager authenticationManager, KeyPair serverKeyPair, String header,
+            MeterRegistry meterRegistry) {
         super.setAuthenticationManager(authenticationManager);
         this.serverKeyPair = serverKeyPair;
 
         this.header = header;
+
+        decryptTimer = Timer.builder("penelope.auth.decrypt")
+                .description("Time taken to RSA decrypt the credentials header")
+                .register(meterRegistry);
     }
 
     @Override
     protected Object getPreAuthenticatedPrincipal(HttpServletRequest request) {
         String authHeader = request.getHeader(header);
+        if (authHeader == null)
+            return null;
 
+        Timer.Sample sample = Timer.start();
         try {
             return RSAUtils
                     .decrypt(serverKeyPair.getPrivate(), authHeader);
         } catch (Exception e) {
-            if (authHeader != null)
-                e.printStackTrace();
+            log.warn("Could not decrypt the credentials header of {}", request.getRequestURI(), e);
             return null;
+        } finally {
+            sample.stop(decryptTimer);
         }
     }
 
@@ -0,0 +1,85 @@
+package sweng.penelope.controllers;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * <code>AssetMetricsAdvice</code> records the size of every asset served, per
+ * asset type. It sits after the controller's cache, so cached responses are
+ * counted too.
+ * Range requests are left out, their size is only known once the range has
+ * been cut.
+ */
+@ControllerAdvice(assignableTypes = FileDownloadController.class)
+public class AssetMetricsAdvice implements ResponseBodyAdvice<Object> {
+    private static final String SERVE_ASSET = "serveAsset";
+    private static final Set<String> TYPES = Set.of("image", "audio", "video");
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @PostConstruct
+    private void registerMetrics() {
+        // Registered up front so the meter shows up before the first download
+        TYPES.forEach(this::servedSummary);
+    }
+
+    private DistributionSummary servedSummary(String type) {
+        return DistributionSummary.builder("penelope.assets.served")
+                .description("Size of the assets served")
+                .baseUnit("bytes")
+                .tag("type", type)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return returnType.getMethod() != null && returnType.getMethod().getName().equals(SERVE_ASSET);
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+            Class<? extends HttpMessageConverter<?>> selectedConverterType, ServerHttpRequest request,
+            ServerHttpResponse response) {
+        if (body instanceof Resource && request instanceof ServletServerHttpRequest
+                && !request.getHeaders().containsKey(HttpHeaders.RANGE)) {
+            HttpServletRequest servletRequest = ((ServletServerHttpRequest) request).getServletRequest();
+
+            @SuppressWarnings("unchecked")
+            Map<String, String> pathVariables = (Map<String, String>) servletRequest
+                    .getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+            String type = pathVariables != null ? pathVariables.get("type") : null;
+
+            // Unknown types would only be 404s, and would grow the tag set
+            if (type != null && TYPES.contains(type)) {
+                try {
+                    servedSummary(type).record(((Resource) body).contentLength());
+                } catch (IOException e) {
+                    // Size unknown, nothing to record
+                }
+            }
+        }
+
+        return body;
+    }
+}
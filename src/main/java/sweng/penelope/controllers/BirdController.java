@@ -1,13 +1,16 @@
 package sweng.penelope.controllers;
 
+import java.util.List;
 import java.util.Optional;
 
+import javax.persistence.EntityManagerFactory;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.Size;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.CacheManager;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
@@ -16,6 +19,7 @@ import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.server.ResponseStatusException;
@@ -30,6 +34,10 @@ import sweng.penelope.entities.Bird;
 import sweng.penelope.entities.Campus;
 import sweng.penelope.repositories.BirdRepository;
 import sweng.penelope.repositories.CampusRepository;
+import sweng.penelope.services.BirdBatchItem;
+import sweng.penelope.services.BirdBatchResult;
+import sweng.penelope.services.BirdBatchService;
+import sweng.penelope.services.ImageVariantService;
 import sweng.penelope.services.StorageService;
 
 /**
@@ -52,12 +60,26 @@ public class BirdController {
     private StorageService storageService;
     @Autowired
     private CacheManager cacheManager;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    @Autowired
+    private BirdBatchService birdBatchService;
+    @Autowired
+    private ImageVariantService imageVariantService;
 
     /**
      * Removes cache for Bird's assets
      * 
      * @param bird The bird to evict assets' cache for.
      */
+    /**
+     * Removes a replaced asset, along with its image variants.
+     */
+    private void removeAsset(String fileUrl) {
+        storageService.remove(fileUrl);
+        imageVariantService.removeVariants(fileUrl);
+    }
+
     private void evictBirdAssetsCache(Bird bird) {
         // Hero
         CacheUtils.evictCache(cacheManager, CacheUtils.ASSETS, bird.getHeroImageURL());
@@ -116,7 +138,10 @@ public class BirdController {
             bird = birdRepository.save(bird);
 
             CacheUtils.evictCache(cacheManager, CacheUtils.CAMPUSES, campusId);
+            CacheUtils.evictCampusPages(cacheManager, campusId);
+            CacheUtils.evictCache(cacheManager, CacheUtils.MANIFESTS, campusId);
             CacheUtils.evictCache(cacheManager, CacheUtils.BIRDS, bird.getId());
+            CacheUtils.evictCampusBirds(entityManagerFactory, campusId);
 
             evictBirdAssetsCache(bird);
 
@@ -124,6 +149,69 @@ public class BirdController {
         }).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
     }
 
+    /**
+     * Removes replaced assets and evicts the caches of a committed batch, once
+     * for the whole batch.
+     * 
+     * @param campusId ID of the campus the birds belong to
+     * @param result   The {@link BirdBatchResult}
+     * @return {@link ResponseEntity}
+     */
+    private ResponseEntity<String> completeBatch(Long campusId, BirdBatchResult result) {
+        result.getReplacedAssetUrls().forEach(this::removeAsset);
+
+        CacheUtils.evictCache(cacheManager, CacheUtils.CAMPUSES, campusId);
+        CacheUtils.evictCampusPages(cacheManager, campusId);
+        CacheUtils.evictCache(cacheManager, CacheUtils.MANIFESTS, campusId);
+        result.getUpdated().forEach(id -> CacheUtils.evictCache(cacheManager, CacheUtils.BIRDS, id));
+        result.getAssetUrls().forEach(url -> CacheUtils.evictCache(cacheManager, CacheUtils.ASSETS, url));
+        CacheUtils.evictCampusBirds(entityManagerFactory, campusId);
+
+        return ResponseEntity.ok().body(String.format("%d birds created with ids %s, %d birds updated%n",
+                result.getCreated().size(), result.getCreated(), result.getUpdated().size()));
+    }
+
+    /**
+     * Creates and updates many birds of a campus in one transaction. Birds
+     * without an id are created, the others are updated.
+     * 
+     * @param campusId       ID of the campus the birds belong to
+     * @param birds          The birds
+     * @param authentication {@link Authentication} autowired
+     * @return {@link ResponseEntity}
+     */
+    @ApiOperation("Creates and updates many birds of a campus at once.")
+    @PostMapping(path = "{campusId}/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> batchDucks(
+            @ApiParam(value = "ID of the campus the birds belong to") @PathVariable Long campusId,
+            @ApiParam(value = "The birds, created if they have no id") @RequestBody List<BirdBatchItem> birds,
+            @ApiIgnore Authentication authentication) {
+        String author = ControllerUtils.getAuthorName(authentication);
+
+        return completeBatch(campusId, birdBatchService.save(campusId, birds, author));
+    }
+
+    /**
+     * Creates and updates many birds of a campus in one transaction, from a
+     * <code>birds</code> xml document.
+     * 
+     * @param campusId       ID of the campus the birds belong to
+     * @param birdsXML       The birds xml
+     * @param authentication {@link Authentication} autowired
+     * @return {@link ResponseEntity}
+     */
+    @ApiOperation("Creates and updates many birds of a campus at once, from xml.")
+    @PostMapping(path = "{campusId}/batch", consumes = MediaType.APPLICATION_XML_VALUE)
+    public ResponseEntity<String> batchDucksXML(
+            @ApiParam(value = "ID of the campus the birds belong to") @PathVariable Long campusId,
+            @ApiParam(value = "The birds xml") @RequestBody String birdsXML,
+            @ApiIgnore Authentication authentication) {
+        String author = ControllerUtils.getAuthorName(authentication);
+        List<BirdBatchItem> birds = birdBatchService.parseXML(birdsXML);
+
+        return completeBatch(campusId, birdBatchService.save(campusId, birds, author));
+    }
+
     /**
      * Changes bird information
      * 
@@ -174,12 +262,12 @@ public class BirdController {
             String oldDietImageURL = bird.getDietImageURL();
 
             // Remove old assets
-            heroImageURL.ifPresent(s -> storageService.remove(oldHeroImageURL));
-            listImageURL.ifPresent(s -> storageService.remove(oldListImageURL));
-            soundURL.ifPresent(s -> storageService.remove(oldSoundURL));
-            aboutMeVideoURL.ifPresent(s -> storageService.remove(oldAboutMeVideoURL));
-            locationImageURL.ifPresent(s -> storageService.remove(oldLocationImageURL));
-            dietImageURL.ifPresent(s -> storageService.remove(oldDietImageURL));
+            heroImageURL.ifPresent(s -> removeAsset(oldHeroImageURL));
+            listImageURL.ifPresent(s -> removeAsset(oldListImageURL));
+            soundURL.ifPresent(s -> removeAsset(oldSoundURL));
+            aboutMeVideoURL.ifPresent(s -> removeAsset(oldAboutMeVideoURL));
+            locationImageURL.ifPresent(s -> removeAsset(oldLocationImageURL));
+            dietImageURL.ifPresent(s -> removeAsset(oldDietImageURL));
 
             // Update fields
             bird.setName(name.orElse(bird.getName()));
@@ -202,10 +290,17 @@ public class BirdController {
             bird = birdRepository.save(bird);
 
             Long currentCampus = bird.getCampus().getId();
-            if (!currentCampus.equals(previousCampus))
+            if (!currentCampus.equals(previousCampus)) {
                 CacheUtils.evictCache(cacheManager, CacheUtils.CAMPUSES, currentCampus);
+                CacheUtils.evictCampusPages(cacheManager, currentCampus);
+                CacheUtils.evictCache(cacheManager, CacheUtils.MANIFESTS, currentCampus);
+                CacheUtils.evictCampusBirds(entityManagerFactory, currentCampus);
+                CacheUtils.evictCampusBirds(entityManagerFactory, previousCampus);
+            }
 
             CacheUtils.evictCache(cacheManager, CacheUtils.CAMPUSES, previousCampus);
+            CacheUtils.evictCampusPages(cacheManager, previousCampus);
+            CacheUtils.evictCache(cacheManager, CacheUtils.MANIFESTS, previousCampus);
 
             CacheUtils.evictCache(cacheManager, CacheUtils.BIRDS, bird.getId());
 
@@ -228,9 +323,12 @@ public class BirdController {
 
         return requestDuck.map(duck -> {
             CacheUtils.evictCache(cacheManager, CacheUtils.CAMPUSES, duck.getCampus().getId());
+            CacheUtils.evictCampusPages(cacheManager, duck.getCampus().getId());
+            CacheUtils.evictCache(cacheManager, CacheUtils.MANIFESTS, duck.getCampus().getId());
             CacheUtils.evictCache(cacheManager, CacheUtils.BIRDS, duck.getId());
 
             birdRepository.delete(duck);
+            CacheUtils.evictCampusBirds(entityManagerFactory, duck.getCampus().getId());
 
             return ResponseEntity.ok().body(String.format("Bird %d removed from database.%n", id));
         }).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
@@ -1,8 +1,15 @@
 package sweng.penelope.controllers;
 
+import java.util.Map;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
 import org.springframework.cache.Cache;
 import org.springframework.cache.CacheManager;
 
+import sweng.penelope.entities.Campus;
+
 /**
  * Utility class for caching operations
  */
@@ -11,6 +18,14 @@ public class CacheUtils {
     public static final String CAMPUSES = "campuses";
     public static final String CAMPUSES_LIST = "campusesList";
     public static final String ASSETS = "assets";
+    // Keyed campusId/after/limit, after and limit as used for the query
+    public static final String CAMPUS_PAGES = "campusPages";
+    // Keyed after/limit, after and limit as used for the query
+    public static final String CAMPUSES_LIST_PAGES = "campusesListPages";
+    // Keyed campusId
+    public static final String MANIFESTS = "manifests";
+
+    private static final String CAMPUS_BIRDS_ROLE = Campus.class.getName() + ".birds";
 
     private CacheUtils() {
     }
@@ -31,4 +46,34 @@ public class CacheUtils {
                 cache.clear();
         }
     }
+
+    /**
+     * Evicts the cached pages of a campus.
+     * 
+     * @param cacheManager A {@link CacheManager} instance
+     * @param campusId     The campus id
+     */
+    public static void evictCampusPages(CacheManager cacheManager, Long campusId) {
+        Cache cache = cacheManager.getCache(CAMPUS_PAGES);
+        if (cache != null) {
+            String prefix = campusId + "/";
+
+            if (cache.getNativeCache() instanceof Map)
+                ((Map<?, ?>) cache.getNativeCache()).keySet().removeIf(key -> key.toString().startsWith(prefix));
+            else
+                cache.clear();
+        }
+    }
+
+    /**
+     * Evicts a campus' birds from the Hibernate second-level cache. Birds join
+     * and leave a campus through their own side of the relation, which does not
+     * update the cached collection.
+     * 
+     * @param entityManagerFactory An {@link EntityManagerFactory} instance
+     * @param campusId             The campus id
+     */
+    public static void evictCampusBirds(EntityManagerFactory entityManagerFactory, Long campusId) {
+        entityManagerFactory.unwrap(SessionFactory.class).getCache().evictCollectionData(CAMPUS_BIRDS_ROLE, campusId);
+    }
 }
@@ -1,22 +1,28 @@
 package sweng.penelope.controllers;
 
+import java.io.IOException;
 import java.util.Optional;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.constraints.NotBlank;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.CacheManager;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiImplicitParam;
@@ -26,6 +32,8 @@ import io.swagger.annotations.ApiParam;
 import springfox.documentation.annotations.ApiIgnore;
 import sweng.penelope.entities.Campus;
 import sweng.penelope.repositories.CampusRepository;
+import sweng.penelope.services.ArchiveImport;
+import sweng.penelope.services.CampusArchiveService;
 
 /**
  * <code>CampusController</code> handles all Campus endpoints.
@@ -42,6 +50,8 @@ public class CampusController {
     private CampusRepository campusRepository;
     @Autowired
     private CacheManager cacheManager;
+    @Autowired
+    private CampusArchiveService campusArchiveService;
 
     /**
      * Creates a new campus
@@ -62,7 +72,9 @@ public class CampusController {
         campus = campusRepository.save(campus);
 
         CacheUtils.evictCache(cacheManager, CacheUtils.CAMPUSES_LIST, null);
+        CacheUtils.evictCache(cacheManager, CacheUtils.CAMPUSES_LIST_PAGES, null);
         CacheUtils.evictCache(cacheManager, CacheUtils.CAMPUSES, campus.getId());
+        CacheUtils.evictCampusPages(cacheManager, campus.getId());
 
         return ResponseEntity.ok()
                 .body(String.format("New campus \"%s\" (id: %d) stored in database.%n", name, campus.getId()));
@@ -85,8 +97,10 @@ public class CampusController {
 
         return requestCampus.map(campus -> {
             CacheUtils.evictCache(cacheManager, CacheUtils.CAMPUSES, campus.getId());
+            CacheUtils.evictCampusPages(cacheManager, campus.getId());
             // Campuses list should be regenerated
             CacheUtils.evictCache(cacheManager, CacheUtils.CAMPUSES_LIST, null);
+            CacheUtils.evictCache(cacheManager, CacheUtils.CAMPUSES_LIST_PAGES, null);
 
             // Update authors list
             String author = ControllerUtils.getAuthorName(authentication);
@@ -116,12 +130,60 @@ public class CampusController {
 
         return requestCampus.map(campus -> {
             CacheUtils.evictCache(cacheManager, CacheUtils.CAMPUSES, campus.getId());
+            CacheUtils.evictCampusPages(cacheManager, campus.getId());
+            CacheUtils.evictCache(cacheManager, CacheUtils.MANIFESTS, campus.getId());
             // Campuses list should be regenerated
             CacheUtils.evictCache(cacheManager, CacheUtils.CAMPUSES_LIST, null);
+            CacheUtils.evictCache(cacheManager, CacheUtils.CAMPUSES_LIST_PAGES, null);
 
             campusRepository.delete(campus);
 
             return ResponseEntity.ok(String.format("Campus %d deleted.%n", id));
         }).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
     }
+
+    /**
+     * Exports a campus, its birds and their assets as a ZIP archive, streamed
+     * as it is written.
+     * 
+     * @param id The campus ID
+     * @return {@link ResponseEntity}
+     */
+    @ApiOperation("Exports a campus as a ZIP archive")
+    @GetMapping(path = "/export")
+    public ResponseEntity<StreamingResponseBody> exportCampus(@ApiParam("The campus ID") @RequestParam Long id) {
+        if (!campusRepository.existsById(id))
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, String.format("attachment; filename=\"campus-%d.zip\"", id))
+                .body(outputStream -> campusArchiveService.export(id, outputStream));
+    }
+
+    /**
+     * Imports a campus archive, made by {@link #exportCampus(Long)}, as a new
+     * campus.
+     * 
+     * @param request        The {@link HttpServletRequest} request, its body
+     *                       is the archive
+     * @param authentication {@link Authentication} autowired
+     * @return {@link ResponseEntity}
+     * @throws IOException if the archive cannot be read
+     */
+    @ApiOperation("Imports a campus ZIP archive as a new campus")
+    @PostMapping(path = "/import", consumes = "application/zip")
+    public ResponseEntity<String> importCampus(@ApiIgnore HttpServletRequest request,
+            @ApiIgnore Authentication authentication) throws IOException {
+        String author = ControllerUtils.getAuthorName(authentication);
+
+        ArchiveImport archiveImport = campusArchiveService.importArchive(request.getInputStream(), author);
+
+        CacheUtils.evictCache(cacheManager, CacheUtils.CAMPUSES_LIST, null);
+        CacheUtils.evictCache(cacheManager, CacheUtils.CAMPUSES_LIST_PAGES, null);
+
+        return ResponseEntity.ok().body(String.format("Campus imported with id %d, %d birds, %d assets (%d failed).%n",
+                archiveImport.getCampusId(), archiveImport.getBirds(), archiveImport.getAssets(),
+                archiveImport.getFailedAssets()));
+    }
 }
@@ -33,6 +33,7 @@ import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ResponseHeader;
+import lombok.extern.slf4j.Slf4j;
 import springfox.documentation.annotations.ApiIgnore;
 import sweng.penelope.auth.RSAUtils;
 import sweng.penelope.entities.Campus;
@@ -44,6 +45,7 @@ import sweng.penelope.services.StorageService;
 /**
  * <code>DataManagerController</code> handles all DataManager (user) endpoints.
  */
+@Slf4j
 @Controller
 @RequestMapping(path = "/api/users")
 @Api(tags = "DataManager operations")
@@ -134,7 +136,7 @@ public class DataManagerController {
     public ResponseEntity<String> addCampusRight(
             @ApiParam(value = "The DataManager's username.") @RequestParam String username,
             @ApiParam("The id of the campus the resources belong to.") @RequestParam Long campusID) {
-        return dataManagerRepository.findById(username).map(user -> {
+        return dataManagerRepository.findWithCampusesByUsername(username).map(user -> {
             return campusRepository.findById(campusID).map(campus -> {
                 Set<Campus> campuses = user.getCampuses();
                 campuses.add(campus);
@@ -160,7 +162,7 @@ public class DataManagerController {
     public ResponseEntity<String> removeCampusRight(
             @ApiParam(value = "The DataManager's username.") @RequestParam String username,
             @ApiParam("The id of the campus the resources belong to.") @RequestParam Long campusID) {
-        return dataManagerRepository.findById(username).map(user -> {
+        return dataManagerRepository.findWithCampusesByUsername(username).map(user -> {
             return campusRepository.findById(campusID).map(campus -> {
                 Set<Campus> campuses = user.getCampuses();
 
@@ -214,7 +216,7 @@ public class DataManagerController {
             ZonedDateTime sentAt = ZonedDateTime.parse(timestamp);
             Duration delta = Duration.between(sentAt, now);
             if (delta.getSeconds() < 60) {
-                dataManagerRepository.findById(username).ifPresent(dataManager -> {
+                dataManagerRepository.findWithCampusesByUsername(username).ifPresent(dataManager -> {
                     // Verify credentials validity
                     if (passwordEncoder.matches(password, dataManager.getPassword())) {
                         httpHeaders.set(validHeader, "true");
@@ -240,7 +242,7 @@ public class DataManagerController {
         } catch (Exception exception) {
             // Realistically not much we can do here.
             // Log the exception and move on
-            exception.printStackTrace();
+            log.warn("Could not validate credentials", exception);
         }
 
         return ResponseEntity.noContent().headers(httpHeaders).build();
@@ -1,36 +1,112 @@
 package sweng.penelope.controllers;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.servlet.http.HttpServletRequest;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
+import lombok.extern.slf4j.Slf4j;
 import springfox.documentation.annotations.ApiIgnore;
+import sweng.penelope.repositories.BirdRepository;
+import sweng.penelope.repositories.BirdSummary;
+import sweng.penelope.services.AssetManifest;
+import sweng.penelope.services.AssetManifestService;
+import sweng.penelope.services.ImageVariantService;
 import sweng.penelope.services.StorageService;
 
 /**
  * <code>FileDownloadController</code> handles all download endpoints.
  */
+@Slf4j
 @Controller
 @Api(tags = "File download operations")
 public class FileDownloadController {
     @Autowired
     private StorageService storageService;
+    @Autowired
+    private ImageVariantService imageVariantService;
+    @Autowired
+    private AssetManifestService assetManifestService;
+    @Autowired
+    private BirdRepository birdRepository;
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Value("${penelope.pagination.default-limit}")
+    private int defaultPageLimit;
+
+    @Value("${penelope.pagination.max-limit}")
+    private int maxPageLimit;
+
+    @Value("${penelope.storage.hot-tier.enabled}")
+    private boolean hotTierEnabled;
+
+    @Value("${penelope.bundle.renderers}")
+    private int renderers;
+
+    @Value("${penelope.bundle.window}")
+    private int renderWindow;
+
+    private ExecutorService renderExecutor;
+
+    @PostConstruct
+    private void startRenderers() {
+        renderExecutor = Executors.newFixedThreadPool(renderers, new CustomizableThreadFactory("bundle-render-"));
+    }
+
+    @PreDestroy
+    private void stopRenderers() {
+        renderExecutor.shutdownNow();
+    }
+
+    /**
+     * Whether asset responses are cached. The hot tier counts reads to choose
+     * the assets it keeps, and cached responses would hide those reads from it.
+     * 
+     * @return True if asset responses are cached.
+     */
+    public boolean isAssetCacheEnabled() {
+        return !hotTierEnabled;
+    }
 
     /**
      * Generates a response from the provided resource.
@@ -68,15 +144,21 @@ public class FileDownloadController {
      */
     private ResponseEntity<Resource> provideAssetResponse(Resource resource) {
         if (resource != null) {
-            String contentType;
             try {
-                // Determine what type of asset it is
-                contentType = Files.probeContentType(Paths.get(resource.getURI()));
-                // Infer correct media type
-                MediaType mediaType = MediaType.parseMediaType(contentType);
+                MediaType mediaType;
+                if ("file".equals(resource.getURI().getScheme())) {
+                    // Determine what type of asset it is
+                    String contentType = Files.probeContentType(Paths.get(resource.getURI()));
+                    // Infer correct media type
+                    mediaType = MediaType.parseMediaType(contentType);
+                } else {
+                    // Not on the local file system, go by the file extension
+                    mediaType = MediaTypeFactory.getMediaType(resource.getFilename())
+                            .orElse(MediaType.APPLICATION_OCTET_STREAM);
+                }
                 return provideResponse(resource, mediaType);
             } catch (Exception e) {
-                e.printStackTrace();
+                log.error("Could not serve {}", resource.getFilename(), e);
                 return ResponseEntity.internalServerError().body(null);
             }
         }
@@ -113,56 +195,282 @@ public class FileDownloadController {
     }
 
     /**
-     * Returns the xml containing information about the desired campus.
+     * Looks up an xml document in the cache its own endpoint fills, rendering
+     * and caching it when missing.
+     * 
+     * @param cacheName The cache of the endpoint.
+     * @param key       The caching key.
+     * @param render    Renders the document.
+     * @return The document, or null if it does not exist.
+     */
+    private Resource cachedXML(String cacheName, Long key, Supplier<Resource> render) {
+        Cache cache = cacheManager.getCache(cacheName);
+        Cache.ValueWrapper cached = cache != null ? cache.get(key) : null;
+
+        if (cached != null && cached.get() instanceof ResponseEntity)
+            return (Resource) ((ResponseEntity<?>) cached.get()).getBody();
+
+        Resource resource;
+        try {
+            resource = render.get();
+        } catch (ResponseStatusException responseStatusException) {
+            // Deleted in the meantime
+            return null;
+        }
+
+        if (resource != null && cache != null)
+            cache.put(key, provideXMLResponse(resource));
+
+        return resource;
+    }
+
+    /**
+     * Writes a document as a part of a multipart response.
+     */
+    private static void writePart(OutputStream outputStream, String boundary, String location, Resource resource)
+            throws IOException {
+        String headers = String.format("--%s\r\nContent-Type: %s\r\nContent-Location: %s\r\n\r\n", boundary,
+                MediaType.APPLICATION_XML_VALUE, location);
+        outputStream.write(headers.getBytes(StandardCharsets.US_ASCII));
+
+        try (InputStream inputStream = resource.getInputStream()) {
+            inputStream.transferTo(outputStream);
+        }
+        outputStream.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Renders the xml of a bird for a bundle, as cached by its endpoint.
+     */
+    private CompletableFuture<Resource> renderBird(Long birdId, String serverUrl) {
+        return CompletableFuture.supplyAsync(() -> cachedXML(CacheUtils.BIRDS, birdId,
+                () -> storageService.loadAsResourceFromDB("bird", birdId, serverUrl)), renderExecutor);
+    }
+
+    /**
+     * Returns the xml of a campus followed by the xml of every one of its
+     * birds, as the parts of a <code>multipart/mixed</code> response. Each part
+     * carries the path it is served at on its own in a
+     * <code>Content-Location</code> header. Documents are taken from the caches
+     * of {@link #serveCampusXML} and {@link #serveBirdXML}, missing bird
+     * documents are rendered in parallel and cached as they would be by their
+     * endpoint. Renders run on <code>penelope.bundle.renderers</code> threads,
+     * at most <code>penelope.bundle.window</code> documents ahead of the one
+     * being written, and stop once the client goes away.
+     * 
+     * @param campusId The ID of the desired campus.
+     * @param request  The {@link HttpServletRequest} request.
+     * @return {@link ResponseEntity}
+     */
+    @GetMapping(path = "/campus/{campusId}/bundle")
+    @ApiOperation("Returns the xml of a campus and of all its birds in one multipart response.")
+    public ResponseEntity<StreamingResponseBody> serveCampusBundle(
+            @ApiParam("The ID of the desired campus.") @PathVariable Long campusId,
+            @ApiIgnore HttpServletRequest request) {
+        String serverUrl = ServletUriComponentsBuilder.fromRequestUri(request)
+                .replacePath(null)
+                .build()
+                .toUriString();
+
+        Resource campus = cachedXML(CacheUtils.CAMPUSES, campusId,
+                () -> storageService.loadAsResourceFromDB("campus", campusId, serverUrl));
+        if (campus == null)
+            return ResponseEntity.notFound().build();
+
+        List<Long> birdIds = new ArrayList<>();
+        for (BirdSummary bird : birdRepository.findSummariesByCampusId(campusId))
+            birdIds.add(bird.getId());
+
+        String boundary = UUID.randomUUID().toString();
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("multipart/mixed; boundary=" + boundary))
+                .body(outputStream -> {
+                    // Parts are written in bird order as they are ready, a window ahead is rendering
+                    Deque<CompletableFuture<Resource>> rendering = new ArrayDeque<>();
+                    int next = 0;
+
+                    try {
+                        for (; next < Math.min(renderWindow, birdIds.size()); next++)
+                            rendering.add(renderBird(birdIds.get(next), serverUrl));
+
+                        writePart(outputStream, boundary, "/campus/" + campusId, campus);
+
+                        for (Long birdId : birdIds) {
+                            Resource bird = rendering.remove().join();
+                            if (next < birdIds.size())
+                                rendering.add(renderBird(birdIds.get(next++), serverUrl));
+
+                            if (bird != null)
+                                writePart(outputStream, boundary, "/bird/" + birdId, bird);
+                        }
+
+                        outputStream.write(String.format("--%s--\r\n", boundary).getBytes(StandardCharsets.US_ASCII));
+                    } finally {
+                        // Client gone, renders not started yet are dropped
+                        rendering.forEach(future -> future.cancel(false));
+                    }
+                });
+    }
+
+    /**
+     * Returns the manifest of the assets the birds of a campus refer to, with
+     * their size, content type and content hash, so that clients can prefetch
+     * a campus for offline use and skip the files they already have.
      * 
      * @param campusId The ID of the desired campus.
+     * @return {@link ResponseEntity}
+     */
+    @GetMapping(path = "/campus/{campusId}/manifest")
+    @Cacheable(value = CacheUtils.MANIFESTS, key = "#campusId", unless = "#result.body == null")
+    @ApiOperation("Returns the manifest of the assets of a campus.")
+    public ResponseEntity<AssetManifest> serveCampusManifest(
+            @ApiParam("The ID of the desired campus.") @PathVariable Long campusId) {
+        AssetManifest assetManifest = assetManifestService.buildManifest(campusId);
+
+        if (assetManifest == null)
+            return ResponseEntity.notFound().build();
+
+        return ResponseEntity.ok(assetManifest);
+    }
+
+    /**
+     * Works out the size of a page. Pages are cached by their size rather than
+     * the requested one, so that requests for the same page share an entry.
+     * 
+     * @param limit The requested size, may be null.
+     * @return The page size, between 1 and <code>penelope.pagination.max-limit</code>.
+     */
+    public int pageLimit(Integer limit) {
+        if (limit == null)
+            return defaultPageLimit;
+
+        return Math.max(1, Math.min(limit, maxPageLimit));
+    }
+
+    /**
+     * Returns the xml containing information about the desired campus. Birds
+     * are paged by id when <code>after</code> or <code>limit</code> is given,
+     * the info element of all but the last page holding the id to continue
+     * after.
+     * 
+     * @param campusId The ID of the desired campus.
+     * @param after    Only birds with a greater id are listed.
+     * @param limit    The maximum number of birds listed.
      * @param request  The {@link HttpServletRequest} request.
      * @return {@link ResponseEntity}
      */
     @GetMapping(path = "/campus/{campusId}")
-    @Cacheable(value = CacheUtils.CAMPUSES, key = "#campusId")
+    @Caching(cacheable = {
+            @Cacheable(value = CacheUtils.CAMPUSES, key = "#campusId", condition = "#after == null && #limit == null"),
+            @Cacheable(value = CacheUtils.CAMPUS_PAGES, key = "#campusId + '/' + (#after ?: 0) + '/' + #root.target.pageLimit(#limit)", condition = "#after != null || #limit != null")
+    })
     @ApiOperation("Returns the xml containing information about the desired campus.")
     public ResponseEntity<Resource> serveCampusXML(
             @ApiParam("The ID of the desired campus.") @PathVariable Long campusId,
+            @ApiParam("Only birds with a greater id are listed.") @RequestParam(required = false) Long after,
+            @ApiParam("The maximum number of birds listed.") @RequestParam(required = false) Integer limit,
             @ApiIgnore HttpServletRequest request) {
         String serverUrl = ServletUriComponentsBuilder.fromRequestUri(request)
                 .replacePath(null)
                 .build()
                 .toUriString();
-        Resource resource = storageService.loadAsResourceFromDB("campus", campusId, serverUrl);
+        Resource resource;
+        if (after == null && limit == null)
+            resource = storageService.loadAsResourceFromDB("campus", campusId, serverUrl);
+        else
+            resource = storageService.loadPageFromDB("campus", campusId, after != null ? after : 0L,
+                    pageLimit(limit), serverUrl);
 
         return provideXMLResponse(resource);
     }
 
     /**
-     * Returns the xml containing a list of available campuses.
+     * Returns the xml containing a list of available campuses. Campuses are
+     * paged by id when <code>after</code> or <code>limit</code> is given, the
+     * info element of all but the last page holding the id to continue after.
      *
+     * @param after Only campuses with a greater id are listed.
+     * @param limit The maximum number of campuses listed.
      * @return {@link ResponseEntity}
      */
     @GetMapping(path = "/campus/list")
-    @Cacheable(CacheUtils.CAMPUSES_LIST)
+    @Caching(cacheable = {
+            @Cacheable(value = CacheUtils.CAMPUSES_LIST, condition = "#after == null && #limit == null"),
+            @Cacheable(value = CacheUtils.CAMPUSES_LIST_PAGES, key = "(#after ?: 0) + '/' + #root.target.pageLimit(#limit)", condition = "#after != null || #limit != null")
+    })
     @ApiOperation("Returns the xml containing a list of available campuses.")
-    public ResponseEntity<Resource> serveCampusesListXML() {
-        Resource resource = storageService.loadAsResourceFromDB("campusList", null, null);
+    public ResponseEntity<Resource> serveCampusesListXML(
+            @ApiParam("Only campuses with a greater id are listed.") @RequestParam(required = false) Long after,
+            @ApiParam("The maximum number of campuses listed.") @RequestParam(required = false) Integer limit) {
+        Resource resource;
+        if (after == null && limit == null)
+            resource = storageService.loadAsResourceFromDB("campusList", null, null);
+        else
+            resource = storageService.loadPageFromDB("campusList", null, after != null ? after : 0L,
+                    pageLimit(limit), null);
 
         return provideXMLResponse(resource);
     }
 
     /**
-     * Returns the desired asset.
+     * Works out the width, in physical pixels, an image will be drawn at.
+     * 
+     * @param w           The requested width, in logical pixels.
+     * @param dprHeader   The device pixel ratio client hint.
+     * @param widthHeader The width client hint, in physical pixels.
+     * @return The requested width, or null if the client did not ask for one.
+     */
+    private Integer requestedWidth(Integer w, String dprHeader, String widthHeader) {
+        try {
+            if (w != null) {
+                double dpr = dprHeader != null ? Double.parseDouble(dprHeader) : 1.0;
+                return (int) Math.ceil(w * Math.max(dpr, 1.0));
+            }
+            if (widthHeader != null)
+                return Integer.parseInt(widthHeader);
+        } catch (NumberFormatException numberFormatException) {
+            // Malformed hints are ignored, the original is served
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the desired asset. Images can be requested at a given width, in
+     * which case the smallest stored variant at least as wide is served.
      * 
-     * @param type     The asset type (image, video, audio).
-     * @param campusId The ID of the campus the resource belongs to.
-     * @param fileName The asset file name.
+     * @param type        The asset type (image, video, audio).
+     * @param campusId    The ID of the campus the resource belongs to.
+     * @param fileName    The asset file name.
+     * @param w           The width the image will be drawn at (image only).
+     * @param dprHeader   The device pixel ratio client hint.
+     * @param widthHeader The width client hint.
      * @return {@link ResponseEntity}
      */
     @GetMapping(path = "/{type}/{campusId}/{fileName}")
-    @Cacheable(value = CacheUtils.ASSETS, key = "#type.concat('/').concat(#campusId).concat('/').concat(#fileName)")
+    @Cacheable(value = CacheUtils.ASSETS, key = "#type.concat('/').concat(#campusId).concat('/').concat(#fileName)", condition = "#root.target.assetCacheEnabled && #w == null && #widthHeader == null")
     @ApiOperation("Returns the desired asset.")
     public ResponseEntity<Resource> serveAsset(
             @ApiParam(value = "The asset type", allowableValues = "image, video, audio") @PathVariable String type,
             @ApiParam("The ID of the campus the resource belongs to.") @PathVariable String campusId,
-            @ApiParam("The asset file name.") @PathVariable String fileName) {
+            @ApiParam("The asset file name.") @PathVariable String fileName,
+            @ApiParam("The width the image will be drawn at, in logical pixels (image only).") @RequestParam(required = false) Integer w,
+            @ApiIgnore @RequestHeader(name = "DPR", required = false) String dprHeader,
+            @ApiIgnore @RequestHeader(name = "Width", required = false) String widthHeader) {
+        Integer requestedWidth = type.equals("image") ? requestedWidth(w, dprHeader, widthHeader) : null;
+
+        if (requestedWidth != null) {
+            Resource resource = imageVariantService.loadVariant(campusId, fileName, requestedWidth);
+            ResponseEntity<Resource> response = provideAssetResponse(resource);
+
+            // Responses depend on the hints, caches should key on them
+            return ResponseEntity.status(response.getStatusCode())
+                    .headers(response.getHeaders())
+                    .header(HttpHeaders.VARY, "DPR, Width")
+                    .body(response.getBody());
+        }
+
         Resource resource = storageService.loadAsResource(type, campusId, fileName);
 
         return provideAssetResponse(resource);
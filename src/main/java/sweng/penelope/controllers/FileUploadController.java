@@ -1,41 +1,54 @@
 package sweng.penelope.controllers;
 
-import java.awt.AlphaComposite;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
-import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
 
-import javax.imageio.ImageIO;
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.constraints.NotNull;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.CacheManager;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.util.StringUtils;
 import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiImplicitParam;
 import io.swagger.annotations.ApiImplicitParams;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ResponseHeader;
+import lombok.extern.slf4j.Slf4j;
+import springfox.documentation.annotations.ApiIgnore;
+import sweng.penelope.services.ChunkedUploadService;
+import sweng.penelope.services.ImageJob;
+import sweng.penelope.services.ImageProcessingService;
+import sweng.penelope.services.ImageVariantService;
 import sweng.penelope.services.StorageService;
+import sweng.penelope.services.UploadSession;
 
 /**
  * <code>FileUploadController</code> handles all upload endpoints.
  */
+@Slf4j
 @Controller
 @RequestMapping(path = "/api/file")
 @Api(tags = "File upload operations")
@@ -48,6 +61,12 @@ public class FileUploadController {
     private StorageService storageService;
     @Autowired
     private CacheManager cacheManager;
+    @Autowired
+    private ChunkedUploadService chunkedUploadService;
+    @Autowired
+    private ImageProcessingService imageProcessingService;
+    @Autowired
+    private ImageVariantService imageVariantService;
 
     private static final int RANDOM_STRING_LOWER_BOUND = 0;
     private static final int RANDOM_STRING_UPPER_BOUND = 9;
@@ -56,6 +75,9 @@ public class FileUploadController {
 
     private static final String[] ALLOWED_FILE_TYPES = { "image", "audio", "video" };
 
+    private static final String CHUNK_SIZE_HEADER = "Chunk-Size";
+    private static final String CHUNKS_HEADER = "Chunks";
+
     /**
      * Transforms an input image into a rounded png.
      * 
@@ -66,46 +88,80 @@ public class FileUploadController {
      */
     private ResponseEntity<String> processImage(MultipartFile file, String campusId, String fileName) {
         try {
-            // Load input file
-            BufferedImage bufferedImage = ImageIO.read(file.getInputStream());
+            String assetUrl = imageProcessingService.process(file.getInputStream(), campusId, fileName);
 
-            int width = bufferedImage.getWidth();
-            int height = bufferedImage.getHeight();
-
-            // To get a circle, we want to use the short side of the image as a measure to
-            // crop.
-            int size = Math.min(width, height);
-
-            // ARGB for transparency
-            BufferedImage outputImage = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D graphics2d = outputImage.createGraphics();
+            if (assetUrl != null) {
+                imageVariantService.generateVariants(campusId, assetUrl.substring(assetUrl.lastIndexOf('/') + 1));
+                return ResponseEntity.ok(assetUrl);
+            }
+            else
+                return ResponseEntity.internalServerError().body("Could not process image file");
 
-            // Draw circle image
-            graphics2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            graphics2d.fillOval(0, 0, size, size);
-            graphics2d.setComposite(AlphaComposite.SrcIn);
-            graphics2d.drawImage(bufferedImage, 0, 0, null);
+        } catch (IOException e) {
+            log.error("Could not process image {}", fileName, e);
 
-            String processedFileName = fileName.split("\\.")[0] + "_processed.png";
+            return ResponseEntity.internalServerError().body("Could not process image file");
+        }
+    }
 
-            if (storageService.storeProcessedImage(processedFileName, campusId, outputImage))
-                return ResponseEntity.ok(String.format("image/%s/%s", campusId, processedFileName));
-            else
-                return ResponseEntity.internalServerError().body("Could not process image file");
+    /**
+     * Queues an input image to be transformed into a rounded png.
+     * 
+     * @param file     The input image.
+     * @param campusId The campus id the resource belongs to.
+     * @param fileName The file name.
+     * @return {@link ResponseEntity} with the job id as body.
+     */
+    private ResponseEntity<String> queueImage(MultipartFile file, String campusId, String fileName) {
+        try {
+            ImageJob job = imageProcessingService.submit(file.getBytes(), campusId, fileName, processedFileName -> {
+                imageVariantService.generateVariants(campusId, processedFileName);
+                CacheUtils.evictCache(cacheManager, CacheUtils.MANIFESTS, Long.valueOf(campusId));
+            });
 
+            return ResponseEntity.accepted()
+                    .location(URI.create(String.format("/api/file/%s/jobs/%s", campusId, job.getJobId())))
+                    .body(job.getJobId());
+        } catch (RejectedExecutionException rejectedExecutionException) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Too many images being processed");
         } catch (IOException e) {
-            e.printStackTrace();
+            log.error("Could not queue image {}", fileName, e);
 
             return ResponseEntity.internalServerError().body("Could not process image file");
         }
     }
 
+    /**
+     * Makes a unique file name out of the uploaded file's original name.
+     * 
+     * @param originalFileName The original file name.
+     * @return The unique file name, or null if the original name is not
+     *         acceptable.
+     */
+    private String makeFileName(String originalFileName) {
+        if (originalFileName == null || originalFileName.contains("..") || originalFileName.length() == 0)
+            return null;
+
+        // Random string to ensure files are unique
+        String randomString = random.ints(RANDOM_STRING_LOWER_BOUND, RANDOM_STRING_UPPER_BOUND + 1)
+                .limit(RANDOM_STRING_LENGTH)
+                .collect(StringBuilder::new, StringBuilder::append, StringBuilder::append)
+                .toString();
+
+        // Get stripped file name
+        String fileName = Paths.get(originalFileName).getFileName().toString();
+
+        String[] splitFileName = fileName.split("\\.");
+        return splitFileName[0] + "-" + randomString + "." + splitFileName[1];
+    }
+
     /**
      * Handles file uploading operations.
      * 
      * @param file     The uploaded file
      * @param type     The file type (image, video, audio)
      * @param process  Whether the file (image only) should be made into a round png
+     * @param async    Whether processing should happen in the background
      * @param campusId The ID of the campus the resource belongs to
      * @return {@link ResponseEntity}
      */
@@ -115,33 +171,195 @@ public class FileUploadController {
             @ApiParam("The file to upload") @RequestPart @NotNull MultipartFile file,
             @ApiParam(value = "The file type", allowableValues = "image, audio, video") @RequestParam @NotNull String type,
             @ApiParam("Whether the file (image only) should be made into a round png") @RequestParam(required = false) boolean process,
+            @ApiParam("Whether processing should happen in the background. Responds 202 with a job id.") @RequestParam(required = false) boolean async,
             @ApiParam("The ID of the campus the resource belongs to") @PathVariable @NotNull Long campusId) {
         if (Arrays.stream(ALLOWED_FILE_TYPES).anyMatch(type::equals)) {
-            String originalfileName = file.getOriginalFilename();
-            if (originalfileName != null && !originalfileName.contains("..") && originalfileName.length() > 0) {
-                // Random string to ensure files are unique
-                String randomString = random.ints(RANDOM_STRING_LOWER_BOUND, RANDOM_STRING_UPPER_BOUND + 1)
-                        .limit(RANDOM_STRING_LENGTH)
-                        .collect(StringBuilder::new, StringBuilder::append, StringBuilder::append)
-                        .toString();
-
-                // Get stripped file name
-                String fileName = Paths.get(originalfileName).getFileName().toString();
-
-                String[] splitFileName = fileName.split("\\.");
-                fileName = splitFileName[0] + "-" + randomString + "." + splitFileName[1];
+            String fileName = makeFileName(file.getOriginalFilename());
+            if (fileName != null) {
                 CacheUtils.evictCache(cacheManager, CacheUtils.ASSETS, fileName);
 
+                if (type.equals("image") && process && async) // Make round PNG in background
+                    return queueImage(file, campusId.toString(), fileName);
+
+                ResponseEntity<String> response;
                 if (type.equals("image") && process) // Make round PNG
-                    return processImage(file, campusId.toString(), fileName);
-                else if (storageService.store(type, campusId.toString(), file, fileName)) // Store
-                    return ResponseEntity.ok().body(String.format("%s/%s/%s", type, campusId.toString(), fileName));
-                else // Something went wrong
-                    return ResponseEntity.internalServerError().body("Could not store file.");
+                    response = processImage(file, campusId.toString(), fileName);
+                else if (storageService.store(type, campusId.toString(), file, fileName)) { // Store
+                    if (type.equals("image"))
+                        imageVariantService.generateVariants(campusId.toString(), fileName);
+
+                    response = ResponseEntity.ok().body(String.format("%s/%s/%s", type, campusId.toString(), fileName));
+                } else // Something went wrong
+                    response = ResponseEntity.internalServerError().body("Could not store file.");
+
+                // Evicted once stored, so a manifest built meanwhile is not kept
+                CacheUtils.evictCache(cacheManager, CacheUtils.MANIFESTS, campusId);
+                return response;
             }
             return ResponseEntity.badRequest().body("File name cannot contain \"..\" and cannot be null");
         }
 
         return ResponseEntity.badRequest().body("File type is not supported");
     }
+
+    /**
+     * Starts a resumable chunked upload.
+     * 
+     * @param fileName The original file name
+     * @param type     The file type (image, video, audio)
+     * @param size     The total file size, in bytes
+     * @param campusId The ID of the campus the resource belongs to
+     * @return {@link ResponseEntity} with the upload id as body and the chunk
+     *         size as <code>Chunk-Size</code> header.
+     */
+    @PostMapping(path = "{campusId}/upload")
+    @ApiOperation("Starts a resumable chunked upload")
+    @ApiResponse(code = 200, message = "OK", responseHeaders = {
+            @ResponseHeader(name = CHUNK_SIZE_HEADER, description = "The size of each chunk, in bytes. The last chunk can be shorter.", response = Integer.class) })
+    public ResponseEntity<String> startChunkedUpload(
+            @ApiParam("The original file name") @RequestParam @NotNull String fileName,
+            @ApiParam(value = "The file type", allowableValues = "image, audio, video") @RequestParam @NotNull String type,
+            @ApiParam("The total file size, in bytes") @RequestParam @NotNull Long size,
+            @ApiParam("The ID of the campus the resource belongs to") @PathVariable @NotNull Long campusId) {
+        if (Arrays.stream(ALLOWED_FILE_TYPES).anyMatch(type::equals)) {
+            String uniqueFileName = makeFileName(fileName);
+            if (uniqueFileName != null) {
+                UploadSession session = chunkedUploadService.start(type, campusId.toString(), uniqueFileName, size);
+
+                return ResponseEntity.ok()
+                        .header(CHUNK_SIZE_HEADER, Integer.toString(session.getChunkSize()))
+                        .body(session.getUploadId());
+            }
+            return ResponseEntity.badRequest().body("File name cannot contain \"..\" and cannot be null");
+        }
+
+        return ResponseEntity.badRequest().body("File type is not supported");
+    }
+
+    /**
+     * Receives a chunk of a resumable upload. Chunks can be sent in any order and
+     * resent safely.
+     * 
+     * @param uploadId The upload id
+     * @param chunk    The chunk index
+     * @param campusId The ID of the campus the resource belongs to
+     * @param request  The {@link HttpServletRequest} request, its body being the
+     *                 chunk content
+     * @return {@link ResponseEntity}
+     */
+    @PutMapping(path = "{campusId}/upload/{uploadId}/{chunk}")
+    @ApiOperation("Receives a chunk of a resumable upload")
+    public ResponseEntity<String> uploadChunk(
+            @ApiParam("The upload id") @PathVariable String uploadId,
+            @ApiParam("The chunk index") @PathVariable int chunk,
+            @ApiParam("The ID of the campus the resource belongs to") @PathVariable @NotNull Long campusId,
+            @ApiIgnore HttpServletRequest request) throws IOException {
+        UploadSession session = chunkedUploadService.getSession(uploadId, campusId.toString());
+
+        if (chunkedUploadService.writeChunk(session, chunk, request.getInputStream()))
+            return ResponseEntity.ok().body(String.format("Chunk %d received", chunk));
+
+        return ResponseEntity.badRequest()
+                .body(String.format("Chunk %d must be %d bytes long", chunk, session.chunkLength(chunk)));
+    }
+
+    /**
+     * Reports the state of a resumable upload.
+     * 
+     * @param uploadId The upload id
+     * @param campusId The ID of the campus the resource belongs to
+     * @return {@link ResponseEntity} with the missing chunks as body (e.g.
+     *         0,3,4).
+     */
+    @GetMapping(path = "{campusId}/upload/{uploadId}")
+    @ApiOperation("Reports the missing chunks of a resumable upload")
+    @ApiResponse(code = 200, message = "OK", responseHeaders = {
+            @ResponseHeader(name = CHUNK_SIZE_HEADER, description = "The size of each chunk, in bytes.", response = Integer.class),
+            @ResponseHeader(name = CHUNKS_HEADER, description = "The total number of chunks.", response = Integer.class) })
+    public ResponseEntity<String> chunkedUploadStatus(
+            @ApiParam("The upload id") @PathVariable String uploadId,
+            @ApiParam("The ID of the campus the resource belongs to") @PathVariable @NotNull Long campusId) {
+        UploadSession session = chunkedUploadService.getSession(uploadId, campusId.toString());
+
+        return ResponseEntity.ok()
+                .header(CHUNK_SIZE_HEADER, Integer.toString(session.getChunkSize()))
+                .header(CHUNKS_HEADER, Integer.toString(session.getNumChunks()))
+                .body(session.missingChunks());
+    }
+
+    /**
+     * Completes a resumable upload once all of its chunks have been received.
+     * 
+     * @param uploadId The upload id
+     * @param campusId The ID of the campus the resource belongs to
+     * @return {@link ResponseEntity}
+     */
+    @PostMapping(path = "{campusId}/upload/{uploadId}/finish")
+    @ApiOperation("Completes a resumable upload")
+    public ResponseEntity<String> finishChunkedUpload(
+            @ApiParam("The upload id") @PathVariable String uploadId,
+            @ApiParam("The ID of the campus the resource belongs to") @PathVariable @NotNull Long campusId) {
+        UploadSession session = chunkedUploadService.getSession(uploadId, campusId.toString());
+
+        CacheUtils.evictCache(cacheManager, CacheUtils.ASSETS, session.getFileName());
+
+        boolean finished = chunkedUploadService.finish(session);
+        CacheUtils.evictCache(cacheManager, CacheUtils.MANIFESTS, campusId);
+
+        if (finished && session.getType().equals("image"))
+            imageVariantService.generateVariants(session.getCampusId(), session.getFileName());
+
+        if (finished)
+            return ResponseEntity.ok().body(
+                    String.format("%s/%s/%s", session.getType(), session.getCampusId(), session.getFileName()));
+
+        return ResponseEntity.internalServerError().body("Could not store file.");
+    }
+
+    /**
+     * Discards a resumable upload.
+     * 
+     * @param uploadId The upload id
+     * @param campusId The ID of the campus the resource belongs to
+     * @return {@link ResponseEntity}
+     */
+    @DeleteMapping(path = "{campusId}/upload/{uploadId}")
+    @ApiOperation("Discards a resumable upload")
+    public ResponseEntity<String> abortChunkedUpload(
+            @ApiParam("The upload id") @PathVariable String uploadId,
+            @ApiParam("The ID of the campus the resource belongs to") @PathVariable @NotNull Long campusId) {
+        UploadSession session = chunkedUploadService.getSession(uploadId, campusId.toString());
+
+        chunkedUploadService.abort(session);
+
+        return ResponseEntity.ok().body("Upload discarded");
+    }
+
+    /**
+     * Reports the state of a background image processing job.
+     * 
+     * @param jobId    The job id
+     * @param campusId The ID of the campus the resource belongs to
+     * @return {@link ResponseEntity} with the asset url as body once done, 202
+     *         while the job is still queued or processing.
+     */
+    @GetMapping(path = "{campusId}/jobs/{jobId}")
+    @ApiOperation("Reports the state of a background image processing job")
+    public ResponseEntity<String> imageJobStatus(
+            @ApiParam("The job id") @PathVariable String jobId,
+            @ApiParam("The ID of the campus the resource belongs to") @PathVariable @NotNull Long campusId) {
+        ImageJob job = imageProcessingService.getJob(jobId);
+
+        if (job == null || !job.getCampusId().equals(campusId.toString()))
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+
+        switch (job.getStatus()) {
+            case DONE:
+                return ResponseEntity.ok(job.getAssetUrl());
+            case FAILED:
+                return ResponseEntity.internalServerError().body("Could not process image file");
+            default:
+                return ResponseEntity.accepted().body(job.getStatus().toString());
+        }
+    }
 }
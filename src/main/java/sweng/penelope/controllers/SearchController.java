@@ -0,0 +1,102 @@
+package sweng.penelope.controllers;
+
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import springfox.documentation.annotations.ApiIgnore;
+import sweng.penelope.services.AutocompleteService;
+import sweng.penelope.services.BirdSearchService;
+import sweng.penelope.services.NameEntry;
+import sweng.penelope.services.SearchResult;
+import sweng.penelope.xml.CampusXML;
+import sweng.penelope.xml.XMLConfiguration;
+
+/**
+ * <code>SearchController</code> handles the search and autocomplete
+ * endpoints.
+ */
+@Controller
+@Api(tags = "Search operations")
+public class SearchController {
+    @Autowired
+    private BirdSearchService birdSearchService;
+    @Autowired
+    private AutocompleteService autocompleteService;
+
+    @Value("${penelope.search.default-limit}")
+    private int defaultLimit;
+
+    @Value("${penelope.search.max-limit}")
+    private int maxLimit;
+
+    @Value("${penelope.autocomplete.default-limit}")
+    private int autocompleteLimit;
+
+    /**
+     * Searches birds by name, description, diet and location. Results are
+     * returned as a campus xml, one slide per bird, best match first.
+     * 
+     * @param q        The query, birds must match every word of it.
+     * @param campusId Only birds of this campus are returned.
+     * @param limit    The maximum number of birds returned.
+     * @param request  The {@link HttpServletRequest} request.
+     * @return {@link ResponseEntity}
+     */
+    @GetMapping(path = "/search")
+    @ApiOperation("Searches birds by name, description, diet and location.")
+    public ResponseEntity<Resource> search(
+            @ApiParam("The query, birds must match every word of it.") @RequestParam String q,
+            @ApiParam("Only birds of this campus are returned.") @RequestParam(required = false) Long campusId,
+            @ApiParam("The maximum number of birds returned.") @RequestParam(required = false) Integer limit,
+            @ApiIgnore HttpServletRequest request) {
+        String serverUrl = ServletUriComponentsBuilder.fromRequestUri(request)
+                .replacePath(null)
+                .build()
+                .toUriString();
+        int resultsLimit = limit == null ? defaultLimit : Math.max(1, Math.min(limit, maxLimit));
+
+        XMLConfiguration xmlConfiguration = new XMLConfiguration("The Penelope Team", "Search results", -1L);
+        xmlConfiguration.setServerUrl(serverUrl);
+        CampusXML campusXML = new CampusXML(xmlConfiguration);
+
+        for (SearchResult result : birdSearchService.search(q, campusId, resultsLimit))
+            campusXML.addBird(result.getName(), result.getAboutMe(), result.getId(), result.getListImageURL());
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_XML)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "inline")
+                .body(new ByteArrayResource(campusXML.getBytes()));
+    }
+
+    /**
+     * Completes a prefix of any word of a campus or bird name, for typeahead.
+     * Campuses come first, then shorter names.
+     * 
+     * @param q     The prefix, case insensitive.
+     * @param limit The maximum number of names returned.
+     * @return {@link ResponseEntity}
+     */
+    @GetMapping(path = "/autocomplete")
+    @ApiOperation("Completes a prefix of a campus or bird name.")
+    public ResponseEntity<List<NameEntry>> autocomplete(
+            @ApiParam("The prefix, case insensitive.") @RequestParam String q,
+            @ApiParam("The maximum number of names returned.") @RequestParam(required = false) Integer limit) {
+        return ResponseEntity.ok(autocompleteService.complete(q, limit == null ? autocompleteLimit : limit));
+    }
+}
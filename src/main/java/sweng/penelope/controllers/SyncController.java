@@ -0,0 +1,86 @@
+package sweng.penelope.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import sweng.penelope.repositories.CampusRepository;
+import sweng.penelope.services.ChangeNotificationService;
+import sweng.penelope.services.SyncPage;
+import sweng.penelope.services.SyncService;
+
+/**
+ * <code>SyncController</code> handles the delta sync and change event
+ * endpoints.
+ */
+@Controller
+@Api(tags = "Sync operations")
+public class SyncController {
+    @Autowired
+    private SyncService syncService;
+    @Autowired
+    private ChangeNotificationService changeNotificationService;
+    @Autowired
+    private CampusRepository campusRepository;
+
+    @Value("${penelope.sync.default-limit}")
+    private int defaultLimit;
+
+    @Value("${penelope.sync.max-limit}")
+    private int maxLimit;
+
+    @Value("${penelope.events.timeout}")
+    private long eventsTimeout;
+
+    /**
+     * Lists the campuses and birds created, updated or deleted since a
+     * watermark, with the content hash of their current version. Clients keep
+     * the returned watermark and ask again while <code>more</code> is true.
+     * Updates of campuses or birds a client does not have should be treated
+     * as creations, as superseded changes are pruned.
+     * 
+     * @param after The watermark of the last sync, 0 or none for everything.
+     * @param limit The maximum number of changes read.
+     * @return {@link ResponseEntity}
+     */
+    @GetMapping(path = "/sync")
+    @ApiOperation("Lists the campuses and birds changed since a watermark.")
+    public ResponseEntity<SyncPage> sync(
+            @ApiParam("The watermark of the last sync.") @RequestParam(required = false) Long after,
+            @ApiParam("The maximum number of changes read.") @RequestParam(required = false) Integer limit) {
+        int pageLimit = limit == null || limit <= 0 ? defaultLimit : Math.min(limit, maxLimit);
+
+        return ResponseEntity.ok(syncService.getChanges(after != null ? Math.max(after, 0L) : 0L, pageLimit));
+    }
+
+    /**
+     * Opens a server-sent event stream of the changes of a campus and of its
+     * birds, pushed as they commit. Every <code>change</code> event holds the
+     * type, id, action and content hash of what changed, its id being a sync
+     * watermark. Streams end after <code>penelope.events.timeout</code>, or
+     * when a client falls too far behind, clients then reconnect and catch up
+     * through {@link #sync(Long, Integer)}.
+     * 
+     * @param campusId The ID of the campus.
+     * @return {@link SseEmitter}
+     */
+    @GetMapping(path = "/campus/{campusId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ApiOperation("Streams the changes of a campus and of its birds as server-sent events.")
+    public SseEmitter campusEvents(@ApiParam("The ID of the campus.") @PathVariable Long campusId) {
+        if (!campusRepository.existsById(campusId))
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Campus not found");
+
+        return changeNotificationService.subscribe(campusId, new SseEmitter(eventsTimeout));
+    }
+}
@@ -0,0 +1,38 @@
+package sweng.penelope.entities;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * <code>AssetAlias</code> JPA Entity. Maps an asset url (e.g.
+ * <code>image/1/duck-0123456789.png</code>) to the {@link StoredBlob} holding
+ * its content.
+ * Aliases are repointed by whichever instance stores the url, and the blob
+ * they pointed to may be deleted right after, so they are read from the
+ * database rather than from the node-local second-level cache.
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+public class AssetAlias {
+    @Id
+    private String url;
+
+    @Column(nullable = false)
+    private String blobKey;
+
+    // When the url was last stored, in ms since the epoch
+    private long storedAt;
+
+    public AssetAlias(String url, String blobKey) {
+        this.url = url;
+        this.blobKey = blobKey;
+        this.storedAt = System.currentTimeMillis();
+    }
+}
@@ -2,6 +2,7 @@ package sweng.penelope.entities;
 
 import java.util.Date;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
@@ -9,7 +10,10 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.ManyToOne;
+import javax.persistence.SequenceGenerator;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.UpdateTimestamp;
 import org.springframework.format.annotation.DateTimeFormat;
 
@@ -25,13 +29,17 @@ import lombok.Setter;
  * <code>Bird</code> JPA Entity
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "birds")
 @Getter
 @Setter
 @RequiredArgsConstructor
 @NoArgsConstructor
 public class Bird {
+    // Ids are handed out 50 at a time, so that inserts can be batched
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "bird_seq")
+    @SequenceGenerator(name = "bird_seq", sequenceName = "bird_seq", allocationSize = 50)
     private Long id;
 
     // Bird information
@@ -0,0 +1,51 @@
+package sweng.penelope.entities;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * <code>ChangeRecord</code> JPA Entity. A creation, update or deletion of a
+ * {@link Campus} or {@link Bird}, written in the same transaction by
+ * {@link sweng.penelope.services.ChangeTracker}. Deletions are kept as
+ * tombstones.
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+public class ChangeRecord {
+    public static final String CAMPUS = "campus";
+    public static final String BIRD = "bird";
+
+    public static final String CREATED = "created";
+    public static final String UPDATED = "updated";
+    public static final String DELETED = "deleted";
+
+    // The change sequence
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String entityType;
+
+    @Column(nullable = false)
+    private Long entityId;
+
+    // The campus itself for campus changes
+    @Column(nullable = false)
+    private Long campusId;
+
+    @Column(nullable = false)
+    private String action;
+
+    // In ms since the epoch
+    private long changedAt;
+}
@@ -3,6 +3,7 @@ package sweng.penelope.entities;
 import java.util.HashSet;
 import java.util.Set;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
@@ -11,6 +12,9 @@ import javax.persistence.JoinColumn;
 import javax.persistence.JoinTable;
 import javax.persistence.ManyToMany;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import lombok.Getter;
 import lombok.Setter;
 
@@ -18,6 +22,8 @@ import lombok.Setter;
  * <code>DataManager</code> JPA Entity
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "users")
 @Getter
 @Setter
 public class DataManager {
@@ -30,7 +36,9 @@ public class DataManager {
 
     private boolean sysadmin;
 
-    @ManyToMany(fetch = FetchType.EAGER)
+    // Loaded on demand, see DataManagerRepository for the queries fetching it
+    @ManyToMany(fetch = FetchType.LAZY)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "user-campuses")
     @JoinTable(name = "user_campus_rights", joinColumns = @JoinColumn(name = "username"), inverseJoinColumns = @JoinColumn(name = "campus_id"))
     private Set<Campus> campuses = new HashSet<>();
 }
@@ -0,0 +1,36 @@
+package sweng.penelope.entities;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * <code>StoredBlob</code> JPA Entity. A file stored once under its content
+ * hash, shared by every {@link AssetAlias} pointing to it.
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+public class StoredBlob {
+    // SHA-256 of the content, followed by the file extension
+    @Id
+    private String blobKey;
+
+    @Column(nullable = false)
+    private long size;
+
+    // Number of aliases pointing to this blob
+    @Column(nullable = false)
+    private int refCount;
+
+    public StoredBlob(String blobKey, long size) {
+        this.blobKey = blobKey;
+        this.size = size;
+        this.refCount = 1;
+    }
+}
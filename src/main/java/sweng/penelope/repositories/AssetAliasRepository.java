@@ -0,0 +1,31 @@
+package sweng.penelope.repositories;
+
+import java.util.List;
+import java.util.Optional;
+
+import javax.persistence.LockModeType;
+
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+import sweng.penelope.entities.AssetAlias;
+
+/**
+ * <code>AssetAliasRepository</code> is a {@link CrudRepository} which handles
+ * {@link AssetAlias}
+ */
+public interface AssetAliasRepository extends CrudRepository<AssetAlias, String> {
+    List<AssetAlias> findByUrlStartingWith(String prefix);
+
+    /**
+     * Retrieves an alias, locking its row until the transaction ends.
+     * 
+     * @param url The asset url.
+     * @return The {@link AssetAlias}, if it exists.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT a FROM AssetAlias a WHERE a.url = :url")
+    Optional<AssetAlias> findForUpdate(@Param("url") String url);
+}
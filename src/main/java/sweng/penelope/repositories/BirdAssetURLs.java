@@ -0,0 +1,19 @@
+package sweng.penelope.repositories;
+
+/**
+ * <code>BirdAssetURLs</code> is a projection of a
+ * {@link sweng.penelope.entities.Bird} holding only its asset urls.
+ */
+public interface BirdAssetURLs {
+    String getListImageURL();
+
+    String getHeroImageURL();
+
+    String getSoundURL();
+
+    String getAboutMeVideoURL();
+
+    String getLocationImageURL();
+
+    String getDietImageURL();
+}
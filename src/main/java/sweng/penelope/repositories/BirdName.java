@@ -0,0 +1,16 @@
+package sweng.penelope.repositories;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * <code>BirdName</code> holds the name of a
+ * {@link sweng.penelope.entities.Bird} and what identifies it.
+ */
+@Getter
+@AllArgsConstructor
+public class BirdName {
+    private final Long id;
+    private final Long campusId;
+    private final String name;
+}
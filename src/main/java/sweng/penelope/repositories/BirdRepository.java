@@ -1,8 +1,15 @@
 package sweng.penelope.repositories;
 
+import java.util.Collection;
 import java.util.List;
 
+import javax.persistence.QueryHint;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 
 import sweng.penelope.entities.Campus;
 import sweng.penelope.entities.Bird;
@@ -12,4 +19,120 @@ import sweng.penelope.entities.Bird;
  */
 public interface BirdRepository extends CrudRepository<Bird, Long> {
     List<Bird> findByCampus(Campus campus);
+
+    List<BirdAssetURLs> findAllProjectedBy();
+
+    /**
+     * Lists the asset urls of the birds of a campus.
+     * 
+     * @param campusId The campus id.
+     * @return The {@link BirdAssetURLs} list.
+     */
+    List<BirdAssetURLs> findAssetURLsByCampusId(Long campusId);
+
+    /**
+     * Lists a page of the birds of a campus, read as a range of the campus id
+     * and bird id index.
+     * 
+     * @param campusId The campus id.
+     * @param after    Only birds with a greater id are listed.
+     * @param pageable The page size, the page number should be 0.
+     * @return The {@link Bird} list, ordered by id.
+     */
+    List<Bird> findByCampusIdAndIdGreaterThanOrderByIdAsc(Long campusId, Long after, Pageable pageable);
+
+    /**
+     * Lists a page of the distinct asset urls the birds of a campus refer to,
+     * as written in the birds.
+     * 
+     * @param campusId The campus id.
+     * @param after    Only greater urls are listed, "" for the first page.
+     * @param limit    The page size.
+     * @return The urls, ordered.
+     */
+    @Query(value = "SELECT url FROM ("
+            + "SELECT list_imageurl AS url FROM bird WHERE campus_id = :campusId "
+            + "UNION SELECT hero_imageurl FROM bird WHERE campus_id = :campusId "
+            + "UNION SELECT soundurl FROM bird WHERE campus_id = :campusId "
+            + "UNION SELECT about_me_videourl FROM bird WHERE campus_id = :campusId "
+            + "UNION SELECT location_imageurl FROM bird WHERE campus_id = :campusId "
+            + "UNION SELECT diet_imageurl FROM bird WHERE campus_id = :campusId"
+            + ") urls WHERE url > :after ORDER BY url LIMIT :limit", nativeQuery = true)
+    List<String> findAssetURLsByCampusIdAfter(@Param("campusId") Long campusId, @Param("after") String after,
+            @Param("limit") int limit);
+
+    /**
+     * Lists the birds of a campus, fetching only what the campus xml shows.
+     * Descriptions are cut to 51 characters by the database, one more than is
+     * displayed so that truncated ones can still be told apart.
+     * 
+     * @param campusId The campus id.
+     * @return The {@link BirdSummary} list, ordered by id.
+     */
+    @QueryHints({ @QueryHint(name = "org.hibernate.cacheable", value = "true"),
+            @QueryHint(name = "org.hibernate.cacheRegion", value = "queries") })
+    @Query("SELECT new sweng.penelope.repositories.BirdSummary(b.id, b.name, SUBSTRING(b.aboutMe, 1, 51), b.listImageURL) "
+            + "FROM Bird b WHERE b.campus.id = :campusId ORDER BY b.id")
+    List<BirdSummary> findSummariesByCampusId(@Param("campusId") Long campusId);
+
+    /**
+     * Lists a page of the birds of a campus, see
+     * {@link #findSummariesByCampusId(Long)}. Pages are read as a range of the
+     * campus id and bird id index.
+     * 
+     * @param campusId The campus id.
+     * @param after    Only birds with a greater id are listed.
+     * @param pageable The page size, the page number should be 0.
+     * @return The {@link BirdSummary} list, ordered by id.
+     */
+    @QueryHints({ @QueryHint(name = "org.hibernate.cacheable", value = "true"),
+            @QueryHint(name = "org.hibernate.cacheRegion", value = "queries") })
+    @Query("SELECT new sweng.penelope.repositories.BirdSummary(b.id, b.name, SUBSTRING(b.aboutMe, 1, 51), b.listImageURL) "
+            + "FROM Bird b WHERE b.campus.id = :campusId AND b.id > :after ORDER BY b.id")
+    List<BirdSummary> findSummariesByCampusIdAfter(@Param("campusId") Long campusId, @Param("after") Long after,
+            Pageable pageable);
+
+    /**
+     * Lists a page of the searchable fields of all birds, read as a range of
+     * the primary key.
+     * 
+     * @param after    Only birds with a greater id are listed.
+     * @param pageable The page size, the page number should be 0.
+     * @return The {@link BirdText} list, ordered by id.
+     */
+    @Query("SELECT new sweng.penelope.repositories.BirdText(b.id, b.campus.id, b.name, b.aboutMe, b.diet, b.location, "
+            + "b.listImageURL) FROM Bird b WHERE b.id > :after ORDER BY b.id")
+    List<BirdText> findTextsAfter(@Param("after") Long after, Pageable pageable);
+
+    /**
+     * Lists the searchable fields of the given birds.
+     * 
+     * @param ids The bird ids.
+     * @return The {@link BirdText} list, birds which do not exist are left out.
+     */
+    @Query("SELECT new sweng.penelope.repositories.BirdText(b.id, b.campus.id, b.name, b.aboutMe, b.diet, b.location, "
+            + "b.listImageURL) FROM Bird b WHERE b.id IN :ids")
+    List<BirdText> findTextsByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Lists a page of the names of all birds, read as a range of the primary
+     * key.
+     * 
+     * @param after    Only birds with a greater id are listed.
+     * @param pageable The page size, the page number should be 0.
+     * @return The {@link BirdName} list, ordered by id.
+     */
+    @Query("SELECT new sweng.penelope.repositories.BirdName(b.id, b.campus.id, b.name) FROM Bird b "
+            + "WHERE b.id > :after ORDER BY b.id")
+    List<BirdName> findNamesAfter(@Param("after") Long after, Pageable pageable);
+
+    /**
+     * Lists the names of the given birds.
+     * 
+     * @param ids The bird ids.
+     * @return The {@link BirdName} list, birds which do not exist are left out.
+     */
+    @Query("SELECT new sweng.penelope.repositories.BirdName(b.id, b.campus.id, b.name) FROM Bird b "
+            + "WHERE b.id IN :ids")
+    List<BirdName> findNamesByIdIn(@Param("ids") Collection<Long> ids);
 }
@@ -0,0 +1,18 @@
+package sweng.penelope.repositories;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * <code>BirdSummary</code> holds the fields of a
+ * {@link sweng.penelope.entities.Bird} shown in the campus xml.
+ */
+@Getter
+@AllArgsConstructor
+public class BirdSummary {
+    private final Long id;
+    private final String name;
+    // Start of the description, see BirdRepository#findSummariesByCampusId
+    private final String aboutMe;
+    private final String listImageURL;
+}
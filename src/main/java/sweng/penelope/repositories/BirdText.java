@@ -0,0 +1,20 @@
+package sweng.penelope.repositories;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * <code>BirdText</code> holds the searchable fields of a
+ * {@link sweng.penelope.entities.Bird}, along with what a search result shows.
+ */
+@Getter
+@AllArgsConstructor
+public class BirdText {
+    private final Long id;
+    private final Long campusId;
+    private final String name;
+    private final String aboutMe;
+    private final String diet;
+    private final String location;
+    private final String listImageURL;
+}
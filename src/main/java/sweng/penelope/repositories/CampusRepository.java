@@ -1,5 +1,8 @@
 package sweng.penelope.repositories;
 
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.repository.CrudRepository;
 
 import sweng.penelope.entities.Campus;
@@ -8,5 +11,12 @@ import sweng.penelope.entities.Campus;
  * <code>CampusRepository</code> is a {@link CrudRepository} which handles {@link Campus}
  */
 public interface CampusRepository extends CrudRepository<Campus, Long> {
-    
+    /**
+     * Lists a page of campuses, read as a range of the primary key.
+     * 
+     * @param after    Only campuses with a greater id are listed.
+     * @param pageable The page size, the page number should be 0.
+     * @return The {@link Campus} list, ordered by id.
+     */
+    List<Campus> findByIdGreaterThanOrderByIdAsc(Long after, Pageable pageable);
 }
@@ -0,0 +1,46 @@
+package sweng.penelope.repositories;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.transaction.annotation.Transactional;
+
+import sweng.penelope.entities.ChangeRecord;
+
+/**
+ * <code>ChangeRecordRepository</code> is a {@link CrudRepository} which handles
+ * {@link ChangeRecord}
+ */
+public interface ChangeRecordRepository extends CrudRepository<ChangeRecord, Long> {
+    /**
+     * Lists the changes after a watermark, read as a range of the primary key.
+     * 
+     * @param after    Only changes with a greater id are listed.
+     * @param pageable The page size, the page number should be 0.
+     * @return The {@link ChangeRecord} list, oldest first.
+     */
+    List<ChangeRecord> findByIdGreaterThanOrderByIdAsc(Long after, Pageable pageable);
+
+    /**
+     * Finds the latest change.
+     * 
+     * @return The {@link ChangeRecord}, empty if the log is empty.
+     */
+    Optional<ChangeRecord> findTopByOrderByIdDesc();
+
+    /**
+     * Deletes the records a later change of the same entity supersedes. The
+     * latest record of every entity, tombstones included, is kept.
+     * 
+     * @return The number of deleted records.
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ChangeRecord c WHERE EXISTS (SELECT n.id FROM ChangeRecord n "
+            + "WHERE n.entityType = c.entityType AND n.entityId = c.entityId AND n.id > c.id)")
+    int deleteSuperseded();
+}
@@ -1,5 +1,13 @@
 package sweng.penelope.repositories;
 
+import java.util.List;
+import java.util.Optional;
+
+import javax.persistence.QueryHint;
+
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 
 import sweng.penelope.entities.DataManager;
@@ -7,4 +15,34 @@ import sweng.penelope.entities.DataManager;
 
 public interface DataManagerRepository extends CrudRepository<DataManager, String>{
     DataManager findByUsername(String username);
+
+    /**
+     * Lists every user along with their campuses, in a single query.
+     * 
+     * @return The {@link DataManager} list, ordered by username.
+     */
+    @Query("SELECT DISTINCT d FROM DataManager d LEFT JOIN FETCH d.campuses ORDER BY d.username")
+    // Duplicates from the join are removed in memory, not by the database
+    @QueryHints(@QueryHint(name = "hibernate.query.passDistinctThrough", value = "false"))
+    List<DataManager> findAllWithCampuses();
+
+    /**
+     * Finds a user along with their campuses.
+     * 
+     * @param username The username.
+     * @return The {@link DataManager}, if any.
+     */
+    @EntityGraph(attributePaths = "campuses")
+    Optional<DataManager> findWithCampusesByUsername(String username);
+
+    /**
+     * Checks whether a user has rights over a campus, without loading either.
+     * 
+     * @param username The username.
+     * @param campusId The campus id.
+     * @return True if the user has rights over the campus.
+     */
+    @QueryHints({ @QueryHint(name = "org.hibernate.cacheable", value = "true"),
+            @QueryHint(name = "org.hibernate.cacheRegion", value = "queries") })
+    boolean existsByUsernameAndCampusesId(String username, Long campusId);
 }
@@ -0,0 +1,29 @@
+package sweng.penelope.repositories;
+
+import java.util.Optional;
+
+import javax.persistence.LockModeType;
+
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+import sweng.penelope.entities.StoredBlob;
+
+/**
+ * <code>StoredBlobRepository</code> is a {@link CrudRepository} which handles
+ * {@link StoredBlob}
+ */
+public interface StoredBlobRepository extends CrudRepository<StoredBlob, String> {
+    /**
+     * Retrieves a blob, locking its row until the transaction ends so that
+     * reference counts are updated one at a time, across instances.
+     * 
+     * @param blobKey The blob key.
+     * @return The {@link StoredBlob}, if it exists.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT b FROM StoredBlob b WHERE b.blobKey = :blobKey")
+    Optional<StoredBlob> findForUpdate(@Param("blobKey") String blobKey);
+}
@@ -0,0 +1,292 @@
+package sweng.penelope.services;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.HtmlUtils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import sweng.penelope.entities.Bird;
+import sweng.penelope.entities.Campus;
+import sweng.penelope.entities.DataManager;
+import sweng.penelope.repositories.BirdRepository;
+import sweng.penelope.repositories.BirdSummary;
+import sweng.penelope.repositories.CampusRepository;
+import sweng.penelope.repositories.DataManagerRepository;
+import sweng.penelope.xml.BirdXML;
+import sweng.penelope.xml.CampusXML;
+import sweng.penelope.xml.CampusesListXML;
+import sweng.penelope.xml.CommonXML;
+import sweng.penelope.xml.UsersListXML;
+import sweng.penelope.xml.XMLConfiguration;
+
+/**
+ * <code>AbstractStorageService</code> implements the database operations of
+ * {@link StorageService}, shared by every storage backend.
+ * Loading a document is timed in three steps: the database queries, tagged
+ * with the requested type, then building and serialising the document, tagged
+ * with the document class.
+ */
+public abstract class AbstractStorageService implements StorageService {
+    private static final List<String> LOADS = List.of("bird", "campus", "campusPage", "campusesList",
+            "campusesListPage", "usersList");
+    private static final List<Class<? extends CommonXML>> DOCUMENTS = List.of(BirdXML.class, CampusXML.class,
+            CampusesListXML.class, UsersListXML.class);
+
+    @Autowired
+    private BirdRepository birdRepository;
+    @Autowired
+    private CampusRepository campusRepository;
+    @Autowired
+    private DataManagerRepository dataManagerRepository;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // By type
+    private final Map<String, Timer> loadTimers = new HashMap<>();
+    // By document class
+    private final Map<Class<?>, Timer> buildTimers = new HashMap<>();
+    private final Map<Class<?>, Timer> renderTimers = new HashMap<>();
+
+    @PostConstruct
+    private void registerDocumentMetrics() {
+        for (String type : LOADS) {
+            loadTimers.put(type, Timer.builder("penelope.storage.load")
+                    .description("Time taken to query the database for an xml document")
+                    .tag("type", type)
+                    .register(meterRegistry));
+        }
+
+        for (Class<? extends CommonXML> document : DOCUMENTS) {
+            buildTimers.put(document, Timer.builder("penelope.xml.build")
+                    .description("Time taken to build an xml document from loaded entities")
+                    .tag("document", document.getSimpleName())
+                    .register(meterRegistry));
+            renderTimers.put(document, Timer.builder("penelope.xml.render")
+                    .description("Time taken to serialise an xml document")
+                    .tag("document", document.getSimpleName())
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * A campus and the birds listed in its document.
+     */
+    private static class CampusRows {
+        private final Campus campus;
+        private final List<BirdSummary> birds;
+
+        private CampusRows(Campus campus, List<BirdSummary> birds) {
+            this.campus = campus;
+            this.birds = birds;
+        }
+    }
+
+    /**
+     * Times the database queries of a document, tagged with the requested type.
+     */
+    private <T> T timeLoad(String type, Supplier<T> load) {
+        return loadTimers.get(type).record(load);
+    }
+
+    /**
+     * Times building a document, tagged with its class.
+     */
+    private <T extends CommonXML> T timeBuild(Class<T> document, Supplier<T> build) {
+        return buildTimers.get(document).record(build);
+    }
+
+    /**
+     * Generates a {@link BirdXML}.
+     * 
+     * @param id        The {@link Bird} id.
+     * @param serverUrl The server url, with protocol and port.
+     * @return
+     */
+    private BirdXML getBird(Long id, String serverUrl) {
+        Bird bird = timeLoad("bird", () -> birdRepository.findById(id))
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+
+        return timeBuild(BirdXML.class, () -> {
+            XMLConfiguration xmlConfiguration = new XMLConfiguration(bird.getAuthor(), bird.getName(), id);
+            xmlConfiguration.setServerUrl(serverUrl);
+
+            BirdXML birdXML = new BirdXML(xmlConfiguration);
+
+            String aboutMe = HtmlUtils.htmlEscape(bird.getAboutMe());
+            String diet = HtmlUtils.htmlEscape(bird.getDiet());
+            String location = HtmlUtils.htmlEscape(bird.getLocation());
+
+            birdXML.addHeroSlide(bird.getSoundURL(), bird.getHeroImageURL());
+            birdXML.addAboutMe(bird.getAboutMeVideoURL(), aboutMe);
+            birdXML.addDiet(bird.getDietImageURL(), diet);
+            birdXML.addLocation(bird.getLocationImageURL(), location);
+
+            return birdXML;
+        });
+    }
+
+    /**
+     * Generates a {@link CampusXML} listing the given birds.
+     * 
+     * @param campus    The {@link Campus}.
+     * @param serverUrl The server url, with protocol and port.
+     * @param birds     The birds to show.
+     * @return The {@link CampusXML}.
+     */
+    private CampusXML buildCampus(Campus campus, String serverUrl, List<BirdSummary> birds) {
+        return timeBuild(CampusXML.class, () -> {
+            XMLConfiguration xmlConfiguration = new XMLConfiguration(campus.getAuthor(), campus.getName(),
+                    campus.getId());
+            xmlConfiguration.setServerUrl(serverUrl);
+            CampusXML campusXML = new CampusXML(xmlConfiguration);
+
+            // Only the displayed columns, not the full birds
+            for (BirdSummary bird : birds)
+                campusXML.addBird(bird.getName(), bird.getAboutMe(), bird.getId(), bird.getListImageURL());
+
+            return campusXML;
+        });
+    }
+
+    /**
+     * Generates a {@link CampusXML} listing all of its birds.
+     * 
+     * @param id        The {@link Campus} id.
+     * @param serverUrl The server url, with protocol and port.
+     * @return The {@link CampusXML}, or null if the campus does not exist.
+     */
+    private CampusXML getCampus(Long id, String serverUrl) {
+        CampusRows rows = timeLoad("campus", () -> campusRepository.findById(id)
+                .map(campus -> new CampusRows(campus, birdRepository.findSummariesByCampusId(id)))
+                .orElse(null));
+        if (rows == null)
+            return null;
+
+        return buildCampus(rows.campus, serverUrl, rows.birds);
+    }
+
+    private CampusXML getCampusPage(Long id, Long after, int limit, String serverUrl) {
+        // One more than the limit, to tell whether there is a next page
+        CampusRows rows = timeLoad("campusPage", () -> campusRepository.findById(id)
+                .map(campus -> new CampusRows(campus,
+                        birdRepository.findSummariesByCampusIdAfter(id, after, PageRequest.of(0, limit + 1))))
+                .orElse(null));
+        if (rows == null)
+            return null;
+
+        List<BirdSummary> birds = rows.birds;
+        CampusXML campusXML = buildCampus(rows.campus, serverUrl,
+                birds.subList(0, Math.min(limit, birds.size())));
+
+        if (birds.size() > limit)
+            campusXML.setNext(birds.get(limit - 1).getId());
+
+        return campusXML;
+    }
+
+    private CampusesListXML buildCampusesList(Iterable<Campus> campuses) {
+        return timeBuild(CampusesListXML.class, () -> {
+            XMLConfiguration xmlConfiguration = new XMLConfiguration("The Penelope Team", "Campuses list", -1L);
+            CampusesListXML campusesListXML = new CampusesListXML(xmlConfiguration);
+
+            for (Campus campus : campuses)
+                campusesListXML.addCampus(campus.getName(), campus.getId());
+
+            return campusesListXML;
+        });
+    }
+
+    private CampusesListXML getCampusesList() {
+        return buildCampusesList(timeLoad("campusesList", campusRepository::findAll));
+    }
+
+    private CampusesListXML getCampusesListPage(Long after, int limit) {
+        // One more than the limit, to tell whether there is a next page
+        List<Campus> campuses = timeLoad("campusesListPage",
+                () -> campusRepository.findByIdGreaterThanOrderByIdAsc(after, PageRequest.of(0, limit + 1)));
+
+        CampusesListXML campusesListXML = buildCampusesList(campuses.subList(0, Math.min(limit, campuses.size())));
+
+        if (campuses.size() > limit)
+            campusesListXML.setNext(campuses.get(limit - 1).getId());
+
+        return campusesListXML;
+    }
+
+    private UsersListXML getUsersList() {
+        List<DataManager> dataManagers = timeLoad("usersList", dataManagerRepository::findAllWithCampuses);
+
+        return timeBuild(UsersListXML.class, () -> {
+            XMLConfiguration xmlConfiguration = new XMLConfiguration("The Penelope Team", "Users list", -1L);
+            UsersListXML usersListXML = new UsersListXML(xmlConfiguration);
+
+            dataManagers.forEach(dataManager -> {
+                Set<Campus> campuses;
+
+                if (dataManager.isSysadmin())
+                    campuses = null;
+                else
+                    campuses = dataManager.getCampuses();
+
+                usersListXML.addUser(dataManager.getUsername(), campuses);
+            });
+
+            return usersListXML;
+        });
+    }
+
+    /**
+     * Serialises an xml document.
+     * 
+     * @param xml The document, may be null.
+     * @return {@link Resource} representation of the document, or null.
+     */
+    private Resource toResource(CommonXML xml) {
+        if (xml != null) {
+            byte[] bytesArray = renderTimers.get(xml.getClass()).record(xml::getBytes);
+            if (bytesArray != null) {
+                return new ByteArrayResource(bytesArray);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Resource loadAsResourceFromDB(String type, Long id, String serverUrl) {
+        CommonXML xml;
+        if (type.equals("campus"))
+            xml = getCampus(id, serverUrl);
+        else if (type.equals("bird"))
+            xml = getBird(id, serverUrl);
+        else if (type.equals("usersList"))
+            xml = getUsersList();
+        else
+            xml = getCampusesList();
+
+        return toResource(xml);
+    }
+
+    @Override
+    public Resource loadPageFromDB(String type, Long id, Long after, int limit, String serverUrl) {
+        CommonXML xml;
+        if (type.equals("campus"))
+            xml = getCampusPage(id, after, limit, serverUrl);
+        else
+            xml = getCampusesListPage(after, limit);
+
+        return toResource(xml);
+    }
+}
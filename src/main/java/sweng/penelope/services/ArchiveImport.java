@@ -0,0 +1,17 @@
+package sweng.penelope.services;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * <code>ArchiveImport</code> summarises a campus archive import, see
+ * {@link CampusArchiveService}.
+ */
+@Getter
+@AllArgsConstructor
+public class ArchiveImport {
+    private final Long campusId;
+    private final int birds;
+    private final int assets;
+    private final int failedAssets;
+}
@@ -0,0 +1,192 @@
+package sweng.penelope.services;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import sweng.penelope.repositories.BirdAssetURLs;
+import sweng.penelope.repositories.BirdRepository;
+
+/**
+ * <code>AssetCollectorService</code> periodically finds assets no
+ * {@link sweng.penelope.entities.Bird} refers to anymore, e.g. uploads never
+ * attached to a bird or assets of deleted birds, and deletes or quarantines
+ * them.
+ * Assets are only collected once older than the grace period, so that files
+ * uploaded for a bird which is still being created are left alone.
+ */
+@Service
+public class AssetCollectorService {
+    public static final String DRY_RUN = "dry-run";
+    public static final String DELETE = "delete";
+    public static final String QUARANTINE = "quarantine";
+
+    private static final String[] TYPES = { "image", "audio", "video" };
+
+    @Autowired
+    private StorageService storageService;
+    @Autowired
+    private BirdRepository birdRepository;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${penelope.gc.mode}")
+    private String mode;
+
+    @Value("${penelope.gc.grace-period}")
+    private long gracePeriod;
+
+    private Timer sweepTimer;
+    private Counter orphanedCounter;
+    private Counter reclaimedBytesCounter;
+
+    @PostConstruct
+    private void registerMetrics() {
+        sweepTimer = Timer.builder("penelope.gc.sweep")
+                .description("Time taken to collect orphaned assets")
+                .register(meterRegistry);
+        orphanedCounter = Counter.builder("penelope.gc.orphaned")
+                .description("Orphaned assets found")
+                .register(meterRegistry);
+        reclaimedBytesCounter = Counter.builder("penelope.gc.reclaimed")
+                .description("Bytes of orphaned assets deleted or quarantined")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Reduces an asset url to its <code>type/campusId/fileName</code> form,
+     * dropping any server part and query string.
+     *
+     * @param url The url.
+     * @return The normalised url, or null if it is not an asset url.
+     */
+    static String normalise(String url) {
+        if (url == null)
+            return null;
+
+        int queryIndex = url.indexOf('?');
+        if (queryIndex >= 0)
+            url = url.substring(0, queryIndex);
+
+        String[] urlParts = url.split("/");
+        if (urlParts.length < 3)
+            return null;
+
+        int length = urlParts.length;
+        return String.format("%s/%s/%s", urlParts[length - 3], urlParts[length - 2], urlParts[length - 1]);
+    }
+
+    /**
+     * Mark phase, collects the urls of all assets in use.
+     *
+     * @return The referenced urls.
+     */
+    private Set<String> markReferenced() {
+        Set<String> referenced = new HashSet<>();
+
+        for (BirdAssetURLs bird : birdRepository.findAllProjectedBy()) {
+            Stream.of(bird.getListImageURL(), bird.getHeroImageURL(), bird.getSoundURL(), bird.getAboutMeVideoURL(),
+                    bird.getLocationImageURL(), bird.getDietImageURL())
+                    .map(AssetCollectorService::normalise)
+                    .filter(Objects::nonNull)
+                    .forEach(referenced::add);
+        }
+
+        return referenced;
+    }
+
+    /**
+     * Checks whether an asset is in use. Image variants are in use as long as
+     * their original is.
+     */
+    private static boolean isReferenced(String url, Set<String> referenced) {
+        if (referenced.contains(url))
+            return true;
+
+        int fileNameIndex = url.lastIndexOf('/');
+        String originalName = ImageVariantService.originalName(url.substring(fileNameIndex + 1));
+
+        return originalName != null && referenced.contains(url.substring(0, fileNameIndex + 1) + originalName);
+    }
+
+    /**
+     * Sweeps a campus folder.
+     */
+    private void sweep(String type, String campusId, Set<String> referenced, long threshold, SweepReport report) {
+        for (StoredAsset asset : storageService.listAssets(type, campusId)) {
+            report.getScanned().incrementAndGet();
+
+            if (asset.getLastModified() >= threshold || isReferenced(asset.getUrl(), referenced))
+                continue;
+
+            report.getOrphaned().incrementAndGet();
+            orphanedCounter.increment();
+
+            boolean collected;
+            if (mode.equals(DELETE))
+                collected = storageService.remove(asset.getUrl());
+            else if (mode.equals(QUARANTINE))
+                collected = storageService.quarantine(asset.getUrl());
+            else
+                collected = false;
+
+            if (collected) {
+                report.getReclaimedBytes().addAndGet(asset.getSize());
+                reclaimedBytesCounter.increment(asset.getSize());
+            }
+        }
+    }
+
+    /**
+     * Runs a mark and sweep collection. Campus folders are swept in parallel.
+     * In dry-run mode, orphaned assets are only counted.
+     *
+     * @return The {@link SweepReport}.
+     */
+    public SweepReport collect() {
+        long start = System.nanoTime();
+        SweepReport report = new SweepReport(mode);
+
+        try {
+            // Assets stored within the grace period are left for a later run
+            long threshold = System.currentTimeMillis() - gracePeriod;
+            Set<String> referenced = markReferenced();
+
+            List<String[]> campusFolders = new ArrayList<>();
+            for (String type : TYPES) {
+                for (String campusId : storageService.listCampuses(type))
+                    campusFolders.add(new String[] { type, campusId });
+            }
+
+            campusFolders.parallelStream()
+                    .forEach(campusFolder -> sweep(campusFolder[0], campusFolder[1], referenced, threshold, report));
+        } finally {
+            sweepTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        return report;
+    }
+
+    /**
+     * Periodically collects orphaned assets.
+     */
+    @Scheduled(initialDelayString = "${penelope.gc.interval}", fixedDelayString = "${penelope.gc.interval}")
+    public void collectPeriodically() {
+        collect();
+    }
+}
@@ -0,0 +1,26 @@
+package sweng.penelope.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Getter;
+
+/**
+ * <code>AssetManifest</code> lists the assets the birds of a campus refer to,
+ * see {@link AssetManifestService}.
+ */
+@Getter
+public class AssetManifest {
+    private final Long campusId;
+    // Ordered by url
+    private final List<ManifestAsset> assets = new ArrayList<>();
+
+    /**
+     * <code>AssetManifest</code> constructor.
+     *
+     * @param campusId The campus ID.
+     */
+    public AssetManifest(Long campusId) {
+        this.campusId = campusId;
+    }
+}
@@ -0,0 +1,205 @@
+package sweng.penelope.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import lombok.AllArgsConstructor;
+import sweng.penelope.entities.AssetAlias;
+import sweng.penelope.repositories.AssetAliasRepository;
+import sweng.penelope.repositories.BirdAssetURLs;
+import sweng.penelope.repositories.BirdRepository;
+import sweng.penelope.repositories.CampusRepository;
+
+/**
+ * <code>AssetManifestService</code> builds the list of the assets a campus
+ * needs offline, with their size, content type and content hash.
+ * Hashes are remembered per asset along with the size and modification time
+ * they were computed for, so rebuilding a manifest after an edit only reads
+ * the assets which are new or changed. Assets are read by
+ * <code>penelope.manifest.hashers</code> threads shared by all manifests.
+ */
+@Service
+public class AssetManifestService {
+    @Autowired
+    private StorageService storageService;
+    @Autowired
+    private BirdRepository birdRepository;
+    @Autowired
+    private CampusRepository campusRepository;
+    @Autowired
+    private AssetAliasRepository assetAliasRepository;
+
+    @Value("${penelope.manifest.hashers}")
+    private int hashers;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    private void startHashers() {
+        executor = Executors.newFixedThreadPool(hashers, new CustomizableThreadFactory("manifest-hash-"));
+    }
+
+    @PreDestroy
+    private void stopHashers() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A computed hash, valid while the asset keeps its size and modification
+     * time.
+     */
+    @AllArgsConstructor
+    private static class HashedAsset {
+        private final long size;
+        private final long lastModified;
+        private final String hash;
+    }
+
+    // By url
+    private final Map<String, HashedAsset> hashes = new ConcurrentHashMap<>();
+
+    /**
+     * Hashes the content of an asset. Content-addressed assets are stored
+     * under their hash already and are not read.
+     *
+     * @param asset The {@link StoredAsset}.
+     * @return The hex encoded SHA-256 hash.
+     */
+    private String hash(StoredAsset asset) {
+        Optional<AssetAlias> assetAlias = assetAliasRepository.findById(asset.getUrl());
+        if (assetAlias.isPresent()) {
+            String blobKey = assetAlias.get().getBlobKey();
+            int extensionIndex = blobKey.indexOf('.');
+            return extensionIndex < 0 ? blobKey : blobKey.substring(0, extensionIndex);
+        }
+
+        String[] urlParts = asset.getUrl().split("/");
+        Resource resource = storageService.loadAsResource(urlParts[0], urlParts[1], urlParts[2]);
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException noSuchAlgorithmException) {
+            throw new IllegalStateException("SHA-256 is not available", noSuchAlgorithmException);
+        }
+
+        try (InputStream inputStream = new DigestInputStream(resource.getInputStream(), digest)) {
+            inputStream.transferTo(OutputStream.nullOutputStream());
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException ioException) {
+            throw new UncheckedIOException(ioException);
+        }
+    }
+
+    /**
+     * Looks up the remembered hash of an asset, hashing it if it is new or
+     * changed since.
+     */
+    private ManifestAsset describe(StoredAsset asset) {
+        HashedAsset hashedAsset = hashes.get(asset.getUrl());
+
+        if (hashedAsset == null || hashedAsset.size != asset.getSize()
+                || hashedAsset.lastModified != asset.getLastModified()) {
+            hashedAsset = new HashedAsset(asset.getSize(), asset.getLastModified(), hash(asset));
+            hashes.put(asset.getUrl(), hashedAsset);
+        }
+
+        String contentType = MediaTypeFactory.getMediaType(asset.getUrl())
+                .orElse(MediaType.APPLICATION_OCTET_STREAM)
+                .toString();
+
+        return new ManifestAsset(asset.getUrl(), asset.getSize(), contentType, hashedAsset.hash);
+    }
+
+    /**
+     * Builds the manifest of a campus. Assets referenced but missing from
+     * storage are left out.
+     *
+     * @param campusId The campus ID.
+     * @return The {@link AssetManifest}, or null if the campus does not exist.
+     */
+    public AssetManifest buildManifest(Long campusId) {
+        if (!campusRepository.existsById(campusId))
+            return null;
+
+        Set<String> referenced = new TreeSet<>();
+        for (BirdAssetURLs bird : birdRepository.findAssetURLsByCampusId(campusId)) {
+            Stream.of(bird.getListImageURL(), bird.getHeroImageURL(), bird.getSoundURL(), bird.getAboutMeVideoURL(),
+                    bird.getLocationImageURL(), bird.getDietImageURL())
+                    .map(AssetCollectorService::normalise)
+                    .filter(Objects::nonNull)
+                    .forEach(referenced::add);
+        }
+
+        String campusIdString = campusId.toString();
+
+        // One listing per asset folder rather than one lookup per asset
+        Map<String, StoredAsset> stored = new HashMap<>();
+        Set<String> folders = referenced.stream()
+                .map(url -> url.substring(0, url.lastIndexOf('/')))
+                .collect(Collectors.toSet());
+        for (String folder : folders) {
+            String[] folderParts = folder.split("/");
+            for (StoredAsset asset : storageService.listAssets(folderParts[0], folderParts[1]))
+                stored.put(asset.getUrl(), asset);
+        }
+
+        // Hashes of assets no bird of the campus refers to anymore are forgotten
+        hashes.keySet().removeIf(url -> url.split("/")[1].equals(campusIdString) && !referenced.contains(url));
+
+        // New or changed assets are read in parallel
+        List<CompletableFuture<ManifestAsset>> described = referenced.stream()
+                .map(stored::get)
+                .filter(Objects::nonNull)
+                .map(asset -> CompletableFuture.supplyAsync(() -> describe(asset), executor))
+                .collect(Collectors.toList());
+
+        List<ManifestAsset> assets;
+        try {
+            assets = described.stream()
+                    .map(CompletableFuture::join)
+                    .collect(Collectors.toList());
+        } catch (CompletionException completionException) {
+            described.forEach(future -> future.cancel(false));
+            if (completionException.getCause() instanceof RuntimeException)
+                throw (RuntimeException) completionException.getCause();
+            throw completionException;
+        }
+
+        AssetManifest assetManifest = new AssetManifest(campusId);
+        assetManifest.getAssets().addAll(assets);
+
+        return assetManifest;
+    }
+}
@@ -0,0 +1,224 @@
+package sweng.penelope.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import sweng.penelope.entities.Campus;
+import sweng.penelope.entities.ChangeRecord;
+import sweng.penelope.repositories.BirdName;
+import sweng.penelope.repositories.BirdRepository;
+import sweng.penelope.repositories.CampusRepository;
+
+/**
+ * <code>AutocompleteService</code> completes campus and bird names from an
+ * in-memory {@link NameTrie}.
+ * The trie is immutable, lookups read the current one without locking. When
+ * names change, see {@link CatalogueChangeEvent}, a new trie is built in the
+ * background and swapped in, writes arriving meanwhile being folded into the
+ * next build. Builds, including the initial one, run one at a time on a single
+ * builder thread.
+ */
+@Service
+public class AutocompleteService {
+    @Autowired
+    private CampusRepository campusRepository;
+    @Autowired
+    private BirdRepository birdRepository;
+
+    @Value("${penelope.autocomplete.max-limit}")
+    private int maxLimit;
+
+    @Value("${penelope.search.rebuild-page-size}")
+    private int pageSize;
+
+    // By type/id
+    private final Map<String, NameEntry> names = new ConcurrentHashMap<>();
+    private final AtomicBoolean rebuildPending = new AtomicBoolean();
+    // Names changed while all names are being reloaded, already up to date.
+    // Guarded by names
+    private Set<String> changedDuringRebuild = null;
+    // By type/id, the id of the last change applied. Events are delivered on
+    // the committing threads, so an older change can arrive last. Guarded by
+    // names
+    private final Map<String, Long> appliedChanges = new HashMap<>();
+    private final ExecutorService executor = Executors
+            .newSingleThreadExecutor(new CustomizableThreadFactory("autocomplete-"));
+
+    private volatile NameTrie nameTrie = NameTrie.build(Collections.emptyList(), 1);
+
+    @PreDestroy
+    private void stopBuilder() {
+        executor.shutdownNow();
+    }
+
+    private static String key(String type, Long id) {
+        return type + "/" + id;
+    }
+
+    private static NameEntry campusEntry(Campus campus) {
+        return new NameEntry(ChangeRecord.CAMPUS, campus.getId(), campus.getId(), campus.getName());
+    }
+
+    private static NameEntry birdEntry(BirdName bird) {
+        return new NameEntry(ChangeRecord.BIRD, bird.getId(), bird.getCampusId(), bird.getName());
+    }
+
+    private void put(NameEntry nameEntry) {
+        names.put(key(nameEntry.getType(), nameEntry.getId()), nameEntry);
+    }
+
+    /**
+     * Puts a name read by a reload, unless it changed since.
+     */
+    private void putLoaded(NameEntry nameEntry) {
+        synchronized (names) {
+            if (!changedDuringRebuild.contains(key(nameEntry.getType(), nameEntry.getId())))
+                put(nameEntry);
+        }
+    }
+
+    /**
+     * Puts a name reloaded for a change, unless a newer change was applied
+     * since.
+     */
+    private void putChanged(NameEntry nameEntry, Map<String, Long> changeIds) {
+        String key = key(nameEntry.getType(), nameEntry.getId());
+        synchronized (names) {
+            if (changeIds.get(key).equals(appliedChanges.get(key)))
+                put(nameEntry);
+        }
+    }
+
+    /**
+     * Builds a new trie from the current names and swaps it in.
+     */
+    void buildTrie() {
+        nameTrie = NameTrie.build(new ArrayList<>(names.values()), maxLimit);
+    }
+
+    /**
+     * Queues a trie build, unless one is queued already.
+     */
+    private void scheduleBuild() {
+        if (rebuildPending.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                // Changes from now on are picked up by the next build
+                rebuildPending.set(false);
+                buildTrie();
+            });
+        }
+    }
+
+    /**
+     * Queues a reload of every campus and bird name, followed by a trie build.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        executor.execute(this::reload);
+    }
+
+    /**
+     * Loads every campus and bird name, then builds the trie. Runs on the
+     * builder thread.
+     */
+    private void reload() {
+        synchronized (names) {
+            changedDuringRebuild = new HashSet<>();
+        }
+
+        try {
+            campusRepository.findAll().forEach(campus -> putLoaded(campusEntry(campus)));
+
+            Long after = 0L;
+            List<BirdName> page;
+            do {
+                page = birdRepository.findNamesAfter(after, PageRequest.of(0, pageSize));
+                page.stream().map(AutocompleteService::birdEntry).forEach(this::putLoaded);
+                if (!page.isEmpty())
+                    after = page.get(page.size() - 1).getId();
+            } while (page.size() == pageSize);
+        } finally {
+            synchronized (names) {
+                changedDuringRebuild = null;
+            }
+        }
+
+        buildTrie();
+    }
+
+    /**
+     * Applies committed campus and bird changes to the names, then queues a
+     * trie build.
+     *
+     * @param event The {@link CatalogueChangeEvent}.
+     */
+    @EventListener
+    public void onChangesCommitted(CatalogueChangeEvent event) {
+        List<Long> campusIds = new ArrayList<>();
+        List<Long> birdIds = new ArrayList<>();
+        Map<String, Long> changeIds = new HashMap<>();
+        synchronized (names) {
+            for (ChangeRecord change : event.getChanges()) {
+                String key = key(change.getEntityType(), change.getEntityId());
+
+                // A newer change was applied, its reload is at least as recent
+                if (appliedChanges.getOrDefault(key, 0L) >= change.getId())
+                    continue;
+                appliedChanges.put(key, change.getId());
+                changeIds.put(key, change.getId());
+
+                // Reloaded below if still there, a reload in progress leaves it alone
+                names.remove(key);
+                if (changedDuringRebuild != null)
+                    changedDuringRebuild.add(key);
+
+                if (change.getAction().equals(ChangeRecord.DELETED))
+                    continue;
+
+                if (change.getEntityType().equals(ChangeRecord.CAMPUS))
+                    campusIds.add(change.getEntityId());
+                else
+                    birdIds.add(change.getEntityId());
+            }
+        }
+
+        if (!campusIds.isEmpty())
+            campusRepository.findAllById(campusIds).forEach(campus -> putChanged(campusEntry(campus), changeIds));
+        if (!birdIds.isEmpty())
+            birdRepository.findNamesByIdIn(birdIds).stream().map(AutocompleteService::birdEntry)
+                    .forEach(nameEntry -> putChanged(nameEntry, changeIds));
+
+        scheduleBuild();
+    }
+
+    /**
+     * Completes a prefix of any word of a campus or bird name.
+     *
+     * @param prefix The prefix, case insensitive.
+     * @param limit  The maximum number of names returned.
+     * @return The {@link NameEntry} list, campuses first, then shortest names
+     *         first.
+     */
+    public List<NameEntry> complete(String prefix, int limit) {
+        return nameTrie.complete(prefix, Math.min(limit, maxLimit));
+    }
+}
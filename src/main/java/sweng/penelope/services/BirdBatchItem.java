@@ -0,0 +1,27 @@
+package sweng.penelope.services;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * <code>BirdBatchItem</code> is one bird of a batch write. Items without an id
+ * create a bird and need every field, items with one update that bird and
+ * leave missing fields unchanged.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+public class BirdBatchItem {
+    private Long id;
+    private String name;
+    private String listImageURL;
+    private String heroImageURL;
+    private String soundURL;
+    private String aboutMe;
+    private String aboutMeVideoURL;
+    private String location;
+    private String locationImageURL;
+    private String diet;
+    private String dietImageURL;
+}
@@ -0,0 +1,22 @@
+package sweng.penelope.services;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import lombok.Getter;
+
+/**
+ * <code>BirdBatchResult</code> describes a committed batch write, see
+ * {@link BirdBatchService}.
+ */
+@Getter
+public class BirdBatchResult {
+    private final List<Long> created = new ArrayList<>();
+    private final List<Long> updated = new ArrayList<>();
+    // Urls of the assets referenced before and after the write
+    private final Set<String> assetUrls = new HashSet<>();
+    // Urls of the assets updated birds no longer reference
+    private final Set<String> replacedAssetUrls = new HashSet<>();
+}
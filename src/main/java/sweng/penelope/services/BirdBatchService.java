@@ -0,0 +1,224 @@
+package sweng.penelope.services;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.server.ResponseStatusException;
+import org.xml.sax.SAXException;
+
+import sweng.penelope.entities.Bird;
+import sweng.penelope.entities.Campus;
+import sweng.penelope.repositories.BirdRepository;
+import sweng.penelope.repositories.CampusRepository;
+
+/**
+ * <code>BirdBatchService</code> creates and updates many birds of a campus in
+ * a single transaction. New birds take their ids from a pooled sequence, so
+ * that Hibernate sends the inserts, and the updates, as JDBC batches.
+ */
+@Service
+public class BirdBatchService {
+    private static final int MAX_NAME_LENGTH = 20;
+
+    @Autowired
+    private BirdRepository birdRepository;
+    @Autowired
+    private CampusRepository campusRepository;
+
+    @Value("${penelope.birds.batch-max-size}")
+    private int maxBatchSize;
+
+    /**
+     * Reads a batch from xml, a <code>birds</code> element holding
+     * <code>bird</code> elements. Fields are child elements named as in
+     * {@link BirdBatchItem}, the id is an attribute.
+     * 
+     * @param xml The xml document.
+     * @return The {@link BirdBatchItem} list.
+     * @throws ResponseStatusException BAD_REQUEST if the document is malformed.
+     */
+    public List<BirdBatchItem> parseXML(String xml) {
+        try {
+            SAXReader saxReader = new SAXReader();
+            // No external entities
+            saxReader.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            Document document = saxReader.read(new StringReader(xml));
+
+            List<BirdBatchItem> items = new ArrayList<>();
+            for (Element birdElement : document.getRootElement().elements("bird")) {
+                BirdBatchItem item = new BirdBatchItem();
+
+                String id = birdElement.attributeValue("id");
+                if (id != null)
+                    item.setId(Long.parseLong(id));
+
+                item.setName(birdElement.elementText("name"));
+                item.setListImageURL(birdElement.elementText("listImageURL"));
+                item.setHeroImageURL(birdElement.elementText("heroImageURL"));
+                item.setSoundURL(birdElement.elementText("soundURL"));
+                item.setAboutMe(birdElement.elementText("aboutMe"));
+                item.setAboutMeVideoURL(birdElement.elementText("aboutMeVideoURL"));
+                item.setLocation(birdElement.elementText("location"));
+                item.setLocationImageURL(birdElement.elementText("locationImageURL"));
+                item.setDiet(birdElement.elementText("diet"));
+                item.setDietImageURL(birdElement.elementText("dietImageURL"));
+
+                items.add(item);
+            }
+
+            return items;
+        } catch (DocumentException | SAXException | NumberFormatException exception) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Malformed birds xml", exception);
+        }
+    }
+
+    /**
+     * Checks the fields of an item.
+     * 
+     * @param index The item's position in the batch, for error messages.
+     * @param item  The item.
+     * @throws ResponseStatusException BAD_REQUEST if a field is missing, blank
+     *                                 or too long.
+     */
+    private void validate(int index, BirdBatchItem item) {
+        boolean create = item.getId() == null;
+        String[][] fields = { { "name", item.getName() }, { "listImageURL", item.getListImageURL() },
+                { "heroImageURL", item.getHeroImageURL() }, { "soundURL", item.getSoundURL() },
+                { "aboutMe", item.getAboutMe() }, { "aboutMeVideoURL", item.getAboutMeVideoURL() },
+                { "location", item.getLocation() }, { "locationImageURL", item.getLocationImageURL() },
+                { "diet", item.getDiet() }, { "dietImageURL", item.getDietImageURL() } };
+
+        for (String[] field : fields) {
+            // Updates only change the fields given
+            if (field[1] == null && !create)
+                continue;
+
+            if (field[1] == null || field[1].isBlank())
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        String.format("Bird %d: %s must not be blank", index, field[0]));
+        }
+
+        if (item.getName() != null && item.getName().length() > MAX_NAME_LENGTH)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("Bird %d: name must be at most %d characters", index, MAX_NAME_LENGTH));
+    }
+
+    /**
+     * Collects a bird's asset urls.
+     */
+    private static void addAssetUrls(Bird bird, BirdBatchResult result) {
+        result.getAssetUrls().add(bird.getListImageURL());
+        result.getAssetUrls().add(bird.getHeroImageURL());
+        result.getAssetUrls().add(bird.getSoundURL());
+        result.getAssetUrls().add(bird.getAboutMeVideoURL());
+        result.getAssetUrls().add(bird.getLocationImageURL());
+        result.getAssetUrls().add(bird.getDietImageURL());
+    }
+
+    /**
+     * Sets a bird field if a new value was given, recording the asset it
+     * replaces.
+     */
+    private static void update(String value, Function<Bird, String> getter, Consumer<String> setter, Bird bird,
+            BirdBatchResult result, boolean asset) {
+        if (value == null)
+            return;
+
+        String previous = getter.apply(bird);
+        if (asset && !value.equals(previous))
+            result.getReplacedAssetUrls().add(previous);
+
+        setter.accept(value);
+    }
+
+    /**
+     * Creates and updates birds of a campus in one transaction. Either every
+     * bird is written or none is.
+     * 
+     * @param campusId The ID of the campus the birds belong to.
+     * @param items    The birds, created if they have no id.
+     * @param author   The author's name.
+     * @return The {@link BirdBatchResult}.
+     * @throws ResponseStatusException NOT_FOUND if the campus or a bird to
+     *                                 update does not exist in it, BAD_REQUEST
+     *                                 if the batch is invalid.
+     */
+    @Transactional
+    public BirdBatchResult save(Long campusId, List<BirdBatchItem> items, String author) {
+        if (items.isEmpty() || items.size() > maxBatchSize)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("A batch holds between 1 and %d birds", maxBatchSize));
+
+        for (int i = 0; i < items.size(); i++)
+            validate(i, items.get(i));
+
+        Campus campus = campusRepository.findById(campusId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+
+        // Birds to update, loaded at once
+        List<Long> ids = items.stream().map(BirdBatchItem::getId).filter(id -> id != null)
+                .collect(Collectors.toList());
+        Map<Long, Bird> existing = new HashMap<>();
+        birdRepository.findAllById(ids).forEach(bird -> existing.put(bird.getId(), bird));
+
+        BirdBatchResult result = new BirdBatchResult();
+        List<Bird> created = new ArrayList<>();
+
+        for (BirdBatchItem item : items) {
+            if (item.getId() == null) {
+                Bird bird = new Bird(item.getName(), item.getListImageURL(), item.getHeroImageURL(),
+                        item.getSoundURL(), item.getAboutMe(), item.getAboutMeVideoURL(), item.getLocation(),
+                        item.getLocationImageURL(), item.getDiet(), item.getDietImageURL(), campus, author);
+                created.add(bird);
+                addAssetUrls(bird, result);
+                continue;
+            }
+
+            Bird bird = existing.get(item.getId());
+            if (bird == null || !bird.getCampus().getId().equals(campusId))
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND,
+                        String.format("Bird %d not found in campus %d", item.getId(), campusId));
+
+            addAssetUrls(bird, result);
+
+            update(item.getName(), Bird::getName, bird::setName, bird, result, false);
+            update(item.getListImageURL(), Bird::getListImageURL, bird::setListImageURL, bird, result, true);
+            update(item.getHeroImageURL(), Bird::getHeroImageURL, bird::setHeroImageURL, bird, result, true);
+            update(item.getSoundURL(), Bird::getSoundURL, bird::setSoundURL, bird, result, true);
+            update(item.getAboutMe(), Bird::getAboutMe, bird::setAboutMe, bird, result, false);
+            update(item.getAboutMeVideoURL(), Bird::getAboutMeVideoURL, bird::setAboutMeVideoURL, bird, result,
+                    true);
+            update(item.getLocation(), Bird::getLocation, bird::setLocation, bird, result, false);
+            update(item.getLocationImageURL(), Bird::getLocationImageURL, bird::setLocationImageURL, bird, result,
+                    true);
+            update(item.getDiet(), Bird::getDiet, bird::setDiet, bird, result, false);
+            update(item.getDietImageURL(), Bird::getDietImageURL, bird::setDietImageURL, bird, result, true);
+
+            if (!bird.getAuthor().contains(author))
+                bird.setAuthor(bird.getAuthor() + ", " + author);
+
+            addAssetUrls(bird, result);
+            result.getUpdated().add(bird.getId());
+        }
+
+        // Inserted in batches on flush, updates are flushed by dirty checking
+        birdRepository.saveAll(created).forEach(bird -> result.getCreated().add(bird.getId()));
+
+        return result;
+    }
+}
@@ -0,0 +1,347 @@
+package sweng.penelope.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import sweng.penelope.entities.ChangeRecord;
+import sweng.penelope.repositories.BirdRepository;
+import sweng.penelope.repositories.BirdText;
+
+/**
+ * <code>BirdSearchService</code> keeps an in-memory inverted index of bird
+ * names, descriptions, diets and locations.
+ * The index is built at startup, tokenising birds in parallel, then kept up
+ * to date from the committed changes, see {@link CatalogueChangeEvent}.
+ * Queries match birds holding every query term, ranked by the weighted
+ * frequency of the terms times their inverse document frequency.
+ */
+@Service
+public class BirdSearchService {
+    // Matches in a name count more than in the other fields
+    private static final float NAME_WEIGHT = 3f;
+    private static final float TEXT_WEIGHT = 1f;
+    private static final int SUMMARY_LENGTH = 51;
+
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList("a", "an", "and", "are", "as", "at",
+            "be", "by", "for", "from", "in", "is", "it", "its", "of", "on", "or", "the", "to", "with"));
+
+    @Autowired
+    private BirdRepository birdRepository;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${penelope.search.rebuild-page-size}")
+    private int rebuildPageSize;
+
+    /**
+     * An indexed bird, with the weight of each of its terms.
+     */
+    private static class IndexedBird {
+        private final SearchResult summary;
+        private final Map<String, Float> termWeights;
+
+        private IndexedBird(SearchResult summary, Map<String, Float> termWeights) {
+            this.summary = summary;
+            this.termWeights = termWeights;
+        }
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Term to bird id to weight
+    private final Map<String, Map<Long, Float>> postings = new HashMap<>();
+    private final Map<Long, IndexedBird> birds = new HashMap<>();
+    // Bird id to the id of the last change applied. Events are delivered on
+    // the committing threads, so an older change can arrive last
+    private final Map<Long, Long> appliedChanges = new HashMap<>();
+
+    // Birds changed while the index is being rebuilt, already up to date
+    private Set<Long> changedDuringRebuild = null;
+
+    private Timer queryTimer;
+
+    @PostConstruct
+    private void registerMetrics() {
+        queryTimer = Timer.builder("penelope.search.query")
+                .description("Time taken to run a search query")
+                .register(meterRegistry);
+        Gauge.builder("penelope.search.indexed", birds, Map::size)
+                .description("Birds in the search index")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Splits a text into lower case terms, dropping punctuation and stop
+     * words.
+     *
+     * @param text The text, may be null.
+     * @return The terms, in order.
+     */
+    static List<String> tokenize(String text) {
+        if (text == null)
+            return Collections.emptyList();
+
+        return Arrays.stream(text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+"))
+                .filter(term -> !term.isEmpty() && !STOP_WORDS.contains(term))
+                .collect(Collectors.toList());
+    }
+
+    private static void addTerms(Map<String, Float> termWeights, String text, float weight) {
+        for (String term : tokenize(text))
+            termWeights.merge(term, weight, Float::sum);
+    }
+
+    /**
+     * Tokenises a bird, without touching the index.
+     */
+    private static IndexedBird analyse(BirdText bird) {
+        Map<String, Float> termWeights = new HashMap<>();
+        addTerms(termWeights, bird.getName(), NAME_WEIGHT);
+        addTerms(termWeights, bird.getAboutMe(), TEXT_WEIGHT);
+        addTerms(termWeights, bird.getDiet(), TEXT_WEIGHT);
+        addTerms(termWeights, bird.getLocation(), TEXT_WEIGHT);
+
+        String aboutMe = bird.getAboutMe() != null ? bird.getAboutMe() : "";
+        SearchResult summary = new SearchResult(bird.getId(), bird.getCampusId(), bird.getName(),
+                aboutMe.substring(0, Math.min(aboutMe.length(), SUMMARY_LENGTH)), bird.getListImageURL(), 0f);
+
+        return new IndexedBird(summary, termWeights);
+    }
+
+    /**
+     * Removes a bird from the index. The write lock must be held.
+     */
+    private void removeLocked(Long id) {
+        IndexedBird previous = birds.remove(id);
+        if (previous == null)
+            return;
+
+        for (String term : previous.termWeights.keySet()) {
+            Map<Long, Float> termPostings = postings.get(term);
+            termPostings.remove(id);
+            if (termPostings.isEmpty())
+                postings.remove(term);
+        }
+    }
+
+    /**
+     * Adds or replaces a bird in the index. The write lock must be held.
+     */
+    private void putLocked(IndexedBird indexedBird) {
+        Long id = indexedBird.summary.getId();
+        removeLocked(id);
+
+        birds.put(id, indexedBird);
+        indexedBird.termWeights
+                .forEach((term, weight) -> postings.computeIfAbsent(term, key -> new HashMap<>()).put(id, weight));
+    }
+
+    /**
+     * Adds or replaces birds in the index.
+     *
+     * @param texts The {@link BirdText} list.
+     */
+    void index(List<BirdText> texts) {
+        List<IndexedBird> analysed = texts.parallelStream().map(BirdSearchService::analyse)
+                .collect(Collectors.toList());
+
+        lock.writeLock().lock();
+        try {
+            analysed.forEach(this::putLocked);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuilds the index from the database, a page of birds at a time. Each
+     * page is tokenised in parallel.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            changedDuringRebuild = new HashSet<>();
+            postings.clear();
+            birds.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            Long after = 0L;
+            List<BirdText> page;
+            do {
+                page = birdRepository.findTextsAfter(after, PageRequest.of(0, rebuildPageSize));
+                if (page.isEmpty())
+                    break;
+                after = page.get(page.size() - 1).getId();
+
+                List<IndexedBird> analysed = page.parallelStream().map(BirdSearchService::analyse)
+                        .collect(Collectors.toList());
+
+                lock.writeLock().lock();
+                try {
+                    for (IndexedBird indexedBird : analysed) {
+                        // Changes committed since the page was read win
+                        if (!changedDuringRebuild.contains(indexedBird.summary.getId()))
+                            putLocked(indexedBird);
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            } while (page.size() == rebuildPageSize);
+        } finally {
+            lock.writeLock().lock();
+            try {
+                changedDuringRebuild = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Applies committed bird changes to the index.
+     *
+     * @param event The {@link CatalogueChangeEvent}.
+     */
+    @EventListener
+    public void onChangesCommitted(CatalogueChangeEvent event) {
+        // Bird id to its latest change
+        Map<Long, Long> changed = new LinkedHashMap<>();
+        for (ChangeRecord change : event.getChanges()) {
+            if (change.getEntityType().equals(ChangeRecord.BIRD))
+                changed.merge(change.getEntityId(), change.getId(), Math::max);
+        }
+
+        if (changed.isEmpty())
+            return;
+
+        // Reloaded rather than taken from the event, deleted birds are missing
+        List<IndexedBird> analysed = birdRepository.findTextsByIdIn(changed.keySet()).stream()
+                .map(BirdSearchService::analyse)
+                .collect(Collectors.toList());
+
+        lock.writeLock().lock();
+        try {
+            Set<Long> applied = new HashSet<>();
+            changed.forEach((id, changeId) -> {
+                // A newer change was applied, from a reload at least as recent
+                if (appliedChanges.getOrDefault(id, 0L) >= changeId)
+                    return;
+
+                appliedChanges.put(id, changeId);
+                applied.add(id);
+                removeLocked(id);
+            });
+            for (IndexedBird indexedBird : analysed) {
+                if (applied.contains(indexedBird.summary.getId()))
+                    putLocked(indexedBird);
+            }
+
+            if (changedDuringRebuild != null)
+                changedDuringRebuild.addAll(applied);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the birds matching every term of a query.
+     *
+     * @param query    The query.
+     * @param campusId Only birds of this campus are returned, null for all.
+     * @param limit    The maximum number of results.
+     * @return The {@link SearchResult} list, best match first.
+     */
+    public List<SearchResult> search(String query, Long campusId, int limit) {
+        long start = System.nanoTime();
+
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+        if (terms.isEmpty() || limit <= 0)
+            return Collections.emptyList();
+
+        // Lowest score at the head, so that it is the one dropped
+        PriorityQueue<SearchResult> top = new PriorityQueue<>(Comparator.comparingDouble(SearchResult::getScore));
+
+        lock.readLock().lock();
+        try {
+            List<Map<Long, Float>> termPostings = new ArrayList<>();
+            float[] idfs = new float[terms.size()];
+            for (String term : terms) {
+                Map<Long, Float> found = postings.get(term);
+                if (found == null)
+                    return Collections.emptyList();
+                termPostings.add(found);
+            }
+
+            // Rare terms first, the rarest one drives the scan
+            termPostings.sort(Comparator.comparingInt(Map::size));
+            for (int i = 0; i < idfs.length; i++)
+                idfs[i] = (float) Math.log(1 + (double) birds.size() / termPostings.get(i).size());
+
+            for (Map.Entry<Long, Float> candidate : termPostings.get(0).entrySet()) {
+                Long id = candidate.getKey();
+                SearchResult summary = birds.get(id).summary;
+                if (campusId != null && !campusId.equals(summary.getCampusId()))
+                    continue;
+
+                float score = candidate.getValue() * idfs[0];
+                for (int i = 1; i < idfs.length && score >= 0; i++) {
+                    Float weight = termPostings.get(i).get(id);
+                    score = weight != null ? score + weight * idfs[i] : -1;
+                }
+
+                if (score < 0)
+                    continue;
+
+                if (top.size() < limit) {
+                    top.add(withScore(summary, score));
+                } else if (score > top.peek().getScore()) {
+                    top.poll();
+                    top.add(withScore(summary, score));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+            queryTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        List<SearchResult> results = new ArrayList<>(top);
+        results.sort(Comparator.comparingDouble(SearchResult::getScore).reversed()
+                .thenComparing(SearchResult::getId));
+        return results;
+    }
+
+    private static SearchResult withScore(SearchResult summary, float score) {
+        return new SearchResult(summary.getId(), summary.getCampusId(), summary.getName(), summary.getAboutMe(),
+                summary.getListImageURL(), score);
+    }
+}
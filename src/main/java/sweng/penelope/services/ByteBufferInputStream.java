@@ -0,0 +1,48 @@
+package sweng.penelope.services;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * <code>ByteBufferInputStream</code> reads a buffer from its position to its
+ * limit, moving its position. Streams over a shared buffer should be given a
+ * duplicate.
+ */
+class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (length == 0)
+            return 0;
+        if (!buffer.hasRemaining())
+            return -1;
+
+        int read = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, read);
+
+        return read;
+    }
+
+    @Override
+    public long skip(long n) {
+        int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + skipped);
+
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+}
@@ -0,0 +1,395 @@
+package sweng.penelope.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.ElementHandler;
+import org.dom4j.ElementPath;
+import org.dom4j.io.OutputFormat;
+import org.dom4j.io.SAXReader;
+import org.dom4j.io.XMLWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.server.ResponseStatusException;
+import org.xml.sax.SAXException;
+
+import sweng.penelope.entities.Bird;
+import sweng.penelope.entities.Campus;
+import sweng.penelope.repositories.BirdRepository;
+import sweng.penelope.repositories.CampusRepository;
+
+/**
+ * <code>CampusArchiveService</code> exports a campus, its birds and the assets
+ * they refer to as a ZIP archive, and imports such archives as new campuses.
+ * The archive holds <code>campus.xml</code> first, then every asset as
+ * <code>assets/type/campusId/fileName</code>. Both directions stream: birds
+ * and asset urls are read and written a page at a time and assets are copied
+ * straight between the archive and storage.
+ */
+@Service
+public class CampusArchiveService {
+    public static final String METADATA_ENTRY = "campus.xml";
+    public static final String ASSETS_FOLDER = "assets/";
+
+    private static final String IMPORTS_FOLDER = ".imports";
+    private static final Set<String> TYPES = Set.of("image", "audio", "video");
+    private static final int PAGE_SIZE = 500;
+    // Matches hibernate.jdbc.batch_size
+    private static final int INSERT_BATCH_SIZE = 50;
+
+    @Autowired
+    private StorageService storageService;
+    @Autowired
+    private BirdRepository birdRepository;
+    @Autowired
+    private CampusRepository campusRepository;
+
+    @Value("${penelope.storage.base-folder}")
+    private String baseString;
+
+    @Value("${penelope.upload.max-size}")
+    private long maxAssetSize;
+
+    @Value("${penelope.archive.import-parallelism}")
+    private int importParallelism;
+
+    private ExecutorService storeExecutor;
+
+    @PostConstruct
+    private void startStorers() {
+        storeExecutor = Executors.newFixedThreadPool(importParallelism,
+                new CustomizableThreadFactory("archive-import-"));
+    }
+
+    @PreDestroy
+    private void stopStorers() {
+        storeExecutor.shutdown();
+    }
+
+    /**
+     * Writes a bird as an xml element.
+     */
+    private static Element birdElement(Bird bird) {
+        Element birdElement = DocumentHelper.createElement("bird").addAttribute("id", Long.toString(bird.getId()));
+
+        birdElement.addElement("name").addText(bird.getName());
+        birdElement.addElement("listImageURL").addText(bird.getListImageURL());
+        birdElement.addElement("heroImageURL").addText(bird.getHeroImageURL());
+        birdElement.addElement("soundURL").addText(bird.getSoundURL());
+        birdElement.addElement("aboutMe").addText(bird.getAboutMe());
+        birdElement.addElement("aboutMeVideoURL").addText(bird.getAboutMeVideoURL());
+        birdElement.addElement("location").addText(bird.getLocation());
+        birdElement.addElement("locationImageURL").addText(bird.getLocationImageURL());
+        birdElement.addElement("diet").addText(bird.getDiet());
+        birdElement.addElement("dietImageURL").addText(bird.getDietImageURL());
+        birdElement.addElement("author").addText(bird.getAuthor());
+
+        return birdElement;
+    }
+
+    /**
+     * Streams a campus archive.
+     * 
+     * @param campusId     The campus id.
+     * @param outputStream Where the archive is written, left open.
+     * @throws IOException if the archive cannot be written.
+     * @throws ResponseStatusException NOT_FOUND if the campus does not exist.
+     */
+    public void export(Long campusId, OutputStream outputStream) throws IOException {
+        Campus campus = campusRepository.findById(campusId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+
+        ZipOutputStream zipOutputStream = new ZipOutputStream(StreamUtils.nonClosing(outputStream));
+
+        zipOutputStream.putNextEntry(new ZipEntry(METADATA_ENTRY));
+        XMLWriter xmlWriter = new XMLWriter(zipOutputStream, OutputFormat.createPrettyPrint());
+
+        Element campusElement = DocumentHelper.createElement("campus")
+                .addAttribute("name", campus.getName())
+                .addAttribute("author", campus.getAuthor());
+        Element birdsElement = DocumentHelper.createElement("birds");
+        xmlWriter.writeOpen(campusElement);
+        xmlWriter.writeOpen(birdsElement);
+
+        // Keyset pages, only one page of birds is held at a time
+        List<Bird> birds = birdRepository.findByCampusIdAndIdGreaterThanOrderByIdAsc(campusId, 0L,
+                PageRequest.of(0, PAGE_SIZE));
+        while (!birds.isEmpty()) {
+            for (Bird bird : birds)
+                xmlWriter.write(birdElement(bird));
+
+            Long last = birds.get(birds.size() - 1).getId();
+            birds = birdRepository.findByCampusIdAndIdGreaterThanOrderByIdAsc(campusId, last,
+                    PageRequest.of(0, PAGE_SIZE));
+        }
+
+        xmlWriter.writeClose(birdsElement);
+        xmlWriter.writeClose(campusElement);
+        xmlWriter.flush();
+        zipOutputStream.closeEntry();
+
+        // Assets are mostly compressed already
+        zipOutputStream.setLevel(Deflater.NO_COMPRESSION);
+
+        // Keyset pages of the distinct urls, only one page is held at a time
+        List<String> urls = birdRepository.findAssetURLsByCampusIdAfter(campusId, "", PAGE_SIZE);
+        while (!urls.isEmpty()) {
+            // Urls written differently may still name the same asset
+            Set<String> assetUrls = new LinkedHashSet<>();
+            urls.forEach(url -> {
+                String assetUrl = AssetCollectorService.normalise(url);
+                if (assetUrl != null)
+                    assetUrls.add(assetUrl);
+            });
+
+            for (String assetUrl : assetUrls)
+                writeAsset(zipOutputStream, assetUrl);
+
+            urls = birdRepository.findAssetURLsByCampusIdAfter(campusId, urls.get(urls.size() - 1), PAGE_SIZE);
+        }
+
+        zipOutputStream.finish();
+    }
+
+    /**
+     * Copies an asset into the archive, as <code>assets/</code> followed by its
+     * url, so assets of different campuses with the same name do not clash.
+     */
+    private void writeAsset(ZipOutputStream zipOutputStream, String assetUrl) throws IOException {
+        String[] urlParts = assetUrl.split("/");
+        Resource resource = storageService.loadAsResource(urlParts[0], urlParts[1], urlParts[2]);
+        if (resource == null)
+            return;
+
+        try {
+            zipOutputStream.putNextEntry(new ZipEntry(ASSETS_FOLDER + assetUrl));
+        } catch (ZipException duplicateEntry) {
+            // Written from an earlier page, under another spelling of its url
+            return;
+        }
+        try (InputStream inputStream = resource.getInputStream()) {
+            inputStream.transferTo(zipOutputStream);
+        }
+        zipOutputStream.closeEntry();
+    }
+
+    /**
+     * Moves an asset url to another campus.
+     */
+    private static String rebase(String url, Long campusId) {
+        String assetUrl = AssetCollectorService.normalise(url);
+        if (assetUrl == null)
+            return url;
+
+        String[] urlParts = assetUrl.split("/");
+        return String.format("%s/%d/%s", urlParts[0], campusId, urlParts[2]);
+    }
+
+    /**
+     * Reads <code>campus.xml</code>, creating the campus and inserting its
+     * birds in batches as their elements are parsed.
+     */
+    private class MetadataHandler implements ElementHandler {
+        private final String author;
+        private final List<Bird> pending = new ArrayList<>();
+        private Campus campus;
+        private int birds;
+
+        private MetadataHandler(String author) {
+            this.author = author;
+        }
+
+        @Override
+        public void onStart(ElementPath elementPath) {
+            Element element = elementPath.getCurrent();
+
+            if (elementPath.size() == 1) {
+                if (!element.getName().equals("campus") || element.attributeValue("name") == null)
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Malformed campus.xml");
+
+                campus = new Campus();
+                campus.setName(element.attributeValue("name"));
+                campus.setAuthor(author);
+                campus = campusRepository.save(campus);
+            }
+        }
+
+        @Override
+        public void onEnd(ElementPath elementPath) {
+            Element element = elementPath.getCurrent();
+
+            if (elementPath.size() == 3 && element.getName().equals("bird")) {
+                Long campusId = campus.getId();
+                Bird bird = new Bird(element.elementText("name"),
+                        rebase(element.elementText("listImageURL"), campusId),
+                        rebase(element.elementText("heroImageURL"), campusId),
+                        rebase(element.elementText("soundURL"), campusId),
+                        element.elementText("aboutMe"),
+                        rebase(element.elementText("aboutMeVideoURL"), campusId),
+                        element.elementText("location"),
+                        rebase(element.elementText("locationImageURL"), campusId),
+                        element.elementText("diet"),
+                        rebase(element.elementText("dietImageURL"), campusId),
+                        campus, element.elementText("author"));
+
+                pending.add(bird);
+                if (pending.size() == INSERT_BATCH_SIZE)
+                    flush();
+            }
+
+            // Parsed birds are not kept
+            if (elementPath.size() == 3)
+                element.detach();
+        }
+
+        private void flush() {
+            birdRepository.saveAll(pending);
+            birds += pending.size();
+            pending.clear();
+        }
+    }
+
+    /**
+     * Copies an archive entry to a local file, then stores it on the import
+     * pool.
+     */
+    private Future<Boolean> storeAsset(ZipInputStream zipInputStream, String type, Long campusId, String fileName,
+            Semaphore inFlight) throws IOException, InterruptedException {
+        Path importsRoot = Paths.get(baseString, IMPORTS_FOLDER);
+        Files.createDirectories(importsRoot);
+        Path spoolPath = Files.createTempFile(importsRoot, "asset-", ".part");
+
+        try (OutputStream outputStream = Files.newOutputStream(spoolPath)) {
+            byte[] buffer = new byte[StreamUtils.BUFFER_SIZE];
+            long size = 0;
+            int read;
+            while ((read = zipInputStream.read(buffer)) != -1) {
+                size += read;
+                if (size > maxAssetSize)
+                    throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, fileName + " is too large");
+                outputStream.write(buffer, 0, read);
+            }
+        } catch (IOException | RuntimeException exception) {
+            Files.deleteIfExists(spoolPath);
+            throw exception;
+        }
+
+        // Bounds the spooled files waiting for a worker
+        inFlight.acquire();
+        return storeExecutor.submit(() -> {
+            try {
+                return storageService.storeFile(type, Long.toString(campusId), spoolPath, fileName);
+            } finally {
+                // Left behind if the store failed
+                Files.deleteIfExists(spoolPath);
+                inFlight.release();
+            }
+        });
+    }
+
+    /**
+     * Imports a campus archive as a new campus. Bird asset urls are moved to
+     * the new campus.
+     * 
+     * @param inputStream The archive.
+     * @param author      The author's name, owner of the new campus.
+     * @return The {@link ArchiveImport} summary.
+     * @throws IOException if the archive cannot be read.
+     * @throws ResponseStatusException BAD_REQUEST if the archive is malformed.
+     */
+    public ArchiveImport importArchive(InputStream inputStream, String author) throws IOException {
+        ZipInputStream zipInputStream = new ZipInputStream(inputStream);
+        MetadataHandler metadataHandler = new MetadataHandler(author);
+        Semaphore inFlight = new Semaphore(importParallelism * 2);
+        List<Future<Boolean>> stores = new ArrayList<>();
+        boolean imported = false;
+
+        try {
+            ZipEntry zipEntry;
+            while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+                String entryName = zipEntry.getName();
+
+                if (entryName.equals(METADATA_ENTRY)) {
+                    SAXReader saxReader = new SAXReader();
+                    saxReader.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+                    saxReader.setDefaultHandler(metadataHandler);
+                    // The parser would close the archive stream
+                    saxReader.read(StreamUtils.nonClosing(zipInputStream));
+                    metadataHandler.flush();
+                } else if (entryName.startsWith(ASSETS_FOLDER) && !zipEntry.isDirectory()) {
+                    if (metadataHandler.campus == null)
+                        throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                                METADATA_ENTRY + " must come first");
+
+                    // assets/type/campusId/fileName, or assets/type/fileName from
+                    // older archives, nothing else may be written
+                    String[] entryParts = entryName.split("/");
+                    String fileName = entryParts[entryParts.length - 1];
+                    if (entryParts.length < 3 || entryParts.length > 4 || !TYPES.contains(entryParts[1])
+                            || (entryParts.length == 4 && !entryParts[2].matches("\\d+"))
+                            || fileName.startsWith("."))
+                        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid entry " + entryName);
+
+                    // Bird urls are all moved to the new campus, so are their assets
+                    stores.add(storeAsset(zipInputStream, entryParts[1], metadataHandler.campus.getId(), fileName,
+                            inFlight));
+                }
+            }
+
+            if (metadataHandler.campus == null)
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Missing " + METADATA_ENTRY);
+
+            int failed = 0;
+            for (Future<Boolean> store : stores) {
+                if (!Boolean.TRUE.equals(store.get()))
+                    failed++;
+            }
+
+            imported = true;
+            return new ArchiveImport(metadataHandler.campus.getId(), metadataHandler.birds,
+                    stores.size() - failed, failed);
+        } catch (DocumentException | SAXException exception) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Malformed " + METADATA_ENTRY, exception);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while storing assets", interruptedException);
+        } catch (ExecutionException executionException) {
+            throw new IOException("Could not store assets", executionException.getCause());
+        } finally {
+            // A failed import leaves nothing behind but the assets it stored,
+            // which are orphaned and collected later
+            if (!imported && metadataHandler.campus != null)
+                campusRepository.deleteById(metadataHandler.campus.getId());
+        }
+    }
+}
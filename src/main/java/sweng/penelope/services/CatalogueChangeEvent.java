@@ -0,0 +1,18 @@
+package sweng.penelope.services;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import sweng.penelope.entities.ChangeRecord;
+
+/**
+ * <code>CatalogueChangeEvent</code> is published by {@link ChangeTracker} once
+ * a transaction changing campuses or birds has committed.
+ */
+@Getter
+@AllArgsConstructor
+public class CatalogueChangeEvent {
+    // In change sequence order
+    private final List<ChangeRecord> changes;
+}
@@ -0,0 +1,366 @@
+package sweng.penelope.services;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter.SseEventBuilder;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import sweng.penelope.entities.Bird;
+import sweng.penelope.entities.Campus;
+import sweng.penelope.entities.ChangeRecord;
+import sweng.penelope.repositories.BirdRepository;
+import sweng.penelope.repositories.CampusRepository;
+import sweng.penelope.repositories.ChangeRecordRepository;
+
+/**
+ * <code>ChangeNotificationService</code> pushes committed campus and bird
+ * changes to the server-sent event streams subscribed to the campus.
+ * A {@link CatalogueChangeEvent} only wakes a single dispatcher, which reads
+ * the change log on from the last record it sent. Events therefore go out in
+ * change sequence order, whatever order the transactions published theirs in,
+ * and their ids are safe to resume syncing from.
+ * Idle streams hold no thread. Events are queued per subscriber and sent by a
+ * small pool of senders. Sends are blocking, so a stalled client holds its
+ * sender: a send not done within <code>penelope.events.send-timeout</code> is
+ * interrupted and the client disconnected, bounding how long it can hold up
+ * the streams waiting for a sender. A subscriber whose queue fills up is
+ * disconnected too. Either way the client catches up through the sync endpoint
+ * once reconnected.
+ */
+@Service
+public class ChangeNotificationService {
+    private static final String CHANGE_EVENT = "change";
+    private static final int DISPATCH_PAGE_SIZE = 500;
+
+    @Autowired
+    private CampusRepository campusRepository;
+    @Autowired
+    private BirdRepository birdRepository;
+    @Autowired
+    private ChangeRecordRepository changeRecordRepository;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${penelope.events.queue-capacity}")
+    private int queueCapacity;
+
+    @Value("${penelope.events.senders}")
+    private int senders;
+
+    @Value("${penelope.events.send-timeout}")
+    private long sendTimeout;
+
+    private final Map<Long, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    private ExecutorService executor;
+    private ExecutorService dispatcher;
+    private ScheduledExecutorService deadlines;
+    private Counter droppedCounter;
+
+    // Last change sent, only touched by the dispatcher
+    private long dispatched;
+    private final AtomicBoolean dispatchQueued = new AtomicBoolean();
+
+    @PostConstruct
+    private void startSenders() {
+        executor = Executors.newFixedThreadPool(senders, new CustomizableThreadFactory("change-events-"));
+        dispatcher = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("change-dispatch-"));
+        deadlines = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("change-deadlines-"));
+        dispatched = changeRecordRepository.findTopByOrderByIdDesc().map(ChangeRecord::getId).orElse(0L);
+
+        Gauge.builder("penelope.events.subscribers", subscriberCount, AtomicInteger::get)
+                .description("Open change event streams")
+                .register(meterRegistry);
+        droppedCounter = Counter.builder("penelope.events.dropped")
+                .description("Change event streams disconnected for falling behind or stalling")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    private void stopSenders() {
+        dispatcher.shutdownNow();
+        executor.shutdownNow();
+        deadlines.shutdownNow();
+        subscribers.values().forEach(campusSubscribers -> campusSubscribers.forEach(Subscriber::close));
+    }
+
+    /**
+     * A change event stream, with the events waiting to be sent to it.
+     */
+    private class Subscriber {
+        private final Long campusId;
+        private final SseEmitter emitter;
+        private final Queue<SseEventBuilder> queue;
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean expired;
+        // The sender thread while a send is in progress, guarded by this
+        private Thread sending;
+
+        private Subscriber(Long campusId, SseEmitter emitter) {
+            this.campusId = campusId;
+            this.emitter = emitter;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        /**
+         * Queues an event, disconnecting the subscriber if its queue is full.
+         */
+        private void offer(SseEventBuilder event) {
+            if (closed.get())
+                return;
+
+            if (!queue.offer(event)) {
+                droppedCounter.increment();
+                close();
+                return;
+            }
+
+            if (draining.compareAndSet(false, true))
+                executor.execute(this::drain);
+        }
+
+        /**
+         * Sends the queued events. Only one sender drains a subscriber at a
+         * time, keeping its events in order, and only the drainer completes a
+         * closed subscriber's emitter.
+         */
+        private void drain() {
+            while (true) {
+                SseEventBuilder event;
+                while (!closed.get() && (event = queue.poll()) != null)
+                    send(event);
+
+                if (closed.get()) {
+                    // Still draining, nothing else touches the emitter
+                    complete();
+                    return;
+                }
+
+                draining.set(false);
+                // Events queued or a close requested after the last poll but before the reset
+                if ((queue.isEmpty() && !closed.get()) || !draining.compareAndSet(false, true))
+                    return;
+            }
+        }
+
+        /**
+         * Sends an event, within the send timeout.
+         */
+        private void send(SseEventBuilder event) {
+            synchronized (this) {
+                sending = Thread.currentThread();
+            }
+            ScheduledFuture<?> deadline = deadlines.schedule(this::expire, sendTimeout, TimeUnit.MILLISECONDS);
+
+            try {
+                emitter.send(event);
+            } catch (IOException | IllegalStateException exception) {
+                // Client went away, or the send was interrupted at its deadline
+                unsubscribe(this);
+            } finally {
+                deadline.cancel(false);
+                synchronized (this) {
+                    sending = null;
+                    // Clears an interrupt from the deadline, the sender is reused
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        /**
+         * Disconnects a client whose send missed its deadline.
+         */
+        private synchronized void expire() {
+            if (sending == null)
+                return;
+
+            expired = true;
+            droppedCounter.increment();
+            unsubscribe(this);
+            sending.interrupt();
+        }
+
+        /**
+         * Completes the emitter. Emitter methods wait for a send in progress,
+         * so this is left to the drainer.
+         */
+        private void complete() {
+            if (expired)
+                emitter.completeWithError(new IOException("Change event send timed out"));
+            else
+                emitter.complete();
+        }
+
+        private void close() {
+            if (closed.compareAndSet(false, true)) {
+                unsubscribe(this);
+                // Otherwise the drainer completes it once its send returns
+                if (draining.compareAndSet(false, true))
+                    complete();
+            }
+        }
+    }
+
+    /**
+     * Subscribes a stream to the changes of a campus and of its birds.
+     *
+     * @param campusId The campus ID.
+     * @param emitter  The {@link SseEmitter} events are sent through.
+     * @return The emitter.
+     */
+    public SseEmitter subscribe(Long campusId, SseEmitter emitter) {
+        Subscriber subscriber = new Subscriber(campusId, emitter);
+
+        subscribers.compute(campusId, (key, campusSubscribers) -> {
+            Set<Subscriber> current = campusSubscribers != null ? campusSubscribers : ConcurrentHashMap.newKeySet();
+            current.add(subscriber);
+            return current;
+        });
+        subscriberCount.incrementAndGet();
+
+        emitter.onCompletion(() -> unsubscribe(subscriber));
+        emitter.onTimeout(() -> unsubscribe(subscriber));
+        emitter.onError(throwable -> unsubscribe(subscriber));
+
+        return emitter;
+    }
+
+    private void unsubscribe(Subscriber subscriber) {
+        subscriber.closed.set(true);
+
+        // Atomic per campus with subscribe, so an emptied set is never reused
+        subscribers.computeIfPresent(subscriber.campusId, (key, campusSubscribers) -> {
+            if (campusSubscribers.remove(subscriber))
+                subscriberCount.decrementAndGet();
+            return campusSubscribers.isEmpty() ? null : campusSubscribers;
+        });
+    }
+
+    /**
+     * Wakes the dispatcher once changes have committed. Hashes are worked out
+     * by the dispatcher, off the committing request.
+     *
+     * @param event The {@link CatalogueChangeEvent}.
+     */
+    @EventListener
+    public void onChangesCommitted(CatalogueChangeEvent event) {
+        // Events published while it runs are picked up by the next run
+        if (dispatchQueued.compareAndSet(false, true))
+            dispatcher.execute(this::dispatchCommitted);
+    }
+
+    /**
+     * Reads the changes committed since the last one sent, in change sequence
+     * order, and dispatches them. Changes are read even without subscribers, so
+     * that streams opened later do not receive them.
+     */
+    private void dispatchCommitted() {
+        dispatchQueued.set(false);
+
+        List<ChangeRecord> committed;
+        do {
+            committed = changeRecordRepository.findByIdGreaterThanOrderByIdAsc(dispatched,
+                    PageRequest.of(0, DISPATCH_PAGE_SIZE));
+            if (committed.isEmpty())
+                return;
+
+            List<ChangeRecord> changes = new ArrayList<>();
+            for (ChangeRecord change : committed) {
+                if (subscribers.containsKey(change.getCampusId()))
+                    changes.add(change);
+            }
+            if (!changes.isEmpty())
+                dispatch(changes);
+
+            dispatched = committed.get(committed.size() - 1).getId();
+        } while (committed.size() == DISPATCH_PAGE_SIZE);
+    }
+
+    /**
+     * Builds the events of some changes and queues them for their campus
+     * subscribers.
+     */
+    private void dispatch(List<ChangeRecord> changes) {
+        List<Long> campusIds = new ArrayList<>();
+        List<Long> birdIds = new ArrayList<>();
+        for (ChangeRecord change : changes) {
+            if (change.getAction().equals(ChangeRecord.DELETED))
+                continue;
+
+            if (change.getEntityType().equals(ChangeRecord.CAMPUS))
+                campusIds.add(change.getEntityId());
+            else
+                birdIds.add(change.getEntityId());
+        }
+
+        Map<Long, String> campusHashes = new HashMap<>();
+        for (Campus campus : campusRepository.findAllById(campusIds))
+            campusHashes.put(campus.getId(), SyncService.contentHash(campus));
+
+        Map<Long, String> birdHashes = new HashMap<>();
+        for (Bird bird : birdRepository.findAllById(birdIds))
+            birdHashes.put(bird.getId(), SyncService.contentHash(bird));
+
+        for (ChangeRecord change : changes) {
+            Set<Subscriber> campusSubscribers = subscribers.get(change.getCampusId());
+            if (campusSubscribers == null)
+                continue;
+
+            String hash = change.getEntityType().equals(ChangeRecord.CAMPUS) ? campusHashes.get(change.getEntityId())
+                    : birdHashes.get(change.getEntityId());
+            SyncChange syncChange = new SyncChange(change.getEntityType(), change.getEntityId(),
+                    change.getCampusId(), change.getAction(), hash);
+
+            // The id is a sync watermark, a reconnecting client catches up from it
+            for (Subscriber subscriber : campusSubscribers) {
+                subscriber.offer(SseEmitter.event()
+                        .id(String.valueOf(change.getId()))
+                        .name(CHANGE_EVENT)
+                        .data(syncChange, MediaType.APPLICATION_JSON));
+            }
+        }
+    }
+
+    /**
+     * Periodically sends a comment down every stream, keeping idle
+     * connections open through proxies and finding closed ones.
+     */
+    @Scheduled(fixedDelayString = "${penelope.events.heartbeat-interval}")
+    public void sendHeartbeats() {
+        for (Set<Subscriber> campusSubscribers : subscribers.values()) {
+            for (Subscriber subscriber : campusSubscribers)
+                subscriber.offer(SseEmitter.event().comment("heartbeat"));
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package sweng.penelope.services;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import sweng.penelope.entities.Bird;
+import sweng.penelope.entities.Campus;
+import sweng.penelope.entities.ChangeRecord;
+import sweng.penelope.repositories.ChangeRecordRepository;
+
+/**
+ * <code>ChangeTracker</code> records every creation, update and deletion of a
+ * {@link Campus} or {@link Bird} as a {@link ChangeRecord}. Hibernate reports
+ * the changes as it flushes them, the records are written on the same
+ * connection just before the transaction commits, so they commit or roll back
+ * with the change. Once committed, a {@link CatalogueChangeEvent} is
+ * published.
+ * Writers hold a lock on the change log until they commit, so record ids are
+ * allocated in commit order: once a record is visible, no record with a lower
+ * id can still appear, and ids are safe to use as watermarks.
+ */
+@Service
+public class ChangeTracker implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener {
+    private static final String LOCK = "SELECT id FROM change_log_lock WHERE id = 1 FOR UPDATE";
+    private static final String INSERT = "INSERT INTO change_record (entity_type, entity_id, campus_id, action, "
+            + "changed_at) VALUES (?, ?, ?, ?, ?)";
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+    @Autowired
+    private ChangeRecordRepository changeRecordRepository;
+
+    // Changes of the transactions in progress, by session
+    private final Map<SharedSessionContractImplementor, PendingChanges> pending = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void registerListeners() {
+        EventListenerRegistry eventListenerRegistry = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(EventListenerRegistry.class);
+
+        eventListenerRegistry.appendListeners(EventType.POST_INSERT, this);
+        eventListenerRegistry.appendListeners(EventType.POST_UPDATE, this);
+        eventListenerRegistry.appendListeners(EventType.POST_DELETE, this);
+    }
+
+    /**
+     * The changes of one transaction, written before it commits and
+     * published after.
+     */
+    private class PendingChanges implements BeforeTransactionCompletionProcess, AfterTransactionCompletionProcess {
+        private final List<ChangeRecord> changes = new ArrayList<>();
+
+        @Override
+        public void doBeforeTransactionCompletion(SessionImplementor session) {
+            if (changes.isEmpty())
+                return;
+
+            session.doWork(connection -> {
+                // Held until the transaction ends
+                try (PreparedStatement statement = connection.prepareStatement(LOCK)) {
+                    statement.executeQuery().close();
+                }
+
+                try (PreparedStatement statement = connection.prepareStatement(INSERT,
+                        Statement.RETURN_GENERATED_KEYS)) {
+                    for (ChangeRecord change : changes) {
+                        statement.setString(1, change.getEntityType());
+                        statement.setLong(2, change.getEntityId());
+                        statement.setLong(3, change.getCampusId());
+                        statement.setString(4, change.getAction());
+                        statement.setLong(5, change.getChangedAt());
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+
+                    try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                        for (int i = 0; i < changes.size() && generatedKeys.next(); i++)
+                            changes.get(i).setId(generatedKeys.getLong(1));
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void doAfterTransactionCompletion(boolean success, SharedSessionContractImplementor session) {
+            pending.remove(session);
+
+            if (success && !changes.isEmpty())
+                applicationEventPublisher.publishEvent(new CatalogueChangeEvent(changes));
+        }
+    }
+
+    /**
+     * Queues a change for the transaction of a session.
+     */
+    private void record(EventSource session, Object entity, String action) {
+        ChangeRecord change = new ChangeRecord();
+
+        if (entity instanceof Bird) {
+            Bird bird = (Bird) entity;
+            change.setEntityType(ChangeRecord.BIRD);
+            change.setEntityId(bird.getId());
+            change.setCampusId(bird.getCampus().getId());
+        } else if (entity instanceof Campus) {
+            Campus campus = (Campus) entity;
+            change.setEntityType(ChangeRecord.CAMPUS);
+            change.setEntityId(campus.getId());
+            change.setCampusId(campus.getId());
+        } else {
+            return;
+        }
+
+        change.setAction(action);
+        change.setChangedAt(System.currentTimeMillis());
+
+        pending.computeIfAbsent(session, key -> {
+            PendingChanges pendingChanges = new PendingChanges();
+            session.getActionQueue().registerProcess((BeforeTransactionCompletionProcess) pendingChanges);
+            session.getActionQueue().registerProcess((AfterTransactionCompletionProcess) pendingChanges);
+            return pendingChanges;
+        }).changes.add(change);
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        record(event.getSession(), event.getEntity(), ChangeRecord.CREATED);
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        record(event.getSession(), event.getEntity(), ChangeRecord.UPDATED);
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        record(event.getSession(), event.getEntity(), ChangeRecord.DELETED);
+    }
+
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return false;
+    }
+
+    /**
+     * Periodically drops the records a later change supersedes, keeping the
+     * log about as large as the catalogue plus its tombstones.
+     */
+    @Scheduled(initialDelayString = "${penelope.sync.prune-interval}", fixedDelayString = "${penelope.sync.prune-interval}")
+    public void pruneSuperseded() {
+        changeRecordRepository.deleteSuperseded();
+    }
+}
@@ -0,0 +1,202 @@
+package sweng.penelope.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * <code>ChunkedUploadService</code> handles resumable uploads. Files are
+ * received in fixed size chunks, written in place into a preallocated file
+ * under the storage base folder, so that an interrupted upload only needs to
+ * resend the chunks which are missing.
+ */
+@Slf4j
+@Service
+public class ChunkedUploadService {
+    private static final String UPLOADS_FOLDER = ".uploads";
+    private static final String PART_EXTENSION = ".part";
+
+    @Value("${penelope.storage.base-folder}")
+    private String baseString;
+
+    @Value("${penelope.upload.chunk-size}")
+    private int chunkSize;
+
+    @Value("${penelope.upload.max-size}")
+    private long maxSize;
+
+    @Value("${penelope.upload.session-timeout}")
+    private long sessionTimeout;
+
+    @Autowired
+    private StorageService storageService;
+
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Starts a new upload session and preallocates its partial file.
+     *
+     * @param type     The file type (image, video, audio).
+     * @param campusId The ID of the campus the resource belongs to.
+     * @param fileName The final file name.
+     * @param size     The total file size, in bytes.
+     * @return The new {@link UploadSession}.
+     */
+    public UploadSession start(String type, String campusId, String fileName, long size) {
+        if (size < 0 || size > maxSize)
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE);
+
+        String uploadId = UUID.randomUUID().toString();
+        Path uploadsRoot = Paths.get(baseString, UPLOADS_FOLDER);
+        Path partPath = uploadsRoot.resolve(uploadId + PART_EXTENSION);
+
+        try {
+            Files.createDirectories(uploadsRoot);
+            // Reserve the whole file upfront, chunks are then written in place
+            try (RandomAccessFile partFile = new RandomAccessFile(partPath.toFile(), "rw")) {
+                partFile.setLength(size);
+            }
+        } catch (IOException ioException) {
+            throw new StorageException("Could not allocate upload file", ioException);
+        }
+
+        UploadSession session = new UploadSession(uploadId, type, campusId, fileName, size, chunkSize, partPath);
+        sessions.put(uploadId, session);
+
+        return session;
+    }
+
+    /**
+     * Retrieves an active upload session.
+     *
+     * @param uploadId The upload id.
+     * @param campusId The ID of the campus the upload was started for.
+     * @return The matching {@link UploadSession}.
+     */
+    public UploadSession getSession(String uploadId, String campusId) {
+        UploadSession session = sessions.get(uploadId);
+
+        // Sessions are only visible to requests for the same campus
+        if (session == null || !session.getCampusId().equals(campusId))
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+
+        session.touch();
+        return session;
+    }
+
+    /**
+     * Writes a chunk at its offset in the partial file. Writing the same chunk
+     * twice simply overwrites the same bytes, so retries are safe.
+     *
+     * @param session     The upload session.
+     * @param index       The chunk index.
+     * @param inputStream The chunk content.
+     * @return True if the chunk was complete and has been written, false if its
+     *         length did not match the expected chunk length.
+     */
+    public boolean writeChunk(UploadSession session, int index, InputStream inputStream) {
+        if (index < 0 || index >= session.getNumChunks())
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Chunk index out of range");
+
+        long position = session.chunkOffset(index);
+        long expectedLength = session.chunkLength(index);
+
+        try (FileChannel channel = FileChannel.open(session.getPartPath(), StandardOpenOption.WRITE);
+                ReadableByteChannel source = Channels.newChannel(inputStream)) {
+            long written = 0;
+            while (written < expectedLength) {
+                long transferred = channel.transferFrom(source, position + written, expectedLength - written);
+                if (transferred <= 0)
+                    break;
+                written += transferred;
+            }
+
+            // Chunk must be exactly as long as expected, no more, no less
+            if (written != expectedLength || source.read(ByteBuffer.allocate(1)) > 0)
+                return false;
+        } catch (IOException ioException) {
+            log.error("Could not write a chunk of upload {}", session.getUploadId(), ioException);
+            return false;
+        }
+
+        session.markReceived(index);
+        session.touch();
+
+        return true;
+    }
+
+    /**
+     * Completes an upload, moving the assembled file into storage. The partial
+     * file is deleted if it cannot be stored.
+     *
+     * @param session The upload session.
+     * @return True for success, false for failure.
+     */
+    public boolean finish(UploadSession session) {
+        if (!session.isComplete())
+            throw new ResponseStatusException(HttpStatus.CONFLICT,
+                    String.format("Missing chunks: %s", session.missingChunks()));
+
+        sessions.remove(session.getUploadId());
+
+        boolean stored = false;
+        try {
+            stored = storageService.storeFile(session.getType(), session.getCampusId(), session.getPartPath(),
+                    session.getFileName());
+        } finally {
+            // The session is gone, so the periodic cleanup would never find the part file
+            if (!stored)
+                abort(session);
+        }
+
+        return stored;
+    }
+
+    /**
+     * Discards an upload session and its partial file.
+     *
+     * @param session The upload session.
+     */
+    public void abort(UploadSession session) {
+        sessions.remove(session.getUploadId());
+
+        try {
+            Files.deleteIfExists(session.getPartPath());
+        } catch (IOException ioException) {
+            log.warn("Could not delete the partial file of upload {}", session.getUploadId(), ioException);
+        }
+    }
+
+    /**
+     * Periodically removes sessions which have not seen any activity within the
+     * configured timeout.
+     */
+    @Scheduled(fixedDelayString = "${penelope.upload.cleanup-interval}")
+    public void removeAbandonedSessions() {
+        long threshold = System.currentTimeMillis() - sessionTimeout;
+
+        sessions.values().stream()
+                .filter(session -> session.getLastActivity() < threshold)
+                .forEach(this::abort);
+    }
+}
@@ -0,0 +1,166 @@
+package sweng.penelope.services;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * <code>DirectorySyncService</code> flushes directories to disk, making the
+ * files renamed into them durable.
+ * In group-commit mode, concurrent requests are gathered for a short window
+ * and each directory is flushed once for the whole batch, instead of once per
+ * file. Once the committer stops, requests still pending are flushed and new
+ * ones are flushed inline.
+ */
+@Service
+public class DirectorySyncService {
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${penelope.storage.group-commit}")
+    private boolean groupCommit;
+
+    @Value("${penelope.storage.group-commit-window}")
+    private long groupCommitWindow;
+
+    private final Object pendingLock = new Object();
+    private Map<Path, CompletableFuture<Void>> pending = new HashMap<>();
+    // Guarded by pendingLock
+    private boolean stopped;
+
+    private Thread committer;
+    private Counter syncCounter;
+
+    @PostConstruct
+    private void startCommitter() {
+        syncCounter = Counter.builder("penelope.storage.directory-syncs")
+                .description("Directories flushed to disk")
+                .register(meterRegistry);
+
+        committer = new Thread(this::commitBatches, "directory-sync");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    @PreDestroy
+    private void stopCommitter() {
+        committer.interrupt();
+    }
+
+    /**
+     * Flushes a directory to disk.
+     *
+     * @param directory The directory.
+     * @throws IOException if the directory cannot be flushed.
+     */
+    private void force(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+        syncCounter.increment();
+    }
+
+    /**
+     * Makes the entries of a directory durable, returning once they are.
+     *
+     * @param directory The directory.
+     * @throws IOException if the directory cannot be flushed.
+     */
+    public void sync(Path directory) throws IOException {
+        CompletableFuture<Void> commit = null;
+        if (groupCommit) {
+            synchronized (pendingLock) {
+                // Checked under the lock, the committer drains pending requests as it stops
+                if (!stopped) {
+                    commit = pending.computeIfAbsent(directory, key -> new CompletableFuture<>());
+                    pendingLock.notifyAll();
+                }
+            }
+        }
+
+        if (commit == null) {
+            force(directory);
+            return;
+        }
+
+        try {
+            commit.get();
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for directory sync");
+        } catch (ExecutionException executionException) {
+            throw new IOException("Could not sync " + directory, executionException.getCause());
+        }
+    }
+
+    /**
+     * Flushes every directory of a batch once, completing their requests.
+     */
+    private void commit(Map<Path, CompletableFuture<Void>> batch) {
+        batch.forEach((directory, commit) -> {
+            try {
+                force(directory);
+                commit.complete(null);
+            } catch (IOException | RuntimeException exception) {
+                commit.completeExceptionally(exception);
+            }
+        });
+    }
+
+    /**
+     * Committer loop. Waits for a first request, lets the window fill, then
+     * flushes every requested directory once. On the way out, however it
+     * stops, the requests left are flushed so that no caller waits forever.
+     */
+    private void commitBatches() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Map<Path, CompletableFuture<Void>> batch;
+
+                try {
+                    synchronized (pendingLock) {
+                        while (pending.isEmpty())
+                            pendingLock.wait();
+                    }
+
+                    // Let concurrent writers join the batch
+                    Thread.sleep(groupCommitWindow);
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+
+                synchronized (pendingLock) {
+                    batch = pending;
+                    pending = new HashMap<>();
+                }
+
+                commit(batch);
+            }
+        } finally {
+            Map<Path, CompletableFuture<Void>> batch;
+            synchronized (pendingLock) {
+                stopped = true;
+                batch = pending;
+                pending = new HashMap<>();
+            }
+
+            commit(batch);
+        }
+    }
+}
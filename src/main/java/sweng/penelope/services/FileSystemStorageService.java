@@ -1,68 +1,522 @@
 package sweng.penelope.services;
 
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import javax.imageio.ImageIO;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
-import org.springframework.http.HttpStatus;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
-import org.springframework.web.server.ResponseStatusException;
-import org.springframework.web.util.HtmlUtils;
-
-import sweng.penelope.entities.Bird;
-import sweng.penelope.entities.Campus;
-import sweng.penelope.repositories.BirdRepository;
-import sweng.penelope.repositories.CampusRepository;
-import sweng.penelope.repositories.DataManagerRepository;
-import sweng.penelope.xml.BirdXML;
-import sweng.penelope.xml.CampusXML;
-import sweng.penelope.xml.CampusesListXML;
-import sweng.penelope.xml.CommonXML;
-import sweng.penelope.xml.UsersListXML;
-import sweng.penelope.xml.XMLConfiguration;
+
+import lombok.extern.slf4j.Slf4j;
+import sweng.penelope.entities.AssetAlias;
+import sweng.penelope.entities.StoredBlob;
+import sweng.penelope.repositories.AssetAliasRepository;
+import sweng.penelope.repositories.StoredBlobRepository;
 
 /**
  * <code>FileSystemStorageService</code> implements {@link StorageService} for
  * file
  * system and database operations.
+ * In content-addressed mode, files are stored once under
+ * <code>blobs/</code>, named after the SHA-256 of their content, and asset
+ * urls are aliases to these blobs. Reference counts and aliases are updated
+ * in one transaction, and blob files deleted once it commits.
+ * Otherwise, with a shard depth above 0, files are spread over
+ * subdirectories named after the hash of their file name, e.g.
+ * <code>image/1/ab/cd/duck-0123456789.png</code>, so that no directory grows
+ * too large.
+ * Files are written crash safely: to a temporary file flushed to disk, then
+ * atomically renamed, so that a partial file is never served.
  */
+@Slf4j
 @Service
-public class FileSystemStorageService implements StorageService {
+@ConditionalOnProperty(name = "penelope.storage.backend", havingValue = "filesystem", matchIfMissing = true)
+public class FileSystemStorageService extends AbstractStorageService {
+    private static final String BLOBS_FOLDER = "blobs";
+    private static final String QUARANTINE_FOLDER = ".quarantine";
+    private static final String[] ASSET_TYPES = { "video", "audio", "image" };
 
     @Value("${penelope.storage.base-folder}")
     private String baseString;
 
+    @Value("${penelope.storage.content-addressed}")
+    private boolean contentAddressed;
+
+    @Value("${penelope.storage.shard-depth}")
+    private int shardDepth;
+
+    @Autowired
+    private AssetAliasRepository assetAliasRepository;
     @Autowired
-    private BirdRepository birdRepository;
+    private StoredBlobRepository storedBlobRepository;
     @Autowired
-    private CampusRepository campusRepository;
+    private DirectorySyncService directorySyncService;
     @Autowired
-    private DataManagerRepository dataManagerRepository;
+    private MappedAssetCache mappedAssetCache;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    // Orders blob file operations within this instance, rows are locked across
+    // instances
+    private final Object blobsLock = new Object();
+
+    // Directories known to exist, so that stores do not check them again
+    private final Set<Path> knownDirectories = ConcurrentHashMap.newKeySet();
+
+    /**
+     * An operation on the file system.
+     */
+    @FunctionalInterface
+    private interface StorageOperation<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * Writes content to a file.
+     */
+    @FunctionalInterface
+    private interface ContentWriter {
+        /**
+         * @param path The file to write to.
+         * @return True for success, false for failure.
+         */
+        boolean write(Path path) throws IOException;
+    }
+
+    /**
+     * Flushes a file's content to disk.
+     */
+    private static void forceFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Moves a complete file into place. The file is flushed, atomically renamed
+     * and the destination directory synced, so that after a crash the
+     * destination holds either its previous content or the whole new one.
+     * 
+     * @param source      The complete file, on the same file system.
+     * @param destination The destination.
+     * @throws IOException if the file cannot be moved.
+     */
+    private void moveDurably(Path source, Path destination) throws IOException {
+        forceFile(source);
+        inDirectory(destination.getParent(),
+                () -> Files.move(source, destination, StandardCopyOption.ATOMIC_MOVE));
+        mappedAssetCache.evict(destination);
+        directorySyncService.sync(destination.getParent());
+    }
+
+    /**
+     * Writes a file crash safely, through a temporary file in the destination
+     * directory.
+     * 
+     * @param destination   The destination.
+     * @param contentWriter Writes the content to the temporary file.
+     * @return True for success, false if the writer failed.
+     * @throws IOException if the file cannot be written.
+     */
+    private boolean writeAtomically(Path destination, ContentWriter contentWriter) throws IOException {
+        Path directory = destination.getParent();
+        Path temporaryPath = inDirectory(directory,
+                () -> Files.createTempFile(directory, "." + destination.getFileName(), ".tmp"));
+
+        try {
+            if (!contentWriter.write(temporaryPath))
+                return false;
+
+            moveDurably(temporaryPath, destination);
+            return true;
+        } finally {
+            Files.deleteIfExists(temporaryPath);
+        }
+    }
 
     private void createDir(Path path) throws IOException {
-        if (!Files.exists(path))
-            Files.createDirectories(path);
+        if (knownDirectories.contains(path))
+            return;
+
+        Files.createDirectories(path);
+        knownDirectories.add(path);
+    }
+
+    /**
+     * Runs an operation writing into a directory, creating the directory first
+     * if it is not known to exist. Should the operation fail because the
+     * directory was removed in the meantime, it is created again and the
+     * operation retried.
+     * 
+     * @param directory The directory.
+     * @param operation The operation.
+     * @return The result of the operation.
+     * @throws IOException if the operation fails.
+     */
+    private <T> T inDirectory(Path directory, StorageOperation<T> operation) throws IOException {
+        createDir(directory);
+        try {
+            return operation.run();
+        } catch (IOException ioException) {
+            if (Files.isDirectory(directory))
+                throw ioException;
+
+            // Parents may be gone as well
+            knownDirectories.clear();
+            createDir(directory);
+
+            return operation.run();
+        }
+    }
+
+    /**
+     * Resolves where an asset belongs with the configured shard depth. Shards
+     * are taken from the MD5 of the file name, two hex digits per level.
+     * 
+     * @param type     The file type (image, video, audio).
+     * @param campusId The ID of the campus the resource belongs to.
+     * @param fileName The file name.
+     * @return The asset path.
+     */
+    private Path assetPath(String type, String campusId, String fileName) {
+        Path path = Paths.get(baseString, type, campusId);
+
+        if (shardDepth > 0) {
+            String hash = DigestUtils.md5DigestAsHex(fileName.getBytes(StandardCharsets.UTF_8));
+
+            for (int level = 0; level < shardDepth; level++)
+                path = path.resolve(hash.substring(level * 2, level * 2 + 2));
+        }
+
+        return path.resolve(fileName);
+    }
+
+    /**
+     * Finds a stored asset, falling back to the flat layout for files stored
+     * before sharding was enabled and not migrated yet.
+     * 
+     * @param type     The file type (image, video, audio).
+     * @param campusId The ID of the campus the resource belongs to.
+     * @param fileName The file name.
+     * @return The asset path.
+     */
+    private Path locate(String type, String campusId, String fileName) {
+        Path path = assetPath(type, campusId, fileName);
+
+        if (shardDepth > 0 && !Files.exists(path)) {
+            Path flatPath = Paths.get(baseString, type, campusId, fileName);
+
+            if (Files.exists(flatPath))
+                return flatPath;
+        }
+
+        return path;
+    }
+
+    /**
+     * Finds a stored asset from its url.
+     * 
+     * @param fileUrl The asset url (type/campusId/fileName).
+     * @return The asset path.
+     */
+    private Path locate(String fileUrl) {
+        String[] urlParts = fileUrl.split("/");
+
+        if (urlParts.length != 3)
+            return Paths.get(baseString).resolve(fileUrl);
+
+        return locate(urlParts[0], urlParts[1], urlParts[2]);
+    }
+
+    private static String assetUrl(String type, String campusId, String fileName) {
+        return String.format("%s/%s/%s", type, campusId, fileName);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException noSuchAlgorithmException) {
+            throw new StorageException("SHA-256 is not available", noSuchAlgorithmException);
+        }
+    }
+
+    /**
+     * Builds the key of a blob. The extension is kept, as content types are
+     * probed from file names.
+     * 
+     * @param digest   The digest of the content.
+     * @param fileName The file name the content was stored as.
+     * @return The blob key.
+     */
+    private static String blobKey(MessageDigest digest, String fileName) {
+        String hash = HexFormat.of().formatHex(digest.digest());
+        int extensionIndex = fileName.lastIndexOf('.');
+
+        if (extensionIndex < 0)
+            return hash;
+
+        return hash + fileName.substring(extensionIndex).toLowerCase();
+    }
+
+    /**
+     * Resolves the path of a blob, sharded by the first two bytes of its hash.
+     * 
+     * @param blobKey The blob key.
+     * @return The blob path.
+     */
+    private Path blobPath(String blobKey) {
+        return Paths.get(baseString, BLOBS_FOLDER, blobKey.substring(0, 2), blobKey.substring(2, 4), blobKey);
+    }
+
+    private Path newTemporaryFile() throws IOException {
+        Path temporaryRoot = Paths.get(baseString, BLOBS_FOLDER, ".tmp");
+
+        return inDirectory(temporaryRoot, () -> Files.createTempFile(temporaryRoot, null, null));
+    }
+
+    /**
+     * Database work on blobs and aliases, run in one transaction.
+     */
+    @FunctionalInterface
+    private interface BlobTransaction<T> {
+        /**
+         * @param released Collects the keys of the blobs left without references,
+         *                 deleted once the transaction commits.
+         */
+        T run(List<String> released) throws IOException;
+    }
+
+    /**
+     * Runs a {@link BlobTransaction}, then deletes the blobs it released. Blob
+     * files are only deleted after the commit, so that a rolled back
+     * transaction never loses content still referenced.
+     * 
+     * @param blobTransaction The transaction.
+     * @return The result of the transaction.
+     * @throws IOException if the transaction fails, it is then rolled back.
+     */
+    private <T> T inBlobTransaction(BlobTransaction<T> blobTransaction) throws IOException {
+        synchronized (blobsLock) {
+            List<String> released = new ArrayList<>();
+            T result;
+
+            try {
+                result = transactionTemplate.execute(status -> {
+                    try {
+                        return blobTransaction.run(released);
+                    } catch (IOException ioException) {
+                        throw new UncheckedIOException(ioException);
+                    }
+                });
+            } catch (UncheckedIOException uncheckedIOException) {
+                throw uncheckedIOException.getCause();
+            } catch (DataAccessException | TransactionException exception) {
+                throw new IOException("Could not update blob references", exception);
+            }
+
+            released.forEach(this::deleteBlob);
+
+            return result;
+        }
+    }
+
+    /**
+     * Deletes a blob file, unless a blob with the same key was stored again
+     * since it was released.
+     * 
+     * @param blobKey The blob key.
+     */
+    private void deleteBlob(String blobKey) {
+        if (storedBlobRepository.existsById(blobKey))
+            return;
+
+        Path blobPath = blobPath(blobKey);
+        try {
+            Files.deleteIfExists(blobPath);
+            mappedAssetCache.evict(blobPath);
+        } catch (IOException ioException) {
+            log.warn("Could not delete blob {}", blobKey, ioException);
+        }
+    }
+
+    /**
+     * Drops a reference to a blob, marking it for deletion if it was the last
+     * one. Must be called within a {@link BlobTransaction}.
+     * 
+     * @param blobKey  The blob key.
+     * @param released The released blob keys.
+     */
+    private void release(String blobKey, List<String> released) {
+        Optional<StoredBlob> requestBlob = storedBlobRepository.findForUpdate(blobKey);
+        if (!requestBlob.isPresent())
+            return;
+
+        StoredBlob blob = requestBlob.get();
+        if (blob.getRefCount() > 1) {
+            blob.setRefCount(blob.getRefCount() - 1);
+            storedBlobRepository.save(blob);
+        } else {
+            storedBlobRepository.delete(blob);
+            released.add(blobKey);
+        }
+    }
+
+    /**
+     * Links content into place as a blob, unless the blob exists already, and
+     * syncs the blob directory. The content file is left where it is.
+     * 
+     * @param content  The hashed content, flushed to disk.
+     * @param blobPath The blob path.
+     * @throws IOException if the content cannot be linked.
+     */
+    private void linkBlob(Path content, Path blobPath) throws IOException {
+        if (Files.exists(blobPath))
+            return;
+
+        try {
+            inDirectory(blobPath.getParent(), () -> Files.createLink(blobPath, content));
+        } catch (FileAlreadyExistsException fileAlreadyExistsException) {
+            // Linked by a concurrent store of the same content
+            return;
+        } catch (UnsupportedOperationException unsupportedOperationException) {
+            // No hard links on this file system, a copy is moved in instead
+            Path copy = newTemporaryFile();
+            try {
+                Files.copy(content, copy, StandardCopyOption.REPLACE_EXISTING);
+                moveDurably(copy, blobPath);
+            } finally {
+                Files.deleteIfExists(copy);
+            }
+            return;
+        }
+
+        directorySyncService.sync(blobPath.getParent());
+    }
+
+    /**
+     * Makes an asset url point to some content, linking the content into a new
+     * blob unless an identical one already exists. The blob is put in place
+     * and synced before the transaction, outside of the blob lock, so that
+     * concurrent stores share directory syncs.
+     * 
+     * @param content The hashed content, deleted once committed.
+     * @param blobKey The blob key of the content.
+     * @param url     The asset url.
+     * @throws IOException if the content cannot be moved or the references
+     *                     updated.
+     */
+    private void commitBlob(Path content, String blobKey, String url) throws IOException {
+        Path blobPath = blobPath(blobKey);
+        forceFile(content);
+        linkBlob(content, blobPath);
+
+        try {
+            inBlobTransaction(released -> {
+                // Rows are locked, so concurrent stores of the same content or url queue up
+                Optional<StoredBlob> requestBlob = storedBlobRepository.findForUpdate(blobKey);
+                StoredBlob blob;
+
+                if (requestBlob.isPresent()) {
+                    // Same content is already stored
+                    blob = requestBlob.get();
+                    blob.setRefCount(blob.getRefCount() + 1);
+                } else {
+                    // Deleted meanwhile if a release of the same content committed first
+                    linkBlob(content, blobPath);
+                    blob = new StoredBlob(blobKey, Files.size(blobPath));
+                }
+                storedBlobRepository.save(blob);
+
+                // Storing over an existing url replaces its content
+                Optional<AssetAlias> previousAlias = assetAliasRepository.findForUpdate(url);
+                if (previousAlias.isPresent())
+                    release(previousAlias.get().getBlobKey(), released);
+
+                assetAliasRepository.save(new AssetAlias(url, blobKey));
+                return null;
+            });
+        } catch (IOException ioException) {
+            // A blob linked for the rolled back transaction has no row
+            synchronized (blobsLock) {
+                deleteBlob(blobKey);
+            }
+            throw ioException;
+        }
+        mappedAssetCache.evict(url);
+
+        Files.deleteIfExists(content);
+    }
+
+    /**
+     * Stores content under its hash, hashing it while it is copied.
+     * 
+     * @param inputStream The content.
+     * @param url         The asset url.
+     * @param fileName    The file name.
+     * @throws IOException if the content cannot be stored.
+     */
+    private void storeContentAddressed(InputStream inputStream, String url, String fileName) throws IOException {
+        MessageDigest digest = newDigest();
+        Path temporaryPath = newTemporaryFile();
+
+        try (InputStream digestInputStream = new DigestInputStream(inputStream, digest)) {
+            Files.copy(digestInputStream, temporaryPath, StandardCopyOption.REPLACE_EXISTING);
+
+            commitBlob(temporaryPath, blobKey(digest, fileName), url);
+        } finally {
+            Files.deleteIfExists(temporaryPath);
+        }
     }
 
     @Override
     public void init() {
+        knownDirectories.clear();
+        mappedAssetCache.clear();
+
         Path basePath = Paths.get(baseString);
         Path videoPath = basePath.resolve("video");
         Path audioPath = basePath.resolve("audio");
@@ -78,162 +532,352 @@ public class FileSystemStorageService implements StorageService {
 
     @Override
     public boolean store(String type, String campusId, MultipartFile file, String fileName) {
-        Path destinationRoot = Paths.get(baseString, type, campusId);
-        Path destinationPath = destinationRoot.resolve(fileName);
+        if (!StringUtils.hasText(fileName))
+            return false;
+
+        if (contentAddressed) {
+            try {
+                storeContentAddressed(file.getInputStream(), assetUrl(type, campusId, fileName), fileName);
+                return true;
+            } catch (IOException ioException) {
+                log.error("Could not store {}", assetUrl(type, campusId, fileName), ioException);
+                return false;
+            }
+        }
+
+        Path destinationPath = assetPath(type, campusId, fileName);
         try {
-            createDir(destinationRoot);
-            file.transferTo(destinationPath);
-            return true;
+            return writeAtomically(destinationPath, temporaryPath -> {
+                file.transferTo(temporaryPath);
+                return true;
+            });
         } catch (IOException ioException) {
-            ioException.printStackTrace();
+            log.error("Could not store {}", destinationPath, ioException);
             return false;
+        } finally {
+            // The url may have resolved to the flat layout
+            mappedAssetCache.evict(assetUrl(type, campusId, fileName));
         }
     }
 
     @Override
-    public boolean remove(String fileUrl) {
-        Path storeRoot = Paths.get(baseString);
-        Path filePath = storeRoot.resolve(fileUrl);
-        try {
-            Files.delete(filePath);
+    public boolean storeFile(String type, String campusId, Path source, String fileName) {
+        if (contentAddressed) {
+            MessageDigest digest = newDigest();
+
+            // The file is already local, hash it and move it rather than copy it
+            try (InputStream inputStream = new DigestInputStream(Files.newInputStream(source), digest)) {
+                inputStream.transferTo(OutputStream.nullOutputStream());
+            } catch (IOException ioException) {
+                log.error("Could not hash {}", source, ioException);
+                return false;
+            }
 
+            try {
+                commitBlob(source, blobKey(digest, fileName), assetUrl(type, campusId, fileName));
+                return true;
+            } catch (IOException ioException) {
+                log.error("Could not store {}", assetUrl(type, campusId, fileName), ioException);
+                return false;
+            }
+        }
+
+        Path destinationPath = assetPath(type, campusId, fileName);
+        try {
+            moveDurably(source, destinationPath);
             return true;
         } catch (IOException ioException) {
-            ioException.printStackTrace();
+            log.error("Could not move {} to {}", source, destinationPath, ioException);
             return false;
+        } finally {
+            mappedAssetCache.evict(assetUrl(type, campusId, fileName));
         }
     }
 
     @Override
-    public boolean storeProcessedImage(String fileName, String campusId, BufferedImage image) {
-        Path destinationRoot = Paths.get(baseString, "image", campusId);
-        File outFile = destinationRoot.resolve(fileName).toFile();
+    public boolean remove(String fileUrl) {
+        if (contentAddressed) {
+            try {
+                boolean removed = inBlobTransaction(released -> {
+                    Optional<AssetAlias> requestAlias = assetAliasRepository.findForUpdate(fileUrl);
+
+                    // Files stored before content addressing was enabled have no alias
+                    if (!requestAlias.isPresent())
+                        return false;
+
+                    assetAliasRepository.delete(requestAlias.get());
+                    release(requestAlias.get().getBlobKey(), released);
+                    return true;
+                });
+
+                if (removed) {
+                    mappedAssetCache.evict(fileUrl);
+                    return true;
+                }
+            } catch (IOException ioException) {
+                log.error("Could not remove {}", fileUrl, ioException);
+                return false;
+            }
+        }
+
+        Path filePath = locate(fileUrl);
         try {
-            createDir(destinationRoot);
-            ImageIO.write(image, "png", outFile);
+            Files.delete(filePath);
+            mappedAssetCache.evict(filePath);
+            mappedAssetCache.evict(fileUrl);
+
             return true;
         } catch (IOException ioException) {
-            ioException.printStackTrace();
+            log.error("Could not remove {}", fileUrl, ioException);
             return false;
         }
     }
 
     @Override
-    public Path load(String type, String campusId, String fileName) {
-        return Paths.get(baseString, type, campusId, fileName);
+    public List<String> listCampuses(String type) {
+        Set<String> campusIds = new HashSet<>();
+        Path typeRoot = Paths.get(baseString, type);
+
+        if (Files.isDirectory(typeRoot)) {
+            try (Stream<Path> campusFolders = Files.list(typeRoot)) {
+                campusFolders.filter(Files::isDirectory)
+                        .forEach(campusFolder -> campusIds.add(campusFolder.getFileName().toString()));
+            } catch (IOException ioException) {
+                throw new StorageException("Could not list campuses", ioException);
+            }
+        }
+
+        if (contentAddressed)
+            assetAliasRepository.findByUrlStartingWith(type + "/")
+                    .forEach(alias -> campusIds.add(alias.getUrl().split("/")[1]));
+
+        return new ArrayList<>(campusIds);
     }
 
     @Override
-    public Resource loadAsResource(String type, String campusId, String filename) {
-        Path filePath = load(type, campusId, filename);
-        try {
-            Resource resource = new UrlResource(filePath.toUri());
-            if (resource.exists() && resource.isReadable())
-                return resource;
-        } catch (MalformedURLException malformedURLException) {
-            throw new StorageException("Invalid file name", malformedURLException);
+    public List<StoredAsset> listAssets(String type, String campusId) {
+        List<StoredAsset> assets = new ArrayList<>();
+        Path campusRoot = Paths.get(baseString, type, campusId);
+
+        if (Files.isDirectory(campusRoot)) {
+            // Shards included
+            try (Stream<Path> files = Files.walk(campusRoot)) {
+                Iterator<Path> filesIterator = files.iterator();
+
+                while (filesIterator.hasNext()) {
+                    Path file = filesIterator.next();
+                    try {
+                        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+
+                        if (attributes.isRegularFile())
+                            assets.add(new StoredAsset(assetUrl(type, campusId, file.getFileName().toString()),
+                                    attributes.size(), attributes.lastModifiedTime().toMillis()));
+                    } catch (NoSuchFileException noSuchFileException) {
+                        // Removed while listing
+                    }
+                }
+            } catch (IOException | UncheckedIOException exception) {
+                throw new StorageException("Could not list assets", exception);
+            }
         }
-        return null;
-    }
 
-    /**
-     * Generates a {@link BirdXML}.
-     * 
-     * @param id        The {@link Bird} id.
-     * @param serverUrl The server url, with protocol and port.
-     * @return
-     */
-    private BirdXML getBird(Long id, String serverUrl) {
-        Optional<Bird> requestBird = birdRepository.findById(id);
-
-        return requestBird.map(bird -> {
-            XMLConfiguration xmlConfiguration = new XMLConfiguration(bird.getAuthor(), bird.getName(), id);
-            xmlConfiguration.setServerUrl(serverUrl);
+        if (contentAddressed) {
+            List<AssetAlias> aliases = assetAliasRepository.findByUrlStartingWith(assetUrl(type, campusId, ""));
+            Map<String, Long> sizes = new HashMap<>();
 
-            BirdXML birdXML = new BirdXML(xmlConfiguration);
+            storedBlobRepository.findAllById(aliases.stream().map(AssetAlias::getBlobKey).collect(Collectors.toSet()))
+                    .forEach(blob -> sizes.put(blob.getBlobKey(), blob.getSize()));
 
-            String aboutMe = HtmlUtils.htmlEscape(bird.getAboutMe());
-            String diet = HtmlUtils.htmlEscape(bird.getDiet());
-            String location = HtmlUtils.htmlEscape(bird.getLocation());
-
-            birdXML.addHeroSlide(bird.getSoundURL(), bird.getHeroImageURL());
-            birdXML.addAboutMe(bird.getAboutMeVideoURL(), aboutMe);
-            birdXML.addDiet(bird.getDietImageURL(), diet);
-            birdXML.addLocation(bird.getLocationImageURL(), location);
+            aliases.forEach(alias -> assets.add(new StoredAsset(alias.getUrl(),
+                    sizes.getOrDefault(alias.getBlobKey(), 0L), alias.getStoredAt())));
+        }
 
-            return birdXML;
-        }).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        return assets;
     }
 
-    private CampusXML getCampus(Long id, String serverUrl) {
-        CampusXML campusXML = null;
+    @Override
+    public boolean quarantine(String fileUrl) {
+        Path quarantinePath = Paths.get(baseString, QUARANTINE_FOLDER).resolve(fileUrl);
+
+        try {
+            if (contentAddressed && assetAliasRepository.existsById(fileUrl)) {
+                // The blob may be shared, keep a copy and drop this reference
+                String[] urlParts = fileUrl.split("/");
+                Path blobPath = load(urlParts[0], urlParts[1], urlParts[2]);
+                inDirectory(quarantinePath.getParent(),
+                        () -> Files.copy(blobPath, quarantinePath, StandardCopyOption.REPLACE_EXISTING));
+
+                return remove(fileUrl);
+            }
 
-        Optional<Campus> requestCampus = campusRepository.findById(id);
-        if (requestCampus.isPresent()) {
-            Campus campus = requestCampus.get();
-            XMLConfiguration xmlConfiguration = new XMLConfiguration(campus.getAuthor(), campus.getName(), id);
-            xmlConfiguration.setServerUrl(serverUrl);
-            campusXML = new CampusXML(xmlConfiguration);
+            Path storedPath = locate(fileUrl);
+            inDirectory(quarantinePath.getParent(),
+                    () -> Files.move(storedPath, quarantinePath, StandardCopyOption.REPLACE_EXISTING));
+            mappedAssetCache.evict(storedPath);
+            mappedAssetCache.evict(fileUrl);
+            return true;
+        } catch (IOException ioException) {
+            log.error("Could not quarantine {}", fileUrl, ioException);
+            return false;
+        }
+    }
 
-            Iterator<Bird> birdsIterator = campus.getBirds().iterator();
-            while (birdsIterator.hasNext()) {
-                Bird bird = birdsIterator.next();
+    @Override
+    public boolean storeProcessedImage(String fileName, String campusId, BufferedImage image) {
+        return storeImage(fileName, campusId, image, "png");
+    }
 
-                campusXML.addBird(bird.getName(), bird.getAboutMe(), bird.getId(), bird.getListImageURL());
+    @Override
+    public boolean storeImage(String fileName, String campusId, BufferedImage image, String formatName) {
+        if (contentAddressed) {
+            MessageDigest digest = newDigest();
+
+            try {
+                Path temporaryPath = newTemporaryFile();
+                try {
+                    try (OutputStream outputStream = new DigestOutputStream(Files.newOutputStream(temporaryPath),
+                            digest)) {
+                        if (!ImageIO.write(image, formatName, outputStream))
+                            return false;
+                    }
+
+                    commitBlob(temporaryPath, blobKey(digest, fileName), assetUrl("image", campusId, fileName));
+                    return true;
+                } finally {
+                    Files.deleteIfExists(temporaryPath);
+                }
+            } catch (IOException ioException) {
+                log.error("Could not store image {}", assetUrl("image", campusId, fileName), ioException);
+                return false;
             }
         }
 
-        return campusXML;
+        Path destinationPath = assetPath("image", campusId, fileName);
+        try {
+            return writeAtomically(destinationPath,
+                    temporaryPath -> ImageIO.write(image, formatName, temporaryPath.toFile()));
+        } catch (IOException ioException) {
+            log.error("Could not store image {}", destinationPath, ioException);
+            return false;
+        } finally {
+            mappedAssetCache.evict(assetUrl("image", campusId, fileName));
+        }
     }
 
-    private CampusesListXML getCampusesList() {
-        XMLConfiguration xmlConfiguration = new XMLConfiguration("The Penelope Team", "Campuses list", -1L);
-        CampusesListXML campusesListXML = new CampusesListXML(xmlConfiguration);
-        Iterator<Campus> campusIterator = campusRepository.findAll().iterator();
+    @Override
+    public Path load(String type, String campusId, String fileName) {
+        if (contentAddressed) {
+            Optional<AssetAlias> requestAlias = assetAliasRepository.findById(assetUrl(type, campusId, fileName));
 
-        while (campusIterator.hasNext()) {
-            Campus campus = campusIterator.next();
-            campusesListXML.addCampus(campus.getName(), campus.getId());
+            if (requestAlias.isPresent())
+                return blobPath(requestAlias.get().getBlobKey());
         }
 
-        return campusesListXML;
+        return locate(type, campusId, fileName);
     }
 
-    private UsersListXML getUsersList() {
-        XMLConfiguration xmlConfiguration = new XMLConfiguration("The Penelope Team", "Users list", -1L);
-        UsersListXML usersListXML = new UsersListXML(xmlConfiguration);
+    /**
+     * Moves assets stored with a different shard depth, e.g. before sharding
+     * was enabled, to where they belong with the current one. Emptied shard
+     * directories are removed.
+     * 
+     * @return The number of files moved.
+     */
+    public int migrateLayout() {
+        int moved = 0;
+        knownDirectories.clear();
+
+        for (String type : ASSET_TYPES) {
+            Path typeRoot = Paths.get(baseString, type);
+            if (!Files.isDirectory(typeRoot))
+                continue;
+
+            List<Path> files;
+            try (Stream<Path> paths = Files.walk(typeRoot)) {
+                files = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+            } catch (IOException | UncheckedIOException exception) {
+                throw new StorageException("Could not list assets", exception);
+            }
 
-        dataManagerRepository.findAll().forEach(dataManager -> {
-            Set<Campus> campuses;
+            for (Path file : files) {
+                // type/campusId/[shards/]fileName
+                Path relativePath = typeRoot.relativize(file);
+                if (relativePath.getNameCount() < 2)
+                    continue;
+
+                Path target = assetPath(type, relativePath.getName(0).toString(), file.getFileName().toString());
+                if (file.equals(target))
+                    continue;
+
+                try {
+                    if (Files.exists(target))
+                        // Stores always go to the current layout, the other copy is newer
+                        Files.delete(file);
+                    else
+                        inDirectory(target.getParent(), () -> Files.move(file, target));
+                    mappedAssetCache.evict(file);
+
+                    moved++;
+                } catch (IOException ioException) {
+                    throw new StorageException("Could not migrate " + file, ioException);
+                }
+            }
 
-            if (dataManager.isSysadmin())
-                campuses = null;
-            else
-                campuses = dataManager.getCampuses();
+            removeEmptyShards(typeRoot);
+        }
+
+        return moved;
+    }
 
-            usersListXML.addUser(dataManager.getUsername(), campuses);
-        });
+    private void removeEmptyShards(Path typeRoot) {
+        List<Path> shards;
+        try (Stream<Path> paths = Files.walk(typeRoot)) {
+            // Children before parents, campus folders are kept
+            shards = paths.filter(Files::isDirectory)
+                    .filter(path -> typeRoot.relativize(path).getNameCount() > 1)
+                    .sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList());
+        } catch (IOException | UncheckedIOException exception) {
+            throw new StorageException("Could not list shards", exception);
+        }
 
-        return usersListXML;
+        for (Path shard : shards) {
+            try (Stream<Path> entries = Files.list(shard)) {
+                if (entries.findAny().isEmpty()) {
+                    Files.delete(shard);
+                    knownDirectories.remove(shard);
+                }
+            } catch (IOException ioException) {
+                throw new StorageException("Could not remove " + shard, ioException);
+            }
+        }
     }
 
     @Override
-    public Resource loadAsResourceFromDB(String type, Long id, String serverUrl) {
-        CommonXML xml = null;
-        if (type.equals("campus"))
-            xml = getCampus(id, serverUrl);
-        else if (type.equals("bird"))
-            xml = getBird(id, serverUrl);
-        else if (type.equals("usersList"))
-            xml = getUsersList();
-        else
-            xml = getCampusesList();
-
-        if (xml != null) {
-            byte[] bytesArray = xml.getBytes();
-            if (bytesArray != null) {
-                return new ByteArrayResource(bytesArray);
-            }
+    public Resource loadAsResource(String type, String campusId, String filename) {
+        String url = assetUrl(type, campusId, filename);
+
+        // Small files are served from a mapping, without resolving the url again
+        Resource mappedResource = mappedAssetCache.get(url);
+        if (mappedResource != null)
+            return mappedResource;
+
+        long generation = mappedAssetCache.generation();
+        Path filePath = load(type, campusId, filename);
+        try {
+            mappedResource = mappedAssetCache.map(url, filePath, generation);
+        } catch (IOException ioException) {
+            log.warn("Could not map {}, serving it unmapped", filePath, ioException);
+        }
+        if (mappedResource != null)
+            return mappedResource;
+
+        try {
+            Resource resource = new UrlResource(filePath.toUri());
+            if (resource.exists() && resource.isReadable())
+                return resource;
+        } catch (MalformedURLException malformedURLException) {
+            throw new StorageException("Invalid file name", malformedURLException);
         }
         return null;
     }
@@ -0,0 +1,72 @@
+package sweng.penelope.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+
+import org.springframework.core.io.AbstractResource;
+
+/**
+ * <code>HotAssetResource</code> is a {@link org.springframework.core.io.Resource}
+ * over an asset held in the hot tier of {@link TieredStorageService}. Streams
+ * read the shared buffer directly, without copying it.
+ */
+public class HotAssetResource extends AbstractResource {
+    private final String url;
+    private final ByteBuffer content;
+    private final long lastModified;
+
+    /**
+     * <code>HotAssetResource</code> constructor.
+     *
+     * @param url          The asset url (type/campusId/fileName).
+     * @param content      The asset content, not modified by this resource.
+     * @param lastModified When the asset was promoted.
+     */
+    public HotAssetResource(String url, ByteBuffer content, long lastModified) {
+        this.url = url;
+        this.content = content;
+        this.lastModified = lastModified;
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public URI getURI() throws IOException {
+        try {
+            return new URI("hot", null, "/" + url, null);
+        } catch (URISyntaxException uriSyntaxException) {
+            throw new IOException("Invalid asset url", uriSyntaxException);
+        }
+    }
+
+    @Override
+    public String getFilename() {
+        return url.substring(url.lastIndexOf('/') + 1);
+    }
+
+    @Override
+    public long contentLength() {
+        return content.remaining();
+    }
+
+    @Override
+    public long lastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public String getDescription() {
+        return String.format("Hot tier asset [%s]", url);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteBufferInputStream(content.duplicate());
+    }
+}
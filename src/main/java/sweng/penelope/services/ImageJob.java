@@ -0,0 +1,58 @@
+package sweng.penelope.services;
+
+import lombok.Getter;
+
+/**
+ * <code>ImageJob</code> tracks an image queued for asynchronous processing.
+ */
+@Getter
+public class ImageJob {
+    /**
+     * Possible states of an {@link ImageJob}.
+     */
+    public enum Status {
+        QUEUED, PROCESSING, DONE, FAILED
+    }
+
+    private final String jobId;
+    private final String campusId;
+    private volatile Status status = Status.QUEUED;
+    private volatile String assetUrl;
+    private volatile long finishedAt;
+
+    /**
+     * <code>ImageJob</code> constructor.
+     *
+     * @param jobId    The job id.
+     * @param campusId The ID of the campus the resource belongs to.
+     */
+    public ImageJob(String jobId, String campusId) {
+        this.jobId = jobId;
+        this.campusId = campusId;
+    }
+
+    /**
+     * Marks the job as being processed.
+     */
+    public void started() {
+        status = Status.PROCESSING;
+    }
+
+    /**
+     * Marks the job as done.
+     *
+     * @param assetUrl The url of the stored asset, or null if processing failed.
+     */
+    public void finished(String assetUrl) {
+        this.assetUrl = assetUrl;
+        this.status = assetUrl != null ? Status.DONE : Status.FAILED;
+        this.finishedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * @return True if the job is no longer queued or processing.
+     */
+    public boolean isFinished() {
+        return status == Status.DONE || status == Status.FAILED;
+    }
+}
@@ -0,0 +1,378 @@
+package sweng.penelope.services;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * <code>ImageProcessingService</code> turns uploaded images into round PNGs,
+ * either on the calling thread or as jobs on a bounded worker pool.
+ */
+@Slf4j
+@Service
+public class ImageProcessingService {
+    private static final String PROCESSED_SUFFIX = "_processed.png";
+    // Decoded raster (at most 4 bytes per pixel) plus the ARGB output
+    private static final int BYTES_PER_PIXEL = 8;
+
+    @Autowired
+    private StorageService storageService;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${penelope.image.queue-capacity}")
+    private int queueCapacity;
+
+    @Value("${penelope.image.job-retention}")
+    private long jobRetention;
+
+    @Value("${penelope.image.max-decode-bytes}")
+    private long maxDecodeBytes;
+
+    private ThreadPoolExecutor executor;
+    private Timer processingTimer;
+
+    private final Map<String, ImageJob> jobs = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void startWorkers() {
+        int workers = Runtime.getRuntime().availableProcessors();
+
+        // Bounded queue, a full queue rejects new jobs rather than piling them up
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("image-processing-"));
+
+        processingTimer = Timer.builder("penelope.images.processing")
+                .description("Time taken to process an uploaded image")
+                .register(meterRegistry);
+        Gauge.builder("penelope.images.queue", executor, pool -> pool.getQueue().size())
+                .description("Images waiting to be processed")
+                .register(meterRegistry);
+        Gauge.builder("penelope.images.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Images being processed")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    private void stopWorkers() {
+        executor.shutdown();
+    }
+
+    /**
+     * Crops an image to a circle, using its short side as diameter.
+     *
+     * @param bufferedImage The input image.
+     * @return The round image, with a transparent background.
+     */
+    public BufferedImage makeRound(BufferedImage bufferedImage) {
+        int width = bufferedImage.getWidth();
+        int height = bufferedImage.getHeight();
+
+        // To get a circle, we want to use the short side of the image as a measure to
+        // crop.
+        int size = Math.min(width, height);
+
+        // ARGB for transparency
+        BufferedImage outputImage = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics2d = outputImage.createGraphics();
+
+        // Draw the image, then clear everything outside the circle. Unlike SrcIn,
+        // DstOut does not need an intermediate copy of the source.
+        Area outside = new Area(new Rectangle(0, 0, size, size));
+        outside.subtract(new Area(new Ellipse2D.Double(0, 0, size, size)));
+
+        graphics2d.drawImage(bufferedImage, 0, 0, null);
+        graphics2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics2d.setComposite(AlphaComposite.DstOut);
+        graphics2d.fill(outside);
+        graphics2d.dispose();
+
+        return outputImage;
+    }
+
+    /**
+     * Computes the subsampling needed to decode a region within the decode
+     * budget.
+     *
+     * @param width  The width of the region, in source pixels.
+     * @param height The height of the region, in source pixels.
+     * @return The subsampling factor, 1 meaning every pixel is read.
+     */
+    int subsampling(int width, int height) {
+        long maxPixels = Math.max(1, maxDecodeBytes / BYTES_PER_PIXEL);
+        int subsampling = 1;
+
+        while ((long) Math.ceil((double) width / subsampling) * Math.ceil((double) height / subsampling) > maxPixels)
+            subsampling++;
+
+        return subsampling;
+    }
+
+    /**
+     * Computes the subsampling needed to decode a square within the decode
+     * budget.
+     *
+     * @param size The side of the square, in source pixels.
+     * @return The subsampling factor, 1 meaning every pixel is read.
+     */
+    int subsampling(int size) {
+        return subsampling(size, size);
+    }
+
+    /**
+     * Work done with an {@link ImageReader} set on an image.
+     */
+    @FunctionalInterface
+    private interface ReaderTask<T> {
+        T run(ImageReader reader) throws IOException;
+    }
+
+    /**
+     * Opens an image and runs a task with a reader set on it.
+     *
+     * @param inputStream The input image.
+     * @param readerTask  The task.
+     * @return The task's result.
+     * @throws IOException if the image cannot be read.
+     */
+    private <T> T withReader(InputStream inputStream, ReaderTask<T> readerTask) throws IOException {
+        try (ImageInputStream imageInputStream = ImageIO.createImageInputStream(inputStream)) {
+            Iterator<ImageReader> readers = imageInputStream == null ? null
+                    : ImageIO.getImageReaders(imageInputStream);
+            if (readers == null || !readers.hasNext())
+                throw new IOException("Unsupported image format");
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageInputStream, true, true);
+
+                return readerTask.run(reader);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Decodes a region of an image, subsampled so that it fits in the decode
+     * budget.
+     */
+    private BufferedImage readRegion(ImageReader reader, Rectangle region) throws IOException {
+        int subsampling = subsampling(region.width, region.height);
+
+        ImageReadParam imageReadParam = reader.getDefaultReadParam();
+        imageReadParam.setSourceRegion(region);
+        imageReadParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+        return reader.read(0, imageReadParam);
+    }
+
+    /**
+     * Decodes the top left square of an image, the part kept by
+     * {@link #makeRound(BufferedImage)}. Only the square is decoded, and large
+     * images are subsampled so that the decoded image and the round output fit
+     * in <code>penelope.image.max-decode-bytes</code>.
+     *
+     * @param inputStream The input image.
+     * @return The decoded square.
+     * @throws IOException if the image cannot be read.
+     */
+    public BufferedImage readSquare(InputStream inputStream) throws IOException {
+        return withReader(inputStream, reader -> {
+            int size = Math.min(reader.getWidth(0), reader.getHeight(0));
+
+            return readRegion(reader, new Rectangle(0, 0, size, size));
+        });
+    }
+
+    /**
+     * Decodes a whole image. Large images are subsampled so that the decoded
+     * image and a copy of it fit in <code>penelope.image.max-decode-bytes</code>,
+     * the result may then be narrower than the original.
+     *
+     * @param inputStream The input image.
+     * @return The decoded image.
+     * @throws IOException if the image cannot be read.
+     */
+    public BufferedImage read(InputStream inputStream) throws IOException {
+        return withReader(inputStream,
+                reader -> readRegion(reader, new Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0))));
+    }
+
+    /**
+     * Reads the width of an image from its header, without decoding it.
+     *
+     * @param inputStream The input image.
+     * @return The width, in pixels.
+     * @throws IOException if the image cannot be read.
+     */
+    public int readWidth(InputStream inputStream) throws IOException {
+        return withReader(inputStream, reader -> reader.getWidth(0));
+    }
+
+    /**
+     * Scales an image down to the given width, keeping its aspect ratio. Large
+     * reductions are done in halving steps to preserve quality.
+     *
+     * @param bufferedImage The input image.
+     * @param targetWidth   The desired width.
+     * @param keepAlpha     Whether transparency should be preserved.
+     * @return The scaled image.
+     */
+    public BufferedImage resize(BufferedImage bufferedImage, int targetWidth, boolean keepAlpha) {
+        int imageType = keepAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        int targetHeight = Math.max(1,
+                (int) Math.round((double) bufferedImage.getHeight() * targetWidth / bufferedImage.getWidth()));
+
+        BufferedImage current = bufferedImage;
+        int width = bufferedImage.getWidth();
+        int height = bufferedImage.getHeight();
+
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+
+            BufferedImage step = new BufferedImage(width, height, imageType);
+            Graphics2D graphics2d = step.createGraphics();
+            graphics2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics2d.drawImage(current, 0, 0, width, height, null);
+            graphics2d.dispose();
+
+            current = step;
+        } while (width != targetWidth || height != targetHeight);
+
+        return current;
+    }
+
+    /**
+     * Runs a task on the image processing pool.
+     *
+     * @param task The task to run.
+     * @return True if the task was queued, false if the queue is full.
+     */
+    public boolean runInBackground(Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException rejectedExecutionException) {
+            return false;
+        }
+    }
+
+    /**
+     * Transforms an input image into a round png and stores it, on the calling
+     * thread.
+     *
+     * @param inputStream The input image.
+     * @param campusId    The ID of the campus the resource belongs to.
+     * @param fileName    The file name.
+     * @return The stored asset url, or null if it could not be stored.
+     * @throws IOException if the image cannot be read.
+     */
+    public String process(InputStream inputStream, String campusId, String fileName) throws IOException {
+        long start = System.nanoTime();
+        try {
+            // Load input file
+            BufferedImage bufferedImage = readSquare(inputStream);
+            BufferedImage outputImage = makeRound(bufferedImage);
+
+            String processedFileName = fileName.split("\\.")[0] + PROCESSED_SUFFIX;
+
+            if (storageService.storeProcessedImage(processedFileName, campusId, outputImage))
+                return String.format("image/%s/%s", campusId, processedFileName);
+
+            return null;
+        } finally {
+            processingTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Queues an image for processing on the worker pool.
+     *
+     * @param content  The input image content.
+     * @param campusId The ID of the campus the resource belongs to.
+     * @param fileName The file name.
+     * @param onStored Called with the stored file name once processing succeeds.
+     * @return The queued {@link ImageJob}.
+     * @throws java.util.concurrent.RejectedExecutionException if the queue is
+     *                                                         full.
+     */
+    public ImageJob submit(byte[] content, String campusId, String fileName, Consumer<String> onStored) {
+        ImageJob job = new ImageJob(UUID.randomUUID().toString(), campusId);
+
+        executor.execute(() -> {
+            job.started();
+
+            String assetUrl = null;
+            try {
+                assetUrl = process(new ByteArrayInputStream(content), campusId, fileName);
+            } catch (Exception exception) {
+                log.error("Could not process image {} of job {}", fileName, job.getJobId(), exception);
+            }
+
+            job.finished(assetUrl);
+
+            if (assetUrl != null)
+                onStored.accept(assetUrl.substring(assetUrl.lastIndexOf('/') + 1));
+        });
+        jobs.put(job.getJobId(), job);
+
+        return job;
+    }
+
+    /**
+     * Retrieves a job.
+     *
+     * @param jobId The job id.
+     * @return The {@link ImageJob}, or null if it does not exist (anymore).
+     */
+    public ImageJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    /**
+     * Periodically forgets about jobs finished longer than the retention period
+     * ago.
+     */
+    @Scheduled(fixedDelayString = "${penelope.image.job-retention}")
+    public void removeFinishedJobs() {
+        long threshold = System.currentTimeMillis() - jobRetention;
+
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt() < threshold);
+    }
+}
@@ -0,0 +1,283 @@
+package sweng.penelope.services;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+import javax.imageio.ImageIO;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * <code>ImageVariantService</code> handles the reduced width copies of stored
+ * images, so that clients do not download full resolution originals to draw
+ * thumbnails.
+ * Variants are named after their original, e.g. <code>duck-0123456789.png</code>
+ * has a 480 pixels wide variant <code>duck-0123456789_w480.png</code>.
+ */
+@Slf4j
+@Service
+public class ImageVariantService {
+    private static final Pattern VARIANT_PATTERN = Pattern.compile("^(.+)_w(\\d+)\\.([^.]+)$");
+
+    @Autowired
+    private StorageService storageService;
+    @Autowired
+    private ImageProcessingService imageProcessingService;
+
+    @Value("${penelope.image.variant-widths}")
+    private int[] variantWidths;
+
+    private final Map<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void sortWidths() {
+        Arrays.sort(variantWidths);
+    }
+
+    /**
+     * Builds a variant's file name.
+     *
+     * @param fileName The original file name.
+     * @param width    The variant width.
+     * @return The variant file name.
+     */
+    public static String variantName(String fileName, int width) {
+        int extensionIndex = fileName.lastIndexOf('.');
+
+        return String.format("%s_w%d%s", fileName.substring(0, extensionIndex), width,
+                fileName.substring(extensionIndex));
+    }
+
+    /**
+     * Recovers the original file name from a variant's file name.
+     *
+     * @param fileName A file name.
+     * @return The original file name, or null if the file name is not a variant.
+     */
+    public static String originalName(String fileName) {
+        Matcher matcher = VARIANT_PATTERN.matcher(fileName);
+
+        if (matcher.matches())
+            return String.format("%s.%s", matcher.group(1), matcher.group(3));
+
+        return null;
+    }
+
+    /**
+     * Retrieves the format of an image from its file name.
+     *
+     * @param fileName The file name.
+     * @return The {@link ImageIO} format name, or null if variants cannot be
+     *         written for this format.
+     */
+    private String formatName(String fileName) {
+        int extensionIndex = fileName.lastIndexOf('.');
+        if (extensionIndex < 0)
+            return null;
+
+        String extension = fileName.substring(extensionIndex + 1).toLowerCase();
+        if (ImageIO.getImageWritersBySuffix(extension).hasNext())
+            return extension;
+
+        return null;
+    }
+
+    /**
+     * Chooses the variant to serve for a requested width.
+     *
+     * @param requestedWidth The width the client will draw the image at, in
+     *                       physical pixels.
+     * @return The smallest variant width at least as large as requested, or 0 if
+     *         the original should be served.
+     */
+    public int selectWidth(int requestedWidth) {
+        for (int width : variantWidths) {
+            if (width >= requestedWidth)
+                return width;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Reads the width of a stored image from its header.
+     */
+    private int readWidth(Resource image) throws IOException {
+        try (InputStream inputStream = image.getInputStream()) {
+            return imageProcessingService.readWidth(inputStream);
+        }
+    }
+
+    /**
+     * Creates and stores a variant, unless the original is not wider than the
+     * variant.
+     *
+     * @param campusId The ID of the campus the resource belongs to.
+     * @param fileName The original file name.
+     * @param width    The variant width.
+     * @return True if the variant was created.
+     */
+    private boolean createVariant(String campusId, String fileName, int width) {
+        String formatName = formatName(fileName);
+        Resource original = storageService.loadAsResource("image", campusId, fileName);
+        if (formatName == null || original == null)
+            return false;
+
+        try {
+            // The header tells whether a variant applies, without decoding the image
+            if (readWidth(original) <= width)
+                return false;
+
+            BufferedImage source;
+            try (InputStream inputStream = original.getInputStream()) {
+                source = imageProcessingService.read(inputStream);
+            }
+
+            // Subsampled past the variant width, the decode budget wins over upscaling
+            BufferedImage variant = imageProcessingService.resize(source, Math.min(width, source.getWidth()),
+                    formatName.equals("png"));
+
+            return storageService.storeImage(variantName(fileName, width), campusId, variant, formatName);
+        } catch (IOException ioException) {
+            log.error("Could not create the {} pixels wide variant of {}", width, fileName, ioException);
+            return false;
+        }
+    }
+
+    /**
+     * Creates a variant, making sure concurrent requests for the same variant
+     * only create it once.
+     */
+    private boolean createVariantOnce(String campusId, String fileName, int width) {
+        String key = String.format("%s/%s", campusId, variantName(fileName, width));
+        CompletableFuture<Boolean> creation = new CompletableFuture<>();
+        CompletableFuture<Boolean> existing = inFlight.putIfAbsent(key, creation);
+
+        if (existing != null)
+            return existing.join();
+
+        boolean created = false;
+        try {
+            created = createVariant(campusId, fileName, width);
+        } finally {
+            creation.complete(created);
+            inFlight.remove(key);
+        }
+
+        return created;
+    }
+
+    /**
+     * Loads the best fitting variant of an image, creating it if missing.
+     *
+     * @param campusId       The ID of the campus the resource belongs to.
+     * @param fileName       The original file name.
+     * @param requestedWidth The width the client will draw the image at, in
+     *                       physical pixels.
+     * @return {@link Resource} representation of the variant, or of the original
+     *         if no smaller variant applies.
+     */
+    public Resource loadVariant(String campusId, String fileName, int requestedWidth) {
+        int width = selectWidth(requestedWidth);
+
+        if (width > 0 && formatName(fileName) != null) {
+            String variantName = variantName(fileName, width);
+            Resource variant = storageService.loadAsResource("image", campusId, variantName);
+
+            if (variant == null && createVariantOnce(campusId, fileName, width))
+                variant = storageService.loadAsResource("image", campusId, variantName);
+
+            if (variant != null)
+                return variant;
+        }
+
+        return storageService.loadAsResource("image", campusId, fileName);
+    }
+
+    /**
+     * Creates all variants of an image, decoding the original only once, within
+     * the decode budget. Each variant is scaled from the previous, larger, one.
+     *
+     * @param campusId The ID of the campus the resource belongs to.
+     * @param fileName The original file name.
+     */
+    private void createAllVariants(String campusId, String fileName) {
+        String formatName = formatName(fileName);
+        Resource original = storageService.loadAsResource("image", campusId, fileName);
+        if (original == null)
+            return;
+
+        try {
+            // Images narrower than every variant are not decoded at all
+            int originalWidth = readWidth(original);
+            if (originalWidth <= variantWidths[0])
+                return;
+
+            BufferedImage current;
+            try (InputStream inputStream = original.getInputStream()) {
+                current = imageProcessingService.read(inputStream);
+            }
+
+            for (int i = variantWidths.length - 1; i >= 0; i--) {
+                int width = variantWidths[i];
+                if (originalWidth <= width)
+                    continue;
+
+                current = imageProcessingService.resize(current, Math.min(width, current.getWidth()),
+                        formatName.equals("png"));
+                storageService.storeImage(variantName(fileName, width), campusId, current, formatName);
+            }
+        } catch (IOException ioException) {
+            log.error("Could not create the variants of {}", fileName, ioException);
+        }
+    }
+
+    /**
+     * Removes the variants of an image, once the original is removed or
+     * replaced. Urls of other asset types are ignored.
+     *
+     * @param fileUrl The original url (type/campusId/fileName).
+     */
+    public void removeVariants(String fileUrl) {
+        String url = AssetCollectorService.normalise(fileUrl);
+        if (url == null || !url.startsWith("image/"))
+            return;
+
+        String[] urlParts = url.split("/");
+        // Listed rather than derived from the widths, which may have changed since
+        for (StoredAsset asset : storageService.listAssets(urlParts[0], urlParts[1])) {
+            String assetName = asset.getUrl().substring(asset.getUrl().lastIndexOf('/') + 1);
+
+            if (urlParts[2].equals(originalName(assetName)))
+                storageService.remove(asset.getUrl());
+        }
+    }
+
+    /**
+     * Creates all variants of a freshly stored image in the background.
+     *
+     * @param campusId The ID of the campus the resource belongs to.
+     * @param fileName The original file name.
+     */
+    public void generateVariants(String campusId, String fileName) {
+        if (formatName(fileName) == null)
+            return;
+
+        // Missing variants are created on request anyway, so a full queue is not an
+        // issue
+        imageProcessingService.runInBackground(() -> createAllVariants(campusId, fileName));
+    }
+}
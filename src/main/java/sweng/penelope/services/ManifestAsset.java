@@ -0,0 +1,18 @@
+package sweng.penelope.services;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * <code>ManifestAsset</code> is an asset listed in an {@link AssetManifest}.
+ */
+@Getter
+@AllArgsConstructor
+public class ManifestAsset {
+    // type/campusId/fileName, served at /type/campusId/fileName
+    private final String url;
+    private final long size;
+    private final String contentType;
+    // Hex encoded SHA-256 of the content
+    private final String hash;
+}
@@ -0,0 +1,80 @@
+package sweng.penelope.services;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.Getter;
+
+/**
+ * <code>MappedAsset</code> is a file mapped by {@link MappedAssetCache}.
+ * The mapping is reference counted: the cache holds one reference, and every
+ * open stream another. It is dropped when the last reference is released, so
+ * that evicting a file being served does not pull its memory from under the
+ * reader, and the garbage collector then unmaps it.
+ */
+public class MappedAsset {
+    @Getter
+    private final Path path;
+    @Getter
+    private final long lastModified;
+
+    private final int size;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private volatile MappedByteBuffer buffer;
+
+    /**
+     * <code>MappedAsset</code> constructor, holding the cache's reference.
+     * 
+     * @param path         The mapped file.
+     * @param buffer       The mapping.
+     * @param lastModified When the file was last modified.
+     */
+    public MappedAsset(Path path, MappedByteBuffer buffer, long lastModified) {
+        this.path = path;
+        this.buffer = buffer;
+        this.size = buffer.capacity();
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return The mapping size in bytes.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Whether the file is still mapped.
+     */
+    public boolean isMapped() {
+        return references.get() > 0;
+    }
+
+    /**
+     * Takes a reference to the mapping.
+     * 
+     * @return A read-only view of the mapping, or null if it was already
+     *         dropped.
+     */
+    public ByteBuffer acquire() {
+        int current;
+        do {
+            current = references.get();
+            if (current == 0)
+                return null;
+        } while (!references.compareAndSet(current, current + 1));
+
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Releases a reference, dropping the mapping if it was the last one.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0)
+            // Views handed out keep it mapped until they are collected too
+            buffer = null;
+    }
+}
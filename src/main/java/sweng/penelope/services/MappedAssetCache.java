@@ -0,0 +1,271 @@
+package sweng.penelope.services;
+
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * <code>MappedAssetCache</code> keeps small asset files memory mapped, keyed
+ * by asset url, so that serving them again needs no lookup, open or read
+ * calls.
+ * Mappings are evicted least recently used first, once
+ * <code>penelope.storage.mapped-cache.max-bytes</code> or
+ * <code>max-mappings</code> is exceeded. Storage must evict a url when it
+ * points it somewhere else, and a file when it replaces or removes it, files
+ * changed by other means keep being served from their mapping.
+ * Evicted mappings are only unmapped once the garbage collector collects
+ * them, so the limits bound the cached mappings alone. Mapped files, cached or
+ * awaiting collection, are bounded by twice the limits: past that, files are
+ * served without being mapped until enough evicted mappings are collected.
+ */
+@Service
+public class MappedAssetCache {
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${penelope.storage.mapped-cache.max-file-size}")
+    private long maxFileSize;
+
+    @Value("${penelope.storage.mapped-cache.max-bytes}")
+    private long maxBytes;
+
+    @Value("${penelope.storage.mapped-cache.max-mappings}")
+    private int maxMappings;
+
+    // Access ordered, eldest is the least recently used
+    private final LinkedHashMap<String, MappedAsset> mappings = new LinkedHashMap<>(16, 0.75f, true);
+    private long mappedBytes;
+    // Mappings not yet unmapped, cached or awaiting collection
+    private long residentBytes;
+    private int residentMappings;
+    private static final Cleaner CLEANER = Cleaner.create();
+    // Bumped by evictions, mappings made across one are dropped
+    private long generation;
+
+    private Counter hits;
+    private Counter misses;
+
+    @PostConstruct
+    private void registerMetrics() {
+        hits = Counter.builder("penelope.storage.mapped.requests")
+                .description("Asset loads, by whether the file was already mapped")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        misses = Counter.builder("penelope.storage.mapped.requests")
+                .description("Asset loads, by whether the file was already mapped")
+                .tag("result", "miss")
+                .register(meterRegistry);
+
+        Gauge.builder("penelope.storage.mapped.size", this, cache -> cache.mappedBytes)
+                .description("Bytes of mapped files")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("penelope.storage.mapped.files", mappings, Map::size)
+                .description("Mapped files")
+                .register(meterRegistry);
+        Gauge.builder("penelope.storage.mapped.resident", this, MappedAssetCache::residentBytes)
+                .description("Bytes of mapped files, including evicted mappings awaiting collection")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Looks up a mapped asset.
+     * 
+     * @param url The asset url.
+     * @return A {@link Resource} reading the mapping, or null if the asset is
+     *         not mapped.
+     */
+    public Resource get(String url) {
+        MappedAsset mappedAsset;
+        synchronized (mappings) {
+            mappedAsset = mappings.get(url);
+        }
+
+        if (mappedAsset == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return new MappedAssetResource(mappedAsset);
+    }
+
+    /**
+     * @return The current generation, to be read before resolving a url that
+     *         is then mapped.
+     */
+    public long generation() {
+        synchronized (mappings) {
+            return generation;
+        }
+    }
+
+    /**
+     * Maps an asset file, evicting the least recently used mappings to stay
+     * within the limits.
+     * 
+     * @param url             The asset url.
+     * @param path            The asset file the url resolved to.
+     * @param startGeneration The {@link #generation()} read before resolving
+     *                        the url.
+     * @return A {@link Resource} reading the mapping, or null if the file is
+     *         missing, empty, too large, was replaced while being mapped or
+     *         too many evicted mappings await collection.
+     * @throws IOException if the file cannot be mapped.
+     */
+    public Resource map(String url, Path path, long startGeneration) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException noSuchFileException) {
+            return null;
+        }
+
+        long size = attributes.size();
+        if (!attributes.isRegularFile() || size == 0 || size > maxFileSize || size > maxBytes)
+            return null;
+
+        if (!reserve(size))
+            return null;
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping outlives the channel
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException | RuntimeException exception) {
+            unmapped(size);
+            throw exception;
+        }
+        // Views of the buffer keep it reachable, so this runs once it is unmapped
+        CLEANER.register(buffer, () -> unmapped(size));
+        MappedAsset mappedAsset = new MappedAsset(path, buffer, attributes.lastModifiedTime().toMillis());
+
+        synchronized (mappings) {
+            if (startGeneration != generation) {
+                mappedAsset.release();
+                return null;
+            }
+
+            MappedAsset existing = mappings.get(url);
+            if (existing != null) {
+                // Mapped concurrently
+                mappedAsset.release();
+                return new MappedAssetResource(existing);
+            }
+
+            mappings.put(url, mappedAsset);
+            mappedBytes += mappedAsset.size();
+
+            Iterator<MappedAsset> eldest = mappings.values().iterator();
+            while (mappedBytes > maxBytes || mappings.size() > maxMappings) {
+                MappedAsset evicted = eldest.next();
+                eldest.remove();
+                drop(evicted);
+            }
+        }
+
+        return new MappedAssetResource(mappedAsset);
+    }
+
+    private boolean reserve(long size) {
+        synchronized (mappings) {
+            if (residentBytes + size > 2 * maxBytes || residentMappings >= 2 * maxMappings)
+                return false;
+
+            residentBytes += size;
+            residentMappings++;
+            return true;
+        }
+    }
+
+    private void unmapped(long size) {
+        synchronized (mappings) {
+            residentBytes -= size;
+            residentMappings--;
+        }
+    }
+
+    private long residentBytes() {
+        synchronized (mappings) {
+            return residentBytes;
+        }
+    }
+
+    private void drop(MappedAsset evicted) {
+        mappedBytes -= evicted.size();
+        evicted.release();
+    }
+
+    /**
+     * Drops a url's mapping, e.g. because it was stored again. Streams still
+     * reading it keep it mapped until they are closed.
+     * 
+     * @param url The asset url.
+     */
+    public void evict(String url) {
+        synchronized (mappings) {
+            generation++;
+
+            MappedAsset evicted = mappings.remove(url);
+            if (evicted != null)
+                drop(evicted);
+        }
+    }
+
+    /**
+     * Drops the mappings of a file, under every url resolving to it, e.g.
+     * because the file was replaced. Streams still reading it keep it mapped
+     * until they are closed.
+     * 
+     * @param path The asset file.
+     */
+    public void evict(Path path) {
+        synchronized (mappings) {
+            generation++;
+
+            Iterator<MappedAsset> mappedAssets = mappings.values().iterator();
+            while (mappedAssets.hasNext()) {
+                MappedAsset mappedAsset = mappedAssets.next();
+
+                if (mappedAsset.getPath().equals(path)) {
+                    mappedAssets.remove();
+                    drop(mappedAsset);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every mapping.
+     */
+    public void clear() {
+        synchronized (mappings) {
+            generation++;
+
+            mappings.values().forEach(MappedAsset::release);
+            mappings.clear();
+            mappedBytes = 0;
+        }
+    }
+}
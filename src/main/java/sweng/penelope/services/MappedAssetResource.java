@@ -0,0 +1,77 @@
+package sweng.penelope.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.springframework.core.io.AbstractResource;
+
+/**
+ * <code>MappedAssetResource</code> is a {@link org.springframework.core.io.Resource}
+ * over a file mapped by {@link MappedAssetCache}. Streams read the mapping,
+ * without opening or reading the file, and hold a reference to it until
+ * closed. Once the mapping has been evicted, streams read the file instead.
+ */
+public class MappedAssetResource extends AbstractResource {
+    private final MappedAsset mappedAsset;
+
+    /**
+     * <code>MappedAssetResource</code> constructor.
+     * 
+     * @param mappedAsset The {@link MappedAsset}.
+     */
+    public MappedAssetResource(MappedAsset mappedAsset) {
+        this.mappedAsset = mappedAsset;
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public URI getURI() {
+        return mappedAsset.getPath().toUri();
+    }
+
+    @Override
+    public String getFilename() {
+        return mappedAsset.getPath().getFileName().toString();
+    }
+
+    @Override
+    public long contentLength() {
+        return mappedAsset.size();
+    }
+
+    @Override
+    public long lastModified() {
+        return mappedAsset.getLastModified();
+    }
+
+    @Override
+    public String getDescription() {
+        return String.format("Mapped file [%s]", mappedAsset.getPath());
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        ByteBuffer mapping = mappedAsset.acquire();
+        if (mapping == null)
+            return Files.newInputStream(mappedAsset.getPath());
+
+        return new ByteBufferInputStream(mapping) {
+            private boolean closed;
+
+            @Override
+            public void close() {
+                if (!closed) {
+                    closed = true;
+                    mappedAsset.release();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,18 @@
+package sweng.penelope.services;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * <code>NameEntry</code> is a campus or bird name, as completed by
+ * {@link NameTrie}.
+ */
+@Getter
+@AllArgsConstructor
+public class NameEntry {
+    // campus or bird
+    private final String type;
+    private final Long id;
+    private final Long campusId;
+    private final String name;
+}
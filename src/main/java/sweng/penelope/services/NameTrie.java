@@ -0,0 +1,304 @@
+package sweng.penelope.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import sweng.penelope.entities.ChangeRecord;
+
+/**
+ * <code>NameTrie</code> is an immutable radix trie over campus and bird names,
+ * completing a prefix of any word of a name to the best matching names.
+ * Nodes are stored in flat arrays, children of a node next to each other, and
+ * edges are read from the sorted keys rather than copied. Nodes covering more
+ * keys than can be returned hold their results precomputed, the others are
+ * scanned, so a lookup only walks the prefix and reads at most a few entries.
+ * Names are ranked campuses first, then shortest first, then alphabetically.
+ */
+public final class NameTrie {
+    private static final Comparator<NameEntry> RANKING = Comparator
+            .comparing((NameEntry entry) -> !entry.getType().equals(ChangeRecord.CAMPUS))
+            .thenComparingInt(entry -> entry.getName().length())
+            .thenComparing(entry -> entry.getName().toLowerCase(Locale.ROOT))
+            .thenComparing(NameEntry::getId);
+
+    private final int maxResults;
+
+    // By rank
+    private final NameEntry[] entries;
+    // Sorted, with the rank of the entry each key belongs to
+    private final String[] keys;
+    private final int[] keyRanks;
+
+    private int nodeCount;
+    // Length of the prefix a node stands for
+    private int[] nodeDepth;
+    // Range of the keys starting with the prefix
+    private int[] nodeLo;
+    private int[] nodeHi;
+    private int[] childStart;
+    private int[] childCount;
+    private char[] firstChar;
+    // Offset of the precomputed ranks in results, -1 if the range is scanned
+    private int[] resultsStart;
+    private int[] resultsCount;
+    private int[] results;
+    private int resultsSize;
+
+    private NameTrie(NameEntry[] entries, String[] keys, int[] keyRanks, int maxResults) {
+        this.entries = entries;
+        this.keys = keys;
+        this.keyRanks = keyRanks;
+        this.maxResults = Math.max(1, maxResults);
+    }
+
+    /**
+     * Builds a trie.
+     *
+     * @param names      The names.
+     * @param maxResults The maximum number of results of a lookup.
+     * @return The {@link NameTrie}.
+     */
+    public static NameTrie build(Collection<NameEntry> names, int maxResults) {
+        NameEntry[] entries = names.stream()
+                .filter(entry -> entry.getName() != null)
+                .sorted(RANKING)
+                .toArray(NameEntry[]::new);
+
+        // One key per word start, "grey heron" is found by "gr" and "he"
+        List<String> keyList = new ArrayList<>();
+        List<Integer> rankList = new ArrayList<>();
+        for (int rank = 0; rank < entries.length; rank++) {
+            String name = normalise(entries[rank].getName());
+            for (int i = 0; i < name.length(); i++) {
+                boolean wordStart = Character.isLetterOrDigit(name.charAt(i))
+                        && (i == 0 || !Character.isLetterOrDigit(name.charAt(i - 1)));
+                if (wordStart) {
+                    keyList.add(name.substring(i));
+                    rankList.add(rank);
+                }
+            }
+        }
+
+        Integer[] order = new Integer[keyList.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, Comparator.comparing((Integer i) -> keyList.get(i)).thenComparing(rankList::get));
+
+        String[] keys = new String[order.length];
+        int[] keyRanks = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            keys[i] = keyList.get(order[i]);
+            keyRanks[i] = rankList.get(order[i]);
+        }
+
+        NameTrie nameTrie = new NameTrie(entries, keys, keyRanks, maxResults);
+        nameTrie.buildNodes();
+        return nameTrie;
+    }
+
+    private static String normalise(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    private static int commonPrefixLength(String first, String second) {
+        int length = Math.min(first.length(), second.length());
+        for (int i = 0; i < length; i++) {
+            if (first.charAt(i) != second.charAt(i))
+                return i;
+        }
+        return length;
+    }
+
+    private int addNode(int depth, int lo, int hi, char first) {
+        if (nodeCount == nodeDepth.length) {
+            int capacity = nodeCount * 2;
+            nodeDepth = Arrays.copyOf(nodeDepth, capacity);
+            nodeLo = Arrays.copyOf(nodeLo, capacity);
+            nodeHi = Arrays.copyOf(nodeHi, capacity);
+            childStart = Arrays.copyOf(childStart, capacity);
+            childCount = Arrays.copyOf(childCount, capacity);
+            firstChar = Arrays.copyOf(firstChar, capacity);
+            resultsStart = Arrays.copyOf(resultsStart, capacity);
+            resultsCount = Arrays.copyOf(resultsCount, capacity);
+        }
+
+        nodeDepth[nodeCount] = depth;
+        nodeLo[nodeCount] = lo;
+        nodeHi[nodeCount] = hi;
+        firstChar[nodeCount] = first;
+        resultsStart[nodeCount] = -1;
+        return nodeCount++;
+    }
+
+    private void buildNodes() {
+        int capacity = Math.max(16, keys.length * 2);
+        nodeDepth = new int[capacity];
+        nodeLo = new int[capacity];
+        nodeHi = new int[capacity];
+        childStart = new int[capacity];
+        childCount = new int[capacity];
+        firstChar = new char[capacity];
+        resultsStart = new int[capacity];
+        resultsCount = new int[capacity];
+        results = new int[Math.max(16, maxResults * 16)];
+
+        addNode(0, 0, keys.length, '\0');
+        buildChildren(0);
+    }
+
+    /**
+     * Adds the children of a node, then their own children. Keys of the node
+     * range share its prefix, and as they are sorted, keys continuing with
+     * the same character are next to each other.
+     */
+    private void buildChildren(int node) {
+        int depth = nodeDepth[node];
+        int hi = nodeHi[node];
+
+        // Keys ending here sort first
+        int i = nodeLo[node];
+        while (i < hi && keys[i].length() == depth)
+            i++;
+
+        int first = nodeCount;
+        while (i < hi) {
+            char c = keys[i].charAt(depth);
+            int j = i + 1;
+            while (j < hi && keys[j].charAt(depth) == c)
+                j++;
+
+            // The child edge runs as far as all its keys agree
+            addNode(commonPrefixLength(keys[i], keys[j - 1]), i, j, c);
+            i = j;
+        }
+
+        childStart[node] = first;
+        childCount[node] = nodeCount - first;
+
+        if (nodeHi[node] - nodeLo[node] > maxResults)
+            precomputeResults(node);
+
+        for (int child = first; child < first + childCount[node]; child++)
+            buildChildren(child);
+    }
+
+    private void precomputeResults(int node) {
+        int[] best = new int[maxResults];
+        int count = selectBest(nodeLo[node], nodeHi[node], best);
+
+        if (resultsSize + count > results.length)
+            results = Arrays.copyOf(results, Math.max(results.length * 2, resultsSize + count));
+
+        System.arraycopy(best, 0, results, resultsSize, count);
+        resultsStart[node] = resultsSize;
+        resultsCount[node] = count;
+        resultsSize += count;
+    }
+
+    /**
+     * Selects the best ranked distinct entries of a range of keys.
+     *
+     * @return The number of entries selected, their ranks in order in best.
+     */
+    private int selectBest(int lo, int hi, int[] best) {
+        int count = 0;
+
+        for (int k = lo; k < hi; k++) {
+            int rank = keyRanks[k];
+            if (count == best.length && rank >= best[count - 1])
+                continue;
+
+            // Insertion into the sorted selection
+            int position = count;
+            while (position > 0 && best[position - 1] > rank)
+                position--;
+            if (position > 0 && best[position - 1] == rank)
+                continue;
+
+            int last = Math.min(count, best.length - 1);
+            System.arraycopy(best, position, best, position + 1, last - position);
+            best[position] = rank;
+            if (count < best.length)
+                count++;
+        }
+
+        return count;
+    }
+
+    private int findChild(int node, char c) {
+        int lo = childStart[node];
+        int hi = lo + childCount[node] - 1;
+
+        while (lo <= hi) {
+            int middle = (lo + hi) >>> 1;
+            if (firstChar[middle] < c)
+                lo = middle + 1;
+            else if (firstChar[middle] > c)
+                hi = middle - 1;
+            else
+                return middle;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Completes a prefix.
+     *
+     * @param prefix The prefix of any word of the names, case insensitive.
+     * @param limit  The maximum number of names returned, at most the trie
+     *               maximum.
+     * @return The {@link NameEntry} list, best ranked first.
+     */
+    public List<NameEntry> complete(String prefix, int limit) {
+        String normalised = normalise(prefix);
+        limit = Math.min(limit, maxResults);
+        if (normalised.isEmpty() || limit <= 0)
+            return Collections.emptyList();
+
+        int node = 0;
+        int position = 0;
+        while (position < normalised.length()) {
+            int child = findChild(node, normalised.charAt(position));
+            if (child < 0)
+                return Collections.emptyList();
+
+            // Rest of the edge, read from any key below it
+            String key = keys[nodeLo[child]];
+            int end = Math.min(nodeDepth[child], normalised.length());
+            for (int i = position + 1; i < end; i++) {
+                if (key.charAt(i) != normalised.charAt(i))
+                    return Collections.emptyList();
+            }
+
+            node = child;
+            position = end;
+        }
+
+        List<NameEntry> completions = new ArrayList<>(limit);
+        if (resultsStart[node] >= 0) {
+            int count = Math.min(limit, resultsCount[node]);
+            for (int i = 0; i < count; i++)
+                completions.add(entries[results[resultsStart[node] + i]]);
+        } else {
+            int[] best = new int[limit];
+            int count = selectBest(nodeLo[node], nodeHi[node], best);
+            for (int i = 0; i < count; i++)
+                completions.add(entries[best[i]]);
+        }
+
+        return completions;
+    }
+
+    /**
+     * @return The number of names.
+     */
+    public int size() {
+        return entries.length;
+    }
+}
@@ -0,0 +1,164 @@
+package sweng.penelope.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import org.springframework.core.io.AbstractResource;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+/**
+ * <code>S3Resource</code> is a {@link org.springframework.core.io.Resource}
+ * backed by an S3 object.
+ * Its streams only request the object on their first read, so that skipping to
+ * the start of a range, as done when serving ranged requests, turns into a
+ * ranged GET rather than downloading the skipped bytes.
+ */
+public class S3Resource extends AbstractResource {
+    private final S3Client s3Client;
+    private final String bucket;
+    private final String key;
+    private final long contentLength;
+    private final long lastModified;
+
+    /**
+     * <code>S3Resource</code> constructor.
+     *
+     * @param s3Client     The {@link S3Client}.
+     * @param bucket       The bucket.
+     * @param key          The object key.
+     * @param headResponse The object metadata.
+     */
+    public S3Resource(S3Client s3Client, String bucket, String key, HeadObjectResponse headResponse) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.key = key;
+        this.contentLength = headResponse.contentLength();
+        this.lastModified = headResponse.lastModified() != null ? headResponse.lastModified().toEpochMilli() : 0;
+    }
+
+    @Override
+    public boolean exists() {
+        // Only created for objects found by a HEAD request
+        return true;
+    }
+
+    @Override
+    public URI getURI() throws IOException {
+        try {
+            return new URI("s3", bucket, "/" + key, null);
+        } catch (URISyntaxException uriSyntaxException) {
+            throw new IOException("Invalid object key", uriSyntaxException);
+        }
+    }
+
+    @Override
+    public String getFilename() {
+        return key.substring(key.lastIndexOf('/') + 1);
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public long lastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public String getDescription() {
+        return String.format("S3 object [s3://%s/%s]", bucket, key);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new RangedInputStream();
+    }
+
+    /**
+     * Stream over the object, starting wherever it was skipped to before the
+     * first read.
+     */
+    private class RangedInputStream extends InputStream {
+        private long position;
+        private ResponseInputStream<GetObjectResponse> object;
+
+        private InputStream object() {
+            if (object == null) {
+                GetObjectRequest.Builder request = GetObjectRequest.builder().bucket(bucket).key(key);
+                if (position > 0)
+                    request.range(String.format("bytes=%d-", position));
+
+                object = s3Client.getObject(request.build());
+            }
+
+            return object;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position >= contentLength)
+                return -1;
+
+            int read = object().read();
+            if (read >= 0)
+                position++;
+
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0)
+                return 0;
+            if (position >= contentLength)
+                return -1;
+
+            int read = object().read(buffer, offset, length);
+            if (read > 0)
+                position += read;
+
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (object != null) {
+                long skipped = object.skip(n);
+                position += skipped;
+
+                return skipped;
+            }
+
+            // Nothing requested yet, move the range start instead
+            long skipped = Math.max(0, Math.min(n, contentLength - position));
+            position += skipped;
+
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return object != null ? object.available() : 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (object == null)
+                return;
+
+            // Drop the connection rather than download the rest of the object
+            if (position < contentLength)
+                object.abort();
+            object.close();
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package sweng.penelope.services;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * <code>S3StorageService</code> implements {@link StorageService} on an S3
+ * compatible object store (AWS S3, MinIO...), so that several instances can
+ * share the same assets.
+ * Assets are stored under <code>type/campusId/fileName</code> keys. Files
+ * larger than the part size are uploaded as multipart uploads, their parts
+ * sent in parallel.
+ * Content addressing and sharding are file system concerns and do not apply
+ * here.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "penelope.storage.backend", havingValue = "s3")
+public class S3StorageService extends AbstractStorageService {
+    private static final String QUARANTINE_PREFIX = ".quarantine/";
+
+    @Autowired
+    private S3Client s3Client;
+
+    @Value("${penelope.storage.s3.bucket}")
+    private String bucket;
+
+    @Value("${penelope.storage.s3.part-size}")
+    private int partSize;
+
+    @Value("${penelope.storage.s3.upload-parallelism}")
+    private int uploadParallelism;
+
+    private ExecutorService uploadExecutor;
+
+    @PostConstruct
+    private void startUploaders() {
+        uploadExecutor = Executors.newFixedThreadPool(uploadParallelism, new CustomizableThreadFactory("s3-upload-"));
+    }
+
+    @PreDestroy
+    private void stopUploaders() {
+        uploadExecutor.shutdown();
+    }
+
+    private static String assetKey(String type, String campusId, String fileName) {
+        return String.format("%s/%s/%s", type, campusId, fileName);
+    }
+
+    /**
+     * Reads up to a full buffer, fewer bytes only at the end of the stream.
+     */
+    private static int readFully(InputStream inputStream, byte[] buffer) throws IOException {
+        int read = 0;
+        while (read < buffer.length) {
+            int count = inputStream.read(buffer, read, buffer.length - read);
+            if (count < 0)
+                break;
+            read += count;
+        }
+        return read;
+    }
+
+    /**
+     * Uploads a stream. Streams up to the part size are sent in a single
+     * request, larger ones as a multipart upload, with up to
+     * <code>penelope.storage.s3.upload-parallelism</code> parts in flight. A
+     * failed multipart upload is aborted, so that its parts are not kept.
+     * 
+     * @param key         The object key.
+     * @param inputStream The content.
+     * @param size        The content length.
+     * @throws IOException if the content cannot be read or uploaded.
+     */
+    private void upload(String key, InputStream inputStream, long size) throws IOException {
+        if (size <= partSize) {
+            s3Client.putObject(request -> request.bucket(bucket).key(key), RequestBody.fromInputStream(inputStream, size));
+            return;
+        }
+
+        String uploadId = s3Client.createMultipartUpload(request -> request.bucket(bucket).key(key)).uploadId();
+
+        // Bounds the part buffers held in memory
+        Semaphore inFlight = new Semaphore(uploadParallelism);
+        List<Future<CompletedPart>> parts = new ArrayList<>();
+
+        try {
+            int partNumber = 1;
+            while (true) {
+                byte[] buffer = new byte[partSize];
+                int read = readFully(inputStream, buffer);
+                if (read == 0)
+                    break;
+
+                inFlight.acquire();
+                int number = partNumber++;
+                parts.add(uploadExecutor.submit(() -> {
+                    try {
+                        String eTag = s3Client.uploadPart(
+                                request -> request.bucket(bucket).key(key).uploadId(uploadId).partNumber(number),
+                                RequestBody.fromBytes(read == buffer.length ? buffer
+                                        : Arrays.copyOf(buffer, read)))
+                                .eTag();
+                        return CompletedPart.builder().partNumber(number).eTag(eTag).build();
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+
+                if (read < buffer.length)
+                    break;
+            }
+
+            List<CompletedPart> completedParts = new ArrayList<>();
+            for (Future<CompletedPart> part : parts)
+                completedParts.add(part.get());
+
+            s3Client.completeMultipartUpload(request -> request.bucket(bucket).key(key).uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build()));
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            abort(key, uploadId, parts);
+            throw new IOException("Interrupted while uploading " + key, interruptedException);
+        } catch (ExecutionException | SdkException | IOException exception) {
+            abort(key, uploadId, parts);
+            throw new IOException("Could not upload " + key,
+                    exception instanceof ExecutionException ? exception.getCause() : exception);
+        }
+    }
+
+    private void abort(String key, String uploadId, List<Future<CompletedPart>> parts) {
+        parts.forEach(part -> part.cancel(true));
+
+        try {
+            s3Client.abortMultipartUpload(request -> request.bucket(bucket).key(key).uploadId(uploadId));
+        } catch (SdkException sdkException) {
+            log.warn("Could not abort the upload of {}", key, sdkException);
+        }
+    }
+
+    /**
+     * Fetches an object's metadata.
+     * 
+     * @return The {@link HeadObjectResponse}, or null if there is no such
+     *         object.
+     */
+    private HeadObjectResponse head(String key) {
+        try {
+            return s3Client.headObject(request -> request.bucket(bucket).key(key));
+        } catch (NoSuchKeyException noSuchKeyException) {
+            return null;
+        }
+    }
+
+    @Override
+    public void init() {
+        try {
+            s3Client.headBucket(request -> request.bucket(bucket));
+        } catch (NoSuchBucketException noSuchBucketException) {
+            try {
+                s3Client.createBucket(request -> request.bucket(bucket));
+            } catch (SdkException sdkException) {
+                throw new StorageException("Could not create bucket " + bucket, sdkException);
+            }
+        } catch (SdkException sdkException) {
+            throw new StorageException("Could not reach bucket " + bucket, sdkException);
+        }
+    }
+
+    @Override
+    public boolean store(String type, String campusId, MultipartFile file, String fileName) {
+        if (!StringUtils.hasText(fileName))
+            return false;
+
+        try (InputStream inputStream = file.getInputStream()) {
+            upload(assetKey(type, campusId, fileName), inputStream, file.getSize());
+            return true;
+        } catch (IOException | SdkException exception) {
+            log.error("Could not store {}", assetKey(type, campusId, fileName), exception);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean storeFile(String type, String campusId, Path source, String fileName) {
+        try {
+            try (InputStream inputStream = Files.newInputStream(source)) {
+                upload(assetKey(type, campusId, fileName), inputStream, Files.size(source));
+            }
+
+            // Stored files are moved, not copied
+            Files.deleteIfExists(source);
+            return true;
+        } catch (IOException | SdkException exception) {
+            log.error("Could not store {}", assetKey(type, campusId, fileName), exception);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean remove(String fileUrl) {
+        try {
+            // Deletes succeed for missing objects, check first
+            if (head(fileUrl) == null)
+                return false;
+
+            s3Client.deleteObject(request -> request.bucket(bucket).key(fileUrl));
+            return true;
+        } catch (SdkException sdkException) {
+            log.error("Could not remove {}", fileUrl, sdkException);
+            return false;
+        }
+    }
+
+    @Override
+    public List<String> listCampuses(String type) {
+        List<String> campusIds = new ArrayList<>();
+        String prefix = type + "/";
+        String continuationToken = null;
+
+        try {
+            do {
+                ListObjectsV2Response response = s3Client.listObjectsV2(ListObjectsV2Request.builder()
+                        .bucket(bucket).prefix(prefix).delimiter("/").continuationToken(continuationToken).build());
+
+                for (CommonPrefix commonPrefix : response.commonPrefixes()) {
+                    String campusFolder = commonPrefix.prefix();
+                    campusIds.add(campusFolder.substring(prefix.length(), campusFolder.length() - 1));
+                }
+
+                continuationToken = response.nextContinuationToken();
+            } while (continuationToken != null);
+        } catch (SdkException sdkException) {
+            throw new StorageException("Could not list campuses", sdkException);
+        }
+
+        return campusIds;
+    }
+
+    @Override
+    public List<StoredAsset> listAssets(String type, String campusId) {
+        List<StoredAsset> assets = new ArrayList<>();
+        String continuationToken = null;
+
+        try {
+            do {
+                ListObjectsV2Response response = s3Client.listObjectsV2(ListObjectsV2Request.builder()
+                        .bucket(bucket).prefix(assetKey(type, campusId, "")).continuationToken(continuationToken)
+                        .build());
+
+                for (S3Object object : response.contents())
+                    assets.add(new StoredAsset(object.key(), object.size(), object.lastModified().toEpochMilli()));
+
+                continuationToken = response.nextContinuationToken();
+            } while (continuationToken != null);
+        } catch (SdkException sdkException) {
+            throw new StorageException("Could not list assets", sdkException);
+        }
+
+        return assets;
+    }
+
+    @Override
+    public boolean quarantine(String fileUrl) {
+        try {
+            // Objects cannot be renamed, copy then delete
+            s3Client.copyObject(request -> request.sourceBucket(bucket).sourceKey(fileUrl)
+                    .destinationBucket(bucket).destinationKey(QUARANTINE_PREFIX + fileUrl));
+            s3Client.deleteObject(request -> request.bucket(bucket).key(fileUrl));
+            return true;
+        } catch (SdkException sdkException) {
+            log.error("Could not quarantine {}", fileUrl, sdkException);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean storeProcessedImage(String fileName, String campusId, BufferedImage image) {
+        return storeImage(fileName, campusId, image, "png");
+    }
+
+    @Override
+    public boolean storeImage(String fileName, String campusId, BufferedImage image, String formatName) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        try {
+            if (!ImageIO.write(image, formatName, outputStream))
+                return false;
+
+            s3Client.putObject(request -> request.bucket(bucket).key(assetKey("image", campusId, fileName)),
+                    RequestBody.fromBytes(outputStream.toByteArray()));
+            return true;
+        } catch (IOException | SdkException exception) {
+            log.error("Could not store image {}", assetKey("image", campusId, fileName), exception);
+            return false;
+        }
+    }
+
+    /**
+     * Resolves the object key of the required asset, as a relative path.
+     */
+    @Override
+    public Path load(String type, String campusId, String fileName) {
+        return Paths.get(type, campusId, fileName);
+    }
+
+    @Override
+    public Resource loadAsResource(String type, String campusId, String filename) {
+        String key = assetKey(type, campusId, filename);
+
+        try {
+            HeadObjectResponse headResponse = head(key);
+            if (headResponse != null)
+                return new S3Resource(s3Client, bucket, key, headResponse);
+        } catch (SdkException sdkException) {
+            throw new StorageException("Could not load " + key, sdkException);
+        }
+        return null;
+    }
+}
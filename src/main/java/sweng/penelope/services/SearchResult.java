@@ -0,0 +1,19 @@
+package sweng.penelope.services;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * <code>SearchResult</code> is a bird found by {@link BirdSearchService}.
+ */
+@Getter
+@AllArgsConstructor
+public class SearchResult {
+    private final Long id;
+    private final Long campusId;
+    private final String name;
+    // Start of the description, as shown in the campus xml
+    private final String aboutMe;
+    private final String listImageURL;
+    private final float score;
+}
@@ -3,6 +3,7 @@ package sweng.penelope.services;
 import java.awt.image.BufferedImage;
 import java.nio.file.Path;
 import java.security.PrivateKey;
+import java.util.List;
 import java.util.stream.Stream;
 
 import org.springframework.core.io.Resource;
@@ -29,8 +30,44 @@ public interface StorageService {
 	 */
 	boolean store(String type, String campusId, MultipartFile file, String fileName);
 
+	/**
+	 * Stores a local file, moving it into storage.
+	 * 
+	 * @param type     The file type (image, video, audio).
+	 * @param campusId The ID of the campus the resource belongs to.
+	 * @param source   The path to the file to move.
+	 * @param fileName The fileName.
+	 * @return True for success, false for failure.
+	 */
+	boolean storeFile(String type, String campusId, Path source, String fileName);
+
 	boolean remove(String fileUrl);
 
+	/**
+	 * Lists the campuses holding assets of a type.
+	 * 
+	 * @param type The file type (image, video, audio).
+	 * @return The campus IDs.
+	 */
+	List<String> listCampuses(String type);
+
+	/**
+	 * Lists the assets of a type belonging to a campus.
+	 * 
+	 * @param type     The file type (image, video, audio).
+	 * @param campusId The ID of the campus the assets belong to.
+	 * @return The stored assets.
+	 */
+	List<StoredAsset> listAssets(String type, String campusId);
+
+	/**
+	 * Moves an asset out of storage, into the quarantine folder.
+	 * 
+	 * @param fileUrl The asset url (type/campusId/fileName).
+	 * @return True for success, false for failure.
+	 */
+	boolean quarantine(String fileUrl);
+
 	/**
 	 * Stores an image as a round PNG.
 	 * 
@@ -41,6 +78,17 @@ public interface StorageService {
 	 */
 	boolean storeProcessedImage(String fileName, String campusId, BufferedImage image);
 
+	/**
+	 * Stores an image in the given format.
+	 * 
+	 * @param fileName   The image file name.
+	 * @param campusId   The ID of the campus the resource belongs to.
+	 * @param image      The image to save.
+	 * @param formatName The {@link javax.imageio.ImageIO} format name (png, jpg...).
+	 * @return True for success, false for failure.
+	 */
+	boolean storeImage(String fileName, String campusId, BufferedImage image, String formatName);
+
 	/**
 	 * Resolves the path to the required asset.
 	 * 
@@ -71,4 +119,18 @@ public interface StorageService {
 	 * @return {@link Resource} representation of the resource.
 	 */
 	Resource loadAsResourceFromDB(String type, Long id, String serverUrl);
+
+	/**
+	 * Retrieves a page of the desired list from database as a {@link Resource}.
+	 * Items are listed by id, the presentation info of all but the last page
+	 * holds the id the next page starts after.
+	 * 
+	 * @param type      The resource type (campus, campusList).
+	 * @param id        The resource ID.
+	 * @param after     Only items with a greater id are listed.
+	 * @param limit     The maximum number of items.
+	 * @param serverUrl The server url with protocol and port.
+	 * @return {@link Resource} representation of the page.
+	 */
+	Resource loadPageFromDB(String type, Long id, Long after, int limit, String serverUrl);
 }
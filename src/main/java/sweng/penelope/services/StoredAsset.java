@@ -0,0 +1,16 @@
+package sweng.penelope.services;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * <code>StoredAsset</code> describes an asset found in storage.
+ */
+@Getter
+@AllArgsConstructor
+public class StoredAsset {
+    // type/campusId/fileName
+    private final String url;
+    private final long size;
+    private final long lastModified;
+}
@@ -0,0 +1,26 @@
+package sweng.penelope.services;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+
+/**
+ * <code>SweepReport</code> summarises a run of the
+ * {@link AssetCollectorService}.
+ */
+@Getter
+public class SweepReport {
+    private final String mode;
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong orphaned = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+
+    /**
+     * <code>SweepReport</code> constructor.
+     *
+     * @param mode The collection mode (dry-run, delete, quarantine).
+     */
+    public SweepReport(String mode) {
+        this.mode = mode;
+    }
+}
@@ -0,0 +1,21 @@
+package sweng.penelope.services;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * <code>SyncChange</code> is the net change of a campus or bird over a page of
+ * {@link SyncService} changes.
+ */
+@Getter
+@AllArgsConstructor
+public class SyncChange {
+    // campus or bird
+    private final String type;
+    private final Long id;
+    private final Long campusId;
+    // created, updated or deleted
+    private final String action;
+    // Content hash of the current version, null for deletions
+    private final String hash;
+}
@@ -0,0 +1,29 @@
+package sweng.penelope.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Getter;
+
+/**
+ * <code>SyncPage</code> is a page of changes, see {@link SyncService}.
+ */
+@Getter
+public class SyncPage {
+    // The watermark to ask for the next page with
+    private final long watermark;
+    // Whether more changes follow the watermark
+    private final boolean more;
+    private final List<SyncChange> changes = new ArrayList<>();
+
+    /**
+     * <code>SyncPage</code> constructor.
+     *
+     * @param watermark The watermark to ask for the next page with.
+     * @param more      Whether more changes follow the watermark.
+     */
+    public SyncPage(long watermark, boolean more) {
+        this.watermark = watermark;
+        this.more = more;
+    }
+}
@@ -0,0 +1,169 @@
+package sweng.penelope.services;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import sweng.penelope.entities.Bird;
+import sweng.penelope.entities.Campus;
+import sweng.penelope.entities.ChangeRecord;
+import sweng.penelope.repositories.BirdRepository;
+import sweng.penelope.repositories.CampusRepository;
+import sweng.penelope.repositories.ChangeRecordRepository;
+
+/**
+ * <code>SyncService</code> lists what changed since a client watermark, so
+ * that clients can fetch only the campuses and birds they are missing.
+ * Watermarks are ids of the {@link ChangeRecord} log, read as a range of its
+ * primary key. {@link ChangeTracker} allocates them in commit order, so no
+ * change can later commit below a watermark handed out.
+ */
+@Service
+public class SyncService {
+    @Autowired
+    private ChangeRecordRepository changeRecordRepository;
+    @Autowired
+    private CampusRepository campusRepository;
+    @Autowired
+    private BirdRepository birdRepository;
+
+    /**
+     * Hashes the content fields of a campus or bird, in order.
+     *
+     * @param fields The fields.
+     * @return The hex encoded SHA-256 hash.
+     */
+    private static String hash(String... fields) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException noSuchAlgorithmException) {
+            throw new IllegalStateException("SHA-256 is not available", noSuchAlgorithmException);
+        }
+
+        for (String field : fields) {
+            // Separator and null marker keep distinct field lists distinct
+            if (field != null)
+                digest.update(field.getBytes(StandardCharsets.UTF_8));
+            else
+                digest.update((byte) 1);
+            digest.update((byte) 0);
+        }
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Computes the content hash of a campus.
+     *
+     * @param campus The {@link Campus}.
+     * @return The hash.
+     */
+    public static String contentHash(Campus campus) {
+        return hash(campus.getName(), campus.getAuthor());
+    }
+
+    /**
+     * Computes the content hash of a bird.
+     *
+     * @param bird The {@link Bird}.
+     * @return The hash.
+     */
+    public static String contentHash(Bird bird) {
+        return hash(bird.getName(), bird.getListImageURL(), bird.getHeroImageURL(), bird.getSoundURL(),
+                bird.getAboutMe(), bird.getAboutMeVideoURL(), bird.getLocation(), bird.getLocationImageURL(),
+                bird.getDiet(), bird.getDietImageURL(), bird.getAuthor());
+    }
+
+    /**
+     * Loads the current version of the given campuses or birds.
+     */
+    private static <T> Map<Long, T> loadCurrent(Iterable<T> entities, Function<T, Long> idGetter) {
+        Map<Long, T> current = new HashMap<>();
+        entities.forEach(entity -> current.put(idGetter.apply(entity), entity));
+        return current;
+    }
+
+    /**
+     * Lists the changes after a watermark. Changes of the same campus or bird
+     * within the page are collapsed into one, and campuses or birds created
+     * and deleted within the page are left out. Campuses and birds deleted
+     * since the change was recorded are reported as deleted.
+     *
+     * @param after The client watermark, 0 for everything.
+     * @param limit The maximum number of change records read.
+     * @return The {@link SyncPage}.
+     */
+    @Transactional(readOnly = true)
+    public SyncPage getChanges(long after, int limit) {
+        List<ChangeRecord> records = changeRecordRepository.findByIdGreaterThanOrderByIdAsc(after,
+                PageRequest.of(0, limit));
+
+        // First and last record of every entity, in order of first change
+        Map<String, ChangeRecord[]> byEntity = new LinkedHashMap<>();
+        List<Long> campusIds = new ArrayList<>();
+        List<Long> birdIds = new ArrayList<>();
+
+        for (ChangeRecord record : records) {
+            String key = record.getEntityType() + "/" + record.getEntityId();
+            ChangeRecord[] firstAndLast = byEntity.get(key);
+
+            if (firstAndLast == null) {
+                byEntity.put(key, new ChangeRecord[] { record, record });
+
+                if (record.getEntityType().equals(ChangeRecord.CAMPUS))
+                    campusIds.add(record.getEntityId());
+                else
+                    birdIds.add(record.getEntityId());
+            } else {
+                firstAndLast[1] = record;
+            }
+        }
+
+        Map<Long, Campus> campuses = loadCurrent(campusRepository.findAllById(campusIds), Campus::getId);
+        Map<Long, Bird> birds = loadCurrent(birdRepository.findAllById(birdIds), Bird::getId);
+
+        long watermark = records.isEmpty() ? after : records.get(records.size() - 1).getId();
+        SyncPage syncPage = new SyncPage(watermark, records.size() == limit);
+
+        for (ChangeRecord[] firstAndLast : byEntity.values()) {
+            ChangeRecord first = firstAndLast[0];
+            ChangeRecord last = firstAndLast[1];
+            boolean created = first.getAction().equals(ChangeRecord.CREATED);
+
+            String hash = null;
+            if (last.getEntityType().equals(ChangeRecord.CAMPUS) && campuses.containsKey(last.getEntityId()))
+                hash = contentHash(campuses.get(last.getEntityId()));
+            else if (last.getEntityType().equals(ChangeRecord.BIRD) && birds.containsKey(last.getEntityId()))
+                hash = contentHash(birds.get(last.getEntityId()));
+
+            String action;
+            if (hash == null || last.getAction().equals(ChangeRecord.DELETED)) {
+                // Never seen by a client at this watermark
+                if (created)
+                    continue;
+                action = ChangeRecord.DELETED;
+                hash = null;
+            } else {
+                action = created ? ChangeRecord.CREATED : ChangeRecord.UPDATED;
+            }
+
+            syncPage.getChanges()
+                    .add(new SyncChange(last.getEntityType(), last.getEntityId(), last.getCampusId(), action, hash));
+        }
+
+        return syncPage;
+    }
+}
@@ -0,0 +1,329 @@
+package sweng.penelope.services;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * <code>TieredStorageService</code> decorates the configured storage backend
+ * with a bounded, off-heap hot tier.
+ * Reads are counted per stored asset. Assets read
+ * <code>penelope.storage.hot-tier.promote-after</code> times are copied into a
+ * direct {@link ByteBuffer} and served from memory from then on. When the tier
+ * is full, an asset is only admitted if it is read more often than the coldest
+ * hot asset, which is then demoted. Counts are halved periodically, so that
+ * assets which stopped being popular cool down.
+ * Direct buffers count against <code>-XX:MaxDirectMemorySize</code>, which
+ * must be at least the hot tier capacity.
+ */
+@Slf4j
+@Service
+@Primary
+@ConditionalOnProperty(name = "penelope.storage.hot-tier.enabled", havingValue = "true")
+public class TieredStorageService implements StorageService {
+    @Autowired
+    private AbstractStorageService backingStore;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${penelope.storage.hot-tier.capacity}")
+    private long capacity;
+
+    @Value("${penelope.storage.hot-tier.max-entry-size}")
+    private long maxEntrySize;
+
+    @Value("${penelope.storage.hot-tier.promote-after}")
+    private int promoteAfter;
+
+    /**
+     * An asset held in the hot tier.
+     */
+    private static class HotAsset {
+        private final ByteBuffer content;
+        private final long promotedAt = System.currentTimeMillis();
+
+        private HotAsset(ByteBuffer content) {
+            this.content = content;
+        }
+    }
+
+    private final Map<String, HotAsset> hotTier = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> frequencies = new ConcurrentHashMap<>();
+    private final AtomicLong hotBytes = new AtomicLong();
+
+    // Guards admissions and demotions
+    private final Object admissionLock = new Object();
+    // Bumped before and after every write, promotions overlapping a write are
+    // dropped
+    private final AtomicLong writeGeneration = new AtomicLong();
+
+    private Counter hotHits;
+    private Counter coldHits;
+
+    @PostConstruct
+    private void registerMetrics() {
+        hotHits = Counter.builder("penelope.storage.tier.reads")
+                .description("Asset reads, by serving tier")
+                .tag("tier", "hot")
+                .register(meterRegistry);
+        coldHits = Counter.builder("penelope.storage.tier.reads")
+                .description("Asset reads, by serving tier")
+                .tag("tier", "cold")
+                .register(meterRegistry);
+
+        Gauge.builder("penelope.storage.tier.hit-ratio", this, service -> service.hitRatio(service.hotHits))
+                .description("Share of asset reads served by a tier")
+                .tag("tier", "hot")
+                .register(meterRegistry);
+        Gauge.builder("penelope.storage.tier.hit-ratio", this, service -> service.hitRatio(service.coldHits))
+                .description("Share of asset reads served by a tier")
+                .tag("tier", "cold")
+                .register(meterRegistry);
+        Gauge.builder("penelope.storage.hot-tier.size", hotBytes, AtomicLong::get)
+                .description("Bytes held in the hot tier")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("penelope.storage.hot-tier.assets", hotTier, Map::size)
+                .description("Assets held in the hot tier")
+                .register(meterRegistry);
+    }
+
+    private double hitRatio(Counter tierHits) {
+        double reads = hotHits.count() + coldHits.count();
+        return reads == 0 ? 0 : tierHits.count() / reads;
+    }
+
+    private static String assetUrl(String type, String campusId, String fileName) {
+        return String.format("%s/%s/%s", type, campusId, fileName);
+    }
+
+    /**
+     * Counts a read of an asset, known to exist.
+     */
+    private int countRead(String url) {
+        return frequencies.computeIfAbsent(url, key -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private int frequency(String url) {
+        AtomicInteger frequency = frequencies.get(url);
+        return frequency != null ? frequency.get() : 0;
+    }
+
+    /**
+     * Drops an asset from the hot tier, e.g. because it changed.
+     */
+    private void invalidate(String url) {
+        writeGeneration.incrementAndGet();
+        synchronized (admissionLock) {
+            demote(url);
+        }
+    }
+
+    /**
+     * Runs a write to the backing store. The asset is invalidated before the
+     * write, and again after it, as a promotion started during the write may
+     * have read the previous content.
+     */
+    private boolean write(String url, BooleanSupplier backingWrite) {
+        invalidate(url);
+        try {
+            return backingWrite.getAsBoolean();
+        } finally {
+            invalidate(url);
+        }
+    }
+
+    private void demote(String url) {
+        HotAsset hotAsset = hotTier.remove(url);
+        if (hotAsset != null)
+            hotBytes.addAndGet(-hotAsset.content.capacity());
+    }
+
+    /**
+     * Copies an asset into the hot tier, demoting colder assets to make room.
+     * The asset is left cold if every hot asset is read more often.
+     */
+    private void promote(String url, Resource resource) throws IOException {
+        long size = resource.contentLength();
+        if (size > maxEntrySize || size > capacity)
+            return;
+
+        long generation = writeGeneration.get();
+
+        // Read outside the lock, promotions are rare but can be slow
+        ByteBuffer content = ByteBuffer.allocateDirect((int) size);
+        try (InputStream inputStream = resource.getInputStream();
+                ReadableByteChannel channel = Channels.newChannel(inputStream)) {
+            while (content.hasRemaining()) {
+                if (channel.read(content) < 0)
+                    break;
+            }
+        }
+        content.flip();
+
+        synchronized (admissionLock) {
+            if (generation != writeGeneration.get() || hotTier.containsKey(url))
+                return;
+
+            int frequency = frequency(url);
+            while (hotBytes.get() + size > capacity) {
+                String coldest = null;
+                int coldestFrequency = Integer.MAX_VALUE;
+
+                for (String hotUrl : hotTier.keySet()) {
+                    int hotFrequency = frequency(hotUrl);
+                    if (hotFrequency < coldestFrequency) {
+                        coldest = hotUrl;
+                        coldestFrequency = hotFrequency;
+                    }
+                }
+
+                if (coldest == null || coldestFrequency >= frequency)
+                    return;
+
+                demote(coldest);
+            }
+
+            hotTier.put(url, new HotAsset(content.asReadOnlyBuffer()));
+            hotBytes.addAndGet(size);
+        }
+    }
+
+    /**
+     * Periodically halves the read counts, forgetting assets no longer read.
+     */
+    @Scheduled(initialDelayString = "${penelope.storage.hot-tier.decay-interval}",
+            fixedDelayString = "${penelope.storage.hot-tier.decay-interval}")
+    public void decayFrequencies() {
+        frequencies.entrySet().removeIf(entry -> entry.getValue().updateAndGet(frequency -> frequency / 2) == 0
+                && !hotTier.containsKey(entry.getKey()));
+    }
+
+    @Override
+    public void init() {
+        backingStore.init();
+
+        synchronized (admissionLock) {
+            hotTier.clear();
+            hotBytes.set(0);
+        }
+        frequencies.clear();
+    }
+
+    @Override
+    public boolean store(String type, String campusId, MultipartFile file, String fileName) {
+        return write(assetUrl(type, campusId, fileName),
+                () -> backingStore.store(type, campusId, file, fileName));
+    }
+
+    @Override
+    public boolean storeFile(String type, String campusId, Path source, String fileName) {
+        return write(assetUrl(type, campusId, fileName),
+                () -> backingStore.storeFile(type, campusId, source, fileName));
+    }
+
+    @Override
+    public boolean remove(String fileUrl) {
+        frequencies.remove(fileUrl);
+        return write(fileUrl, () -> backingStore.remove(fileUrl));
+    }
+
+    @Override
+    public List<String> listCampuses(String type) {
+        return backingStore.listCampuses(type);
+    }
+
+    @Override
+    public List<StoredAsset> listAssets(String type, String campusId) {
+        return backingStore.listAssets(type, campusId);
+    }
+
+    @Override
+    public boolean quarantine(String fileUrl) {
+        frequencies.remove(fileUrl);
+        return write(fileUrl, () -> backingStore.quarantine(fileUrl));
+    }
+
+    @Override
+    public boolean storeProcessedImage(String fileName, String campusId, BufferedImage image) {
+        return write(assetUrl("image", campusId, fileName),
+                () -> backingStore.storeProcessedImage(fileName, campusId, image));
+    }
+
+    @Override
+    public boolean storeImage(String fileName, String campusId, BufferedImage image, String formatName) {
+        return write(assetUrl("image", campusId, fileName),
+                () -> backingStore.storeImage(fileName, campusId, image, formatName));
+    }
+
+    @Override
+    public Path load(String type, String campusId, String fileName) {
+        return backingStore.load(type, campusId, fileName);
+    }
+
+    @Override
+    public Resource loadAsResource(String type, String campusId, String filename) {
+        String url = assetUrl(type, campusId, filename);
+
+        HotAsset hotAsset = hotTier.get(url);
+        if (hotAsset != null) {
+            countRead(url);
+            hotHits.increment();
+            return new HotAssetResource(url, hotAsset.content, hotAsset.promotedAt);
+        }
+
+        Resource resource = backingStore.loadAsResource(type, campusId, filename);
+        // Only stored assets are counted, reads of missing urls would grow the counts
+        if (resource == null)
+            return null;
+
+        int frequency = countRead(url);
+        coldHits.increment();
+        if (frequency >= promoteAfter) {
+            try {
+                promote(url, resource);
+            } catch (IOException ioException) {
+                // Still served from the cold tier
+                log.warn("Could not promote {} to the hot tier", url, ioException);
+            }
+        }
+
+        return resource;
+    }
+
+    @Override
+    public Resource loadAsResourceFromDB(String type, Long id, String serverUrl) {
+        return backingStore.loadAsResourceFromDB(type, id, serverUrl);
+    }
+
+    @Override
+    public Resource loadPageFromDB(String type, Long id, Long after, int limit, String serverUrl) {
+        return backingStore.loadPageFromDB(type, id, after, limit, serverUrl);
+    }
+}
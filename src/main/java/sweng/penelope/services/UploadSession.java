@@ -0,0 +1,119 @@
+package sweng.penelope.services;
+
+import java.nio.file.Path;
+import java.util.BitSet;
+
+import lombok.Getter;
+
+/**
+ * <code>UploadSession</code> holds the state of a resumable chunked upload.
+ */
+@Getter
+public class UploadSession {
+    private final String uploadId;
+    private final String type;
+    private final String campusId;
+    private final String fileName;
+    private final long size;
+    private final int chunkSize;
+    private final int numChunks;
+    private final Path partPath;
+
+    private final BitSet receivedChunks;
+    private volatile long lastActivity;
+
+    /**
+     * <code>UploadSession</code> constructor.
+     *
+     * @param uploadId  The upload id.
+     * @param type      The file type (image, video, audio).
+     * @param campusId  The ID of the campus the resource belongs to.
+     * @param fileName  The final file name.
+     * @param size      The total file size, in bytes.
+     * @param chunkSize The size of each chunk, in bytes. The last chunk can be
+     *                  shorter.
+     * @param partPath  The path to the preallocated partial file.
+     */
+    public UploadSession(String uploadId, String type, String campusId, String fileName, long size, int chunkSize,
+            Path partPath) {
+        this.uploadId = uploadId;
+        this.type = type;
+        this.campusId = campusId;
+        this.fileName = fileName;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.numChunks = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+        this.partPath = partPath;
+        this.receivedChunks = new BitSet(numChunks);
+
+        touch();
+    }
+
+    /**
+     * Updates the last activity timestamp.
+     */
+    public void touch() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Computes the byte offset of a chunk.
+     *
+     * @param index The chunk index.
+     * @return The offset of the first byte of the chunk.
+     */
+    public long chunkOffset(int index) {
+        return (long) index * chunkSize;
+    }
+
+    /**
+     * Computes the expected length of a chunk.
+     *
+     * @param index The chunk index.
+     * @return The chunk length, in bytes.
+     */
+    public long chunkLength(int index) {
+        return Math.min(chunkSize, size - chunkOffset(index));
+    }
+
+    /**
+     * Marks a chunk as received.
+     *
+     * @param index The chunk index.
+     */
+    public synchronized void markReceived(int index) {
+        receivedChunks.set(index);
+    }
+
+    /**
+     * @return The number of chunks received so far.
+     */
+    public synchronized int receivedCount() {
+        return receivedChunks.cardinality();
+    }
+
+    /**
+     * @return True if every chunk has been received.
+     */
+    public synchronized boolean isComplete() {
+        return receivedChunks.cardinality() == numChunks;
+    }
+
+    /**
+     * Lists the chunks which still need to be uploaded, as a comma separated
+     * string.
+     *
+     * @return The missing chunks indexes (e.g. 0,3,4). Can be an empty String.
+     */
+    public synchronized String missingChunks() {
+        StringBuilder missingSB = new StringBuilder();
+
+        for (int i = receivedChunks.nextClearBit(0); i < numChunks; i = receivedChunks.nextClearBit(i + 1)) {
+            if (missingSB.length() > 0)
+                missingSB.append(",");
+            missingSB.append(i);
+        }
+
+        return missingSB.toString();
+    }
+}
@@ -12,11 +12,13 @@ import org.dom4j.io.OutputFormat;
 import org.dom4j.io.XMLWriter;
 
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 
 /**
  * <code>CommonXML</code> is a class that provides and handles common aspects to
  * all xml classes.
  */
+@Slf4j
 public class CommonXML {
     @Getter
     protected Document document;
@@ -134,12 +136,22 @@ public class CommonXML {
 
             return byteArrayOutputStream.toByteArray();
         } catch (IOException e) {
-            e.printStackTrace();
+            log.error("Could not serialise xml document", e);
         }
 
         return null;
     }
 
+    /**
+     * Marks the document as a page of a longer list, adding the id the next
+     * page starts after to the presentation info.
+     * 
+     * @param next The id of the last item of this page.
+     */
+    public void setNext(Long next) {
+        info.addElement("next").addText(Long.toString(next));
+    }
+
     /**
      * Increments the number of slides counter.
      */
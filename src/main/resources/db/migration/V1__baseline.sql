@@ -0,0 +1,44 @@
+-- Schema as previously generated by Hibernate (ddl-auto=update). Existing
+-- databases are baselined at this version, see application-prod.properties
+
+CREATE TABLE campus (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY,
+    name VARCHAR(255),
+    author VARCHAR(255),
+    date TIMESTAMP,
+    CONSTRAINT pk_campus PRIMARY KEY (id)
+);
+
+CREATE TABLE bird (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY,
+    name VARCHAR(255),
+    list_imageurl VARCHAR(255),
+    hero_imageurl VARCHAR(255),
+    soundurl VARCHAR(255),
+    about_me TEXT,
+    about_me_videourl VARCHAR(255),
+    location TEXT,
+    location_imageurl VARCHAR(255),
+    diet TEXT,
+    diet_imageurl VARCHAR(255),
+    campus_id BIGINT,
+    author VARCHAR(255),
+    date TIMESTAMP,
+    CONSTRAINT pk_bird PRIMARY KEY (id),
+    CONSTRAINT fk_bird_campus FOREIGN KEY (campus_id) REFERENCES campus (id)
+);
+
+CREATE TABLE data_manager (
+    username VARCHAR(255) NOT NULL,
+    password VARCHAR(255) NOT NULL,
+    sysadmin BOOLEAN NOT NULL,
+    CONSTRAINT pk_data_manager PRIMARY KEY (username)
+);
+
+CREATE TABLE user_campus_rights (
+    username VARCHAR(255) NOT NULL,
+    campus_id BIGINT NOT NULL,
+    CONSTRAINT pk_user_campus_rights PRIMARY KEY (username, campus_id),
+    CONSTRAINT fk_user_campus_rights_user FOREIGN KEY (username) REFERENCES data_manager (username),
+    CONSTRAINT fk_user_campus_rights_campus FOREIGN KEY (campus_id) REFERENCES campus (id)
+);
@@ -0,0 +1,7 @@
+-- Campus xml lists a campus' birds ordered by id, deleting a campus loads
+-- them too
+CREATE INDEX idx_bird_campus_id ON bird (campus_id, id);
+
+-- The primary key only covers lookups by username, deleting a campus
+-- removes its rights by campus_id
+CREATE INDEX idx_user_campus_rights_campus_id ON user_campus_rights (campus_id);
@@ -0,0 +1,21 @@
+-- Change log read by the sync endpoint. Ids are the monotonic change
+-- sequence clients keep as their watermark
+CREATE TABLE change_record (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY,
+    entity_type VARCHAR(16) NOT NULL,
+    entity_id BIGINT NOT NULL,
+    campus_id BIGINT NOT NULL,
+    action VARCHAR(16) NOT NULL,
+    changed_at BIGINT NOT NULL,
+    CONSTRAINT pk_change_record PRIMARY KEY (id)
+);
+
+-- Finds the records a later change of the same entity supersedes
+CREATE INDEX idx_change_record_entity ON change_record (entity_type, entity_id, id);
+
+-- Everything stored so far counts as created before the first watermark
+INSERT INTO change_record (entity_type, entity_id, campus_id, action, changed_at)
+SELECT 'campus', id, id, 'created', 0 FROM campus ORDER BY id;
+
+INSERT INTO change_record (entity_type, entity_id, campus_id, action, changed_at)
+SELECT 'bird', id, campus_id, 'created', 0 FROM bird WHERE campus_id IS NOT NULL ORDER BY id;
@@ -0,0 +1,16 @@
+-- Content addressed storage, see penelope.storage.content-addressed. Blobs
+-- are stored once per content and referenced by the urls aliasing them.
+-- Databases created from an earlier V1 already have both tables
+CREATE TABLE IF NOT EXISTS stored_blob (
+    blob_key VARCHAR(255) NOT NULL,
+    size BIGINT NOT NULL,
+    ref_count INTEGER NOT NULL,
+    CONSTRAINT pk_stored_blob PRIMARY KEY (blob_key)
+);
+
+CREATE TABLE IF NOT EXISTS asset_alias (
+    url VARCHAR(255) NOT NULL,
+    blob_key VARCHAR(255) NOT NULL,
+    stored_at BIGINT NOT NULL,
+    CONSTRAINT pk_asset_alias PRIMARY KEY (url)
+);
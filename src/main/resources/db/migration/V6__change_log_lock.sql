@@ -0,0 +1,8 @@
+-- Row locked by every transaction writing change records until it commits,
+-- so that change record ids are allocated in commit order
+CREATE TABLE change_log_lock (
+    id INTEGER NOT NULL,
+    CONSTRAINT pk_change_log_lock PRIMARY KEY (id)
+);
+
+INSERT INTO change_log_lock (id) VALUES (1);
@@ -0,0 +1,81 @@
+package sweng.penelope;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import sweng.penelope.controllers.CacheUtils;
+import sweng.penelope.services.StorageService;
+
+@SpringBootTest(properties = { "penelope.pagination.cached-pages=2" })
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+public class CacheConfigTest {
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @MockBean
+    private StorageService storageService;
+
+    private void getList(String query) throws Exception {
+        mockMvc.perform(get("/campus/list" + query).secure(true)).andExpect(status().isOk());
+    }
+
+    @BeforeEach
+    public void setUp() {
+        when(storageService.loadPageFromDB(eq("campusList"), isNull(), anyLong(), anyInt(), isNull()))
+                .thenReturn(new ByteArrayResource("<campusList/>".getBytes()));
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        CacheUtils.evictCache(cacheManager, CacheUtils.CAMPUSES_LIST_PAGES, null);
+    }
+
+    @Test
+    public void pagesAreCachedByTheQueryRun() throws Exception {
+        // All the first page at the default size
+        getList("?limit=50");
+        getList("?after=0");
+        getList("?after=0&limit=50");
+        // Both capped to the largest size
+        getList("?limit=500");
+        getList("?limit=100000");
+
+        verify(storageService, times(1)).loadPageFromDB("campusList", null, 0L, 50, null);
+        verify(storageService, times(1)).loadPageFromDB("campusList", null, 0L, 500, null);
+    }
+
+    @Test
+    public void pageCachesAreBounded() throws Exception {
+        for (int after = 1; after <= 5; after++)
+            getList("?after=" + after);
+
+        Map<?, ?> pages = (Map<?, ?>) cacheManager.getCache(CacheUtils.CAMPUSES_LIST_PAGES).getNativeCache();
+        assertEquals(2, pages.size());
+    }
+}
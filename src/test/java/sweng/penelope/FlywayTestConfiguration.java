@@ -0,0 +1,32 @@
+package sweng.penelope;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+
+/**
+ * Starts every test context from an empty database, as the test contexts
+ * share the in-memory one.
+ */
+@Profile("test")
+@Configuration
+public class FlywayTestConfiguration {
+    @Bean
+    public FlywayMigrationStrategy cleanMigrationStrategy() {
+        return flyway -> {
+            flyway.clean();
+            flyway.migrate();
+
+            // Second-level cache regions are shared too
+            CacheManager cacheManager = Caching.getCachingProvider(CaffeineCachingProvider.class.getName())
+                    .getCacheManager();
+            cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
+        };
+    }
+}
@@ -0,0 +1,74 @@
+package sweng.penelope;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import sweng.penelope.entities.Campus;
+import sweng.penelope.repositories.CampusRepository;
+
+@SpringBootTest
+@ActiveProfiles("test")
+public class HibernateCacheConfigTest {
+    @Autowired
+    private CampusRepository campusRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @AfterEach
+    public void cleanUp() {
+        campusRepository.deleteAll();
+    }
+
+    @Test
+    public void campusLookupsHitSecondLevelCache() {
+        Campus campus = new Campus();
+        campus.setName("Heslington");
+        campus.setAuthor("Penelope");
+        Long campusId = campusRepository.save(campus).getId();
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        assertTrue(campusRepository.findById(campusId).isPresent());
+        assertTrue(campusRepository.findById(campusId).isPresent());
+
+        // Cached when inserted, no query needed
+        assertEquals(0, statistics.getPrepareStatementCount());
+        assertEquals(2, statistics.getSecondLevelCacheHitCount());
+    }
+
+    @Test
+    public void updatesReplaceCachedEntities() {
+        Campus campus = new Campus();
+        campus.setName("Heslington");
+        campus.setAuthor("Penelope");
+        campus = campusRepository.save(campus);
+
+        campus.setName("King's Manor");
+        campusRepository.save(campus);
+
+        assertEquals("King's Manor", campusRepository.findById(campus.getId()).orElseThrow().getName());
+    }
+
+    @Test
+    public void exportsCacheStatistics() {
+        assertNotNull(meterRegistry.find("hibernate.second.level.cache.requests").tag("region", "campuses")
+                .functionCounter());
+    }
+}
@@ -12,6 +12,8 @@ import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.test.context.ActiveProfiles;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
 @SpringBootTest
 @ActiveProfiles("test")
 public class UserFilterTest {
@@ -19,6 +21,8 @@ public class UserFilterTest {
     private AuthenticationManager authenticationManager;
     @Autowired
     private KeyPair keyPair;
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     @Value("${penelope.api-credentialsHeader}")
     private String credentialsHeader;
@@ -30,7 +34,8 @@ public class UserFilterTest {
 
         // Bad header value
         mockHttpServletRequest.addHeader(credentialsHeader, "Chocolate chocolate chip");
-        UserFilter classUnderTest = new UserFilter(authenticationManager, keyPair, credentialsHeader);
+        UserFilter classUnderTest = new UserFilter(authenticationManager, keyPair, credentialsHeader,
+                meterRegistry);
         Object principal = classUnderTest.getPreAuthenticatedPrincipal(mockHttpServletRequest);
 
         assertNull(principal);
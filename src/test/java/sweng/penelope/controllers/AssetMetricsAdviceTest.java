@@ -0,0 +1,97 @@
+package sweng.penelope.controllers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.ResourceHttpMessageConverter;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.web.servlet.HandlerMapping;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class AssetMetricsAdviceTest {
+    private SimpleMeterRegistry meterRegistry;
+    private AssetMetricsAdvice classUnderTest;
+
+    private static MethodParameter returnType(String methodName) {
+        return new MethodParameter(ReflectionUtils.findMethod(FileDownloadController.class, methodName, String.class,
+                String.class, String.class, Integer.class, String.class, String.class), -1);
+    }
+
+    private Object serve(String type, Resource body, boolean range) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/" + type + "/1/duck.png");
+        request.setAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE,
+                Map.of("type", type, "campusId", "1", "fileName", "duck.png"));
+        if (range)
+            request.addHeader(HttpHeaders.RANGE, "bytes=0-9");
+
+        return classUnderTest.beforeBodyWrite(body, returnType("serveAsset"), MediaType.IMAGE_PNG,
+                ResourceHttpMessageConverter.class, new ServletServerHttpRequest(request),
+                new ServletServerHttpResponse(new MockHttpServletResponse()));
+    }
+
+    private DistributionSummary served(String type) {
+        return meterRegistry.get("penelope.assets.served").tag("type", type).summary();
+    }
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        classUnderTest = new AssetMetricsAdvice();
+
+        ReflectionTestUtils.setField(classUnderTest, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.invokeMethod(classUnderTest, "registerMetrics");
+    }
+
+    @Test
+    public void supportsOnlyAssets() {
+        assertTrue(classUnderTest.supports(returnType("serveAsset"), ResourceHttpMessageConverter.class));
+        assertFalse(classUnderTest.supports(
+                new MethodParameter(ReflectionUtils.findMethod(FileDownloadController.class, "serveBirdXML",
+                        Long.class, HttpServletRequest.class), -1),
+                ResourceHttpMessageConverter.class));
+    }
+
+    @Test
+    public void recordsBytesPerType() {
+        Resource body = new ByteArrayResource(new byte[100]);
+
+        assertSame(body, serve("image", body, false));
+        serve("image", new ByteArrayResource(new byte[50]), false);
+        serve("audio", new ByteArrayResource(new byte[20]), false);
+
+        assertEquals(2, served("image").count());
+        assertEquals(150, served("image").totalAmount());
+        assertEquals(20, served("audio").totalAmount());
+        assertEquals(0, served("video").count());
+    }
+
+    @Test
+    public void ignoresRangesAndUnknownTypes() {
+        serve("image", new ByteArrayResource(new byte[100]), true);
+        serve("other", new ByteArrayResource(new byte[100]), false);
+
+        assertEquals(0, served("image").count());
+        assertNull(meterRegistry.find("penelope.assets.served").tag("type", "other").summary());
+    }
+}
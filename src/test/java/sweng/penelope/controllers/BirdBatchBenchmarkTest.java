@@ -0,0 +1,169 @@
+package sweng.penelope.controllers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.security.KeyPair;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.StringJoiner;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import sweng.penelope.auth.RSAUtils;
+import sweng.penelope.entities.Campus;
+import sweng.penelope.entities.DataManager;
+import sweng.penelope.repositories.BirdRepository;
+import sweng.penelope.repositories.CampusRepository;
+import sweng.penelope.repositories.DataManagerRepository;
+import sweng.penelope.services.StorageService;
+
+/**
+ * Bird creation throughput, one request per bird against a single batch
+ * request. Run with <code>./gradlew benchmark</code>.
+ */
+@Tag("benchmark")
+@SpringBootTest
+@ActiveProfiles("test")
+public class BirdBatchBenchmarkTest {
+    private static final int BIRDS = 1000;
+    private static final String USERNAME = "benchmark";
+    private static final String PASSWORD = "benchmark";
+    private static final String FILLER_STRING = "image/1/bird.png";
+
+    private MockMvc mockMvc;
+    private String campusId;
+
+    @Autowired
+    private WebApplicationContext context;
+
+    @Autowired
+    private DataManagerRepository dataManagerRepository;
+
+    @Autowired
+    private CampusRepository campusRepository;
+
+    @Autowired
+    private BirdRepository birdRepository;
+
+    @Autowired
+    private PasswordEncoder passwordEncoder;
+
+    @Autowired
+    private KeyPair keyPair;
+
+    @MockBean
+    private StorageService storageService;
+
+    @Value("${penelope.api-credentialsHeader}")
+    private String credentialsHeader;
+
+    @BeforeEach
+    public void setUp() {
+        mockMvc = MockMvcBuilders.webAppContextSetup(context).apply(SecurityMockMvcConfigurers.springSecurity())
+                .build();
+
+        DataManager dataManager = new DataManager();
+        dataManager.setUsername(USERNAME);
+        dataManager.setPassword(passwordEncoder.encode(PASSWORD));
+        dataManager.setSysadmin(true);
+        dataManagerRepository.save(dataManager);
+
+        Campus campus = new Campus();
+        campus.setName("benchmark");
+        campus.setAuthor(USERNAME);
+        campusId = campusRepository.save(campus).getId().toString();
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        dataManagerRepository.deleteAll();
+        campusRepository.deleteAll();
+    }
+
+    private String credentials() throws Exception {
+        String timestamp = ZonedDateTime.now(ZoneId.of("Europe/London")).toString();
+        return RSAUtils.encrypt(keyPair.getPublic(), USERNAME + "=" + PASSWORD + "=" + timestamp);
+    }
+
+    private long birdsInCampus() {
+        return birdRepository.findByCampus(campusRepository.findById(Long.parseLong(campusId)).orElseThrow())
+                .size();
+    }
+
+    private long createOneByOne() throws Exception {
+        long start = System.nanoTime();
+
+        for (int i = 0; i < BIRDS; i++) {
+            mockMvc.perform(post(String.format("/api/birds/%s/new", campusId))
+                    .header(credentialsHeader.toLowerCase(), credentials())
+                    .param("name", "Bird " + i)
+                    .param("listImageURL", FILLER_STRING)
+                    .param("heroImageURL", FILLER_STRING)
+                    .param("soundURL", FILLER_STRING)
+                    .param("aboutMe", "A bird that is found near the lake most days.")
+                    .param("aboutMeVideoURL", FILLER_STRING)
+                    .param("location", "The lake")
+                    .param("locationImageURL", FILLER_STRING)
+                    .param("diet", "Bread")
+                    .param("dietImageURL", FILLER_STRING)
+                    .secure(true))
+                    .andExpect(status().isOk());
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    private long createInBatch() throws Exception {
+        StringJoiner birds = new StringJoiner(", ", "[", "]");
+        for (int i = 0; i < BIRDS; i++) {
+            birds.add(String.format("{\"name\": \"Bird %d\", \"listImageURL\": \"%2$s\", \"heroImageURL\": \"%2$s\", "
+                    + "\"soundURL\": \"%2$s\", \"aboutMe\": \"A bird that is found near the lake most days.\", "
+                    + "\"aboutMeVideoURL\": \"%2$s\", \"location\": \"The lake\", \"locationImageURL\": \"%2$s\", "
+                    + "\"diet\": \"Bread\", \"dietImageURL\": \"%2$s\"}", i, FILLER_STRING));
+        }
+
+        long start = System.nanoTime();
+
+        mockMvc.perform(post(String.format("/api/birds/%s/batch", campusId))
+                .header(credentialsHeader.toLowerCase(), credentials())
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(birds.toString())
+                .secure(true))
+                .andExpect(status().isOk());
+
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void birdCreationThroughput() throws Exception {
+        long oneByOne = createOneByOne();
+        assertEquals(BIRDS, birdsInCampus());
+
+        cleanUp();
+        setUp();
+
+        long batch = createInBatch();
+        assertEquals(BIRDS, birdsInCampus());
+
+        System.out.printf("Creating %d birds%n", BIRDS);
+        System.out.printf("%-12s %12s %12s%n", "", "total (ms)", "birds/s");
+        System.out.printf("%-12s %12.1f %12.1f%n", "one by one", oneByOne / 1e6, BIRDS / (oneByOne / 1e9));
+        System.out.printf("%-12s %12.1f %12.1f%n", "batch", batch / 1e6, BIRDS / (batch / 1e9));
+    }
+}
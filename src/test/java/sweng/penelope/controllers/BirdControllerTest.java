@@ -1,7 +1,9 @@
 package sweng.penelope.controllers;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
@@ -13,6 +15,10 @@ import java.time.ZonedDateTime;
 import java.util.Date;
 import java.util.Locale;
 
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -20,6 +26,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers;
 import org.springframework.test.context.ActiveProfiles;
@@ -74,6 +81,9 @@ public class BirdControllerTest {
         @Autowired
         private BirdRepository birdRepository;
 
+        @Autowired
+        private EntityManagerFactory entityManagerFactory;
+
         @MockBean
         private StorageService storageService;
 
@@ -323,4 +333,113 @@ public class BirdControllerTest {
                         fail();
                 });
         }
+
+        private static String birdJSON(String id, String name) {
+                String fields = String.format("\"name\": \"%s\"", name);
+                for (String field : new String[] { "listImageURL", "heroImageURL", "soundURL", "aboutMe",
+                                "aboutMeVideoURL", "location", "locationImageURL", "diet", "dietImageURL" })
+                        fields += String.format(", \"%s\": \"%s\"", field, FILLER_STRING);
+
+                return id == null ? String.format("{%s}", fields) : String.format("{\"id\": %s, %s}", id, fields);
+        }
+
+        @Test
+        public void canBatchCreateBirds() throws Exception {
+                String birds = String.format("[%s, %s, %s]", birdJSON(null, "A"), birdJSON(null, "B"),
+                                birdJSON(null, "C"));
+
+                MockHttpServletRequestBuilder request = post(formatAddress("batch", testCampusID))
+                                .header(credentialsHeader.toLowerCase(), ENCRYPTED_CREDENTIALS)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(birds).secure(true);
+
+                mockMvc.perform(request)
+                                .andExpect(status().isOk());
+
+                Campus campus = campusRepository.findById(Long.parseLong(testCampusID)).orElseThrow();
+                assertEquals(3, birdRepository.findByCampus(campus).size());
+        }
+
+        @Test
+        public void canBatchUpdateBirdsFromXML() throws Exception {
+                Campus campus = campusRepository.findById(Long.parseLong(testCampusID)).orElseThrow();
+                Bird bird = new Bird("Boris", FILLER_STRING, FILLER_STRING, FILLER_STRING, FILLER_STRING,
+                                FILLER_STRING, FILLER_STRING, FILLER_STRING, FILLER_STRING, FILLER_STRING, campus,
+                                USERNAME);
+                bird = birdRepository.save(bird);
+
+                String birds = String.format("<birds><bird id=\"%d\"><name>Doris</name>"
+                                + "<heroImageURL>hero</heroImageURL></bird></birds>", bird.getId());
+
+                MockHttpServletRequestBuilder request = post(formatAddress("batch", testCampusID))
+                                .header(credentialsHeader.toLowerCase(), ENCRYPTED_CREDENTIALS)
+                                .contentType(MediaType.APPLICATION_XML)
+                                .content(birds).secure(true);
+
+                mockMvc.perform(request)
+                                .andExpect(status().isOk());
+
+                Bird updated = birdRepository.findById(bird.getId()).orElseThrow();
+                assertEquals("Doris", updated.getName());
+                assertEquals("hero", updated.getHeroImageURL());
+                assertEquals(FILLER_STRING, updated.getDiet());
+                // Replaced asset removed once committed
+                verify(storageService).remove(FILLER_STRING);
+        }
+
+        @Test
+        public void batchIsAllOrNothing() throws Exception {
+                // Third bird is invalid
+                String birds = String.format("[%s, %s, %s]", birdJSON(null, "A"), birdJSON(null, "B"),
+                                birdJSON(null, BAD_NAME));
+
+                MockHttpServletRequestBuilder request = post(formatAddress("batch", testCampusID))
+                                .header(credentialsHeader.toLowerCase(), ENCRYPTED_CREDENTIALS)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(birds).secure(true);
+
+                mockMvc.perform(request)
+                                .andExpect(status().isBadRequest());
+
+                Campus campus = campusRepository.findById(Long.parseLong(testCampusID)).orElseThrow();
+                assertTrue(birdRepository.findByCampus(campus).isEmpty());
+        }
+
+        @Test
+        public void batchRollsBackEarlierUpdates() throws Exception {
+                Campus campus = campusRepository.findById(Long.parseLong(testCampusID)).orElseThrow();
+                Bird bird = birdRepository.save(new Bird("Boris", FILLER_STRING, FILLER_STRING, FILLER_STRING,
+                                FILLER_STRING, FILLER_STRING, FILLER_STRING, FILLER_STRING, FILLER_STRING,
+                                FILLER_STRING, campus, USERNAME));
+
+                Campus otherCampus = new Campus();
+                otherCampus.setName("other campus");
+                otherCampus.setAuthor(USERNAME);
+                otherCampus = campusRepository.save(otherCampus);
+                Bird foreignBird = birdRepository.save(new Bird("Doris", FILLER_STRING, FILLER_STRING,
+                                FILLER_STRING, FILLER_STRING, FILLER_STRING, FILLER_STRING, FILLER_STRING,
+                                FILLER_STRING, FILLER_STRING, otherCampus, USERNAME));
+
+                // The first bird is updated before the second is found in another campus
+                String birds = String.format("[%s, %s]", birdJSON(bird.getId().toString(), "Renamed"),
+                                birdJSON(foreignBird.getId().toString(), "Stolen"));
+
+                MockHttpServletRequestBuilder request = post(formatAddress("batch", testCampusID))
+                                .header(credentialsHeader.toLowerCase(), ENCRYPTED_CREDENTIALS)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(birds).secure(true);
+
+                Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+                statistics.clear();
+
+                mockMvc.perform(request)
+                                .andExpect(status().isNotFound());
+
+                // The batch transaction was rolled back, not just left unflushed
+                assertEquals(1, statistics.getTransactionCount() - statistics.getSuccessfulTransactionCount());
+                assertEquals("Boris", birdRepository.findById(bird.getId()).orElseThrow().getName());
+                assertEquals("Doris", birdRepository.findById(foreignBird.getId()).orElseThrow().getName());
+                assertEquals(otherCampus.getId(),
+                                birdRepository.findById(foreignBird.getId()).orElseThrow().getCampus().getId());
+        }
 }
@@ -186,7 +186,7 @@ public class DataManagerControllerTest {
                 .secure(true))
                 .andExpect(status().isOk());
 
-        DataManager updatedUser = dataManagerRepository.findById(testUsername).orElseThrow();
+        DataManager updatedUser = dataManagerRepository.findWithCampusesByUsername(testUsername).orElseThrow();
         assertFalse(updatedUser.getCampuses().contains(campus));
     }
 
@@ -1,29 +1,50 @@
 package sweng.penelope.controllers;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.DefaultResourceLoader;
 import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import sweng.penelope.repositories.BirdRepository;
+import sweng.penelope.repositories.BirdSummary;
+import sweng.penelope.services.ImageVariantService;
 import sweng.penelope.services.StorageService;
 
 @ExtendWith(MockitoExtension.class)
@@ -37,6 +58,33 @@ public class FileDownloadControllerTest {
     @Mock
     private StorageService storageServiceMock;
 
+    @Mock
+    private ImageVariantService imageVariantServiceMock;
+
+    @Mock
+    private BirdRepository birdRepositoryMock;
+
+    @Spy
+    private CacheManager cacheManager = new ConcurrentMapCacheManager();
+
+    @AfterEach
+    public void stopRenderers() {
+        if (ReflectionTestUtils.getField(fileDownloadController, "renderExecutor") != null)
+            ReflectionTestUtils.invokeMethod(fileDownloadController, "stopRenderers");
+    }
+
+    private void startRenderers(int window) {
+        ReflectionTestUtils.setField(fileDownloadController, "renderers", 2);
+        ReflectionTestUtils.setField(fileDownloadController, "renderWindow", window);
+        ReflectionTestUtils.invokeMethod(fileDownloadController, "startRenderers");
+    }
+
+    private static BirdSummary birdSummary(Long id) {
+        BirdSummary birdSummary = Mockito.mock(BirdSummary.class);
+        when(birdSummary.getId()).thenReturn(id);
+        return birdSummary;
+    }
+
     @Test
     public void serveBirdXMLTest() {
         Long birdId = 1L;
@@ -65,7 +113,8 @@ public class FileDownloadControllerTest {
         MockHttpServletRequest mockHttpServletRequest = new MockHttpServletRequest();
         mockHttpServletRequest.setMethod("GET");
 
-        ResponseEntity<Resource> response = fileDownloadController.serveCampusXML(campusId, mockHttpServletRequest);
+        ResponseEntity<Resource> response = fileDownloadController.serveCampusXML(campusId, null, null,
+                mockHttpServletRequest);
 
         verify(storageServiceMock).loadAsResourceFromDB(eq("campus"), eq(campusId), anyString());
 
@@ -79,7 +128,7 @@ public class FileDownloadControllerTest {
 
         when(storageServiceMock.loadAsResourceFromDB("campusList", null, null)).thenReturn(resourceMock);
 
-        ResponseEntity<Resource> response = fileDownloadController.serveCampusesListXML();
+        ResponseEntity<Resource> response = fileDownloadController.serveCampusesListXML(null, null);
 
         verify(storageServiceMock).loadAsResourceFromDB("campusList", null, null);
 
@@ -87,6 +136,42 @@ public class FileDownloadControllerTest {
         assertEquals(resourceMock, response.getBody());
     }
 
+    @Test
+    public void serveCampusPageTest() {
+        Long campusId = 1L;
+        Resource resourceMock = Mockito.mock(Resource.class);
+        ReflectionTestUtils.setField(fileDownloadController, "defaultPageLimit", 50);
+        ReflectionTestUtils.setField(fileDownloadController, "maxPageLimit", 500);
+
+        when(storageServiceMock.loadPageFromDB(eq("campus"), eq(campusId), eq(0L), eq(50), anyString()))
+                .thenReturn(resourceMock);
+        when(storageServiceMock.loadPageFromDB(eq("campus"), eq(campusId), eq(20L), eq(500), anyString()))
+                .thenReturn(resourceMock);
+
+        MockHttpServletRequest mockHttpServletRequest = new MockHttpServletRequest();
+        mockHttpServletRequest.setMethod("GET");
+
+        assertEquals(resourceMock,
+                fileDownloadController.serveCampusXML(campusId, null, 50, mockHttpServletRequest).getBody());
+        // Limit is capped
+        assertEquals(resourceMock,
+                fileDownloadController.serveCampusXML(campusId, 20L, 10000, mockHttpServletRequest).getBody());
+    }
+
+    @Test
+    public void serveCampusesListPageTest() {
+        Resource resourceMock = Mockito.mock(Resource.class);
+        ReflectionTestUtils.setField(fileDownloadController, "defaultPageLimit", 50);
+        ReflectionTestUtils.setField(fileDownloadController, "maxPageLimit", 500);
+
+        when(storageServiceMock.loadPageFromDB("campusList", null, 3L, 50, null)).thenReturn(resourceMock);
+
+        ResponseEntity<Resource> response = fileDownloadController.serveCampusesListXML(3L, null);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(resourceMock, response.getBody());
+    }
+
     @Test
     public void serveAssetSuccessTest() throws URISyntaxException, IOException {
         String type = "image";
@@ -98,7 +183,8 @@ public class FileDownloadControllerTest {
         when(storageServiceMock.loadAsResource(type, campusId, fileName)).thenReturn(resourceMock);
         when(resourceMock.getURI()).thenReturn(uri);
 
-        ResponseEntity<Resource> response = fileDownloadController.serveAsset(type, campusId, fileName);
+        ResponseEntity<Resource> response = fileDownloadController.serveAsset(type, campusId, fileName, null, null,
+                null);
 
         verify(storageServiceMock).loadAsResource(type, campusId, fileName);
         assertEquals(HttpStatus.OK, response.getStatusCode());
@@ -106,6 +192,60 @@ public class FileDownloadControllerTest {
         assertEquals(MediaType.valueOf("image/png"), response.getHeaders().getContentType());
     }
 
+    @Test
+    public void serveAssetVariantTest() throws URISyntaxException, IOException {
+        String type = "image";
+        String campusId = "1";
+        String fileName = "classpath:duckTest.png";
+        Resource resourceMock = Mockito.mock(Resource.class);
+        URI uri = defaultResourceLoader.getResource(fileName).getFile().toURI();
+
+        when(imageVariantServiceMock.loadVariant(campusId, fileName, 960)).thenReturn(resourceMock);
+        when(resourceMock.getURI()).thenReturn(uri);
+
+        // 480 logical pixels on a 2x screen
+        ResponseEntity<Resource> response = fileDownloadController.serveAsset(type, campusId, fileName, 480, "2",
+                null);
+
+        verify(imageVariantServiceMock).loadVariant(campusId, fileName, 960);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(resourceMock, response.getBody());
+        assertEquals("DPR, Width", response.getHeaders().getFirst(HttpHeaders.VARY));
+    }
+
+    @Test
+    public void serveAssetWidthHintTest() throws URISyntaxException, IOException {
+        String type = "image";
+        String campusId = "1";
+        String fileName = "classpath:duckTest.png";
+        Resource resourceMock = Mockito.mock(Resource.class);
+        URI uri = defaultResourceLoader.getResource(fileName).getFile().toURI();
+
+        when(imageVariantServiceMock.loadVariant(campusId, fileName, 300)).thenReturn(resourceMock);
+        when(resourceMock.getURI()).thenReturn(uri);
+
+        ResponseEntity<Resource> response = fileDownloadController.serveAsset(type, campusId, fileName, null, null,
+                "300");
+
+        verify(imageVariantServiceMock).loadVariant(campusId, fileName, 300);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+    }
+
+    @Test
+    public void serveAssetIgnoresWidthForVideo() throws URISyntaxException, IOException {
+        String type = "video";
+        String campusId = "1";
+        String fileName = "classpath:duckTest.png";
+
+        when(storageServiceMock.loadAsResource(type, campusId, fileName)).thenReturn(null);
+
+        ResponseEntity<Resource> response = fileDownloadController.serveAsset(type, campusId, fileName, 480, null,
+                null);
+
+        verify(storageServiceMock).loadAsResource(type, campusId, fileName);
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+    }
+
     @Test
     public void nullResourceServesNotFoundAsset() throws URISyntaxException, IOException {
         String type = "image";
@@ -114,7 +254,8 @@ public class FileDownloadControllerTest {
 
         when(storageServiceMock.loadAsResource(type, campusId, fileName)).thenReturn(null);
 
-        ResponseEntity<Resource> response = fileDownloadController.serveAsset(type, campusId, fileName);
+        ResponseEntity<Resource> response = fileDownloadController.serveAsset(type, campusId, fileName, null, null,
+                null);
 
         assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
     }
@@ -131,7 +272,8 @@ public class FileDownloadControllerTest {
         when(storageServiceMock.loadAsResource(type, campusId, fileName)).thenReturn(resourceMock);
         when(resourceMock.getURI()).thenReturn(uri);
 
-        ResponseEntity<Resource> response = fileDownloadController.serveAsset(type, campusId, fileName);
+        ResponseEntity<Resource> response = fileDownloadController.serveAsset(type, campusId, fileName, null, null,
+                null);
 
         assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
     }
@@ -141,8 +283,95 @@ public class FileDownloadControllerTest {
         // Return null XML, type is arbitrary as same code is executed for all
         when(storageServiceMock.loadAsResourceFromDB("campusList", null, null)).thenReturn(null);
 
-        ResponseEntity<Resource> response = fileDownloadController.serveCampusesListXML();
+        ResponseEntity<Resource> response = fileDownloadController.serveCampusesListXML(null, null);
 
         assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
     }
+
+    @Test
+    public void serveCampusBundleTest() throws IOException {
+        startRenderers(1);
+        Long campusId = 1L;
+        Resource campusXML = new ByteArrayResource("<campus/>".getBytes(StandardCharsets.UTF_8));
+        Resource cachedBirdXML = new ByteArrayResource("<bird>2</bird>".getBytes(StandardCharsets.UTF_8));
+        Resource renderedBirdXML = new ByteArrayResource("<bird>3</bird>".getBytes(StandardCharsets.UTF_8));
+
+        // Campus and first bird cached by their own endpoints
+        cacheManager.getCache(CacheUtils.CAMPUSES).put(campusId, ResponseEntity.ok(campusXML));
+        cacheManager.getCache(CacheUtils.BIRDS).put(2L, ResponseEntity.ok(cachedBirdXML));
+
+        List<BirdSummary> birds = List.of(birdSummary(2L), birdSummary(3L));
+        when(birdRepositoryMock.findSummariesByCampusId(campusId)).thenReturn(birds);
+        when(storageServiceMock.loadAsResourceFromDB(eq("bird"), eq(3L), anyString())).thenReturn(renderedBirdXML);
+
+        MockHttpServletRequest mockHttpServletRequest = new MockHttpServletRequest();
+        mockHttpServletRequest.setMethod("GET");
+
+        ResponseEntity<StreamingResponseBody> response = fileDownloadController.serveCampusBundle(campusId,
+                mockHttpServletRequest);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("multipart", response.getHeaders().getContentType().getType());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        response.getBody().writeTo(outputStream);
+        String body = outputStream.toString(StandardCharsets.UTF_8);
+
+        assertTrue(body.indexOf("<campus/>") < body.indexOf("<bird>2</bird>"));
+        assertTrue(body.indexOf("<bird>2</bird>") < body.indexOf("<bird>3</bird>"));
+        assertTrue(body.contains("Content-Location: /bird/3"));
+
+        verify(storageServiceMock, never()).loadAsResourceFromDB(eq("campus"), eq(campusId), anyString());
+        verify(storageServiceMock, never()).loadAsResourceFromDB(eq("bird"), eq(2L), anyString());
+        // Rendered document is cached for its own endpoint
+        assertNotNull(cacheManager.getCache(CacheUtils.BIRDS).get(3L));
+    }
+
+    @Test
+    public void serveCampusBundleStopsRenderingWhenClientGoesAway() throws Exception {
+        startRenderers(1);
+        Long campusId = 1L;
+        Resource campusXML = new ByteArrayResource("<campus/>".getBytes(StandardCharsets.UTF_8));
+        cacheManager.getCache(CacheUtils.CAMPUSES).put(campusId, ResponseEntity.ok(campusXML));
+
+        List<BirdSummary> birds = List.of(birdSummary(2L), birdSummary(3L), birdSummary(4L));
+        when(birdRepositoryMock.findSummariesByCampusId(campusId)).thenReturn(birds);
+        lenient().when(storageServiceMock.loadAsResourceFromDB(eq("bird"), eq(2L), anyString()))
+                .thenReturn(new ByteArrayResource("<bird>2</bird>".getBytes(StandardCharsets.UTF_8)));
+
+        MockHttpServletRequest mockHttpServletRequest = new MockHttpServletRequest();
+        mockHttpServletRequest.setMethod("GET");
+
+        ResponseEntity<StreamingResponseBody> response = fileDownloadController.serveCampusBundle(campusId,
+                mockHttpServletRequest);
+
+        OutputStream closedStream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        assertThrows(IOException.class, () -> response.getBody().writeTo(closedStream));
+
+        ExecutorService renderExecutor = (ExecutorService) ReflectionTestUtils.getField(fileDownloadController,
+                "renderExecutor");
+        renderExecutor.shutdown();
+        assertTrue(renderExecutor.awaitTermination(5, TimeUnit.SECONDS));
+
+        // Only the window was rendered
+        verify(storageServiceMock, never()).loadAsResourceFromDB(eq("bird"), eq(3L), anyString());
+        verify(storageServiceMock, never()).loadAsResourceFromDB(eq("bird"), eq(4L), anyString());
+    }
+
+    @Test
+    public void serveCampusBundleNotFoundTest() {
+        Long campusId = 1L;
+
+        when(storageServiceMock.loadAsResourceFromDB(eq("campus"), eq(campusId), anyString())).thenReturn(null);
+
+        MockHttpServletRequest mockHttpServletRequest = new MockHttpServletRequest();
+        mockHttpServletRequest.setMethod("GET");
+
+        assertEquals(HttpStatus.NOT_FOUND,
+                fileDownloadController.serveCampusBundle(campusId, mockHttpServletRequest).getStatusCode());
+    }
 }
@@ -2,6 +2,7 @@ package sweng.penelope.controllers;
 
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
@@ -13,25 +14,21 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.InputStream;
 import java.nio.file.Files;
 import java.security.KeyPair;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.Locale;
 
-import javax.imageio.ImageIO;
-
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.mockito.MockedStatic;
-import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
 import org.springframework.core.io.DefaultResourceLoader;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
@@ -85,6 +82,9 @@ public class FileUploadControllerTest {
         @Autowired
         private CampusRepository campusRepository;
 
+        @Autowired
+        private CacheManager cacheManager;
+
         @MockBean
         private StorageService storageService;
 
@@ -233,6 +233,63 @@ public class FileUploadControllerTest {
                                 any(BufferedImage.class));
         }
 
+        @Test
+        public void asyncImageProcessFileUpload() throws Exception {
+                String type = "image";
+                String fileName = "classpath:duckTest.png";
+
+                File testFile = defaultResourceLoader.getResource(fileName).getFile();
+                byte[] fileBA = Files.readAllBytes(testFile.toPath());
+
+                MockMultipartFile file = new MockMultipartFile("file", fileName, MediaType.IMAGE_PNG_VALUE, fileBA);
+
+                MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                                .multipart(formatAddress("new", testCampusID))
+                                .file(file)
+                                .header(credentialsHeader.toLowerCase(), ENCRYPTED_CREDENTIALS)
+                                .param("type", type)
+                                .param("process", "true")
+                                .param("async", "true")
+                                .secure(true);
+
+                when(storageService.storeProcessedImage(anyString(), eq(testCampusID),
+                                any(BufferedImage.class)))
+                                .thenReturn(true);
+
+                String jobId = mockMvc.perform(request)
+                                .andExpect(status().isAccepted())
+                                .andReturn().getResponse().getContentAsString();
+
+                MockHttpServletRequestBuilder statusRequest = MockMvcRequestBuilders
+                                .get(formatAddress("jobs/" + jobId, testCampusID))
+                                .header(credentialsHeader.toLowerCase(), ENCRYPTED_CREDENTIALS)
+                                .secure(true);
+
+                // Wait for the job to be picked up and processed
+                int attempts = 0;
+                while (mockMvc.perform(statusRequest).andReturn().getResponse().getStatus() == 202
+                                && attempts++ < 100)
+                        Thread.sleep(50);
+
+                mockMvc.perform(statusRequest)
+                                .andExpect(status().isOk())
+                                .andExpect(content().string(containsString("_processed.png")));
+
+                verify(storageService, times(1)).storeProcessedImage(anyString(), eq(testCampusID),
+                                any(BufferedImage.class));
+        }
+
+        @Test
+        public void unknownImageJobNotFound() throws Exception {
+                MockHttpServletRequestBuilder statusRequest = MockMvcRequestBuilders
+                                .get(formatAddress("jobs/not-a-job", testCampusID))
+                                .header(credentialsHeader.toLowerCase(), ENCRYPTED_CREDENTIALS)
+                                .secure(true);
+
+                mockMvc.perform(statusRequest)
+                                .andExpect(status().isNotFound());
+        }
+
         @Test
         public void videoFileUpload() throws Exception {
                 String type = "video";
@@ -351,14 +408,10 @@ public class FileUploadControllerTest {
 
                 String testFileName = "classpath:duckTest.png";
                 File testFile = defaultResourceLoader.getResource(testFileName).getFile();
-                BufferedImage testBufferedImage = ImageIO.read(testFile);
-                // byte[] fileBA = Files.readAllBytes(testFile.toPath());
-
-                MockMultipartFile file = new MockMultipartFile("file", fileName, MediaType.IMAGE_PNG_VALUE,
-                                "test image content".getBytes());
+                byte[] fileBA = Files.readAllBytes(testFile.toPath());
 
-                MockedStatic<ImageIO> imageIo = Mockito.mockStatic(ImageIO.class);
-                imageIo.when(() -> ImageIO.read(any(InputStream.class))).thenReturn(testBufferedImage);
+                // Images are decoded through an ImageReader, so the content must be a real image
+                MockMultipartFile file = new MockMultipartFile("file", fileName, MediaType.IMAGE_PNG_VALUE, fileBA);
 
                 MockHttpServletRequestBuilder request = MockMvcRequestBuilders
                                 .multipart(formatAddress("new", testCampusID))
@@ -420,4 +473,25 @@ public class FileUploadControllerTest {
                                 .andExpect(status().isBadRequest());
         }
 
+        @Test
+        public void uploadEvictsCampusManifest() throws Exception {
+                Long campusId = Long.valueOf(testCampusID);
+                cacheManager.getCache(CacheUtils.MANIFESTS).put(campusId, "stale manifest");
+
+                MockMultipartFile file = new MockMultipartFile("file", VIDEO_NAME, VIDEO_MIME_TYPE,
+                                "test video content".getBytes());
+
+                MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                                .multipart(formatAddress("new", testCampusID))
+                                .file(file)
+                                .header(credentialsHeader.toLowerCase(), ENCRYPTED_CREDENTIALS)
+                                .param("type", "video")
+                                .secure(true);
+
+                mockMvc.perform(request)
+                                .andExpect(status().isOk());
+
+                assertNull(cacheManager.getCache(CacheUtils.MANIFESTS).get(campusId));
+        }
+
 }
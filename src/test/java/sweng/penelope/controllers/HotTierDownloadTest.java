@@ -0,0 +1,69 @@
+package sweng.penelope.controllers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.util.FileSystemUtils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+@SpringBootTest(properties = { "penelope.storage.hot-tier.enabled=true",
+        "penelope.storage.hot-tier.promote-after=2" })
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+public class HotTierDownloadTest {
+    private static final String FILE_NAME = "duck-0123456789.png";
+
+    @Value("${penelope.storage.base-folder}")
+    private String baseString;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @AfterEach
+    public void cleanUp() throws IOException {
+        FileSystemUtils.deleteRecursively(Paths.get(baseString));
+    }
+
+    private double reads(String tier) {
+        return meterRegistry.get("penelope.storage.tier.reads").tag("tier", tier).counter().count();
+    }
+
+    @Test
+    public void repeatedDownloadsReachTheHotTier() throws Exception {
+        Path campusPath = Paths.get(baseString, "image", "1");
+        Files.createDirectories(campusPath);
+        byte[] asset = "duck".getBytes();
+        Files.write(campusPath.resolve(FILE_NAME), asset);
+
+        double hotReads = reads("hot");
+        double coldReads = reads("cold");
+
+        // Cold, cold and promoted, then hot
+        for (int i = 0; i < 3; i++)
+            mockMvc.perform(get("/image/1/" + FILE_NAME).secure(true))
+                    .andExpect(status().isOk())
+                    .andExpect(content().bytes(asset));
+
+        assertEquals(2, reads("cold") - coldReads);
+        assertEquals(1, reads("hot") - hotReads);
+    }
+}
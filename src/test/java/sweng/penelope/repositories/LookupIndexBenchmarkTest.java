@@ -0,0 +1,175 @@
+package sweng.penelope.repositories;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.test.context.ActiveProfiles;
+
+import sweng.penelope.entities.Campus;
+import sweng.penelope.services.FileSystemStorageService;
+
+/**
+ * Campus xml and campus deletion latency with and without the indexes of
+ * <code>V2__lookup_indexes.sql</code>. Run with <code>./gradlew benchmark</code>.
+ * Note that H2 indexes foreign keys on its own, point
+ * <code>spring.datasource.*</code> to a Postgres database for representative
+ * figures.
+ */
+@Tag("benchmark")
+@SpringBootTest
+@ActiveProfiles("test")
+public class LookupIndexBenchmarkTest {
+    private static final int CAMPUSES = 10;
+    private static final int BIRDS_PER_CAMPUS = 10_000;
+    private static final int USERS = 100;
+    private static final int RENDERS = 20;
+
+    private static final String INDEXES = "db/migration/V2__lookup_indexes.sql";
+    private static final String[] INDEX_NAMES = { "idx_bird_campus_id", "idx_user_campus_rights_campus_id" };
+
+    @Autowired
+    private FileSystemStorageService storageService;
+
+    @Autowired
+    private CampusRepository campusRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @AfterEach
+    public void cleanUp() {
+        jdbcTemplate.update("DELETE FROM user_campus_rights");
+        jdbcTemplate.update("DELETE FROM data_manager WHERE username LIKE 'benchmark-%'");
+        jdbcTemplate.update("DELETE FROM bird");
+        jdbcTemplate.update("DELETE FROM campus");
+
+        createIndexes();
+    }
+
+    private void dropIndexes() {
+        for (String index : INDEX_NAMES)
+            jdbcTemplate.execute("DROP INDEX IF EXISTS " + index);
+    }
+
+    private void createIndexes() {
+        dropIndexes();
+        new ResourceDatabasePopulator(new ClassPathResource(INDEXES)).execute(dataSource);
+    }
+
+    /**
+     * Stores the campuses, their birds and users with rights to every campus.
+     *
+     * @return The campus ids.
+     */
+    private List<Long> seed() {
+        List<Long> campusIds = new ArrayList<>();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+
+        for (int c = 0; c < CAMPUSES; c++) {
+            Campus campus = new Campus();
+            campus.setName("Campus " + c);
+            campus.setAuthor("benchmark");
+            Long campusId = campusRepository.save(campus).getId();
+            campusIds.add(campusId);
+
+            List<Object[]> birds = new ArrayList<>();
+            for (int b = 0; b < BIRDS_PER_CAMPUS; b++) {
+                birds.add(new Object[] { "Bird " + b, "image/1/list.png", "image/1/hero.png", "audio/1/sound.mp3",
+                        "A bird of campus " + c + " that is found near the lake most days.", "video/1/about.mp4",
+                        "The lake", "image/1/location.png", "Bread", "image/1/diet.png", campusId, "benchmark",
+                        now });
+            }
+            jdbcTemplate.batchUpdate("INSERT INTO bird (name, list_imageurl, hero_imageurl, soundurl, about_me, "
+                    + "about_me_videourl, location, location_imageurl, diet, diet_imageurl, campus_id, author, date) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", birds);
+        }
+
+        List<Object[]> users = new ArrayList<>();
+        List<Object[]> rights = new ArrayList<>();
+        for (int u = 0; u < USERS; u++) {
+            String username = "benchmark-" + u;
+            users.add(new Object[] { username, "password", false });
+            for (Long campusId : campusIds)
+                rights.add(new Object[] { username, campusId });
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO data_manager (username, password, sysadmin) VALUES (?, ?, ?)", users);
+        jdbcTemplate.batchUpdate("INSERT INTO user_campus_rights (username, campus_id) VALUES (?, ?)", rights);
+
+        return campusIds;
+    }
+
+    private void evictSecondLevelCache() {
+        entityManagerFactory.getCache().evictAll();
+        entityManagerFactory.unwrap(SessionFactory.class).getCache().evictQueryRegions();
+    }
+
+    /**
+     * Measures a campus render (median of {@link #RENDERS}) and the deletion
+     * of that campus.
+     *
+     * @return Render and delete latency, in ms.
+     */
+    private double[] measure() {
+        List<Long> campusIds = seed();
+        // Middle of the table
+        Long campusId = campusIds.get(CAMPUSES / 2);
+
+        long[] renders = new long[RENDERS];
+        for (int i = 0; i < RENDERS; i++) {
+            evictSecondLevelCache();
+
+            long start = System.nanoTime();
+            assertNotNull(storageService.loadAsResourceFromDB("campus", campusId, "http://localhost:8080"));
+            renders[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(renders);
+
+        evictSecondLevelCache();
+        long start = System.nanoTime();
+        campusRepository.deleteById(campusId);
+        long delete = System.nanoTime() - start;
+
+        assertFalse(campusRepository.existsById(campusId));
+
+        cleanUp();
+
+        return new double[] { renders[RENDERS / 2] / 1e6, delete / 1e6 };
+    }
+
+    @Test
+    public void campusRenderAndDelete() {
+        dropIndexes();
+        double[] before = measure();
+
+        createIndexes();
+        double[] after = measure();
+
+        System.out.printf("Campus with %d birds, %d campuses in total%n", BIRDS_PER_CAMPUS, CAMPUSES);
+        System.out.printf("%-8s %16s %16s%n", "", "render (ms)", "delete (ms)");
+        System.out.printf("%-8s %16.2f %16.2f%n", "before", before[0], before[1]);
+        System.out.printf("%-8s %16.2f %16.2f%n", "after", after[0], after[1]);
+    }
+}
@@ -0,0 +1,149 @@
+package sweng.penelope.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+
+import sweng.penelope.entities.Bird;
+import sweng.penelope.entities.Campus;
+import sweng.penelope.repositories.BirdRepository;
+import sweng.penelope.repositories.CampusRepository;
+
+@SpringBootTest
+@ActiveProfiles("test")
+public class AssetCollectorServiceTest {
+    private static final String KEPT_URL = "image/1/kept-0123456789.png";
+    private static final String MOCK_DATA = "A";
+    private static final long DAY = 86400000L;
+
+    @Value("${penelope.storage.base-folder}")
+    private String baseString;
+
+    @Autowired
+    private AssetCollectorService classUnderTest;
+
+    @Autowired
+    private FileSystemStorageService fileSystemStorageService;
+
+    @Autowired
+    private StorageService storageService;
+
+    @Autowired
+    private BirdRepository birdRepository;
+
+    @Autowired
+    private CampusRepository campusRepository;
+
+    private Path basePath;
+
+    private Path createAsset(String url, long age) throws IOException {
+        Path path = basePath.resolve(url);
+        Files.createDirectories(path.getParent());
+        Files.write(path, "content".getBytes());
+        Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() - age));
+
+        return path;
+    }
+
+    @BeforeEach
+    public void setUp() {
+        basePath = Paths.get(baseString);
+        // Sweep the real file system
+        ReflectionTestUtils.setField(classUnderTest, "storageService", fileSystemStorageService);
+
+        Campus campus = new Campus();
+        campus.setName(MOCK_DATA);
+        campus.setAuthor(MOCK_DATA);
+        campus.setBirds(new HashSet<Bird>());
+        campus = campusRepository.save(campus);
+
+        Bird bird = new Bird(MOCK_DATA, KEPT_URL, "https://penelope.example/" + KEPT_URL, "audio/1/kept.mp3",
+                MOCK_DATA, "video/1/kept.mp4", MOCK_DATA, KEPT_URL, MOCK_DATA, KEPT_URL, campus, MOCK_DATA);
+        birdRepository.save(bird);
+    }
+
+    @AfterEach
+    public void cleanUp() throws IOException {
+        ReflectionTestUtils.setField(classUnderTest, "storageService", storageService);
+        ReflectionTestUtils.setField(classUnderTest, "mode", AssetCollectorService.DRY_RUN);
+        FileSystemUtils.deleteRecursively(basePath);
+
+        birdRepository.deleteAll();
+        campusRepository.deleteAll();
+    }
+
+    @Test
+    public void normalisesUrls() {
+        assertEquals(KEPT_URL, AssetCollectorService.normalise(KEPT_URL));
+        assertEquals(KEPT_URL, AssetCollectorService.normalise("https://penelope.example/" + KEPT_URL + "?w=480"));
+        assertNull(AssetCollectorService.normalise("kept.png"));
+        assertNull(AssetCollectorService.normalise(null));
+    }
+
+    @Test
+    public void dryRunOnlyCounts() throws IOException {
+        Path kept = createAsset(KEPT_URL, 2 * DAY);
+        Path orphan = createAsset("audio/2/orphan.mp3", 2 * DAY);
+
+        SweepReport report = classUnderTest.collect();
+
+        assertEquals(2, report.getScanned().get());
+        assertEquals(1, report.getOrphaned().get());
+        assertEquals(0, report.getReclaimedBytes().get());
+        assertTrue(Files.exists(kept));
+        assertTrue(Files.exists(orphan));
+    }
+
+    @Test
+    public void deletesOldOrphans() throws IOException {
+        ReflectionTestUtils.setField(classUnderTest, "mode", AssetCollectorService.DELETE);
+
+        Path kept = createAsset(KEPT_URL, 2 * DAY);
+        Path variant = createAsset("image/1/kept-0123456789_w480.png", 2 * DAY);
+        Path orphan = createAsset("image/1/orphan.png", 2 * DAY);
+        Path orphanVariant = createAsset("image/1/orphan_w480.png", 2 * DAY);
+        // Might still be attached to a bird being created
+        Path recent = createAsset("video/1/recent.mp4", 0);
+
+        SweepReport report = classUnderTest.collect();
+
+        assertEquals(2, report.getOrphaned().get());
+        assertEquals(2 * "content".length(), report.getReclaimedBytes().get());
+        assertTrue(Files.exists(kept));
+        assertTrue(Files.exists(variant));
+        assertTrue(Files.exists(recent));
+        assertFalse(Files.exists(orphan));
+        assertFalse(Files.exists(orphanVariant));
+    }
+
+    @Test
+    public void quarantinesOldOrphans() throws IOException {
+        ReflectionTestUtils.setField(classUnderTest, "mode", AssetCollectorService.QUARANTINE);
+
+        Path orphan = createAsset("image/3/orphan.png", 2 * DAY);
+
+        SweepReport report = classUnderTest.collect();
+
+        assertEquals(1, report.getOrphaned().get());
+        assertFalse(Files.exists(orphan));
+        assertTrue(Files.exists(basePath.resolve(".quarantine/image/3/orphan.png")));
+    }
+}
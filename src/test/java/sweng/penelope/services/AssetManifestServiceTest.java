@@ -0,0 +1,120 @@
+package sweng.penelope.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.test.context.ActiveProfiles;
+
+import sweng.penelope.entities.Bird;
+import sweng.penelope.entities.Campus;
+import sweng.penelope.repositories.BirdRepository;
+import sweng.penelope.repositories.CampusRepository;
+
+@SpringBootTest
+@ActiveProfiles("test")
+public class AssetManifestServiceTest {
+    private static final byte[] IMAGE = "image content".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SOUND = "sound content".getBytes(StandardCharsets.UTF_8);
+
+    @Autowired
+    private AssetManifestService classUnderTest;
+
+    @Autowired
+    private CampusRepository campusRepository;
+
+    @Autowired
+    private BirdRepository birdRepository;
+
+    @MockBean
+    private StorageService storageService;
+
+    @AfterEach
+    public void cleanUp() {
+        campusRepository.deleteAll();
+    }
+
+    private Campus campusWithBird() {
+        Campus campus = new Campus();
+        campus.setName("Heslington");
+        campus.setAuthor("Penelope");
+        campus = campusRepository.save(campus);
+
+        String image = String.format("image/%d/duck.png", campus.getId());
+        String sound = String.format("audio/%d/quack.mp3", campus.getId());
+        // The video was never uploaded
+        String video = String.format("video/%d/about.mp4", campus.getId());
+        birdRepository.save(new Bird("Boris", image, image, sound, "About Boris", video, "The lake", image, "Bread",
+                image, campus, "Penelope"));
+
+        return campus;
+    }
+
+    private void stubStorage(String campusId, long imageModified) {
+        when(storageService.listAssets("image", campusId))
+                .thenReturn(List.of(new StoredAsset("image/" + campusId + "/duck.png", IMAGE.length, imageModified)));
+        when(storageService.listAssets("audio", campusId))
+                .thenReturn(List.of(new StoredAsset("audio/" + campusId + "/quack.mp3", SOUND.length, 1L)));
+        when(storageService.loadAsResource("image", campusId, "duck.png")).thenReturn(new ByteArrayResource(IMAGE));
+        when(storageService.loadAsResource("audio", campusId, "quack.mp3")).thenReturn(new ByteArrayResource(SOUND));
+    }
+
+    @Test
+    public void listsReferencedAssets() {
+        Campus campus = campusWithBird();
+        String campusId = campus.getId().toString();
+        stubStorage(campusId, 1L);
+
+        AssetManifest assetManifest = classUnderTest.buildManifest(campus.getId());
+
+        assertEquals(2, assetManifest.getAssets().size());
+
+        ManifestAsset sound = assetManifest.getAssets().get(0);
+        assertEquals("audio/" + campusId + "/quack.mp3", sound.getUrl());
+        assertEquals(SOUND.length, sound.getSize());
+        assertEquals("audio/mpeg", sound.getContentType());
+
+        ManifestAsset image = assetManifest.getAssets().get(1);
+        assertEquals("image/" + campusId + "/duck.png", image.getUrl());
+        assertEquals("image/png", image.getContentType());
+        assertEquals(64, image.getHash().length());
+        assertNotEquals(sound.getHash(), image.getHash());
+    }
+
+    @Test
+    public void remembersHashesOfUnchangedAssets() {
+        Campus campus = campusWithBird();
+        String campusId = campus.getId().toString();
+        stubStorage(campusId, 1L);
+
+        String hash = classUnderTest.buildManifest(campus.getId()).getAssets().get(1).getHash();
+        classUnderTest.buildManifest(campus.getId());
+
+        verify(storageService, times(1)).loadAsResource("image", campusId, "duck.png");
+        verify(storageService, times(1)).loadAsResource("audio", campusId, "quack.mp3");
+
+        // Modified image is read again
+        stubStorage(campusId, 2L);
+        assertEquals(hash, classUnderTest.buildManifest(campus.getId()).getAssets().get(1).getHash());
+
+        verify(storageService, times(2)).loadAsResource("image", campusId, "duck.png");
+        verify(storageService, times(1)).loadAsResource("audio", campusId, "quack.mp3");
+    }
+
+    @Test
+    public void missingCampusHasNoManifest() {
+        assertNull(classUnderTest.buildManifest(-1L));
+    }
+}
@@ -0,0 +1,96 @@
+package sweng.penelope.services;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+
+import sweng.penelope.entities.Bird;
+import sweng.penelope.entities.Campus;
+import sweng.penelope.repositories.BirdRepository;
+import sweng.penelope.repositories.CampusRepository;
+
+@SpringBootTest
+@ActiveProfiles("test")
+public class AutocompleteServiceTest {
+    @Autowired
+    private AutocompleteService classUnderTest;
+
+    @Autowired
+    private CampusRepository campusRepository;
+
+    @Autowired
+    private BirdRepository birdRepository;
+
+    @MockBean
+    private StorageService storageService;
+
+    @AfterEach
+    public void cleanUp() {
+        campusRepository.deleteAll();
+    }
+
+    private Campus newCampus(String name) {
+        Campus campus = new Campus();
+        campus.setName(name);
+        campus.setAuthor("Penelope");
+        return campusRepository.save(campus);
+    }
+
+    private Bird newBird(Campus campus, String name) {
+        return birdRepository.save(new Bird(name, "image", "image", "audio", "About " + name, "video", "The lake",
+                "image", "Bread", "image", campus, "Penelope"));
+    }
+
+    private List<Long> completedIds(String prefix) {
+        return classUnderTest.complete(prefix, 10).stream().map(NameEntry::getId).collect(Collectors.toList());
+    }
+
+    // Tries are built in the background
+    private void await(BooleanSupplier condition) throws InterruptedException {
+        for (int attempts = 0; attempts < 100 && !condition.getAsBoolean(); attempts++)
+            Thread.sleep(50);
+
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    public void completesCommittedNames() throws Exception {
+        Campus campus = newCampus("Zebedee Campus");
+        Bird bird = newBird(campus, "Zitting Cisticola");
+
+        await(() -> completedIds("zi").equals(List.of(bird.getId())));
+        await(() -> completedIds("ze").equals(List.of(campus.getId())));
+    }
+
+    @Test
+    public void followsRenamesAndDeletions() throws Exception {
+        Campus campus = newCampus("Quayside");
+        Bird bird = newBird(campus, "Quetzal");
+        await(() -> completedIds("quet").equals(List.of(bird.getId())));
+
+        bird.setName("Xenops");
+        birdRepository.save(bird);
+        await(() -> completedIds("quet").isEmpty() && completedIds("xen").equals(List.of(bird.getId())));
+
+        birdRepository.deleteById(bird.getId());
+        await(() -> completedIds("xen").isEmpty());
+    }
+
+    @Test
+    public void rebuildsFromDatabase() throws Exception {
+        Campus campus = newCampus("Yarrow");
+
+        classUnderTest.rebuild();
+
+        await(() -> completedIds("yarr").equals(List.of(campus.getId())));
+    }
+}
@@ -0,0 +1,86 @@
+package sweng.penelope.services;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+
+import sweng.penelope.repositories.BirdText;
+
+/**
+ * Search latency over 100k indexed birds. Run with
+ * <code>./gradlew benchmark</code>.
+ */
+@Tag("benchmark")
+@SpringBootTest
+@ActiveProfiles("test")
+public class BirdSearchBenchmarkTest {
+    private static final int BIRDS = 100_000;
+    private static final int CAMPUSES = 50;
+    private static final int QUERIES = 1000;
+    private static final String[] WORDS = { "duck", "swan", "goose", "heron", "grey", "white", "black", "lake",
+            "river", "pond", "field", "bread", "seeds", "fish", "insects", "grass", "common", "rare", "small",
+            "large", "winter", "summer", "nests", "reeds", "dives", "flies", "sings", "quiet", "loud", "long" };
+
+    @Autowired
+    private BirdSearchService classUnderTest;
+
+    @MockBean
+    private StorageService storageService;
+
+    @AfterEach
+    public void cleanUp() {
+        // Drop the synthetic birds
+        classUnderTest.rebuild();
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++)
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        return text.toString();
+    }
+
+    @Test
+    public void queryLatency() {
+        Random random = new Random(42);
+        List<BirdText> texts = new ArrayList<>();
+        for (long id = 1; id <= BIRDS; id++) {
+            texts.add(new BirdText(id, id % CAMPUSES, words(random, 2), words(random, 30), words(random, 5),
+                    words(random, 5), "image/1/bird.png"));
+        }
+
+        long start = System.nanoTime();
+        classUnderTest.index(texts);
+        long indexing = System.nanoTime() - start;
+
+        long[] latencies = new long[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            String query = words(random, 1 + random.nextInt(3));
+            Long campusId = i % 2 == 0 ? null : (long) random.nextInt(CAMPUSES);
+
+            start = System.nanoTime();
+            classUnderTest.search(query, campusId, 20);
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+
+        assertFalse(classUnderTest.search("duck", null, 20).isEmpty());
+
+        System.out.printf("Indexed %d birds in %.1f ms%n", BIRDS, indexing / 1e6);
+        System.out.printf("%-6s %12s%n", "", "query (ms)");
+        System.out.printf("%-6s %12.3f%n", "p50", latencies[QUERIES / 2] / 1e6);
+        System.out.printf("%-6s %12.3f%n", "p99", latencies[QUERIES * 99 / 100] / 1e6);
+        System.out.printf("%-6s %12.3f%n", "max", latencies[QUERIES - 1] / 1e6);
+    }
+}
@@ -0,0 +1,143 @@
+package sweng.penelope.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+
+import sweng.penelope.entities.Bird;
+import sweng.penelope.entities.Campus;
+import sweng.penelope.entities.ChangeRecord;
+import sweng.penelope.repositories.BirdRepository;
+import sweng.penelope.repositories.BirdText;
+import sweng.penelope.repositories.CampusRepository;
+
+@SpringBootTest
+@ActiveProfiles("test")
+public class BirdSearchServiceTest {
+    @Autowired
+    private BirdSearchService classUnderTest;
+
+    @Autowired
+    private CampusRepository campusRepository;
+
+    @Autowired
+    private BirdRepository birdRepository;
+
+    @MockBean
+    private StorageService storageService;
+
+    @AfterEach
+    public void cleanUp() {
+        campusRepository.deleteAll();
+    }
+
+    private Campus newCampus() {
+        Campus campus = new Campus();
+        campus.setName("Heslington");
+        campus.setAuthor("Penelope");
+        return campusRepository.save(campus);
+    }
+
+    private Bird newBird(Campus campus, String name, String aboutMe, String diet) {
+        return birdRepository.save(new Bird(name, "image", "image", "audio", aboutMe, "video", "The lake", "image",
+                diet, "image", campus, "Penelope"));
+    }
+
+    private List<Long> ids(List<SearchResult> results) {
+        return results.stream().map(SearchResult::getId).collect(Collectors.toList());
+    }
+
+    @Test
+    public void tokenizesWords() {
+        assertEquals(List.of("mute", "swan", "eats", "pondweed"),
+                BirdSearchService.tokenize("The Mute-Swan eats pondweed!"));
+    }
+
+    @Test
+    public void ranksNameMatchesFirst() {
+        Campus campus = newCampus();
+        Bird heron = newBird(campus, "Grey Heron", "Stands still by the water", "Fish and frogs");
+        Bird kingfisher = newBird(campus, "Kingfisher", "Dives for fish, a bit like a heron", "Fish");
+
+        List<SearchResult> results = classUnderTest.search("heron", campus.getId(), 10);
+
+        assertEquals(List.of(heron.getId(), kingfisher.getId()), ids(results));
+        assertTrue(results.get(0).getScore() > results.get(1).getScore());
+    }
+
+    @Test
+    public void matchesEveryTerm() {
+        Campus campus = newCampus();
+        Bird heron = newBird(campus, "Grey Heron", "Stands still by the water", "Fish and frogs");
+        newBird(campus, "Kingfisher", "Dives into the water", "Fish");
+
+        assertEquals(List.of(heron.getId()), ids(classUnderTest.search("fish frogs", campus.getId(), 10)));
+        assertTrue(classUnderTest.search("fish seeds", campus.getId(), 10).isEmpty());
+    }
+
+    @Test
+    public void filtersByCampus() {
+        Campus campus = newCampus();
+        Campus otherCampus = newCampus();
+        Bird mallard = newBird(campus, "Mallard", "A common duck", "Bread");
+        Bird otherMallard = newBird(otherCampus, "Mallard", "A common duck", "Bread");
+
+        assertEquals(List.of(mallard.getId()), ids(classUnderTest.search("mallard", campus.getId(), 10)));
+        assertTrue(ids(classUnderTest.search("mallard", null, 10)).containsAll(
+                List.of(mallard.getId(), otherMallard.getId())));
+    }
+
+    @Test
+    public void followsCommittedChanges() {
+        Campus campus = newCampus();
+        Bird bird = newBird(campus, "Mallard", "A common duck", "Bread");
+
+        bird.setName("Mandarin");
+        birdRepository.save(bird);
+
+        assertTrue(classUnderTest.search("mallard", campus.getId(), 10).isEmpty());
+        assertEquals(List.of(bird.getId()), ids(classUnderTest.search("mandarin", campus.getId(), 10)));
+
+        birdRepository.deleteById(bird.getId());
+
+        assertTrue(classUnderTest.search("mandarin", campus.getId(), 10).isEmpty());
+    }
+
+    @Test
+    public void skipsChangesOlderThanTheAppliedOnes() {
+        Campus campus = newCampus();
+        Bird bird = newBird(campus, "Mallard", "A common duck", "Bread");
+
+        // Stands for a later change, indexed before the older one arrives
+        classUnderTest.index(List.of(new BirdText(bird.getId(), campus.getId(), "Mandarin", "A colourful duck",
+                "Seeds", "The lake", "image")));
+
+        ChangeRecord olderChange = new ChangeRecord();
+        olderChange.setId(0L);
+        olderChange.setEntityType(ChangeRecord.BIRD);
+        olderChange.setEntityId(bird.getId());
+        olderChange.setAction(ChangeRecord.CREATED);
+        classUnderTest.onChangesCommitted(new CatalogueChangeEvent(List.of(olderChange)));
+
+        assertEquals(List.of(bird.getId()), ids(classUnderTest.search("mandarin", campus.getId(), 10)));
+    }
+
+    @Test
+    public void rebuildsFromDatabase() {
+        Campus campus = newCampus();
+        Bird bird = newBird(campus, "Mallard", "A common duck", "Bread");
+
+        classUnderTest.rebuild();
+
+        assertEquals(List.of(bird.getId()), ids(classUnderTest.search("duck", campus.getId(), 10)));
+    }
+}
@@ -0,0 +1,189 @@
+package sweng.penelope.services;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.web.server.ResponseStatusException;
+
+import sweng.penelope.entities.Bird;
+import sweng.penelope.entities.Campus;
+import sweng.penelope.repositories.BirdRepository;
+import sweng.penelope.repositories.CampusRepository;
+
+@SpringBootTest
+@ActiveProfiles("test")
+public class CampusArchiveServiceTest {
+    private static final byte[] IMAGE = "image content".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SOUND = "sound content".getBytes(StandardCharsets.UTF_8);
+
+    @Autowired
+    private CampusArchiveService classUnderTest;
+
+    @Autowired
+    private CampusRepository campusRepository;
+
+    @Autowired
+    private BirdRepository birdRepository;
+
+    @MockBean
+    private StorageService storageService;
+
+    @AfterEach
+    public void cleanUp() {
+        campusRepository.deleteAll();
+    }
+
+    private List<String> exportedEntries(Long campusId) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        classUnderTest.export(campusId, outputStream);
+
+        List<String> entries = new ArrayList<>();
+        try (ZipInputStream zipInputStream = new ZipInputStream(
+                new ByteArrayInputStream(outputStream.toByteArray()))) {
+            ZipEntry zipEntry;
+            while ((zipEntry = zipInputStream.getNextEntry()) != null)
+                entries.add(zipEntry.getName());
+        }
+
+        return entries;
+    }
+
+    private Campus campusWithBirds() {
+        Campus campus = new Campus();
+        campus.setName("Heslington");
+        campus.setAuthor("Penelope");
+        campus = campusRepository.save(campus);
+
+        String image = String.format("image/%d/duck.png", campus.getId());
+        String sound = String.format("audio/%d/quack.mp3", campus.getId());
+        for (String name : List.of("Boris", "Doris")) {
+            birdRepository.save(new Bird(name, image, image, sound, "About " + name, image, "The lake", image,
+                    "Bread", image, campus, "Penelope"));
+        }
+
+        when(storageService.loadAsResource("image", campus.getId().toString(), "duck.png"))
+                .thenReturn(new ByteArrayResource(IMAGE));
+        when(storageService.loadAsResource("audio", campus.getId().toString(), "quack.mp3"))
+                .thenReturn(new ByteArrayResource(SOUND));
+
+        return campus;
+    }
+
+    @Test
+    public void exportsMetadataThenAssets() throws Exception {
+        Campus campus = campusWithBirds();
+
+        // Each asset once, however many birds use it
+        assertEquals(List.of("campus.xml", String.format("assets/audio/%d/quack.mp3", campus.getId()),
+                String.format("assets/image/%d/duck.png", campus.getId())), exportedEntries(campus.getId()));
+    }
+
+    @Test
+    public void exportsSameNamedAssetsOfOtherCampuses() throws Exception {
+        Campus campus = campusWithBirds();
+        Campus otherCampus = new Campus();
+        otherCampus.setName("Other");
+        otherCampus.setAuthor("Penelope");
+        otherCampus = campusRepository.save(otherCampus);
+
+        String foreignImage = String.format("image/%d/duck.png", otherCampus.getId());
+        // Same asset as the other birds, written as a full url
+        String fullImage = String.format("https://penelope.example/image/%d/duck.png", campus.getId());
+        birdRepository.save(new Bird("Horace", foreignImage, fullImage, fullImage, "About Horace", fullImage,
+                "The lake", fullImage, "Bread", fullImage, campus, "Penelope"));
+        when(storageService.loadAsResource("image", otherCampus.getId().toString(), "duck.png"))
+                .thenReturn(new ByteArrayResource(IMAGE));
+
+        List<String> entries = exportedEntries(campus.getId());
+
+        assertEquals(4, entries.size());
+        assertTrue(entries.contains(String.format("assets/image/%d/duck.png", campus.getId())));
+        assertTrue(entries.contains(String.format("assets/image/%d/duck.png", otherCampus.getId())));
+    }
+
+    @Test
+    public void importsExportAsNewCampus() throws Exception {
+        Campus campus = campusWithBirds();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        classUnderTest.export(campus.getId(), outputStream);
+
+        // Spooled files are moved by storeFile, read them before they are gone
+        Map<String, byte[]> stored = new ConcurrentHashMap<>();
+        when(storageService.storeFile(anyString(), anyString(), any(Path.class), anyString()))
+                .thenAnswer(invocation -> {
+                    stored.put(String.format("%s/%s/%s", invocation.getArgument(0), invocation.getArgument(1),
+                            invocation.getArgument(3)), Files.readAllBytes(invocation.getArgument(2)));
+                    return true;
+                });
+
+        ArchiveImport archiveImport = classUnderTest
+                .importArchive(new ByteArrayInputStream(outputStream.toByteArray()), "Importer");
+
+        assertEquals(2, archiveImport.getBirds());
+        assertEquals(2, archiveImport.getAssets());
+        assertEquals(0, archiveImport.getFailedAssets());
+
+        Long campusId = archiveImport.getCampusId();
+        assertArrayEquals(IMAGE, stored.get(String.format("image/%d/duck.png", campusId)));
+        assertArrayEquals(SOUND, stored.get(String.format("audio/%d/quack.mp3", campusId)));
+
+        Campus imported = campusRepository.findById(campusId).orElseThrow();
+        assertEquals("Heslington", imported.getName());
+        assertEquals("Importer", imported.getAuthor());
+
+        List<Bird> birds = birdRepository.findByCampus(imported);
+        assertEquals(2, birds.size());
+        for (Bird bird : birds) {
+            // Asset urls now point to the new campus
+            assertEquals(String.format("image/%d/duck.png", campusId), bird.getListImageURL());
+            assertEquals(String.format("audio/%d/quack.mp3", campusId), bird.getSoundURL());
+            assertEquals("Penelope", bird.getAuthor());
+        }
+    }
+
+    @Test
+    public void rejectsEntriesOutsideAssets() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
+            zipOutputStream.putNextEntry(new ZipEntry("campus.xml"));
+            zipOutputStream.write(
+                    "<campus name=\"Evil\" author=\"x\"><birds/></campus>".getBytes(StandardCharsets.UTF_8));
+            zipOutputStream.closeEntry();
+            zipOutputStream.putNextEntry(new ZipEntry("assets/image/../../passwd"));
+            zipOutputStream.closeEntry();
+        }
+
+        long campuses = campusRepository.count();
+        assertThrows(ResponseStatusException.class, () -> classUnderTest
+                .importArchive(new ByteArrayInputStream(outputStream.toByteArray()), "Importer"));
+
+        // The partly imported campus is removed
+        assertEquals(campuses, campusRepository.count());
+    }
+}
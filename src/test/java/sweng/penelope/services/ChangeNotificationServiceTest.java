@@ -0,0 +1,228 @@
+package sweng.penelope.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import sweng.penelope.entities.Bird;
+import sweng.penelope.entities.Campus;
+import sweng.penelope.entities.ChangeRecord;
+import sweng.penelope.repositories.BirdRepository;
+import sweng.penelope.repositories.CampusRepository;
+import sweng.penelope.repositories.ChangeRecordRepository;
+
+@SpringBootTest
+@ActiveProfiles("test")
+public class ChangeNotificationServiceTest {
+    @Autowired
+    private ChangeNotificationService classUnderTest;
+
+    @Autowired
+    private CampusRepository campusRepository;
+
+    @Autowired
+    private BirdRepository birdRepository;
+
+    @Autowired
+    private ChangeRecordRepository changeRecordRepository;
+
+    @MockBean
+    private StorageService storageService;
+
+    /**
+     * Emitter keeping what is sent through it, optionally blocking until
+     * released.
+     */
+    private static class RecordingEmitter extends SseEmitter {
+        private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+        private final BlockingQueue<String> sent = new LinkedBlockingQueue<>();
+        private final CountDownLatch release;
+        private volatile boolean completed;
+        private volatile boolean failed;
+
+        private RecordingEmitter(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            try {
+                release.await();
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+                throw new IOException(interruptedException);
+            }
+
+            StringBuilder event = new StringBuilder();
+            for (DataWithMediaType dataWithMediaType : builder.build()) {
+                Object data = dataWithMediaType.getData();
+                event.append(data instanceof String ? (String) data : toJson(data));
+            }
+            sent.add(event.toString());
+        }
+
+        private static String toJson(Object data) throws JsonProcessingException {
+            return OBJECT_MAPPER.writeValueAsString(data);
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+
+        @Override
+        public void completeWithError(Throwable exception) {
+            failed = true;
+            completed = true;
+        }
+
+        private boolean awaitCompleted() throws InterruptedException {
+            for (int i = 0; i < 50 && !completed; i++)
+                Thread.sleep(100);
+            return completed;
+        }
+    }
+
+    @BeforeEach
+    public void setUp() {
+        // Contexts share the database, which another context may have recreated
+        ReflectionTestUtils.setField(classUnderTest, "dispatched",
+                changeRecordRepository.findTopByOrderByIdDesc().map(ChangeRecord::getId).orElse(0L));
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        campusRepository.deleteAll();
+    }
+
+    private Campus newCampus() {
+        Campus campus = new Campus();
+        campus.setName("Heslington");
+        campus.setAuthor("Penelope");
+        return campusRepository.save(campus);
+    }
+
+    @Test
+    public void pushesCommittedChangesToCampusSubscribers() throws Exception {
+        Campus campus = newCampus();
+        Campus otherCampus = newCampus();
+
+        RecordingEmitter emitter = new RecordingEmitter(new CountDownLatch(0));
+        RecordingEmitter otherEmitter = new RecordingEmitter(new CountDownLatch(0));
+        classUnderTest.subscribe(campus.getId(), emitter);
+        classUnderTest.subscribe(otherCampus.getId(), otherEmitter);
+
+        Bird bird = birdRepository.save(new Bird("Boris", "image", "image", "audio", "About Boris", "video",
+                "The lake", "image", "Bread", "image", campus, "Penelope"));
+
+        // The campus may have been dispatched after subscribing
+        String event = emitter.sent.poll(5, TimeUnit.SECONDS);
+        if (event != null && !event.contains("\"bird\""))
+            event = emitter.sent.poll(5, TimeUnit.SECONDS);
+        assertNotNull(event);
+        assertTrue(event.contains(ChangeRecord.CREATED));
+        assertTrue(event.contains(SyncService.contentHash(bird)));
+        assertTrue(otherEmitter.sent.stream().noneMatch(sent -> sent.contains("\"bird\"")));
+    }
+
+    @Test
+    public void sendsHeartbeats() throws Exception {
+        Campus campus = newCampus();
+        RecordingEmitter emitter = new RecordingEmitter(new CountDownLatch(0));
+        classUnderTest.subscribe(campus.getId(), emitter);
+
+        classUnderTest.sendHeartbeats();
+
+        String heartbeat = emitter.sent.poll(5, TimeUnit.SECONDS);
+        assertNotNull(heartbeat);
+        assertTrue(heartbeat.startsWith(":heartbeat"));
+    }
+
+    @Test
+    public void disconnectsSlowSubscribers() throws Exception {
+        Object queueCapacity = ReflectionTestUtils.getField(classUnderTest, "queueCapacity");
+        ReflectionTestUtils.setField(classUnderTest, "queueCapacity", 2);
+
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingEmitter slowEmitter = new RecordingEmitter(release);
+        RecordingEmitter emitter = new RecordingEmitter(new CountDownLatch(0));
+
+        try {
+            Campus campus = newCampus();
+            classUnderTest.subscribe(campus.getId(), slowEmitter);
+            classUnderTest.subscribe(campus.getId(), emitter);
+
+            // One event blocked in send, two queued, the fourth overflows
+            for (int i = 0; i < 4; i++)
+                classUnderTest.sendHeartbeats();
+
+            // Other subscribers are not held up
+            List<String> sent = new ArrayList<>();
+            for (int i = 0; i < 4; i++)
+                sent.add(emitter.sent.poll(5, TimeUnit.SECONDS));
+            assertEquals(4, sent.stream().filter(heartbeat -> heartbeat != null).count());
+
+            // Completed once its blocked send returns
+            release.countDown();
+            assertTrue(slowEmitter.awaitCompleted());
+            assertFalse(slowEmitter.failed);
+        } finally {
+            release.countDown();
+            ReflectionTestUtils.setField(classUnderTest, "queueCapacity", queueCapacity);
+        }
+    }
+
+    @Test
+    public void disconnectsStalledSubscribers() throws Exception {
+        Object sendTimeout = ReflectionTestUtils.getField(classUnderTest, "sendTimeout");
+        ReflectionTestUtils.setField(classUnderTest, "sendTimeout", 200L);
+
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingEmitter stalledEmitter = new RecordingEmitter(release);
+        RecordingEmitter emitter = new RecordingEmitter(new CountDownLatch(0));
+
+        try {
+            Campus campus = newCampus();
+            classUnderTest.subscribe(campus.getId(), stalledEmitter);
+            classUnderTest.subscribe(campus.getId(), emitter);
+
+            classUnderTest.sendHeartbeats();
+
+            // The stalled send is interrupted at its deadline
+            assertTrue(stalledEmitter.awaitCompleted());
+            assertTrue(stalledEmitter.failed);
+            assertTrue(stalledEmitter.sent.isEmpty());
+
+            // And later events skip it
+            classUnderTest.sendHeartbeats();
+            assertNotNull(emitter.sent.poll(5, TimeUnit.SECONDS));
+            assertNotNull(emitter.sent.poll(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            ReflectionTestUtils.setField(classUnderTest, "sendTimeout", sendTimeout);
+        }
+    }
+}
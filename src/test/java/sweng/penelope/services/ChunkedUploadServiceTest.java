@@ -0,0 +1,165 @@
+package sweng.penelope.services;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+@SpringBootTest
+@ActiveProfiles("test")
+public class ChunkedUploadServiceTest {
+    private static final String TYPE = "video";
+    private static final String CAMPUS_ID = "1";
+    private static final String FILE_NAME = "Test-0123456789.mp4";
+
+    @Value("${penelope.storage.base-folder}")
+    private String baseString;
+
+    @Value("${penelope.upload.chunk-size}")
+    private int chunkSize;
+
+    @Autowired
+    private ChunkedUploadService classUnderTest;
+
+    @MockBean
+    private StorageService storageService;
+
+    @AfterEach
+    public void cleanUp() throws IOException {
+        FileSystemUtils.deleteRecursively(Paths.get(baseString));
+    }
+
+    private byte[] chunk(byte[] content, UploadSession session, int index) {
+        int from = (int) session.chunkOffset(index);
+        int to = from + (int) session.chunkLength(index);
+
+        return Arrays.copyOfRange(content, from, to);
+    }
+
+    @Test
+    public void preallocatesPartFile() throws IOException {
+        UploadSession session = classUnderTest.start(TYPE, CAMPUS_ID, FILE_NAME, chunkSize * 2L + 10);
+
+        assertTrue(Files.exists(session.getPartPath()));
+        assertEquals(chunkSize * 2L + 10, Files.size(session.getPartPath()));
+        assertEquals(3, session.getNumChunks());
+        assertEquals("0,1,2", session.missingChunks());
+    }
+
+    @Test
+    public void assemblesChunksInAnyOrder() throws IOException {
+        byte[] content = new byte[chunkSize * 2 + 10];
+        for (int i = 0; i < content.length; i++)
+            content[i] = (byte) i;
+
+        UploadSession session = classUnderTest.start(TYPE, CAMPUS_ID, FILE_NAME, content.length);
+
+        assertTrue(classUnderTest.writeChunk(session, 2, new ByteArrayInputStream(chunk(content, session, 2))));
+        assertTrue(classUnderTest.writeChunk(session, 0, new ByteArrayInputStream(chunk(content, session, 0))));
+        assertEquals("1", session.missingChunks());
+
+        // Resending a chunk is harmless
+        assertTrue(classUnderTest.writeChunk(session, 0, new ByteArrayInputStream(chunk(content, session, 0))));
+        assertTrue(classUnderTest.writeChunk(session, 1, new ByteArrayInputStream(chunk(content, session, 1))));
+
+        assertTrue(session.isComplete());
+        assertArrayEquals(content, Files.readAllBytes(session.getPartPath()));
+    }
+
+    @Test
+    public void rejectsChunksOfWrongLength() {
+        UploadSession session = classUnderTest.start(TYPE, CAMPUS_ID, FILE_NAME, chunkSize * 2L);
+
+        assertFalse(classUnderTest.writeChunk(session, 0, new ByteArrayInputStream(new byte[chunkSize - 1])));
+        assertFalse(classUnderTest.writeChunk(session, 1, new ByteArrayInputStream(new byte[chunkSize + 1])));
+        assertEquals("0,1", session.missingChunks());
+
+        assertThrows(ResponseStatusException.class, () -> {
+            classUnderTest.writeChunk(session, 2, new ByteArrayInputStream(new byte[1]));
+        });
+    }
+
+    @Test
+    public void cannotFinishIncompleteUpload() {
+        UploadSession session = classUnderTest.start(TYPE, CAMPUS_ID, FILE_NAME, 10);
+
+        assertThrows(ResponseStatusException.class, () -> {
+            classUnderTest.finish(session);
+        });
+    }
+
+    @Test
+    public void finishStoresAssembledFile() {
+        UploadSession session = classUnderTest.start(TYPE, CAMPUS_ID, FILE_NAME, 10);
+        classUnderTest.writeChunk(session, 0, new ByteArrayInputStream(new byte[10]));
+
+        when(storageService.storeFile(eq(TYPE), eq(CAMPUS_ID), any(Path.class), eq(FILE_NAME))).thenReturn(true);
+
+        assertTrue(classUnderTest.finish(session));
+        verify(storageService).storeFile(TYPE, CAMPUS_ID, session.getPartPath(), FILE_NAME);
+
+        // Session is gone
+        assertThrows(ResponseStatusException.class, () -> {
+            classUnderTest.getSession(session.getUploadId(), CAMPUS_ID);
+        });
+    }
+
+    @Test
+    public void failedFinishDeletesPartFile() {
+        UploadSession session = classUnderTest.start(TYPE, CAMPUS_ID, FILE_NAME, 10);
+        classUnderTest.writeChunk(session, 0, new ByteArrayInputStream(new byte[10]));
+
+        when(storageService.storeFile(eq(TYPE), eq(CAMPUS_ID), any(Path.class), eq(FILE_NAME))).thenReturn(false);
+
+        assertFalse(classUnderTest.finish(session));
+        assertFalse(Files.exists(session.getPartPath()));
+    }
+
+    @Test
+    public void sessionsAreScopedToCampus() {
+        UploadSession session = classUnderTest.start(TYPE, CAMPUS_ID, FILE_NAME, 10);
+
+        assertEquals(session, classUnderTest.getSession(session.getUploadId(), CAMPUS_ID));
+        assertThrows(ResponseStatusException.class, () -> {
+            classUnderTest.getSession(session.getUploadId(), "2");
+        });
+    }
+
+    @Test
+    public void removesAbandonedSessions() {
+        UploadSession session = classUnderTest.start(TYPE, CAMPUS_ID, FILE_NAME, 10);
+        Object sessionTimeout = ReflectionTestUtils.getField(classUnderTest, "sessionTimeout");
+
+        ReflectionTestUtils.setField(classUnderTest, "sessionTimeout", -1L);
+        classUnderTest.removeAbandonedSessions();
+        ReflectionTestUtils.setField(classUnderTest, "sessionTimeout", sessionTimeout);
+
+        assertFalse(Files.exists(session.getPartPath()));
+        assertThrows(ResponseStatusException.class, () -> {
+            classUnderTest.getSession(session.getUploadId(), CAMPUS_ID);
+        });
+    }
+}
@@ -0,0 +1,132 @@
+package sweng.penelope.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@SpringBootTest
+@ActiveProfiles("test")
+public class DirectorySyncServiceTest {
+    private static final int WRITERS = 16;
+
+    @Autowired
+    private DirectorySyncService classUnderTest;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Path directory;
+
+    private double syncs() {
+        return meterRegistry.get("penelope.storage.directory-syncs").counter().count();
+    }
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("penelope-sync");
+    }
+
+    @AfterEach
+    public void cleanUp() throws IOException {
+        ReflectionTestUtils.setField(classUnderTest, "groupCommit", false);
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void syncsInline() throws IOException {
+        double before = syncs();
+
+        classUnderTest.sync(directory);
+        classUnderTest.sync(directory);
+
+        assertEquals(before + 2, syncs());
+    }
+
+    @Test
+    public void groupCommitBatchesConcurrentSyncs() throws Exception {
+        ReflectionTestUtils.setField(classUnderTest, "groupCommit", true);
+        ReflectionTestUtils.setField(classUnderTest, "groupCommitWindow", 50L);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(WRITERS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> writers = new ArrayList<>();
+        double before = syncs();
+
+        try {
+            for (int i = 0; i < WRITERS; i++) {
+                writers.add(executorService.submit(() -> {
+                    start.await();
+                    classUnderTest.sync(directory);
+                    return null;
+                }));
+            }
+            start.countDown();
+
+            // Every writer returns once synced
+            for (Future<?> writer : writers)
+                writer.get();
+        } finally {
+            executorService.shutdown();
+        }
+
+        assertTrue(syncs() - before < WRITERS);
+    }
+
+    @Test
+    public void stoppingCommitterReleasesWaitingSyncs() throws Exception {
+        DirectorySyncService directorySyncService = new DirectorySyncService();
+        ReflectionTestUtils.setField(directorySyncService, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(directorySyncService, "groupCommit", true);
+        // Longer than the test, only the stop can flush the request
+        ReflectionTestUtils.setField(directorySyncService, "groupCommitWindow", 60000L);
+        ReflectionTestUtils.invokeMethod(directorySyncService, "startCommitter");
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> writer = executorService.submit(() -> {
+                directorySyncService.sync(directory);
+                return null;
+            });
+
+            // Wait for the request to be pending
+            for (int attempts = 0; attempts < 100; attempts++) {
+                synchronized (ReflectionTestUtils.getField(directorySyncService, "pendingLock")) {
+                    if (!((Map<?, ?>) ReflectionTestUtils.getField(directorySyncService, "pending")).isEmpty())
+                        break;
+                }
+                Thread.sleep(50);
+            }
+
+            ReflectionTestUtils.invokeMethod(directorySyncService, "stopCommitter");
+            writer.get(5, TimeUnit.SECONDS);
+
+            // Later syncs are flushed inline
+            directorySyncService.sync(directory);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
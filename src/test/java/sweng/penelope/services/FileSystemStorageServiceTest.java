@@ -1,5 +1,6 @@
 package sweng.penelope.services;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -10,13 +11,21 @@ import static org.junit.jupiter.api.Assertions.fail;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
 
+import javax.persistence.EntityManagerFactory;
 import javax.transaction.Transactional;
 
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -32,10 +41,15 @@ import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.util.FileSystemUtils;
 import org.springframework.web.server.ResponseStatusException;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import sweng.penelope.entities.Bird;
 import sweng.penelope.entities.Campus;
+import sweng.penelope.entities.DataManager;
+import sweng.penelope.repositories.AssetAliasRepository;
 import sweng.penelope.repositories.BirdRepository;
 import sweng.penelope.repositories.CampusRepository;
+import sweng.penelope.repositories.DataManagerRepository;
+import sweng.penelope.repositories.StoredBlobRepository;
 
 @SpringBootTest
 @AutoConfigureMockMvc
@@ -68,6 +82,21 @@ public class FileSystemStorageServiceTest {
     @Autowired
     private CampusRepository campusRepository;
 
+    @Autowired
+    private AssetAliasRepository assetAliasRepository;
+
+    @Autowired
+    private StoredBlobRepository storedBlobRepository;
+
+    @Autowired
+    private DataManagerRepository dataManagerRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @BeforeEach
     public void init() {
         basePath = Paths.get(baseString);
@@ -87,6 +116,11 @@ public class FileSystemStorageServiceTest {
 
         birdRepository.deleteAll();
         campusRepository.deleteAll();
+        assetAliasRepository.deleteAll();
+        storedBlobRepository.deleteAll();
+
+        ReflectionTestUtils.setField(classUnderTest, "contentAddressed", false);
+        ReflectionTestUtils.setField(classUnderTest, "shardDepth", 0);
     }
 
     @Test
@@ -256,6 +290,18 @@ public class FileSystemStorageServiceTest {
         });
     }
 
+    @Test
+    public void timesQueriesApartFromBuilding() {
+        long loads = meterRegistry.get("penelope.storage.load").tag("type", "bird").timer().count();
+        long builds = meterRegistry.get("penelope.xml.build").tag("document", "BirdXML").timer().count();
+
+        assertThrows(ResponseStatusException.class, () -> classUnderTest.loadAsResourceFromDB("bird", 200L, null));
+
+        // Queried, nothing to build
+        assertEquals(loads + 1, meterRegistry.get("penelope.storage.load").tag("type", "bird").timer().count());
+        assertEquals(builds, meterRegistry.get("penelope.xml.build").tag("document", "BirdXML").timer().count());
+    }
+
     @Test
     @Transactional
     public void canLoadCampusWithBird() {
@@ -291,6 +337,54 @@ public class FileSystemStorageServiceTest {
         assertNotNull(campusResource);
     }
 
+    @Test
+    @Transactional
+    public void campusShowsTruncatedDescriptions() throws IOException {
+        Campus campus = new Campus();
+        campus.setName(BIRD_MOCK_DATA);
+        campus.setAuthor(BIRD_MOCK_DATA);
+        campus = campusRepository.save(campus);
+
+        Bird bird = new Bird(BIRD_MOCK_DATA, BIRD_MOCK_DATA, BIRD_MOCK_DATA, BIRD_MOCK_DATA,
+                "a".repeat(40) + "b".repeat(20), BIRD_MOCK_DATA, BIRD_MOCK_DATA, BIRD_MOCK_DATA, BIRD_MOCK_DATA,
+                BIRD_MOCK_DATA, campus, BIRD_MOCK_DATA);
+        birdRepository.save(bird);
+
+        Resource campusResource = classUnderTest.loadAsResourceFromDB("campus", campus.getId(), null);
+        String campusXML = new String(campusResource.getInputStream().readAllBytes());
+
+        // Cut to 50 characters by the query
+        assertTrue(campusXML.contains("a".repeat(40) + "b".repeat(10) + "..."));
+        assertFalse(campusXML.contains("b".repeat(11)));
+    }
+
+    @Test
+    public void campusPagesFollowNextMarker() throws IOException {
+        Campus campus = new Campus();
+        campus.setName(BIRD_MOCK_DATA);
+        campus.setAuthor(BIRD_MOCK_DATA);
+        campus = campusRepository.save(campus);
+
+        List<Long> birdIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Bird bird = new Bird(BIRD_MOCK_DATA, BIRD_MOCK_DATA, BIRD_MOCK_DATA, BIRD_MOCK_DATA, BIRD_MOCK_DATA,
+                    BIRD_MOCK_DATA, BIRD_MOCK_DATA, BIRD_MOCK_DATA, BIRD_MOCK_DATA, BIRD_MOCK_DATA, campus,
+                    BIRD_MOCK_DATA);
+            birdIds.add(birdRepository.save(bird).getId());
+        }
+
+        String firstPage = new String(
+                classUnderTest.loadPageFromDB("campus", campus.getId(), 0L, 2, null).getInputStream().readAllBytes());
+        assertTrue(firstPage.contains("<numSlides>2</numSlides>"));
+        assertTrue(firstPage.contains(String.format("<next>%d</next>", birdIds.get(1))));
+
+        String lastPage = new String(classUnderTest.loadPageFromDB("campus", campus.getId(), birdIds.get(3), 2, null)
+                .getInputStream().readAllBytes());
+        assertTrue(lastPage.contains("<numSlides>1</numSlides>"));
+        assertTrue(lastPage.contains(String.format("title=\"%d\"", birdIds.get(4))));
+        assertFalse(lastPage.contains("<next>"));
+    }
+
     @Test
     @Transactional
     public void canLoadCampusNoBird() {
@@ -306,6 +400,41 @@ public class FileSystemStorageServiceTest {
         assertNotNull(campusResource);
     }
 
+    private long usersListStatements(int users, Campus campus) {
+        List<DataManager> dataManagers = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            DataManager dataManager = new DataManager();
+            dataManager.setUsername("user" + i);
+            dataManager.setPassword(BIRD_MOCK_DATA);
+            dataManager.setCampuses(new HashSet<>(Set.of(campus)));
+            dataManagers.add(dataManager);
+        }
+        dataManagerRepository.saveAll(dataManagers);
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        boolean statisticsEnabled = statistics.isStatisticsEnabled();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+        try {
+            assertNotNull(classUnderTest.loadAsResourceFromDB("usersList", null, null));
+
+            return statistics.getPrepareStatementCount();
+        } finally {
+            statistics.setStatisticsEnabled(statisticsEnabled);
+            dataManagerRepository.deleteAll(dataManagers);
+        }
+    }
+
+    @Test
+    public void usersListQueriesDoNotGrowWithUsers() {
+        Campus campus = new Campus();
+        campus.setName(BIRD_MOCK_DATA);
+        campus.setAuthor(BIRD_MOCK_DATA);
+        campus = campusRepository.save(campus);
+
+        assertEquals(usersListStatements(2, campus), usersListStatements(20, campus));
+    }
+
     @Test
     public void cannotLoadMissinCampus() {
         // Arbitrary ID
@@ -325,4 +454,264 @@ public class FileSystemStorageServiceTest {
 
         assertNotNull(campusesListResource);
     }
+
+    @Test
+    public void contentAddressedStoresIdenticalFilesOnce() throws IOException {
+        ReflectionTestUtils.setField(classUnderTest, "contentAddressed", true);
+
+        MockMultipartFile mpf = new MockMultipartFile("file", IMAGE_NAME, MediaType.IMAGE_PNG_VALUE,
+                "content".getBytes());
+        assertTrue(classUnderTest.store("image", "1", mpf, "First.png"));
+        assertTrue(classUnderTest.store("image", "2", mpf, "Second.png"));
+
+        Path first = classUnderTest.load("image", "1", "First.png");
+        Path second = classUnderTest.load("image", "2", "Second.png");
+
+        assertEquals(first, second);
+        assertTrue(first.startsWith(basePath.resolve("blobs")));
+        assertTrue(first.getFileName().toString().endsWith(".png"));
+        assertEquals(1, storedBlobRepository.count());
+        assertEquals(2, storedBlobRepository.findAll().iterator().next().getRefCount());
+
+        // Old url format still resolves
+        Resource resource = classUnderTest.loadAsResource("image", "1", "First.png");
+        assertNotNull(resource);
+        assertEquals("content", new String(Files.readAllBytes(Paths.get(resource.getURI()))));
+    }
+
+    @Test
+    public void contentAddressedRemovesOnLastReference() {
+        ReflectionTestUtils.setField(classUnderTest, "contentAddressed", true);
+
+        MockMultipartFile mpf = new MockMultipartFile("file", IMAGE_NAME, MediaType.IMAGE_PNG_VALUE,
+                "content".getBytes());
+        classUnderTest.store("image", "1", mpf, "First.png");
+        classUnderTest.store("image", "1", mpf, "Second.png");
+        Path blobPath = classUnderTest.load("image", "1", "First.png");
+
+        assertTrue(classUnderTest.remove("image/1/First.png"));
+        assertTrue(Files.exists(blobPath));
+        assertNotNull(classUnderTest.loadAsResource("image", "1", "Second.png"));
+        assertNull(classUnderTest.loadAsResource("image", "1", "First.png"));
+
+        assertTrue(classUnderTest.remove("image/1/Second.png"));
+        assertFalse(Files.exists(blobPath));
+        assertEquals(0, storedBlobRepository.count());
+    }
+
+    @Test
+    public void contentAddressedReplacesContent() {
+        ReflectionTestUtils.setField(classUnderTest, "contentAddressed", true);
+
+        BufferedImage bi = new BufferedImage(BUFFERED_IMAGE_SIZE, BUFFERED_IMAGE_SIZE, BufferedImage.TYPE_INT_RGB);
+        assertTrue(classUnderTest.storeProcessedImage(IMAGE_NAME, "1", bi));
+        Path firstBlob = classUnderTest.load("image", "1", IMAGE_NAME);
+
+        bi = new BufferedImage(BUFFERED_IMAGE_SIZE / 2, BUFFERED_IMAGE_SIZE / 2, BufferedImage.TYPE_INT_RGB);
+        assertTrue(classUnderTest.storeProcessedImage(IMAGE_NAME, "1", bi));
+
+        // Previous content was only referenced by this url
+        assertFalse(Files.exists(firstBlob));
+        assertTrue(Files.exists(classUnderTest.load("image", "1", IMAGE_NAME)));
+        assertEquals(1, storedBlobRepository.count());
+    }
+
+    @Test
+    public void contentAddressedRollsBackFailedStore() throws IOException {
+        ReflectionTestUtils.setField(classUnderTest, "contentAddressed", true);
+
+        MockMultipartFile mpf = new MockMultipartFile("file", IMAGE_NAME, MediaType.IMAGE_PNG_VALUE,
+                "content".getBytes());
+        assertTrue(classUnderTest.store("image", "1", mpf, "First.png"));
+
+        // The alias url is too long for its column, its insert fails after the blob was updated
+        String longName = "a".repeat(300) + ".png";
+        assertFalse(classUnderTest.store("image", "1", mpf, longName));
+        assertFalse(classUnderTest.store("image", "1",
+                new MockMultipartFile("file", IMAGE_NAME, MediaType.IMAGE_PNG_VALUE, "other".getBytes()),
+                longName));
+
+        assertEquals(1, storedBlobRepository.count());
+        assertEquals(1, storedBlobRepository.findAll().iterator().next().getRefCount());
+        try (Stream<Path> blobs = Files.walk(basePath.resolve("blobs"))) {
+            assertEquals(1, blobs.filter(Files::isRegularFile).count());
+        }
+
+        // The only reference left, the blob goes with it
+        Path blobPath = classUnderTest.load("image", "1", "First.png");
+        assertTrue(classUnderTest.remove("image/1/First.png"));
+        assertFalse(Files.exists(blobPath));
+    }
+
+    @Test
+    public void contentAddressedStoresLocalFile() throws IOException {
+        ReflectionTestUtils.setField(classUnderTest, "contentAddressed", true);
+
+        Path source = Files.createTempFile(basePath, null, null);
+        Files.write(source, "content".getBytes());
+
+        assertTrue(classUnderTest.storeFile("video", "1", source, VIDEO_NAME));
+        assertFalse(Files.exists(source));
+        assertTrue(Files.exists(classUnderTest.load("video", "1", VIDEO_NAME)));
+    }
+
+    @Test
+    public void contentAddressedKeepsLegacyFiles() throws IOException {
+        // Stored before content addressing was enabled
+        Path testPath = imagePath.resolve("1");
+        Files.createDirectories(testPath);
+        Files.write(testPath.resolve(IMAGE_NAME), "test".getBytes());
+
+        ReflectionTestUtils.setField(classUnderTest, "contentAddressed", true);
+
+        assertNotNull(classUnderTest.loadAsResource("image", "1", IMAGE_NAME));
+        assertTrue(classUnderTest.remove("image/1/" + IMAGE_NAME));
+        assertFalse(Files.exists(testPath.resolve(IMAGE_NAME)));
+    }
+
+    @Test
+    public void shardedLayoutSpreadsFiles() throws IOException {
+        ReflectionTestUtils.setField(classUnderTest, "shardDepth", 2);
+
+        MockMultipartFile mpf = new MockMultipartFile("file", IMAGE_NAME, MediaType.IMAGE_PNG_VALUE,
+                "content".getBytes());
+        assertTrue(classUnderTest.store("image", "1", mpf, IMAGE_NAME));
+
+        Path stored = classUnderTest.load("image", "1", IMAGE_NAME);
+        // image/1/ab/cd/Test.png
+        assertEquals(4, imagePath.relativize(stored).getNameCount());
+        assertTrue(Files.exists(stored));
+        assertNotNull(classUnderTest.loadAsResource("image", "1", IMAGE_NAME));
+
+        assertTrue(classUnderTest.remove("image/1/" + IMAGE_NAME));
+        assertFalse(Files.exists(stored));
+    }
+
+    @Test
+    public void shardedLayoutFindsFlatFiles() throws IOException {
+        Path flatPath = imagePath.resolve("1").resolve(IMAGE_NAME);
+        Files.createDirectories(flatPath.getParent());
+        Files.write(flatPath, "test".getBytes());
+
+        ReflectionTestUtils.setField(classUnderTest, "shardDepth", 2);
+
+        assertEquals(flatPath, classUnderTest.load("image", "1", IMAGE_NAME));
+        assertNotNull(classUnderTest.loadAsResource("image", "1", IMAGE_NAME));
+    }
+
+    @Test
+    public void migratesLayout() throws IOException {
+        MockMultipartFile mpf = new MockMultipartFile("file", IMAGE_NAME, MediaType.IMAGE_PNG_VALUE,
+                "content".getBytes());
+        classUnderTest.store("image", "1", mpf, IMAGE_NAME);
+        mpf = new MockMultipartFile("file", VIDEO_NAME, VIDEO_MIME_TYPE, "content".getBytes());
+        classUnderTest.store("video", "2", mpf, VIDEO_NAME);
+
+        ReflectionTestUtils.setField(classUnderTest, "shardDepth", 2);
+
+        assertEquals(2, classUnderTest.migrateLayout());
+        assertFalse(Files.exists(imagePath.resolve("1").resolve(IMAGE_NAME)));
+        assertEquals(4, imagePath.relativize(classUnderTest.load("image", "1", IMAGE_NAME)).getNameCount());
+        assertEquals(0, classUnderTest.migrateLayout());
+
+        // And back, shards are cleaned up
+        ReflectionTestUtils.setField(classUnderTest, "shardDepth", 0);
+
+        assertEquals(2, classUnderTest.migrateLayout());
+        assertTrue(Files.exists(imagePath.resolve("1").resolve(IMAGE_NAME)));
+        assertTrue(Files.exists(videoPath.resolve("2").resolve(VIDEO_NAME)));
+        try (Stream<Path> campusFolder = Files.list(imagePath.resolve("1"))) {
+            assertEquals(1, campusFolder.count());
+        }
+    }
+
+    @Test
+    public void recreatesRemovedDirectories() throws IOException {
+        MockMultipartFile mpf = new MockMultipartFile("file", IMAGE_NAME, MediaType.IMAGE_PNG_VALUE,
+                "content".getBytes());
+        assertTrue(classUnderTest.store("image", "1", mpf, IMAGE_NAME));
+
+        // Directory is cached as existing, but removed behind the service's back
+        FileSystemUtils.deleteRecursively(imagePath);
+
+        assertTrue(classUnderTest.store("image", "1", mpf, IMAGE_NAME));
+        assertTrue(Files.exists(imagePath.resolve("1").resolve(IMAGE_NAME)));
+    }
+
+    @Test
+    public void writesLeaveNoTemporaryFiles() throws IOException {
+        MockMultipartFile mpf = new MockMultipartFile("file", IMAGE_NAME, MediaType.IMAGE_PNG_VALUE,
+                "content".getBytes());
+        assertTrue(classUnderTest.store("image", "1", mpf, IMAGE_NAME));
+        BufferedImage bi = new BufferedImage(BUFFERED_IMAGE_SIZE, BUFFERED_IMAGE_SIZE, BufferedImage.TYPE_INT_RGB);
+        assertTrue(classUnderTest.storeProcessedImage("Processed.png", "1", bi));
+
+        try (Stream<Path> campusFolder = Files.list(imagePath.resolve("1"))) {
+            assertEquals(2, campusFolder.count());
+        }
+        assertEquals("content", new String(Files.readAllBytes(imagePath.resolve("1").resolve(IMAGE_NAME))));
+    }
+
+    @Test
+    public void failedWriteKeepsPreviousFile() throws IOException {
+        BufferedImage bi = new BufferedImage(BUFFERED_IMAGE_SIZE, BUFFERED_IMAGE_SIZE, BufferedImage.TYPE_INT_RGB);
+        assertTrue(classUnderTest.storeImage(IMAGE_NAME, "1", bi, "png"));
+        Path stored = imagePath.resolve("1").resolve(IMAGE_NAME);
+        byte[] previous = Files.readAllBytes(stored);
+
+        // No writer for this format
+        assertFalse(classUnderTest.storeImage(IMAGE_NAME, "1", bi, "not-a-format"));
+
+        assertArrayEquals(previous, Files.readAllBytes(stored));
+        try (Stream<Path> campusFolder = Files.list(imagePath.resolve("1"))) {
+            assertEquals(1, campusFolder.count());
+        }
+    }
+
+    @Test
+    public void servesMappedFilesUntilReplaced() throws IOException {
+        MockMultipartFile mpf = new MockMultipartFile("file", IMAGE_NAME, MediaType.IMAGE_PNG_VALUE,
+                "content".getBytes());
+        assertTrue(classUnderTest.store("image", "1", mpf, IMAGE_NAME));
+
+        Resource resource = classUnderTest.loadAsResource("image", "1", IMAGE_NAME);
+        assertTrue(resource instanceof MappedAssetResource);
+        try (InputStream inputStream = resource.getInputStream()) {
+            assertEquals("content", new String(inputStream.readAllBytes()));
+        }
+
+        mpf = new MockMultipartFile("file", IMAGE_NAME, MediaType.IMAGE_PNG_VALUE, "replaced".getBytes());
+        assertTrue(classUnderTest.store("image", "1", mpf, IMAGE_NAME));
+
+        resource = classUnderTest.loadAsResource("image", "1", IMAGE_NAME);
+        try (InputStream inputStream = resource.getInputStream()) {
+            assertEquals("replaced", new String(inputStream.readAllBytes()));
+        }
+    }
+
+    @Test
+    public void contentAddressedServesMappingsByUrl() throws IOException {
+        ReflectionTestUtils.setField(classUnderTest, "contentAddressed", true);
+
+        MockMultipartFile mpf = new MockMultipartFile("file", IMAGE_NAME, MediaType.IMAGE_PNG_VALUE,
+                "content".getBytes());
+        assertTrue(classUnderTest.store("image", "1", mpf, "First.png"));
+        assertTrue(classUnderTest.store("image", "1", mpf, "Second.png"));
+        assertTrue(classUnderTest.loadAsResource("image", "1", "Second.png") instanceof MappedAssetResource);
+
+        // Mapped urls are served without looking up their alias
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        assertTrue(classUnderTest.loadAsResource("image", "1", "Second.png") instanceof MappedAssetResource);
+        assertEquals(0, statistics.getPrepareStatementCount());
+
+        // The shared blob stays, the url points to the new one
+        mpf = new MockMultipartFile("file", IMAGE_NAME, MediaType.IMAGE_PNG_VALUE, "replaced".getBytes());
+        assertTrue(classUnderTest.store("image", "1", mpf, "Second.png"));
+
+        Resource resource = classUnderTest.loadAsResource("image", "1", "Second.png");
+        try (InputStream inputStream = resource.getInputStream()) {
+            assertEquals("replaced", new String(inputStream.readAllBytes()));
+        }
+    }
 }
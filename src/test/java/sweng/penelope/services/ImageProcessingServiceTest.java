@@ -0,0 +1,165 @@
+package sweng.penelope.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.sun.management.ThreadMXBean;
+
+@SpringBootTest
+@ActiveProfiles("test")
+public class ImageProcessingServiceTest {
+    private static final String CAMPUS_ID = "1";
+    private static final String TEST_IMAGE = "classpath:duckTest.png";
+
+    private final DefaultResourceLoader defaultResourceLoader = new DefaultResourceLoader();
+
+    @Autowired
+    private ImageProcessingService classUnderTest;
+
+    @MockBean
+    private StorageService storageService;
+
+    @Test
+    public void makesSquareImageWithTransparentCorners() {
+        BufferedImage input = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+
+        BufferedImage output = classUnderTest.makeRound(input);
+
+        assertEquals(200, output.getWidth());
+        assertEquals(200, output.getHeight());
+        // Corner is outside the circle, centre is inside
+        assertEquals(0, output.getRGB(0, 0) >>> 24);
+        assertNotEquals(0, output.getRGB(100, 100) >>> 24);
+    }
+
+    @Test
+    public void processStoresRoundImage() throws Exception {
+        when(storageService.storeProcessedImage(anyString(), eq(CAMPUS_ID), any(BufferedImage.class)))
+                .thenReturn(true);
+
+        try (InputStream inputStream = defaultResourceLoader.getResource(TEST_IMAGE).getInputStream()) {
+            String assetUrl = classUnderTest.process(inputStream, CAMPUS_ID, "duck-0123456789.png");
+
+            assertEquals("image/1/duck-0123456789_processed.png", assetUrl);
+        }
+    }
+
+    @Test
+    public void processReportsFailedStore() throws Exception {
+        when(storageService.storeProcessedImage(anyString(), eq(CAMPUS_ID), any(BufferedImage.class)))
+                .thenReturn(false);
+
+        try (InputStream inputStream = defaultResourceLoader.getResource(TEST_IMAGE).getInputStream()) {
+            assertNull(classUnderTest.process(inputStream, CAMPUS_ID, "duck-0123456789.png"));
+        }
+    }
+
+    @Test
+    public void jobsRunInBackground() throws Exception {
+        when(storageService.storeProcessedImage(anyString(), eq(CAMPUS_ID), any(BufferedImage.class)))
+                .thenReturn(true);
+
+        byte[] content;
+        try (InputStream inputStream = defaultResourceLoader.getResource(TEST_IMAGE).getInputStream()) {
+            content = inputStream.readAllBytes();
+        }
+
+        ImageJob job = classUnderTest.submit(content, CAMPUS_ID, "duck-0123456789.png", fileName -> {
+        });
+        assertNotNull(classUnderTest.getJob(job.getJobId()));
+
+        int attempts = 0;
+        while (!job.isFinished() && attempts++ < 100)
+            Thread.sleep(50);
+
+        assertTrue(job.isFinished());
+        assertEquals(ImageJob.Status.DONE, job.getStatus());
+        assertEquals("image/1/duck-0123456789_processed.png", job.getAssetUrl());
+    }
+
+    @Test
+    public void subsamplesToDecodeBudget() {
+        Object maxDecodeBytes = ReflectionTestUtils.getField(classUnderTest, "maxDecodeBytes");
+        ReflectionTestUtils.setField(classUnderTest, "maxDecodeBytes", 8L * 1000 * 1000);
+
+        try {
+            assertEquals(1, classUnderTest.subsampling(1000));
+            assertEquals(2, classUnderTest.subsampling(1001));
+            assertEquals(6, classUnderTest.subsampling(6000));
+        } finally {
+            ReflectionTestUtils.setField(classUnderTest, "maxDecodeBytes", maxDecodeBytes);
+        }
+    }
+
+    @Test
+    public void processStaysWithinDecodeBudget() throws Exception {
+        long budget = 16L * 1024 * 1024;
+
+        // 12 MP, a full decode allocates around 70 MB
+        BufferedImage large = new BufferedImage(4000, 3000, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics2d = large.createGraphics();
+        graphics2d.setPaint(new GradientPaint(0, 0, Color.RED, 4000, 3000, Color.BLUE));
+        graphics2d.fillRect(0, 0, 4000, 3000);
+        graphics2d.dispose();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(large, "jpg", outputStream);
+        byte[] content = outputStream.toByteArray();
+        large = null;
+
+        when(storageService.storeProcessedImage(anyString(), eq(CAMPUS_ID), any(BufferedImage.class)))
+                .thenReturn(true);
+
+        Object maxDecodeBytes = ReflectionTestUtils.getField(classUnderTest, "maxDecodeBytes");
+        ReflectionTestUtils.setField(classUnderTest, "maxDecodeBytes", budget);
+
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocated;
+
+        try {
+            long before = threadMXBean.getThreadAllocatedBytes(threadId);
+            classUnderTest.process(new ByteArrayInputStream(content), CAMPUS_ID, "large-0123456789.jpg");
+            allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+        } finally {
+            ReflectionTestUtils.setField(classUnderTest, "maxDecodeBytes", maxDecodeBytes);
+        }
+
+        ArgumentCaptor<BufferedImage> captor = ArgumentCaptor.forClass(BufferedImage.class);
+        verify(storageService).storeProcessedImage(eq("large-0123456789_processed.png"), eq(CAMPUS_ID),
+                captor.capture());
+
+        BufferedImage output = captor.getValue();
+        assertEquals(output.getWidth(), output.getHeight());
+        assertTrue((long) output.getWidth() * output.getHeight() * 8 <= budget);
+        assertTrue(allocated < budget, String.format("Allocated %d bytes", allocated));
+    }
+}
@@ -0,0 +1,165 @@
+package sweng.penelope.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.sun.management.ThreadMXBean;
+
+@SpringBootTest
+@ActiveProfiles("test")
+public class ImageVariantServiceTest {
+    private static final String CAMPUS_ID = "1";
+    private static final String FILE_NAME = "duck-0123456789.png";
+
+    private final DefaultResourceLoader defaultResourceLoader = new DefaultResourceLoader();
+
+    @Autowired
+    private ImageVariantService classUnderTest;
+    @Autowired
+    private ImageProcessingService imageProcessingService;
+
+    @MockBean
+    private StorageService storageService;
+
+    @Test
+    public void namesVariants() {
+        assertEquals("duck-0123456789_w480.png", ImageVariantService.variantName(FILE_NAME, 480));
+        assertEquals(FILE_NAME, ImageVariantService.originalName("duck-0123456789_w480.png"));
+        assertNull(ImageVariantService.originalName(FILE_NAME));
+    }
+
+    @Test
+    public void selectsSmallestFittingWidth() {
+        assertEquals(240, classUnderTest.selectWidth(100));
+        assertEquals(480, classUnderTest.selectWidth(480));
+        assertEquals(960, classUnderTest.selectWidth(481));
+        // Larger than every variant, serve the original
+        assertEquals(0, classUnderTest.selectWidth(4000));
+    }
+
+    @Test
+    public void servesExistingVariant() {
+        Resource variant = defaultResourceLoader.getResource("classpath:duckTest.png");
+        when(storageService.loadAsResource("image", CAMPUS_ID, "duck-0123456789_w240.png")).thenReturn(variant);
+
+        assertEquals(variant, classUnderTest.loadVariant(CAMPUS_ID, FILE_NAME, 200));
+        verify(storageService, never()).storeImage(anyString(), anyString(), any(BufferedImage.class),
+                anyString());
+    }
+
+    @Test
+    public void createsMissingVariant() {
+        // Test image is 887 pixels wide
+        Resource original = defaultResourceLoader.getResource("classpath:duckTest.png");
+
+        when(storageService.loadAsResource("image", CAMPUS_ID, FILE_NAME)).thenReturn(original);
+        when(storageService.storeImage(anyString(), eq(CAMPUS_ID), any(BufferedImage.class), eq("png")))
+                .thenReturn(true);
+
+        classUnderTest.loadVariant(CAMPUS_ID, FILE_NAME, 480);
+
+        ArgumentCaptor<BufferedImage> captor = ArgumentCaptor.forClass(BufferedImage.class);
+        verify(storageService).storeImage(eq("duck-0123456789_w480.png"), eq(CAMPUS_ID), captor.capture(),
+                eq("png"));
+        assertEquals(480, captor.getValue().getWidth());
+    }
+
+    @Test
+    public void servesOriginalWhenNarrower() {
+        Resource original = defaultResourceLoader.getResource("classpath:duckTest.png");
+
+        when(storageService.loadAsResource("image", CAMPUS_ID, FILE_NAME)).thenReturn(original);
+
+        // 960 is wider than the original, no variant is made
+        assertEquals(original, classUnderTest.loadVariant(CAMPUS_ID, FILE_NAME, 900));
+        verify(storageService, never()).storeImage(anyString(), anyString(), any(BufferedImage.class),
+                anyString());
+    }
+
+    @Test
+    public void variantStaysWithinDecodeBudget() throws Exception {
+        long budget = 16L * 1024 * 1024;
+
+        // 12 MP, a full decode allocates around 36 MB
+        BufferedImage large = new BufferedImage(4000, 3000, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics2d = large.createGraphics();
+        graphics2d.setPaint(new GradientPaint(0, 0, Color.RED, 4000, 3000, Color.BLUE));
+        graphics2d.fillRect(0, 0, 4000, 3000);
+        graphics2d.dispose();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(large, "jpg", outputStream);
+        Resource original = new ByteArrayResource(outputStream.toByteArray());
+        large = null;
+
+        when(storageService.loadAsResource("image", CAMPUS_ID, "large-0123456789.jpg")).thenReturn(original);
+        when(storageService.storeImage(anyString(), eq(CAMPUS_ID), any(BufferedImage.class), eq("jpg")))
+                .thenReturn(true);
+
+        Object maxDecodeBytes = ReflectionTestUtils.getField(imageProcessingService, "maxDecodeBytes");
+        ReflectionTestUtils.setField(imageProcessingService, "maxDecodeBytes", budget);
+
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocated;
+
+        try {
+            long before = threadMXBean.getThreadAllocatedBytes(threadId);
+            classUnderTest.loadVariant(CAMPUS_ID, "large-0123456789.jpg", 480);
+            allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+        } finally {
+            ReflectionTestUtils.setField(imageProcessingService, "maxDecodeBytes", maxDecodeBytes);
+        }
+
+        ArgumentCaptor<BufferedImage> captor = ArgumentCaptor.forClass(BufferedImage.class);
+        verify(storageService).storeImage(eq("large-0123456789_w480.jpg"), eq(CAMPUS_ID), captor.capture(),
+                eq("jpg"));
+
+        assertEquals(480, captor.getValue().getWidth());
+        assertTrue(allocated < budget, String.format("Allocated %d bytes", allocated));
+    }
+
+    @Test
+    public void removesVariantsOfOriginal() {
+        when(storageService.listAssets("image", CAMPUS_ID)).thenReturn(List.of(
+                new StoredAsset("image/1/duck-0123456789_w240.png", 10, 1L),
+                new StoredAsset("image/1/duck-0123456789_w480.png", 20, 1L),
+                new StoredAsset("image/1/goose-0123456789_w240.png", 10, 1L),
+                new StoredAsset("image/1/" + FILE_NAME, 40, 1L)));
+
+        classUnderTest.removeVariants("image/1/" + FILE_NAME);
+
+        verify(storageService).remove("image/1/duck-0123456789_w240.png");
+        verify(storageService).remove("image/1/duck-0123456789_w480.png");
+        verify(storageService, never()).remove("image/1/goose-0123456789_w240.png");
+        verify(storageService, never()).remove("image/1/" + FILE_NAME);
+    }
+}
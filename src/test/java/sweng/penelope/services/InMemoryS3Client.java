@@ -0,0 +1,265 @@
+package sweng.penelope.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
+import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
+import software.amazon.awssdk.services.s3.model.CreateBucketResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+import software.amazon.awssdk.services.s3.model.HeadBucketResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+/**
+ * Single bucket, in-memory {@link S3Client} covering the operations used by
+ * {@link S3StorageService}. Listings are returned in pages of two to exercise
+ * continuation.
+ */
+public class InMemoryS3Client implements S3Client {
+    private static final int PAGE_SIZE = 2;
+
+    private boolean bucketExists;
+    private final Map<String, byte[]> objects = new ConcurrentSkipListMap<>();
+    private final Map<String, Instant> lastModified = new ConcurrentHashMap<>();
+    private final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    private final Set<String> abortedUploads = ConcurrentHashMap.newKeySet();
+    private final List<String> requestedRanges = new ArrayList<>();
+    private final AtomicInteger uploadedParts = new AtomicInteger();
+
+    // Part number failing every upload, 0 for none
+    private int failingPart;
+
+    public boolean bucketExists() {
+        return bucketExists;
+    }
+
+    public byte[] getContent(String key) {
+        return objects.get(key);
+    }
+
+    public void putContent(String key, byte[] content) {
+        objects.put(key, content);
+        lastModified.put(key, Instant.now());
+    }
+
+    public int getUploadedParts() {
+        return uploadedParts.get();
+    }
+
+    public Set<String> getAbortedUploads() {
+        return abortedUploads;
+    }
+
+    public List<String> getRequestedRanges() {
+        return requestedRanges;
+    }
+
+    public void setFailingPart(int failingPart) {
+        this.failingPart = failingPart;
+    }
+
+    private static byte[] read(RequestBody requestBody) {
+        try (InputStream inputStream = requestBody.contentStreamProvider().newStream()) {
+            return inputStream.readAllBytes();
+        } catch (IOException ioException) {
+            throw new UncheckedIOException(ioException);
+        }
+    }
+
+    private byte[] existing(String key) {
+        byte[] content = objects.get(key);
+        if (content == null)
+            throw NoSuchKeyException.builder().message(key).build();
+        return content;
+    }
+
+    @Override
+    public HeadBucketResponse headBucket(HeadBucketRequest headBucketRequest) {
+        if (!bucketExists)
+            throw NoSuchBucketException.builder().message(headBucketRequest.bucket()).build();
+        return HeadBucketResponse.builder().build();
+    }
+
+    @Override
+    public CreateBucketResponse createBucket(CreateBucketRequest createBucketRequest) {
+        bucketExists = true;
+        return CreateBucketResponse.builder().build();
+    }
+
+    @Override
+    public PutObjectResponse putObject(PutObjectRequest putObjectRequest, RequestBody requestBody) {
+        putContent(putObjectRequest.key(), read(requestBody));
+        return PutObjectResponse.builder().build();
+    }
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest headObjectRequest) {
+        byte[] content = existing(headObjectRequest.key());
+        return HeadObjectResponse.builder().contentLength((long) content.length)
+                .lastModified(lastModified.get(headObjectRequest.key())).build();
+    }
+
+    @Override
+    public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest getObjectRequest) {
+        byte[] content = existing(getObjectRequest.key());
+        int start = 0;
+
+        if (getObjectRequest.range() != null) {
+            synchronized (requestedRanges) {
+                requestedRanges.add(getObjectRequest.range());
+            }
+            start = Integer.parseInt(getObjectRequest.range().replaceAll("bytes=(\\d+)-", "$1"));
+        }
+
+        byte[] body = Arrays.copyOfRange(content, start, content.length);
+        return new ResponseInputStream<>(GetObjectResponse.builder().contentLength((long) body.length).build(),
+                AbortableInputStream.create(new ByteArrayInputStream(body)));
+    }
+
+    @Override
+    public DeleteObjectResponse deleteObject(DeleteObjectRequest deleteObjectRequest) {
+        objects.remove(deleteObjectRequest.key());
+        lastModified.remove(deleteObjectRequest.key());
+        return DeleteObjectResponse.builder().build();
+    }
+
+    @Override
+    public CopyObjectResponse copyObject(CopyObjectRequest copyObjectRequest) {
+        putContent(copyObjectRequest.destinationKey(), existing(copyObjectRequest.sourceKey()));
+        return CopyObjectResponse.builder().build();
+    }
+
+    @Override
+    public ListObjectsV2Response listObjectsV2(ListObjectsV2Request listObjectsV2Request) {
+        String prefix = listObjectsV2Request.prefix() != null ? listObjectsV2Request.prefix() : "";
+        String delimiter = listObjectsV2Request.delimiter();
+
+        // Objects and common prefixes, in key order
+        TreeMap<String, S3Object> entries = new TreeMap<>();
+        Set<String> commonPrefixes = new TreeSet<>();
+        for (String key : objects.keySet()) {
+            if (!key.startsWith(prefix))
+                continue;
+
+            int delimiterIndex = delimiter != null ? key.indexOf(delimiter, prefix.length()) : -1;
+            if (delimiterIndex >= 0) {
+                String commonPrefix = key.substring(0, delimiterIndex + 1);
+                if (commonPrefixes.add(commonPrefix))
+                    entries.put(commonPrefix, null);
+            } else {
+                entries.put(key, S3Object.builder().key(key).size((long) objects.get(key).length)
+                        .lastModified(lastModified.get(key)).build());
+            }
+        }
+
+        List<String> keys = new ArrayList<>(entries.keySet());
+        int start = listObjectsV2Request.continuationToken() != null
+                ? Integer.parseInt(listObjectsV2Request.continuationToken())
+                : 0;
+        int end = Math.min(keys.size(), start + PAGE_SIZE);
+
+        List<S3Object> contents = new ArrayList<>();
+        List<CommonPrefix> prefixes = new ArrayList<>();
+        for (String key : keys.subList(start, end)) {
+            if (entries.get(key) != null)
+                contents.add(entries.get(key));
+            else
+                prefixes.add(CommonPrefix.builder().prefix(key).build());
+        }
+
+        return ListObjectsV2Response.builder().contents(contents).commonPrefixes(prefixes)
+                .isTruncated(end < keys.size())
+                .nextContinuationToken(end < keys.size() ? String.valueOf(end) : null).build();
+    }
+
+    @Override
+    public CreateMultipartUploadResponse createMultipartUpload(
+            CreateMultipartUploadRequest createMultipartUploadRequest) {
+        String uploadId = UUID.randomUUID().toString();
+        uploads.put(uploadId, new ConcurrentSkipListMap<>());
+        return CreateMultipartUploadResponse.builder().uploadId(uploadId).build();
+    }
+
+    @Override
+    public UploadPartResponse uploadPart(UploadPartRequest uploadPartRequest, RequestBody requestBody) {
+        if (uploadPartRequest.partNumber() == failingPart)
+            throw S3Exception.builder().message("Part failed").statusCode(500).build();
+
+        uploads.get(uploadPartRequest.uploadId()).put(uploadPartRequest.partNumber(), read(requestBody));
+        uploadedParts.incrementAndGet();
+        return UploadPartResponse.builder().eTag("etag-" + uploadPartRequest.partNumber()).build();
+    }
+
+    @Override
+    public CompleteMultipartUploadResponse completeMultipartUpload(
+            CompleteMultipartUploadRequest completeMultipartUploadRequest) {
+        Map<Integer, byte[]> parts = uploads.get(completeMultipartUploadRequest.uploadId());
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        for (CompletedPart part : completeMultipartUploadRequest.multipartUpload().parts())
+            content.writeBytes(parts.get(part.partNumber()));
+
+        putContent(completeMultipartUploadRequest.key(), content.toByteArray());
+        return CompleteMultipartUploadResponse.builder().build();
+    }
+
+    @Override
+    public AbortMultipartUploadResponse abortMultipartUpload(
+            AbortMultipartUploadRequest abortMultipartUploadRequest) {
+        uploads.remove(abortMultipartUploadRequest.uploadId());
+        abortedUploads.add(abortMultipartUploadRequest.uploadId());
+        return AbortMultipartUploadResponse.builder().build();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
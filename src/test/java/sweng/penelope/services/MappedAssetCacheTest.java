@@ -0,0 +1,177 @@
+package sweng.penelope.services;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.Resource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class MappedAssetCacheTest {
+    private Path directory;
+    private MappedAssetCache classUnderTest;
+
+    private Path write(String fileName, int size) throws IOException {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++)
+            content[i] = (byte) i;
+
+        return Files.write(directory.resolve(fileName), content);
+    }
+
+    private Resource map(Path path) throws IOException {
+        return classUnderTest.map(url(path), path, classUnderTest.generation());
+    }
+
+    private static String url(Path path) {
+        return "image/1/" + path.getFileName();
+    }
+
+    private static byte[] read(Resource resource) throws IOException {
+        try (InputStream inputStream = resource.getInputStream()) {
+            return inputStream.readAllBytes();
+        }
+    }
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("penelope-mapped");
+        classUnderTest = new MappedAssetCache();
+
+        ReflectionTestUtils.setField(classUnderTest, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(classUnderTest, "maxFileSize", 1000L);
+        ReflectionTestUtils.setField(classUnderTest, "maxBytes", 2500L);
+        ReflectionTestUtils.setField(classUnderTest, "maxMappings", 3);
+        ReflectionTestUtils.invokeMethod(classUnderTest, "registerMetrics");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        classUnderTest.clear();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void mapsSmallFilesOnly() throws IOException {
+        Path small = write("small.png", 1000);
+        Path large = write("large.mp4", 1001);
+
+        assertNotNull(map(small));
+        assertNull(map(large));
+        assertNull(map(directory.resolve("missing.png")));
+    }
+
+    @Test
+    public void servesWithoutOpeningTheFile() throws IOException {
+        Path small = write("small.png", 500);
+        byte[] content = Files.readAllBytes(small);
+        map(small);
+
+        // The mapping outlives the directory entry
+        Files.delete(small);
+
+        Resource resource = classUnderTest.get(url(small));
+        assertEquals(500, resource.contentLength());
+        assertArrayEquals(content, read(resource));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        Path first = write("first.png", 1000);
+        Path second = write("second.png", 1000);
+        Path third = write("third.png", 1000);
+
+        map(first);
+        map(second);
+        classUnderTest.get(url(first));
+
+        // Over the byte limit, second is the least recently used
+        map(third);
+
+        assertNotNull(classUnderTest.get(url(first)));
+        assertNull(classUnderTest.get(url(second)));
+        assertNotNull(classUnderTest.get(url(third)));
+    }
+
+    @Test
+    public void evictionWaitsForOpenStreams() throws IOException {
+        Path small = write("small.png", 500);
+        byte[] content = Files.readAllBytes(small);
+        Resource resource = map(small);
+        MappedAsset mappedAsset = (MappedAsset) ReflectionTestUtils.getField(resource, "mappedAsset");
+
+        try (InputStream inputStream = resource.getInputStream()) {
+            classUnderTest.evict(small);
+
+            // Still readable while the stream is open
+            assertTrue(mappedAsset.isMapped());
+            assertArrayEquals(content, inputStream.readAllBytes());
+        }
+
+        assertFalse(mappedAsset.isMapped());
+        assertNull(classUnderTest.get(url(small)));
+
+        // Streams opened after the eviction read the file
+        assertArrayEquals(content, read(resource));
+    }
+
+    @Test
+    public void evictedMappingsCountUntilCollected() throws IOException {
+        List<InputStream> inputStreams = new ArrayList<>();
+
+        try {
+            // Open streams keep evicted mappings from being collected
+            for (int i = 0; i < 5; i++) {
+                Resource resource = map(write("file" + i + ".png", 1000));
+                inputStreams.add(resource.getInputStream());
+            }
+
+            // Twice max-bytes is mapped, two files cached and three evicted
+            assertNull(map(write("file5.png", 1000)));
+            assertNull(classUnderTest.get("image/1/file5.png"));
+        } finally {
+            for (InputStream inputStream : inputStreams)
+                inputStream.close();
+        }
+    }
+
+    @Test
+    public void evictsEveryUrlOfAFile() throws IOException {
+        Path shared = write("shared.png", 500);
+        classUnderTest.map("image/1/first.png", shared, classUnderTest.generation());
+        classUnderTest.map("image/1/second.png", shared, classUnderTest.generation());
+
+        classUnderTest.evict(shared);
+
+        assertNull(classUnderTest.get("image/1/first.png"));
+        assertNull(classUnderTest.get("image/1/second.png"));
+    }
+
+    @Test
+    public void dropsMappingsResolvedBeforeAnEviction() throws IOException {
+        Path small = write("small.png", 500);
+        long generation = classUnderTest.generation();
+
+        // The url was stored again after it was resolved
+        classUnderTest.evict(url(small));
+
+        assertNull(classUnderTest.map(url(small), small, generation));
+        assertNull(classUnderTest.get(url(small)));
+    }
+}
@@ -0,0 +1,67 @@
+package sweng.penelope.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import sweng.penelope.entities.ChangeRecord;
+
+public class NameTrieTest {
+    private static NameEntry bird(long id, String name) {
+        return new NameEntry(ChangeRecord.BIRD, id, 1L, name);
+    }
+
+    private static List<String> names(List<NameEntry> entries) {
+        return entries.stream().map(NameEntry::getName).collect(Collectors.toList());
+    }
+
+    @Test
+    public void completesAnyWordCaseInsensitively() {
+        NameTrie nameTrie = NameTrie.build(List.of(bird(1, "Grey Heron"), bird(2, "Mute Swan"), bird(3, "Mallard")),
+                10);
+
+        assertEquals(List.of("Grey Heron"), names(nameTrie.complete("gr", 10)));
+        assertEquals(List.of("Grey Heron"), names(nameTrie.complete("HER", 10)));
+        assertEquals(List.of("Grey Heron"), names(nameTrie.complete("grey h", 10)));
+        assertEquals(List.of("Mallard", "Mute Swan"), names(nameTrie.complete("m", 10)));
+        assertTrue(nameTrie.complete("ow", 10).isEmpty());
+        assertTrue(nameTrie.complete("", 10).isEmpty());
+    }
+
+    @Test
+    public void ranksCampusesThenShorterNames() {
+        NameEntry campus = new NameEntry(ChangeRecord.CAMPUS, 7L, 7L, "Heslington West");
+        NameTrie nameTrie = NameTrie.build(List.of(bird(1, "Heron"), bird(2, "Herring Gull"), campus), 10);
+
+        assertEquals(List.of("Heslington West", "Heron", "Herring Gull"), names(nameTrie.complete("he", 10)));
+        assertEquals(List.of("Heslington West", "Heron"), names(nameTrie.complete("he", 2)));
+    }
+
+    @Test
+    public void listsNamesOnceWhenSeveralWordsMatch() {
+        NameTrie nameTrie = NameTrie.build(List.of(bird(1, "Duck duck")), 10);
+
+        assertEquals(1, nameTrie.complete("du", 10).size());
+    }
+
+    @Test
+    public void precomputedResultsMatchScannedResults() {
+        List<NameEntry> entries = new ArrayList<>();
+        for (long id = 0; id < 500; id++)
+            entries.add(bird(id, "Bird " + id));
+
+        // Every prefix node above 3 keys holds precomputed results
+        NameTrie small = NameTrie.build(entries, 3);
+        NameTrie large = NameTrie.build(entries, 1000);
+
+        for (String prefix : List.of("b", "bi", "bird", "bird 1", "1", "12", "49")) {
+            List<String> expected = names(large.complete(prefix, 1000));
+            assertEquals(expected.subList(0, Math.min(3, expected.size())), names(small.complete(prefix, 3)));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package sweng.penelope.services;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.Resource;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class S3StorageServiceTest {
+    private static final String CAMPUS_ID = "1";
+    private static final int PART_SIZE = 1024;
+
+    private InMemoryS3Client s3Client;
+    private S3StorageService classUnderTest;
+
+    private static byte[] randomContent(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    @BeforeEach
+    public void setUp() {
+        s3Client = new InMemoryS3Client();
+        classUnderTest = new S3StorageService();
+
+        ReflectionTestUtils.setField(classUnderTest, "s3Client", s3Client);
+        ReflectionTestUtils.setField(classUnderTest, "bucket", "penelope");
+        ReflectionTestUtils.setField(classUnderTest, "partSize", PART_SIZE);
+        ReflectionTestUtils.setField(classUnderTest, "uploadParallelism", 4);
+        ReflectionTestUtils.invokeMethod(classUnderTest, "startUploaders");
+
+        classUnderTest.init();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        ReflectionTestUtils.invokeMethod(classUnderTest, "stopUploaders");
+    }
+
+    @Test
+    public void initCreatesBucket() {
+        assertTrue(s3Client.bucketExists());
+    }
+
+    @Test
+    public void storesAndLoadsAsset() throws Exception {
+        byte[] content = randomContent(100);
+        MockMultipartFile file = new MockMultipartFile("file", "duck.mp3", "audio/mpeg", content);
+
+        assertTrue(classUnderTest.store("audio", CAMPUS_ID, file, "duck-0123456789.mp3"));
+
+        Resource resource = classUnderTest.loadAsResource("audio", CAMPUS_ID, "duck-0123456789.mp3");
+        assertEquals("duck-0123456789.mp3", resource.getFilename());
+        assertEquals(100, resource.contentLength());
+        try (InputStream inputStream = resource.getInputStream()) {
+            assertArrayEquals(content, inputStream.readAllBytes());
+        }
+
+        assertNull(classUnderTest.loadAsResource("audio", CAMPUS_ID, "missing.mp3"));
+    }
+
+    @Test
+    public void uploadsLargeFilesInParts() throws Exception {
+        byte[] content = randomContent(5 * PART_SIZE + 100);
+        Path source = Files.createTempFile("penelope", ".mp4");
+        Files.write(source, content);
+
+        assertTrue(classUnderTest.storeFile("video", CAMPUS_ID, source, "duck-0123456789.mp4"));
+
+        assertEquals(6, s3Client.getUploadedParts());
+        assertArrayEquals(content, s3Client.getContent("video/1/duck-0123456789.mp4"));
+        // Stored files are moved
+        assertFalse(Files.exists(source));
+    }
+
+    @Test
+    public void failedMultipartUploadIsAborted() {
+        s3Client.setFailingPart(2);
+        MockMultipartFile file = new MockMultipartFile("file", randomContent(3 * PART_SIZE));
+
+        assertFalse(classUnderTest.store("video", CAMPUS_ID, file, "duck-0123456789.mp4"));
+
+        assertEquals(1, s3Client.getAbortedUploads().size());
+        assertNull(s3Client.getContent("video/1/duck-0123456789.mp4"));
+    }
+
+    @Test
+    public void skipsWithRangedRequest() throws Exception {
+        byte[] content = randomContent(1000);
+        s3Client.putContent("video/1/duck-0123456789.mp4", content);
+
+        Resource resource = classUnderTest.loadAsResource("video", CAMPUS_ID, "duck-0123456789.mp4");
+        try (InputStream inputStream = resource.getInputStream()) {
+            assertEquals(600, inputStream.skip(600));
+            assertEquals(content[600] & 0xff, inputStream.read());
+        }
+
+        // Skipped bytes were never downloaded
+        assertEquals(List.of("bytes=600-"), s3Client.getRequestedRanges());
+    }
+
+    @Test
+    public void listsAcrossPages() {
+        for (String campusId : List.of("1", "2", "3"))
+            for (int i = 0; i < 3; i++)
+                s3Client.putContent(String.format("image/%s/duck-%d.png", campusId, i), new byte[10]);
+
+        assertEquals(List.of("1", "2", "3"), classUnderTest.listCampuses("image").stream().sorted()
+                .collect(Collectors.toList()));
+
+        List<StoredAsset> assets = classUnderTest.listAssets("image", "2");
+        assertEquals(3, assets.size());
+        assertTrue(assets.stream().allMatch(asset -> asset.getUrl().startsWith("image/2/") && asset.getSize() == 10));
+    }
+
+    @Test
+    public void removesAndQuarantines() {
+        s3Client.putContent("image/1/duck-0.png", new byte[10]);
+        s3Client.putContent("image/1/duck-1.png", new byte[10]);
+
+        assertTrue(classUnderTest.remove("image/1/duck-0.png"));
+        assertFalse(classUnderTest.remove("image/1/duck-0.png"));
+
+        assertTrue(classUnderTest.quarantine("image/1/duck-1.png"));
+        assertNull(s3Client.getContent("image/1/duck-1.png"));
+        assertEquals(10, s3Client.getContent(".quarantine/image/1/duck-1.png").length);
+    }
+}
@@ -0,0 +1,238 @@
+package sweng.penelope.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import sweng.penelope.entities.Bird;
+import sweng.penelope.entities.Campus;
+import sweng.penelope.entities.ChangeRecord;
+import sweng.penelope.repositories.BirdRepository;
+import sweng.penelope.repositories.CampusRepository;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@RecordApplicationEvents
+public class SyncServiceTest {
+    @Autowired
+    private SyncService classUnderTest;
+
+    @Autowired
+    private CampusRepository campusRepository;
+
+    @Autowired
+    private BirdRepository birdRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ApplicationEvents applicationEvents;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @MockBean
+    private StorageService storageService;
+
+    @AfterEach
+    public void cleanUp() {
+        campusRepository.deleteAll();
+    }
+
+    private long currentWatermark() {
+        return classUnderTest.getChanges(0, Integer.MAX_VALUE).getWatermark();
+    }
+
+    private Campus newCampus() {
+        Campus campus = new Campus();
+        campus.setName("Heslington");
+        campus.setAuthor("Penelope");
+        return campusRepository.save(campus);
+    }
+
+    private Bird newBird(Campus campus, String name) {
+        return birdRepository.save(new Bird(name, "image", "image", "audio", "About " + name, "video", "The lake",
+                "image", "Bread", "image", campus, "Penelope"));
+    }
+
+    private SyncChange findChange(SyncPage syncPage, String type, Long id) {
+        return syncPage.getChanges().stream()
+                .filter(change -> change.getType().equals(type) && change.getId().equals(id))
+                .findFirst()
+                .orElse(null);
+    }
+
+    @Test
+    public void listsCreationsWithHashes() {
+        long watermark = currentWatermark();
+        Campus campus = newCampus();
+        Bird bird = newBird(campus, "Boris");
+
+        SyncPage syncPage = classUnderTest.getChanges(watermark, 100);
+
+        assertFalse(syncPage.isMore());
+        assertTrue(syncPage.getWatermark() > watermark);
+
+        SyncChange campusChange = findChange(syncPage, ChangeRecord.CAMPUS, campus.getId());
+        SyncChange birdChange = findChange(syncPage, ChangeRecord.BIRD, bird.getId());
+        assertEquals(ChangeRecord.CREATED, campusChange.getAction());
+        assertEquals(ChangeRecord.CREATED, birdChange.getAction());
+        assertEquals(campus.getId(), birdChange.getCampusId());
+        assertEquals(SyncService.contentHash(bird), birdChange.getHash());
+
+        // Nothing new after the returned watermark
+        assertTrue(classUnderTest.getChanges(syncPage.getWatermark(), 100).getChanges().isEmpty());
+    }
+
+    @Test
+    public void listsUpdatesAndTombstones() {
+        Campus campus = newCampus();
+        Bird boris = newBird(campus, "Boris");
+        Bird doris = newBird(campus, "Doris");
+        String borisHash = SyncService.contentHash(boris);
+        long watermark = currentWatermark();
+
+        boris.setDiet("Seeds");
+        birdRepository.save(boris);
+        birdRepository.deleteById(doris.getId());
+
+        SyncPage syncPage = classUnderTest.getChanges(watermark, 100);
+
+        SyncChange updated = findChange(syncPage, ChangeRecord.BIRD, boris.getId());
+        assertEquals(ChangeRecord.UPDATED, updated.getAction());
+        assertNotNull(updated.getHash());
+        assertNotEquals(borisHash, updated.getHash());
+
+        SyncChange deleted = findChange(syncPage, ChangeRecord.BIRD, doris.getId());
+        assertEquals(ChangeRecord.DELETED, deleted.getAction());
+        assertNull(deleted.getHash());
+    }
+
+    @Test
+    public void leavesOutBirdsCreatedAndDeletedWithinPage() {
+        Campus campus = newCampus();
+        long watermark = currentWatermark();
+
+        Bird bird = newBird(campus, "Boris");
+        birdRepository.deleteById(bird.getId());
+
+        assertNull(findChange(classUnderTest.getChanges(watermark, 100), ChangeRecord.BIRD, bird.getId()));
+    }
+
+    @Test
+    public void pagesByWatermark() {
+        long watermark = currentWatermark();
+        Campus campus = newCampus();
+        newBird(campus, "Boris");
+        newBird(campus, "Doris");
+
+        SyncPage first = classUnderTest.getChanges(watermark, 2);
+        assertTrue(first.isMore());
+        assertEquals(2, first.getChanges().size());
+
+        SyncPage second = classUnderTest.getChanges(first.getWatermark(), 2);
+        assertFalse(second.isMore());
+        assertEquals(1, second.getChanges().size());
+    }
+
+    @Test
+    public void rolledBackChangesAreNotRecorded() {
+        long watermark = currentWatermark();
+
+        transactionTemplate.executeWithoutResult(status -> {
+            newCampus();
+            status.setRollbackOnly();
+        });
+
+        assertTrue(classUnderTest.getChanges(watermark, 100).getChanges().isEmpty());
+        assertEquals(0, applicationEvents.stream(CatalogueChangeEvent.class).count());
+    }
+
+    @Test
+    public void publishesCommittedChanges() {
+        Campus campus = newCampus();
+
+        List<CatalogueChangeEvent> events = applicationEvents.stream(CatalogueChangeEvent.class)
+                .collect(Collectors.toList());
+        assertEquals(1, events.size());
+
+        ChangeRecord change = events.get(0).getChanges().get(0);
+        assertEquals(campus.getId(), change.getEntityId());
+        assertEquals(ChangeRecord.CREATED, change.getAction());
+        assertNotNull(change.getId());
+    }
+
+    @Test
+    public void changesCommitInWatermarkOrder() throws Exception {
+        long watermark = currentWatermark();
+        CountDownLatch firstWritten = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        ExecutorService writers = Executors.newFixedThreadPool(2);
+
+        try {
+            // The first transaction writes its change records, then waits before committing
+            Future<Campus> first = writers.submit(() -> transactionTemplate.execute(status -> {
+                Campus campus = newCampus();
+                entityManager.unwrap(SessionImplementor.class).getActionQueue()
+                        .registerProcess((BeforeTransactionCompletionProcess) session -> {
+                            firstWritten.countDown();
+                            try {
+                                releaseFirst.await(5, TimeUnit.SECONDS);
+                            } catch (InterruptedException interruptedException) {
+                                Thread.currentThread().interrupt();
+                            }
+                        });
+                return campus;
+            }));
+            assertTrue(firstWritten.await(5, TimeUnit.SECONDS));
+
+            // The second cannot commit a later id meanwhile
+            Future<Campus> second = writers.submit(this::newCampus);
+            assertThrows(TimeoutException.class, () -> second.get(300, TimeUnit.MILLISECONDS));
+
+            // A client syncing now must not move past the first transaction
+            SyncPage during = classUnderTest.getChanges(watermark, 100);
+
+            releaseFirst.countDown();
+            Campus firstCampus = first.get(5, TimeUnit.SECONDS);
+            Campus secondCampus = second.get(5, TimeUnit.SECONDS);
+
+            SyncPage after = classUnderTest.getChanges(during.getWatermark(), 100);
+            for (Campus campus : List.of(firstCampus, secondCampus)) {
+                assertTrue(findChange(during, ChangeRecord.CAMPUS, campus.getId()) != null
+                        || findChange(after, ChangeRecord.CAMPUS, campus.getId()) != null);
+            }
+        } finally {
+            releaseFirst.countDown();
+            writers.shutdown();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package sweng.penelope.services;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class TieredStorageServiceTest {
+    private static final String CAMPUS_ID = "1";
+
+    private AbstractStorageService backingStore;
+    private MeterRegistry meterRegistry;
+    private TieredStorageService classUnderTest;
+
+    private static byte[] content(int size, int value) {
+        byte[] content = new byte[size];
+        Arrays.fill(content, (byte) value);
+        return content;
+    }
+
+    private static byte[] read(Resource resource) throws Exception {
+        try (InputStream inputStream = resource.getInputStream()) {
+            return inputStream.readAllBytes();
+        }
+    }
+
+    private void readTimes(String fileName, int times) throws Exception {
+        for (int i = 0; i < times; i++)
+            read(classUnderTest.loadAsResource("image", CAMPUS_ID, fileName));
+    }
+
+    private double hitRatio(String tier) {
+        return meterRegistry.get("penelope.storage.tier.hit-ratio").tag("tier", tier).gauge().value();
+    }
+
+    @BeforeEach
+    public void setUp() {
+        backingStore = mock(AbstractStorageService.class);
+        meterRegistry = new SimpleMeterRegistry();
+        classUnderTest = new TieredStorageService();
+
+        ReflectionTestUtils.setField(classUnderTest, "backingStore", backingStore);
+        ReflectionTestUtils.setField(classUnderTest, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(classUnderTest, "capacity", 150L);
+        ReflectionTestUtils.setField(classUnderTest, "maxEntrySize", 120L);
+        ReflectionTestUtils.setField(classUnderTest, "promoteAfter", 3);
+        ReflectionTestUtils.invokeMethod(classUnderTest, "registerMetrics");
+
+        when(backingStore.loadAsResource("image", CAMPUS_ID, "hero.png"))
+                .thenReturn(new ByteArrayResource(content(100, 1)));
+        when(backingStore.loadAsResource("image", CAMPUS_ID, "list.png"))
+                .thenReturn(new ByteArrayResource(content(100, 2)));
+    }
+
+    @Test
+    public void promotesFrequentlyReadAssets() throws Exception {
+        readTimes("hero.png", 3);
+
+        Resource resource = classUnderTest.loadAsResource("image", CAMPUS_ID, "hero.png");
+
+        assertTrue(resource instanceof HotAssetResource);
+        assertArrayEquals(content(100, 1), read(resource));
+        verify(backingStore, times(3)).loadAsResource("image", CAMPUS_ID, "hero.png");
+
+        assertEquals(0.25, hitRatio("hot"));
+        assertEquals(0.75, hitRatio("cold"));
+    }
+
+    @Test
+    public void writesInvalidateHotAssets() throws Exception {
+        readTimes("hero.png", 3);
+
+        classUnderTest.store("image", CAMPUS_ID, new MockMultipartFile("file", content(10, 3)), "hero.png");
+        classUnderTest.loadAsResource("image", CAMPUS_ID, "hero.png");
+
+        verify(backingStore, times(4)).loadAsResource("image", CAMPUS_ID, "hero.png");
+    }
+
+    @Test
+    public void promotionsDuringWritesAreDropped() throws Exception {
+        AtomicReference<Resource> stored = new AtomicReference<>(new ByteArrayResource(content(100, 1)));
+        when(backingStore.loadAsResource("image", CAMPUS_ID, "hero.png")).thenAnswer(invocation -> stored.get());
+        when(backingStore.store(eq("image"), eq(CAMPUS_ID), any(), eq("hero.png"))).thenAnswer(invocation -> {
+            // Promoted while the previous content is still stored
+            readTimes("hero.png", 3);
+            stored.set(new ByteArrayResource(content(10, 3)));
+            return true;
+        });
+
+        classUnderTest.store("image", CAMPUS_ID, new MockMultipartFile("file", content(10, 3)), "hero.png");
+
+        assertArrayEquals(content(10, 3), read(classUnderTest.loadAsResource("image", CAMPUS_ID, "hero.png")));
+    }
+
+    @Test
+    public void colderAssetsAreDemoted() throws Exception {
+        readTimes("hero.png", 5);
+
+        // Read less often than the hot asset, not admitted
+        readTimes("list.png", 4);
+        assertFalse(classUnderTest.loadAsResource("image", CAMPUS_ID, "list.png") instanceof HotAssetResource);
+
+        // Now read more often, takes its place
+        readTimes("list.png", 2);
+        assertTrue(classUnderTest.loadAsResource("image", CAMPUS_ID, "list.png") instanceof HotAssetResource);
+        assertFalse(classUnderTest.loadAsResource("image", CAMPUS_ID, "hero.png") instanceof HotAssetResource);
+    }
+
+    @Test
+    public void decayForgetsPastPopularity() throws Exception {
+        readTimes("hero.png", 2);
+        classUnderTest.decayFrequencies();
+        readTimes("hero.png", 1);
+
+        // 2 reads halved to 1, plus 1
+        assertFalse(classUnderTest.loadAsResource("image", CAMPUS_ID, "hero.png") instanceof HotAssetResource);
+    }
+
+    @Test
+    public void missingAssetsAreNotCounted() {
+        for (int i = 0; i < 10; i++)
+            assertNull(classUnderTest.loadAsResource("image", CAMPUS_ID, "missing-" + i + ".png"));
+
+        assertTrue(((Map<?, ?>) ReflectionTestUtils.getField(classUnderTest, "frequencies")).isEmpty());
+    }
+}